@@ -5,10 +5,12 @@
 package com.bbn.openmap.maptileservlet;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory;
@@ -28,6 +30,8 @@ import com.bbn.openmap.util.PropUtils;
  * # default, don't really need to specify the class property
  * #class=com.bbn.openmap.maptileservlet.StandardMapTileSet
  * rootDir=the path to the root of the tile directory, the parent of the z-level directory.
+ * # optional, bytes of the most requested tiles to keep in memory, 32 MB by default, 0 for none
+ * tileCacheBytes=33554432
  * </pre>
  * 
  * As an example, a url for accessing a tile from this server would be:
@@ -45,9 +49,17 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
 
     public final static String NAME_ATTRIBUTE = "name";
     public final static String DESCRIPTION_ATTRIBUTE = "description";
+    public final static String TILE_CACHE_BYTES_ATTRIBUTE = "tileCacheBytes";
+
+    public final static long DEFAULT_TILE_CACHE_BYTES = 32L * 1024 * 1024;
 
     protected String name;
     protected String description = null;
+    /**
+     * Holds the image data of the most requested tiles, null if tile data
+     * isn't cached.
+     */
+    protected TileDataCache tileDataCache = new TileDataCache(DEFAULT_TILE_CACHE_BYTES);
 
     // To allow the component factory to create it.
     public StandardMapTileSet() {
@@ -63,6 +75,10 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
 
         name = props.getProperty(prefix + NAME_ATTRIBUTE, name);
         description = props.getProperty(prefix + DESCRIPTION_ATTRIBUTE, description);
+
+        long tileCacheBytes = PropUtils.longFromProperties(props, prefix
+                + TILE_CACHE_BYTES_ATTRIBUTE, getTileCacheBytes());
+        tileDataCache = tileCacheBytes > 0 ? new TileDataCache(tileCacheBytes) : null;
     }
 
     public Properties getProperties(Properties props) {
@@ -70,11 +86,19 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + NAME_ATTRIBUTE, PropUtils.unnull(name));
         props.put(prefix + DESCRIPTION_ATTRIBUTE, PropUtils.unnull(description));
+        props.put(prefix + TILE_CACHE_BYTES_ATTRIBUTE, Long.toString(getTileCacheBytes()));
         return props;
     }
 
+    /**
+     * @return the most bytes of tile data held in memory, 0 if tile data isn't
+     *         cached.
+     */
+    public long getTileCacheBytes() {
+        return tileDataCache != null ? tileDataCache.getMaxWeight() : 0;
+    }
+
     public byte[] getImageData(String pathInfo) throws IOException, FormatException {
-        byte[] imageData = null;
 
         // We're assuming that all queries are coming in with the name in front,
         // along with a slash
@@ -83,16 +107,39 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
             pathInfo = pathInfo.substring(index + name.length());
         }
 
-        String filePath = rootDir + pathInfo;
+        final String tilePath = pathInfo;
+        if (tileDataCache == null) {
+            return fetchImageData(tilePath);
+        }
+
+        return tileDataCache.get(tilePath, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return fetchImageData(tilePath);
+            }
+        });
+    }
+
+    /**
+     * Read the image data for a tile that isn't in the tile data cache. If the
+     * tile file doesn't exist and there's an EmptyTileHandler, the handler
+     * creates the tile and it's written to the tile directory.
+     * 
+     * @param tilePath the path of the tile under the tile set, in z/x/y format.
+     * @return byte[] for the image data, null if not found.
+     * @throws IOException
+     * @throws FormatException
+     */
+    protected byte[] fetchImageData(String tilePath) throws IOException, FormatException {
+        byte[] imageData = null;
+
+        String filePath = rootDir + tilePath;
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("looking for " + filePath);
         }
 
         try {
 
-            BinaryBufferedFile file = new BinaryBufferedFile(filePath);
-            imageData = file.readBytes(100000, true);
-            file.close();
+            imageData = readTileFile(filePath);
 
         } catch (IOException ioe) {
             logger.fine("Problem fetching the file");
@@ -101,7 +148,7 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine("Creating " + filePath + " since it wasn't found from the server.");
                 }
-                
+
                 TileInfo ti = new TileInfo(filePath);// FPBT: used to be
                                                      // pathInfo
                 ti.setMtcTransform(getMtcTransform());
@@ -110,13 +157,7 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
                 if (bufferedImage != null) {
                     imageData = new PNGImageIOFormatter().formatImage(bufferedImage);
                     logger.fine("buffered image created, writing file to disk too");
-                    File newFile = new File(filePath);
-                    newFile.getParentFile().mkdirs();
-                    // Write the image data to the local cache location
-                    FileOutputStream fos = new FileOutputStream(newFile);
-                    fos.write(imageData);
-                    fos.flush();
-                    fos.close();
+                    writeTileFile(filePath, imageData);
                 } else {
                     logger.fine("null buffered image back from EmptyTileHandler");
                 }
@@ -128,6 +169,61 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
         return imageData;
     }
 
+    /**
+     * Read all of a tile file.
+     * 
+     * @param filePath the path to the file.
+     * @return the contents of the file.
+     * @throws IOException if the file can't be read.
+     */
+    protected byte[] readTileFile(String filePath) throws IOException {
+        BinaryBufferedFile file = new BinaryBufferedFile(filePath);
+        try {
+            long length = file.length();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+            byte[] buffer = new byte[8192];
+            int numRead;
+            while ((numRead = file.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, numRead);
+            }
+            return out.toByteArray();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Write a tile file to the tile directory. The data is written to a
+     * temporary file first, and then moved into place, so other requests never
+     * read a partly written tile.
+     * 
+     * @param filePath the path to the file.
+     * @param imageData the image data for the tile.
+     * @throws IOException
+     */
+    protected void writeTileFile(String filePath, byte[] imageData) throws IOException {
+        File newFile = new File(filePath);
+        newFile.getParentFile().mkdirs();
+        File tmpFile = new File(newFile.getParentFile(), newFile.getName() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        // Write the image data to the local cache location
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            fos.write(imageData);
+            fos.flush();
+        } finally {
+            fos.close();
+        }
+
+        if (!tmpFile.renameTo(newFile)) {
+            newFile.delete();
+            if (!tmpFile.renameTo(newFile)) {
+                tmpFile.delete();
+                logger.fine("couldn't write " + filePath);
+            }
+        }
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,73 @@
+/*
+ * <copyright>
+ *  Copyright 2012 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.maptileservlet;
+
+import java.util.concurrent.Callable;
+
+import com.bbn.openmap.util.cacheHandler.CacheHandler;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * A cache of encoded tile images, held as byte arrays, for the tiles a
+ * MapTileSet serves most often. The cache is limited by the total number of
+ * bytes it holds. Several requests for the same tile that isn't cached only
+ * read it once, the others wait for it.
+ *
+ * @author dietrick
+ */
+public class TileDataCache extends CacheHandler {
+
+    /**
+     * The most tiles the cache will hold, regardless of their size.
+     */
+    public final static int MAX_TILES = 100000;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxBytes the most bytes of tile data to hold.
+     */
+    public TileDataCache(long maxBytes) {
+        super(MAX_TILES);
+        setMaxWeight(maxBytes);
+    }
+
+    /**
+     * Tiles are loaded through get(String, Callable).
+     */
+    public CacheObject load(Object key) {
+        return null;
+    }
+
+    /**
+     * Tiles are weighed by their size in bytes.
+     */
+    protected long weigh(CacheObject co) {
+        if (co.obj instanceof byte[]) {
+            return Math.max(1, ((byte[]) co.obj).length);
+        }
+        return 1;
+    }
+
+    /**
+     * Get the image data for a tile, reading it with the loader if it's not
+     * in the cache.
+     *
+     * @param key the path of the tile.
+     * @param loader reads the tile data, returns null if there isn't any.
+     * @return the tile data, or null if there isn't any or the loader had a
+     *         problem.
+     */
+    public byte[] get(final String key, final Callable<byte[]> loader) {
+        CacheObject co = get(key, new Callable<CacheObject>() {
+            public CacheObject call() throws Exception {
+                byte[] data = loader.call();
+                return data == null ? null : new CacheObject(key, data);
+            }
+        });
+        return co == null ? null : (byte[]) co.obj;
+    }
+}
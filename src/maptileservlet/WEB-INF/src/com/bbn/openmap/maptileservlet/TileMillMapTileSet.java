@@ -4,15 +4,13 @@ package com.bbn.openmap.maptileservlet;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.ImageIcon;
 
+import com.bbn.openmap.dataAccess.mapTile.MBTilesStore;
 import com.bbn.openmap.dataAccess.mapTile.TileMillMapTileFactory;
 import com.bbn.openmap.image.BufferedImageHelper;
 import com.bbn.openmap.image.PNGImageIOFormatter;
@@ -25,8 +23,18 @@ import com.bbn.openmap.util.PropUtils;
  * <pre>
  * name=the-name-of-dataset
  * class=com.bbn.openmap.maptileservlet.TileMillMapTileSet
- * rootDir=the path to the mbtiles file.
- *  * </pre>
+ * rootDir=the jdbc path to the mbtiles file, "jdbc:sqlite:path to file"
+ * # optional, number of connections to the mbtiles file, 4 by default
+ * poolSize=4
+ * # optional, bytes of the most requested tiles to keep in memory, 32 MB by default
+ * tileCacheBytes=33554432
+ * # optional, creates tiles missing from the mbtiles file, which are added to it
+ * emptyTileHandler=com.bbn.openmap.dataAccess.mapTile.SimpleEmptyTileHandler
+ * </pre>
+ * 
+ * The mbtiles file is read through an MBTilesStore, which keeps a pool of open
+ * connections. PNG tiles are sent as they are stored, other images are
+ * converted to PNG.
  * 
  * As an example, a url for accessing a tile from this server would be:
  * 
@@ -41,6 +49,11 @@ import com.bbn.openmap.util.PropUtils;
  */
 public class TileMillMapTileSet extends StandardMapTileSet {
 
+    public final static String POOL_SIZE_ATTRIBUTE = "poolSize";
+
+    protected int poolSize = MBTilesStore.DEFAULT_POOL_SIZE;
+    protected MBTilesStore tileStore;
+
     public TileMillMapTileSet() {
     }
 
@@ -52,13 +65,35 @@ public class TileMillMapTileSet extends StandardMapTileSet {
         props = super.getProperties(props);
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + CLASS_ATTRIBUTE, this.getClass().getName());
+        props.put(prefix + POOL_SIZE_ATTRIBUTE, Integer.toString(poolSize));
 
         return props;
     }
 
-    public byte[] getImageData(String pathInfo) throws IOException, FormatException {
+    public void setProperties(String prefix, Properties props) {
+        super.setProperties(prefix, props);
+        prefix = PropUtils.getScopedPropertyPrefix(prefix);
+
+        poolSize = PropUtils.intFromProperties(props, prefix + POOL_SIZE_ATTRIBUTE, poolSize);
+        synchronized (this) {
+            if (tileStore != null) {
+                tileStore.close();
+                tileStore = null;
+            }
+        }
+    }
+
+    /**
+     * @return the MBTilesStore for the mbtiles file, created if needed.
+     */
+    protected synchronized MBTilesStore getTileStore() {
+        if (tileStore == null) {
+            tileStore = new MBTilesStore(rootDir, poolSize);
+        }
+        return tileStore;
+    }
 
-        byte[] imageData = null;
+    protected byte[] fetchImageData(String tilePath) throws IOException, FormatException {
 
         try {
             Class.forName(TileMillMapTileFactory.DEFAULT_TEST_CLASS);
@@ -67,43 +102,52 @@ public class TileMillMapTileSet extends StandardMapTileSet {
             return null;
         }
 
-        try {
+        TileInfo ti = new TileInfo(tilePath);
+        if (!ti.valid) {
+            return null;
+        }
 
-            TileInfo ti = new TileInfo(pathInfo);
-
-            Connection conn = DriverManager.getConnection(rootDir);
-            Statement stat = conn.createStatement();
-
-            // "select zoom_level, tile_column, tile_row, tile_data from map, images where map.tile_id = images.tile_id";
-            StringBuilder statement = new StringBuilder("select tile_data from map, images where");
-            statement.append(" zoom_level = ").append(ti.zoomLevel);
-            statement.append(" and tile_column = ").append(ti.x);
-            statement.append(" and tile_row = ").append((int) (Math.pow(2, ti.zoomLevel)) - ti.y
-                    - 1);
-            statement.append(" and map.tile_id = images.tile_id;");
-
-            ResultSet rs = stat.executeQuery(statement.toString());
-            while (rs.next()) {
-                byte[] imageBytes = rs.getBytes("tile_data");
-                ImageIcon ii = new ImageIcon(imageBytes);
-                BufferedImage bi = BufferedImageHelper.getBufferedImage(ii.getImage(), 0, 0, -1, -1);
-
-                // TODO: Still have to incorporate properties or something to
-                // all
-                // specification of map image format.
-                imageData = new PNGImageIOFormatter().formatImage(bi);
+        MBTilesStore store = getTileStore();
+        byte[] imageData = store.getTileBytes(ti.x, ti.y, ti.zoomLevel);
+
+        if (imageData != null) {
+            if (!isPNG(imageData)) {
+                ImageIcon ii = new ImageIcon(imageData);
+                try {
+                    BufferedImage bi = BufferedImageHelper.getBufferedImage(ii.getImage(), 0, 0, -1, -1);
+                    imageData = new PNGImageIOFormatter().formatImage(bi);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        } else if (emptyTileHandler != null) {
+            ti.setMtcTransform(getMtcTransform());
+            BufferedImage bufferedImage = ti.getBufferedImage(emptyTileHandler);
+
+            if (bufferedImage != null) {
+                imageData = new PNGImageIOFormatter().formatImage(bufferedImage);
+                try {
+                    store.putTileBytes(ti.x, ti.y, ti.zoomLevel, imageData);
+                } catch (IOException ioe) {
+                    getLogger().fine("couldn't add tile to mbtiles file: " + ioe.getMessage());
+                }
+            } else if (getLogger().isLoggable(Level.FINE)) {
+                getLogger().fine("null buffered image back from EmptyTileHandler");
             }
-            rs.close();
-            conn.close();
-        } catch (Exception e) {
-            getLogger().warning("something went wrong fetching image from database: "
-                    + e.getMessage());
-            e.printStackTrace();
         }
 
         return imageData;
     }
 
+    /**
+     * @return true if the image data starts with the PNG signature.
+     */
+    protected boolean isPNG(byte[] imageData) {
+        return imageData.length > 4 && (imageData[0] & 0xff) == 0x89 && imageData[1] == 'P'
+                && imageData[2] == 'N' && imageData[3] == 'G';
+    }
+
     /**
      * Holder for this class's Logger. This allows for lazy initialization of
      * the logger.
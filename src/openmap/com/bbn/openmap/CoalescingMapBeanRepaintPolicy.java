@@ -0,0 +1,151 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Properties;
+
+import javax.swing.Timer;
+
+import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.PropUtils;
+
+/**
+ * A MapBeanRepaintPolicy that holds off on repainting the map after a
+ * projection change until all of the layers have asked for a repaint, so the
+ * map is painted once instead of once per layer. If some layers are taking too
+ * long, the map is painted anyway when the deadline passes, and again as the
+ * rest of them finish. Set on the MapBean by setConcurrentNotification, where
+ * the layers are told about projection changes at the same time and finish in
+ * any order, but it can be added to the MapHandler, too.
+ * <p>
+ *
+ * <pre>
+ * policy.deadline=500
+ * </pre>
+ */
+public class CoalescingMapBeanRepaintPolicy extends StandardMapBeanRepaintPolicy implements
+        Cloneable {
+
+    /** The property for the deadline, in milliseconds. */
+    public final static String DeadlineProperty = "deadline";
+    public final static int DEFAULT_DEADLINE = 500;
+
+    protected int deadline = DEFAULT_DEADLINE;
+
+    /** Paints the map when the deadline passes. */
+    protected Timer timer;
+
+    public CoalescingMapBeanRepaintPolicy() {
+        super();
+    }
+
+    public CoalescingMapBeanRepaintPolicy(MapBean mb) {
+        super(mb);
+    }
+
+    public int getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the longest time, in milliseconds, the map waits for layers before
+     * it's painted.
+     */
+    public void setDeadline(int deadline) {
+        this.deadline = deadline;
+        if (timer != null) {
+            timer.setInitialDelay(deadline);
+        }
+    }
+
+    /**
+     * Forwards the request if all of the layers are ready to paint, or starts
+     * the deadline if it isn't going.
+     */
+    public void repaint(Layer layer) {
+        if (map == null) {
+            super.repaint(layer);
+            return;
+        }
+
+        if (isReady()) {
+            if (timer != null) {
+                timer.stop();
+            }
+            super.repaint(layer);
+        } else {
+            getTimer().start();
+        }
+    }
+
+    /**
+     * @return true if none of the layers on the map are still working on a
+     *         projection change.
+     */
+    protected boolean isReady() {
+        for (Component c : map.getComponents()) {
+            if (c instanceof Layer && !((Layer) c).isReadyToPaint()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new Timer(deadline, new ActionListener() {
+                public void actionPerformed(ActionEvent ae) {
+                    MapBean mb = map;
+                    if (mb != null) {
+                        if (DEBUG) {
+                            Debug.output("CMBRP: deadline passed, painting");
+                        }
+                        mb.repaint();
+                    }
+                }
+            });
+            timer.setRepeats(false);
+        }
+        return timer;
+    }
+
+    public void setProperties(String prefix, Properties props) {
+        super.setProperties(prefix, props);
+        prefix = PropUtils.getScopedPropertyPrefix(prefix);
+        setDeadline(PropUtils.intFromProperties(props, prefix + DeadlineProperty, deadline));
+    }
+
+    public Properties getProperties(Properties props) {
+        props = super.getProperties(props);
+        String prefix = PropUtils.getScopedPropertyPrefix(this);
+        props.put(prefix + DeadlineProperty, Integer.toString(deadline));
+        return props;
+    }
+
+    public Properties getPropertyInfo(Properties props) {
+        props = super.getPropertyInfo(props);
+        props.put(DeadlineProperty, "Longest time to wait for layers before painting, in milliseconds");
+        return props;
+    }
+
+    public Object clone() {
+        CoalescingMapBeanRepaintPolicy cmbrp = new CoalescingMapBeanRepaintPolicy();
+        cmbrp.setDeadline(getDeadline());
+        return cmbrp;
+    }
+}
@@ -227,6 +227,13 @@ public class MapBean extends JComponent
      * forwards repaint requests to Swing normally.
      */
     protected MapBeanRepaintPolicy repaintPolicy = null;
+    /**
+     * The CoalescingMapBeanRepaintPolicy set by setConcurrentNotification,
+     * and the policy it replaced, put back when concurrent notification is
+     * turned off.
+     */
+    protected MapBeanRepaintPolicy concurrentRepaintPolicy = null;
+    protected MapBeanRepaintPolicy replacedRepaintPolicy = null;
     /**
      * The angle, in radians, to rotate the map. 0.0 is north-up, clockwise is
      * positive.
@@ -1186,6 +1193,51 @@ public class MapBean extends JComponent
         getMapBeanRepaintPolicy().repaint(layer);
     }
 
+    /**
+     * Have the layers told about projection changes at the same time, on a
+     * number of threads, instead of one after another. If the repaint policy
+     * is the standard one, a CoalescingMapBeanRepaintPolicy is set instead, so
+     * the map is painted when all of the layers are ready, not as each one
+     * finishes. The replaced policy is put back when this is set to 0, unless
+     * the policy has been changed since.
+     * 
+     * @param threads the number of threads, 0 to go back to telling the
+     *        layers one after another.
+     */
+    public void setConcurrentNotification(int threads) {
+        projectionSupport.setConcurrency(threads);
+        if (threads > 0) {
+            if (repaintPolicy == null || repaintPolicy.getClass() == StandardMapBeanRepaintPolicy.class) {
+                replacedRepaintPolicy = repaintPolicy;
+                concurrentRepaintPolicy = new CoalescingMapBeanRepaintPolicy(this);
+                setMapBeanRepaintPolicy(concurrentRepaintPolicy);
+            }
+        } else if (concurrentRepaintPolicy != null) {
+            if (repaintPolicy == concurrentRepaintPolicy) {
+                setMapBeanRepaintPolicy(replacedRepaintPolicy);
+            }
+            concurrentRepaintPolicy = null;
+            replacedRepaintPolicy = null;
+        }
+    }
+
+    /**
+     * @return the number of threads the layers are told about projection
+     *         changes on, 0 if they're told one after another.
+     */
+    public int getConcurrentNotification() {
+        return projectionSupport.getConcurrency();
+    }
+
+    /**
+     * @return how long, in milliseconds, a layer took on average to handle
+     *         projection changes, when they're told concurrently. -1 if
+     *         unknown.
+     */
+    public long getProjectionLatency(ProjectionListener listener) {
+        return projectionSupport.getAverageLatency(listener);
+    }
+
     /**
      * Set the MapBeanRepaintPolicy used by the MapBean. This policy can be used
      * to pace/filter layer repaint() requests.
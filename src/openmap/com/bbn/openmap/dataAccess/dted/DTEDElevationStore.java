@@ -0,0 +1,273 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.io.BinaryFile;
+
+/**
+ * The DTEDElevationStore answers elevation questions for lots of locations at
+ * once, for things like profiles, line of sight calculations and slope
+ * shading. It finds frames with the same DTEDDirectoryHandlers a
+ * DTEDFrameCache uses, and memory maps them with DTEDMappedFrames, so the
+ * elevation posts aren't copied into arrays. Locations can be spread over
+ * several frames, the store picks the right one for each location, using the
+ * highest resolution DTED level available for each one degree cell.
+ * <p>
+ * Elevations are interpolated between the four posts around a location. The
+ * store can be shared by several threads.
+ */
+public class DTEDElevationStore {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.dted.DTEDElevationStore");
+
+    /** The default number of frames kept open. */
+    public final static int DEFAULT_MAX_FRAMES = 64;
+
+    protected List<DTEDDirectoryHandler> directories;
+    protected int highestResLevel = 2;
+    protected int maxFrames;
+
+    /**
+     * The open frames by cell, least recently used first. Cells without data
+     * map to null.
+     */
+    protected final LinkedHashMap<Long, DTEDMappedFrame> frames;
+
+    /**
+     * Create a store.
+     *
+     * @param directories the DTEDDirectoryHandlers to look for frames with.
+     *        The list isn't copied, so handlers added to it later are used,
+     *        after clear() is called.
+     */
+    public DTEDElevationStore(List<DTEDDirectoryHandler> directories) {
+        this(directories, DEFAULT_MAX_FRAMES);
+    }
+
+    /**
+     * Create a store.
+     *
+     * @param directories the DTEDDirectoryHandlers to look for frames with.
+     * @param maxFrames the number of frames to keep open.
+     */
+    public DTEDElevationStore(List<DTEDDirectoryHandler> directories, int maxFrames) {
+        this.directories = directories;
+        this.maxFrames = Math.max(1, maxFrames);
+        frames = new LinkedHashMap<Long, DTEDMappedFrame>(64, .75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, DTEDMappedFrame> eldest) {
+                return size() > DTEDElevationStore.this.maxFrames;
+            }
+        };
+    }
+
+    public int getHighestResLevel() {
+        return highestResLevel;
+    }
+
+    /**
+     * Set the highest resolution DTED level to use, 0, 1 or 2. Lower levels
+     * are used where frames at this level aren't available.
+     */
+    public synchronized void setHighestResLevel(int highestResLevel) {
+        if (this.highestResLevel != highestResLevel) {
+            this.highestResLevel = highestResLevel;
+            frames.clear();
+        }
+    }
+
+    public synchronized int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public synchronized void setMaxFrames(int maxFrames) {
+        this.maxFrames = Math.max(1, maxFrames);
+    }
+
+    /**
+     * Forget the open frames and the cells without data, after the directory
+     * handlers change.
+     */
+    public synchronized void clear() {
+        frames.clear();
+    }
+
+    /**
+     * Get the frame covering a location.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return the frame at the highest resolution available, or null if there
+     *         isn't one.
+     */
+    public DTEDMappedFrame getFrame(double lat, double lon) {
+        int cellLat = (int) Math.floor(lat);
+        int cellLon = (int) Math.floor(lon);
+        Long key = Long.valueOf(((long) cellLat << 32) | (cellLon & 0xffffffffL));
+
+        synchronized (this) {
+            if (frames.containsKey(key)) {
+                return frames.get(key);
+            }
+
+            // Cells without a frame are kept as null, so they aren't searched
+            // for again.
+            DTEDMappedFrame frame = null;
+            for (int level = highestResLevel; level >= 0 && frame == null; level--) {
+                String path = findFileName(cellLat + .5, cellLon + .5, level);
+                if (path != null) {
+                    try {
+                        frame = new DTEDMappedFrame(path);
+                    } catch (IOException ioe) {
+                        logger.warning("can't use DTED frame " + path + ": " + ioe.getMessage());
+                    }
+                }
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("cell " + cellLat + ", " + cellLon + ": " + frame);
+            }
+            frames.put(key, frame);
+            return frame;
+        }
+    }
+
+    /**
+     * Find the file for a frame, from the directory handlers.
+     *
+     * @return the path to the frame file, or null if it isn't there.
+     */
+    protected String findFileName(double lat, double lon, int level) {
+        if (directories != null) {
+            for (Iterator<DTEDDirectoryHandler> it = directories.iterator(); it.hasNext();) {
+                DTEDNameTranslator dnt = it.next().getTranslator();
+                String dtedFileName;
+                synchronized (dnt) {
+                    dnt.set(lat, lon, level);
+                    dtedFileName = dnt.getName();
+                }
+                if (BinaryFile.exists(dtedFileName)) {
+                    return dtedFileName;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the elevation at a location.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return elevation in meters, or DTEDFrameCache.NO_DATA.
+     */
+    public short sample(double lat, double lon) {
+        DTEDMappedFrame frame = getFrame(lat, lon);
+        return frame == null ? DTEDFrameCache.NO_DATA : frame.sample(lat, lon);
+    }
+
+    /**
+     * Get the elevations at a set of locations.
+     *
+     * @param lats latitudes in decimal degrees.
+     * @param lons longitudes in decimal degrees, matching lats.
+     * @param out the elevations in meters, DTEDFrameCache.NO_DATA where there
+     *        isn't any data. Has to be as long as lats.
+     */
+    public void sample(double[] lats, double[] lons, short[] out) {
+        sample(lats, lons, 0, out, 0, lats.length);
+    }
+
+    /**
+     * Get the elevations at a set of locations.
+     *
+     * @param lats latitudes in decimal degrees.
+     * @param lons longitudes in decimal degrees, matching lats.
+     * @param off the index of the first location.
+     * @param out the elevations in meters, DTEDFrameCache.NO_DATA where there
+     *        isn't any data.
+     * @param outOff the index in out for the first elevation.
+     * @param n the number of locations.
+     */
+    public void sample(double[] lats, double[] lons, int off, short[] out, int outOff, int n) {
+        // Locations next to each other are usually in the same cell, so
+        // only look up frames when the cell changes.
+        DTEDMappedFrame frame = null;
+        double cellLat = Double.NaN;
+        double cellLon = Double.NaN;
+        for (int i = 0; i < n; i++) {
+            double lat = lats[off + i];
+            double lon = lons[off + i];
+            if (Math.floor(lat) != cellLat || Math.floor(lon) != cellLon) {
+                frame = getFrame(lat, lon);
+                cellLat = Math.floor(lat);
+                cellLon = Math.floor(lon);
+            }
+            out[outOff + i] = frame == null ? DTEDFrameCache.NO_DATA : frame.sample(lat, lon);
+        }
+    }
+
+    /**
+     * Get the elevations for a grid of evenly spaced locations covering a
+     * rectangle. The grid points are at the centers of the cells the
+     * rectangle is divided into. If the left longitude is east of the right
+     * one, the grid crosses the dateline.
+     *
+     * @param ullat upper latitude in decimal degrees.
+     * @param ullon left longitude in decimal degrees.
+     * @param lrlat lower latitude in decimal degrees.
+     * @param lrlon right longitude in decimal degrees.
+     * @param w the number of columns.
+     * @param h the number of rows.
+     * @return the elevations in meters, row by row from the upper left corner,
+     *         DTEDFrameCache.NO_DATA where there isn't any data.
+     */
+    public short[] sampleGrid(double ullat, double ullon, double lrlat, double lrlon, int w, int h) {
+        short[] out = new short[w * h];
+        if (w <= 0 || h <= 0) {
+            return out;
+        }
+
+        double width = lrlon - ullon;
+        if (width < 0) {
+            width += 360;
+        }
+        double lonStep = width / w;
+        double latStep = (ullat - lrlat) / h;
+
+        double[] lons = new double[w];
+        for (int x = 0; x < w; x++) {
+            double lon = ullon + (x + .5) * lonStep;
+            lons[x] = lon >= 180 ? lon - 360 : lon;
+        }
+
+        double[] lats = new double[w];
+        for (int y = 0; y < h; y++) {
+            Arrays.fill(lats, ullat - (y + .5) * latStep);
+            sample(lats, lons, 0, out, y * w, w);
+        }
+        return out;
+    }
+}
@@ -80,10 +80,16 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
     protected String propertyPrefix = null;
 
-    protected Vector directories = new Vector();
+    protected Vector<DTEDDirectoryHandler> directories = new Vector<DTEDDirectoryHandler>();
 
     protected int highestResLevel = 2;
 
+    /**
+     * Memory mapped frames for the bulk sample methods, created when first
+     * needed.
+     */
+    protected DTEDElevationStore elevationStore;
+
     public DTEDFrameCache() {
         super();
     }
@@ -104,6 +110,7 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
      */
     public void addDTEDDirectoryHandler(DTEDDirectoryHandler handler) {
         directories.add(handler);
+        clearElevationStore();
     }
 
     /**
@@ -111,6 +118,7 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
      */
     public void removeDTEDDirectoryHandler(DTEDDirectoryHandler handler) {
         directories.remove(handler);
+        clearElevationStore();
     }
 
     /**
@@ -123,10 +131,20 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
     /**
      * Set the Vector of DTEDDirectoryHandlers used by the DTEDFrameCache. You
      * might want to use this to set the order of directories that are searched
-     * for a DTED frame.
+     * for a DTED frame. The handlers are copied into the cache's own Vector.
      */
     public void setDTEDDirectoryHandlers(Vector handlers) {
-        directories = handlers;
+        Vector<DTEDDirectoryHandler> dirs = null;
+        if (handlers != null) {
+            dirs = new Vector<DTEDDirectoryHandler>(handlers.size());
+            for (Object handler : handlers) {
+                dirs.add((DTEDDirectoryHandler) handler);
+            }
+        }
+        directories = dirs;
+        synchronized (this) {
+            elevationStore = null;
+        }
     }
 
     /**
@@ -145,8 +163,12 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
             for (Iterator it = directories.iterator(); it.hasNext();) {
                 DTEDDirectoryHandler ddh = (DTEDDirectoryHandler) it.next();
                 DTEDNameTranslator dnt = ddh.getTranslator();
-                dnt.set(lat, lon, level);
-                String dtedFileName = dnt.getName();
+                String dtedFileName;
+                // The DTEDElevationStore shares the translators.
+                synchronized (dnt) {
+                    dnt.set(lat, lon, level);
+                    dtedFileName = dnt.getName();
+                }
                 if (Debug.debugging("dtedfile")) {
                     Debug.output("DTEDFrameCache translator returns "
                             + dtedFileName + " for " + lat + ", " + lon
@@ -227,67 +249,69 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         return null;
     }
 
+    public int getHighestResLevel() {
+        return highestResLevel;
+    }
+
+    public void setHighestResLevel(int highestResLevel) {
+        this.highestResLevel = highestResLevel;
+        synchronized (this) {
+            if (elevationStore != null) {
+                elevationStore.setHighestResLevel(highestResLevel);
+            }
+        }
+    }
+
     /**
-     * This version of resizeCache is for screen size changes, where the number
-     * of frames kept on hand in the cache must change, but the images
-     * themselves don't have to because the pixel/posting spacing hasn't changed
-     * in the projection. The frames already in the cache are re-added to the
-     * new cache, if the cache size is increasing. If the cache size is
-     * shrinking, then as many as will fit are added to the new cache.
+     * Get the DTEDElevationStore that memory maps the frames found by this
+     * cache's directory handlers, for asking about lots of locations at once.
      * 
-     * @param max_size the new size of the cache.
+     * @return DTEDElevationStore
      */
-    public void resizeCache(int max_size) {
-
-        CacheObject[] oldObjs = objs;
-
-        if (max_size != objs.length && max_size > 0) {
-            objs = new CacheObject[max_size];
+    public synchronized DTEDElevationStore getElevationStore() {
+        if (elevationStore == null) {
+            elevationStore = new DTEDElevationStore(directories);
+            elevationStore.setHighestResLevel(highestResLevel);
         }
+        return elevationStore;
+    }
 
-        for (int i = 0; i < objs.length; i++) {
-
-            if (i >= oldObjs.length) {
-                break;
-            }
-
-            DTEDCacheObject dco = (DTEDCacheObject) oldObjs[i];
-
-            if (dco == null) {
-                // We load from the front to the back 0 -> length - 1;
-                // Once you hit a null, the rest should be null, too.
-                objs[i] = null;
-                continue;
-            }
-
-            DTEDFrame frame = (DTEDFrame) (dco.obj);
-            dco.cachedTime = 0;
-
-            if (frame == null) {
-                Debug.output("DTEDFrameCache: No Frame for key!");
-                continue;
-            }
-
-            if (oldObjs == objs) {
-                continue;
-            }
-
-            if (i < oldObjs.length) {
-                objs[i] = oldObjs[i];
-            } else {
-                objs[i] = null;
-            }
+    protected synchronized void clearElevationStore() {
+        if (elevationStore != null) {
+            elevationStore.clear();
         }
-
-        oldObjs = null;
     }
 
-    public int getHighestResLevel() {
-        return highestResLevel;
+    /**
+     * Get the interpolated elevations for a set of locations, which can be
+     * spread over several frames. Uses the highest resolution frames
+     * available, starting at the highest resolution level set for this cache.
+     * 
+     * @param lats latitudes in decimal degrees.
+     * @param lons longitudes in decimal degrees, matching lats.
+     * @param out elevations in meters, NO_DATA where there isn't any data.
+     */
+    public void sample(double[] lats, double[] lons, short[] out) {
+        getElevationStore().sample(lats, lons, out);
     }
 
-    public void setHighestResLevel(int highestResLevel) {
-        this.highestResLevel = highestResLevel;
+    /**
+     * Get the interpolated elevations for a grid of evenly spaced locations
+     * covering a rectangle. Unlike getElevations, the grid can cross frame
+     * boundaries where frames are missing, and the dateline.
+     * 
+     * @param ullat upper latitude in decimal degrees.
+     * @param ullon left longitude in decimal degrees.
+     * @param lrlat lower latitude in decimal degrees.
+     * @param lrlon right longitude in decimal degrees.
+     * @param w the number of columns.
+     * @param h the number of rows.
+     * @return elevations in meters, row by row from the upper left corner,
+     *         NO_DATA where there isn't any data.
+     */
+    public short[] sampleGrid(double ullat, double ullon, double lrlat, double lrlon, int w,
+                              int h) {
+        return getElevationStore().sampleGrid(ullat, ullon, lrlat, lrlon, w, h);
     }
 
     /**
@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
@@ -480,33 +481,24 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
      * @param level the dted level wanted (0, 1, 2)
      * @return OMGraphic, most likely an OMGrid.
      */
-    public OMGraphic get(double lat, double lon, int level) {
+    public OMGraphic get(final double lat, final double lon, final int level) {
         // First, put together a key from the above info, and then
         // look for it in the local cache. If it's not there, then go
         // to the DTEDFrameCache.
 
-        String key = new String(lat + ":" + lon + ":" + level);
+        final String key = new String(lat + ":" + lon + ":" + level);
 
-        CacheObject ret = searchCache(key);
-        if (ret != null) {
-            if (Debug.debugging("dted")) {
-                Debug.output("DTEDFrameCacheHandler.get():  retrieving frame from cache (" + lat
-                        + ":" + lon + ":" + level + ")");
+        CacheObject ret = get(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                if (Debug.debugging("dted")) {
+                    Debug.output("DTEDFrameCacheHandler.get():  loading new frame into cache ("
+                            + lat + ":" + lon + ":" + level + ")");
+                }
+                return load(key, lat, lon, level);
             }
-            return (OMGraphic) ret.obj;
-        }
-
-        ret = load(key, lat, lon, level);
-        if (ret == null) {
-            return null;
-        }
+        });
 
-        replaceLeastUsed(ret);
-        if (Debug.debugging("dted")) {
-            Debug.output("DTEDFrameCacheHandler.get():  loading new frame into cache (" + lat + ":"
-                    + lon + ":" + level + ")");
-        }
-        return (OMGraphic) ret.obj;
+        return ret == null ? null : (OMGraphic) ret.obj;
     }
 
     /**
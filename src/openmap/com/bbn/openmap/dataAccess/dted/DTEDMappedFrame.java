@@ -0,0 +1,213 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.BinaryFile;
+
+/**
+ * A DTED frame with its elevation posts memory mapped from the file, instead
+ * of read into arrays like the DTEDFrame. Posts are read straight out of the
+ * mapped file when they are asked for, so opening a frame is cheap and the
+ * operating system decides what stays in memory. The frame isn't modified
+ * after it's opened, so several threads can read posts from it at the same
+ * time.
+ */
+public class DTEDMappedFrame {
+
+    /** Offset of the elevations in a data record, after the counts. */
+    protected final static int RECORD_HEADER_SIZE = 8;
+    /** The counts and checksum around the elevations in a data record. */
+    protected final static int RECORD_OVERHEAD = 12;
+
+    /** The path to the frame file. */
+    protected final String path;
+    /** Data set identification section of the file. */
+    public final DTEDFrameDSI dsi;
+    /** User header label section of the file. */
+    public final DTEDFrameUHL uhl;
+
+    protected final MappedByteBuffer buffer;
+    protected final int numLonLines;
+    protected final int numLatPoints;
+    protected final int recordSize;
+    /** Posts per degree in each direction. */
+    protected final double latPostsPerDegree;
+    protected final double lonPostsPerDegree;
+    protected final double swLat;
+    protected final double swLon;
+
+    /**
+     * Open a DTED frame.
+     *
+     * @param path complete path to the DTED frame file.
+     * @throws IOException if the file can't be read or isn't a DTED frame.
+     */
+    public DTEDMappedFrame(String path) throws IOException {
+        this.path = path;
+
+        BinaryFile binFile = new BinaryBufferedFile(path);
+        try {
+            binFile.byteOrder(true);
+            dsi = new DTEDFrameDSI(binFile);
+            uhl = new DTEDFrameUHL(binFile);
+        } finally {
+            binFile.close();
+        }
+
+        numLonLines = uhl.num_lon_lines;
+        numLatPoints = uhl.num_lat_points;
+        if (numLonLines < 2 || numLatPoints < 2 || uhl.lat_post_interval <= 0
+                || uhl.lon_post_interval <= 0) {
+            throw new IOException("DTEDMappedFrame: " + path + " doesn't have a valid header");
+        }
+
+        recordSize = RECORD_OVERHEAD + 2 * numLatPoints;
+        // post intervals are in tenths of seconds
+        latPostsPerDegree = 36000.0 / uhl.lat_post_interval;
+        lonPostsPerDegree = 36000.0 / uhl.lon_post_interval;
+        swLat = dsi.sw_lat;
+        swLon = dsi.sw_lon;
+
+        long length = getDataOffset() + (long) numLonLines * recordSize;
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            if (raf.length() < length) {
+                throw new IOException("DTEDMappedFrame: " + path + " is too short for "
+                        + numLonLines + " x " + numLatPoints + " posts");
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    protected static int getDataOffset() {
+        return DTEDFrame.UHL_SIZE + DTEDFrame.DSI_SIZE + DTEDFrame.ACC_SIZE;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getNumLonLines() {
+        return numLonLines;
+    }
+
+    public int getNumLatPoints() {
+        return numLatPoints;
+    }
+
+    /**
+     * Check if a location is inside the frame.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     */
+    public boolean contains(double lat, double lon) {
+        return lat >= dsi.sw_lat && lat <= dsi.ne_lat && lon >= dsi.sw_lon && lon <= dsi.ne_lon;
+    }
+
+    /**
+     * Get an elevation post.
+     *
+     * @param lonIndex the longitude line, 0 is the west edge.
+     * @param latIndex the post in the line, 0 is the south edge.
+     * @return the elevation in meters, DTEDFrameCache.NO_DATA for a void.
+     */
+    public short getPost(int lonIndex, int latIndex) {
+        int offset = getPostOffset(lonIndex, latIndex);
+        int hi = buffer.get(offset) & 0xff;
+        int lo = buffer.get(offset + 1) & 0xff;
+        // Signed magnitude, not two's complement.
+        int value = ((hi & 0x7f) << 8) | lo;
+        return (short) ((hi & 0x80) != 0 ? -value : value);
+    }
+
+    protected int getPostOffset(int lonIndex, int latIndex) {
+        return getDataOffset() + lonIndex * recordSize + RECORD_HEADER_SIZE + latIndex * 2;
+    }
+
+    /**
+     * The elevation at the post closest to a location.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return elevation in meters, or DTEDFrameCache.NO_DATA if the location
+     *         isn't in the frame.
+     */
+    public short nearest(double lat, double lon) {
+        if (!contains(lat, lon)) {
+            return DTEDFrameCache.NO_DATA;
+        }
+        int latIndex = (int) Math.round((lat - swLat) * latPostsPerDegree);
+        int lonIndex = (int) Math.round((lon - swLon) * lonPostsPerDegree);
+        return getPost(clamp(lonIndex, numLonLines), clamp(latIndex, numLatPoints));
+    }
+
+    /**
+     * The elevation at a location, interpolated from the four posts around
+     * it. If any of those posts is a void, the closest post is used instead.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return elevation in meters, or DTEDFrameCache.NO_DATA if the location
+     *         isn't in the frame.
+     */
+    public short sample(double lat, double lon) {
+        if (!contains(lat, lon)) {
+            return DTEDFrameCache.NO_DATA;
+        }
+
+        double y = (lat - swLat) * latPostsPerDegree;
+        double x = (lon - swLon) * lonPostsPerDegree;
+        int x0 = clamp((int) x, numLonLines - 1);
+        int y0 = clamp((int) y, numLatPoints - 1);
+        int x1 = x0 + 1;
+        int y1 = y0 + 1;
+        double fx = Math.min(1.0, Math.max(0.0, x - x0));
+        double fy = Math.min(1.0, Math.max(0.0, y - y0));
+
+        short sw = getPost(x0, y0);
+        short se = getPost(x1, y0);
+        short nw = getPost(x0, y1);
+        short ne = getPost(x1, y1);
+
+        if (sw == DTEDFrameCache.NO_DATA || se == DTEDFrameCache.NO_DATA
+                || nw == DTEDFrameCache.NO_DATA || ne == DTEDFrameCache.NO_DATA) {
+            return getPost(fx < .5 ? x0 : x1, fy < .5 ? y0 : y1);
+        }
+
+        double south = sw + (se - sw) * fx;
+        double north = nw + (ne - nw) * fx;
+        return (short) Math.round(south + (north - south) * fy);
+    }
+
+    private static int clamp(int index, int size) {
+        return index < 0 ? 0 : (index >= size ? size - 1 : index);
+    }
+
+    public String toString() {
+        return "DTEDMappedFrame[" + path + ", " + numLonLines + " x " + numLatPoints + "]";
+    }
+}
@@ -0,0 +1,328 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A MapTileStore for an mbtiles file, the sqlite database format exported by
+ * TileMill. The store keeps a small pool of database connections, each with
+ * its statements prepared, so fetching a tile doesn't have to open the
+ * database or parse any SQL. The jdbc driver has to be on the classpath, the
+ * sqlitejdbc package works.
+ * <p>
+ * TileMill files keep tiles in map and images tables, and tiles are read from
+ * and written to those if the file has them. Otherwise the tiles table defined
+ * by the mbtiles specification is used. mbtiles files number tile rows from
+ * the south, the TMS layout, and the store converts the OSM y coordinates it's
+ * given.
+ *
+ * @author dietrick
+ */
+public class MBTilesStore implements MapTileStore {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.mapTile.MBTilesStore");
+
+    public final static int DEFAULT_POOL_SIZE = 4;
+
+    protected final static String SELECT_TILE = "select tile_data from tiles where zoom_level = ? and tile_column = ? and tile_row = ?";
+    protected final static String SELECT_MAP_IMAGE = "select tile_data from map, images where zoom_level = ? and tile_column = ? and tile_row = ? and map.tile_id = images.tile_id";
+    protected final static String INSERT_IMAGE = "insert or replace into images (tile_data, tile_id) values (?, ?)";
+    protected final static String INSERT_MAP = "insert or replace into map (zoom_level, tile_column, tile_row, tile_id) values (?, ?, ?, ?)";
+    protected final static String INSERT_TILE = "insert or replace into tiles (zoom_level, tile_column, tile_row, tile_data) values (?, ?, ?, ?)";
+
+    /**
+     * How long to wait for a connection when they are all being used.
+     */
+    protected long connectionTimeout = 30000;
+
+    protected String url;
+    protected int poolSize;
+    protected final BlockingQueue<PooledConnection> idleConnections;
+    protected int numConnections = 0;
+    protected boolean closed = false;
+    /**
+     * True if tiles are kept in the map and images tables, null until
+     * checked.
+     */
+    protected Boolean mapImagesSchema;
+
+    /**
+     * Create a store with the default number of connections.
+     *
+     * @param url the jdbc url for the database, "jdbc:sqlite:path to file".
+     */
+    public MBTilesStore(String url) {
+        this(url, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create a store.
+     *
+     * @param url the jdbc url for the database, "jdbc:sqlite:path to file".
+     * @param poolSize the maximum number of connections open to the database.
+     */
+    public MBTilesStore(String url, int poolSize) {
+        this.url = url;
+        this.poolSize = Math.max(1, poolSize);
+        idleConnections = new ArrayBlockingQueue<PooledConnection>(this.poolSize);
+    }
+
+    public byte[] getTileBytes(int x, int y, int zoomLevel) throws IOException {
+        PooledConnection pc = borrow();
+        boolean ok = false;
+        try {
+            PreparedStatement select = pc.select;
+            select.setInt(1, zoomLevel);
+            select.setInt(2, x);
+            select.setInt(3, getTileRow(y, zoomLevel));
+
+            byte[] imageBytes = null;
+            ResultSet rs = select.executeQuery();
+            try {
+                if (rs.next()) {
+                    imageBytes = rs.getBytes(1);
+                }
+            } finally {
+                rs.close();
+            }
+            ok = true;
+            return imageBytes;
+        } catch (SQLException sqle) {
+            throw new IOException("problem reading tile " + zoomLevel + "/" + x + "/" + y
+                    + " from " + url + ": " + sqle.getMessage());
+        } finally {
+            release(pc, ok);
+        }
+    }
+
+    public void putTileBytes(int x, int y, int zoomLevel, byte[] imageBytes) throws IOException {
+        int row = getTileRow(y, zoomLevel);
+        PooledConnection pc = borrow();
+        boolean ok = false;
+        // sqlite only lets one connection write at a time.
+        synchronized (this) {
+            try {
+                if (pc.mapImages) {
+                    String tileId = zoomLevel + "/" + x + "/" + row;
+                    PreparedStatement insertImage = pc.getInsertImage();
+                    insertImage.setBytes(1, imageBytes);
+                    insertImage.setString(2, tileId);
+                    insertImage.executeUpdate();
+
+                    PreparedStatement insertMap = pc.getInsertMap();
+                    insertMap.setInt(1, zoomLevel);
+                    insertMap.setInt(2, x);
+                    insertMap.setInt(3, row);
+                    insertMap.setString(4, tileId);
+                    insertMap.executeUpdate();
+                } else {
+                    PreparedStatement insertTile = pc.getInsertTile();
+                    insertTile.setInt(1, zoomLevel);
+                    insertTile.setInt(2, x);
+                    insertTile.setInt(3, row);
+                    insertTile.setBytes(4, imageBytes);
+                    insertTile.executeUpdate();
+                }
+                ok = true;
+            } catch (SQLException sqle) {
+                throw new IOException("problem writing tile " + zoomLevel + "/" + x + "/" + y
+                        + " to " + url + ": " + sqle.getMessage());
+            } finally {
+                release(pc, ok);
+            }
+        }
+    }
+
+    /**
+     * Convert an OSM y tile coordinate to an mbtiles tile row.
+     */
+    protected int getTileRow(int y, int zoomLevel) {
+        return (1 << zoomLevel) - y - 1;
+    }
+
+    /**
+     * Check whether the database has the TileMill map and images tables, which
+     * have to be used instead of the tiles view.
+     */
+    protected synchronized boolean isMapImagesSchema(Connection conn) throws SQLException {
+        if (mapImagesSchema == null) {
+            PreparedStatement ps = conn.prepareStatement("select count(*) from sqlite_master where type = 'table' and name in ('map', 'images')");
+            try {
+                ResultSet rs = ps.executeQuery();
+                try {
+                    mapImagesSchema = Boolean.valueOf(rs.next() && rs.getInt(1) == 2);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        }
+        return mapImagesSchema.booleanValue();
+    }
+
+    /**
+     * Get a connection from the pool, opening a new one if the pool isn't full,
+     * or waiting for one to be released.
+     */
+    protected PooledConnection borrow() throws IOException {
+        PooledConnection pc = idleConnections.poll();
+        if (pc != null) {
+            return pc;
+        }
+
+        boolean open = false;
+        synchronized (idleConnections) {
+            if (closed) {
+                throw new IOException("MBTilesStore for " + url + " is closed");
+            }
+            if (numConnections < poolSize) {
+                numConnections++;
+                open = true;
+            }
+        }
+
+        if (open) {
+            Connection conn = null;
+            try {
+                conn = DriverManager.getConnection(url);
+                return new PooledConnection(conn, isMapImagesSchema(conn));
+            } catch (SQLException sqle) {
+                synchronized (idleConnections) {
+                    numConnections--;
+                }
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException e) {
+                        // already reporting the first problem
+                    }
+                }
+                throw new IOException("can't connect to " + url + ": " + sqle.getMessage());
+            }
+        }
+
+        try {
+            pc = idleConnections.poll(connectionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (pc == null) {
+            throw new IOException("timed out waiting for a connection to " + url);
+        }
+        return pc;
+    }
+
+    /**
+     * Return a connection to the pool. Connections that had problems are
+     * closed instead, a new one will be opened when needed.
+     */
+    protected void release(PooledConnection pc, boolean ok) {
+        boolean keep;
+        synchronized (idleConnections) {
+            keep = ok && !closed;
+            if (!keep) {
+                numConnections--;
+            }
+        }
+
+        if (keep) {
+            idleConnections.offer(pc);
+        } else {
+            pc.close();
+        }
+    }
+
+    public void close() {
+        synchronized (idleConnections) {
+            closed = true;
+        }
+        PooledConnection pc;
+        while ((pc = idleConnections.poll()) != null) {
+            synchronized (idleConnections) {
+                numConnections--;
+            }
+            pc.close();
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * A database connection and the statements prepared for it.
+     */
+    protected static class PooledConnection {
+        final Connection conn;
+        final boolean mapImages;
+        final PreparedStatement select;
+        PreparedStatement insertImage;
+        PreparedStatement insertMap;
+        PreparedStatement insertTile;
+
+        PooledConnection(Connection conn, boolean mapImages) throws SQLException {
+            this.conn = conn;
+            this.mapImages = mapImages;
+            select = conn.prepareStatement(mapImages ? SELECT_MAP_IMAGE : SELECT_TILE);
+        }
+
+        PreparedStatement getInsertImage() throws SQLException {
+            if (insertImage == null) {
+                insertImage = conn.prepareStatement(INSERT_IMAGE);
+            }
+            return insertImage;
+        }
+
+        PreparedStatement getInsertMap() throws SQLException {
+            if (insertMap == null) {
+                insertMap = conn.prepareStatement(INSERT_MAP);
+            }
+            return insertMap;
+        }
+
+        PreparedStatement getInsertTile() throws SQLException {
+            if (insertTile == null) {
+                insertTile = conn.prepareStatement(INSERT_TILE);
+            }
+            return insertTile;
+        }
+
+        void close() {
+            try {
+                conn.close();
+            } catch (SQLException sqle) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("problem closing connection: " + sqle.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -31,20 +31,31 @@ import java.awt.Paint;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import com.bbn.openmap.Environment;
@@ -52,8 +63,10 @@ import com.bbn.openmap.Layer;
 import com.bbn.openmap.image.ImageFormatter;
 import com.bbn.openmap.image.ImageServer;
 import com.bbn.openmap.image.PNG32ImageFormatter;
+import com.bbn.openmap.image.PNG8ImageFormatter;
 import com.bbn.openmap.image.SunJPEGFormatter;
 import com.bbn.openmap.layer.imageTile.MapTileLayer;
+import com.bbn.openmap.plugin.PlugInLayer;
 import com.bbn.openmap.layer.shape.ShapeLayer;
 import com.bbn.openmap.omGraphics.OMColor;
 import com.bbn.openmap.proj.Mercator;
@@ -86,6 +99,16 @@ import com.bbn.openmap.util.PropUtils;
  * layers=layer1 layer2 ...
  * rootDir=Path to top level directory for tiles
  * zoomLevels=zoom1 zoom2
+ * # Optional, number of threads rendering tiles, number of processors by default
+ * numThreads=4
+ * # Optional, tiles are rendered in blocks of metaTileSize x metaTileSize tiles
+ * # and then cut up, 8 by default. Use 1 to render each tile separately.
+ * metaTileSize=8
+ * # Optional, don't replace tile files that already exist, false by default
+ * skipExisting=true
+ * # Optional, file that records finished blocks of tiles, so an interrupted
+ * # run can be started again and pick up where it left off
+ * checkpointFile=Path to checkpoint file
  * 
  * formatter1=.class=com.bbn.openmap.image.PNGImageIOFormatter
  * layer1.class=com.bbn.openmap.layer.shape.ShapeLayer
@@ -106,15 +129,34 @@ import com.bbn.openmap.util.PropUtils;
  * # and repeat for every zoomLevel defined
  * </pre>
  * 
+ * Tiles for a zoom level are rendered by a pool of threads, each taking the
+ * next block of tiles to render, and all the tiles of a zoom level are finished
+ * before the range tiles made from them are started. Rendering a block of
+ * tiles at once means the layers only have to find and project their data once
+ * for the block, and labels aren't cut off at the tile edges. Progress is
+ * logged at the INFO level.
+ * 
  * @author dietrick
  */
 public class MapTileMaker extends ImageServer implements EmptyTileHandler {
 
     public final static String ROOT_DIRECTORY_PROPERTY = "rootDir";
     public final static String ZOOM_LEVELS_PROPERTY = "zoomLevels";
+    public final static String NUM_THREADS_PROPERTY = "numThreads";
+    public final static String METATILE_SIZE_PROPERTY = "metaTileSize";
+    public final static String SKIP_EXISTING_PROPERTY = "skipExisting";
+    public final static String CHECKPOINT_FILE_PROPERTY = "checkpointFile";
+
+    public final static int DEFAULT_METATILE_SIZE = 8;
 
     protected String rootDir;
     protected List<ZoomLevelMaker> zoomLevels;
+    protected int numThreads = Runtime.getRuntime().availableProcessors();
+    protected int metaTileSize = DEFAULT_METATILE_SIZE;
+    protected boolean skipExisting = false;
+    protected String checkpointFile;
+    /** Milliseconds between progress reports. */
+    protected long progressInterval = 10000;
     protected MapTileCoordinateTransform mtcTransform = new OSMMapTileCoordinateTransform();
     protected int TILE_SIZE = mtcTransform.getTileSize();
 
@@ -171,6 +213,10 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         rootDir = props.getProperty(prefix + ROOT_DIRECTORY_PROPERTY, rootDir);
+        numThreads = PropUtils.intFromProperties(props, prefix + NUM_THREADS_PROPERTY, numThreads);
+        metaTileSize = PropUtils.intFromProperties(props, prefix + METATILE_SIZE_PROPERTY, metaTileSize);
+        skipExisting = PropUtils.booleanFromProperties(props, prefix + SKIP_EXISTING_PROPERTY, skipExisting);
+        checkpointFile = props.getProperty(prefix + CHECKPOINT_FILE_PROPERTY, checkpointFile);
         List<ZoomLevelMaker> zoomLevels = (List<ZoomLevelMaker>) PropUtils.objectsFromProperties(props, prefix
                 + ZOOM_LEVELS_PROPERTY, ComponentFactory.ClassNameProperty);
         getZoomLevels().addAll(zoomLevels);
@@ -180,6 +226,10 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         props = super.getProperties(props);
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + ROOT_DIRECTORY_PROPERTY, PropUtils.unnull(rootDir));
+        props.put(prefix + NUM_THREADS_PROPERTY, Integer.toString(numThreads));
+        props.put(prefix + METATILE_SIZE_PROPERTY, Integer.toString(metaTileSize));
+        props.put(prefix + SKIP_EXISTING_PROPERTY, Boolean.toString(skipExisting));
+        props.put(prefix + CHECKPOINT_FILE_PROPERTY, PropUtils.unnull(checkpointFile));
 
         StringBuffer buf = new StringBuffer();
         for (ZoomLevelMaker zfi : getZoomLevels()) {
@@ -197,6 +247,10 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
     public Properties getPropertyInfo(Properties props) {
         props = super.getPropertyInfo(props);
         PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, ROOT_DIRECTORY_PROPERTY, "Tile Directory", "Root directory for holding tile files.", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, NUM_THREADS_PROPERTY, "Threads", "Number of threads rendering tiles.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, METATILE_SIZE_PROPERTY, "Meta Tile Size", "Number of tiles across a block of tiles rendered at once.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, SKIP_EXISTING_PROPERTY, "Skip Existing Tiles", "Don't replace tile files that already exist.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, CHECKPOINT_FILE_PROPERTY, "Checkpoint File", "File recording finished tiles, for resuming an interrupted run.", "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
         return props;
     }
 
@@ -371,128 +425,482 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
             }
         }
 
-        Proj proj = new Mercator(new LatLonPoint.Double(), 10000, MapTileCoordinateTransform.TILE_SIZE, MapTileCoordinateTransform.TILE_SIZE);
-
-        List<ZoomLevelMaker> zoomLevels = getZoomLevels();
-        for (ZoomLevelMaker zfi : zoomLevels) {
-            logger.info("writing zoom level " + zfi.getName() + " tiles...");
-            int zoomLevel = zfi.getZoomLevel();
-            for (Rectangle2D bounds : zfi.getUVBounds(mtcTransform, zoomLevel)) {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine(" creating tiles " + bounds);
-                }
-                int startx = (int) bounds.getX();
-                int starty = (int) bounds.getY();
-                int xofflimit = (int) bounds.getWidth();
-                int yofflimit = (int) bounds.getHeight();
-
-                for (int xoff = 0; xoff < xofflimit; xoff++) {
-                    int x = startx + xoff;
+        TileCheckpoint checkpoint = null;
+        if (checkpointFile != null && checkpointFile.length() > 0) {
+            try {
+                checkpoint = new TileCheckpoint(checkpointFile);
+            } catch (IOException ioe) {
+                logger.warning("Can't use checkpoint file " + checkpointFile + ": "
+                        + ioe.getMessage());
+            }
+        }
 
-                    // Reset every x loop for first time check through y loop
-                    String parentDirPath = null;
+        try {
+            List<ZoomLevelMaker> zoomLevels = getZoomLevels();
+            for (ZoomLevelMaker zfi : zoomLevels) {
+                logger.info("writing zoom level " + zfi.getName() + " tiles...");
+                int zoomLevel = zfi.getZoomLevel();
 
-                    for (int yoff = 0; yoff < yofflimit; yoff++) {
-                        int y = starty + yoff;
+                if (!makeTiles(zfi, zfi.getUVBounds(mtcTransform, zoomLevel), zfi, getLayersForZoomLevel(zfi), getBackground(), checkpoint)) {
+                    return;
+                }
 
-                        if (parentDirPath == null) {
-                            parentDirPath = zfi.formatParentDirectoryName(getRootDir(), x, y);
-                            File parentDir = new File(parentDirPath);
-                            if (!parentDir.exists()) {
-                                parentDir.mkdirs();
-                            }
+                // At this point, for a specific ZoomLevelInfo, the basic tiles
+                // for it have been created. Now we can check the range and
+                // create tiles for the range out of the new tiles.
+                int range = zfi.getRange();
+                if (range < zoomLevel) {
+                    MapTileLayer tileLayer = new MapTileLayer();
+                    StandardMapTileFactory tileFactory = new StandardMapTileFactory();
+                    tileFactory.setRootDir(getRootDir());
+                    tileFactory.setFileExt(getFormatter().getFormatLabel());
+                    tileLayer.setTileFactory(tileFactory);
+
+                    List<Layer> subLayers = new ArrayList<Layer>();
+                    subLayers.add(tileLayer);
+
+                    for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= range; rangeZoomLevel--) {
+                        ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
+                        rangeZFI.setZoomLevel(rangeZoomLevel);
+                        rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
+                        // Create new tiles from the tiles one zoom level up
+                        tileLayer.setZoomLevel(rangeZoomLevel + 1);
+
+                        List<Rectangle2D> uvBounds = new ArrayList<Rectangle2D>();
+                        for (Rectangle2D rawBounds : zfi.getBounds()) {
+                            uvBounds.add(rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel));
                         }
 
-                        try {
-                            String outputFile = makeTileFile(x, y, zfi, proj);
-                            if (logger.isLoggable(Level.FINER)) {
-                                logger.finer("wrote: " + outputFile);
-                            }
-                        } catch (IOException ioe) {
-                            logger.warning("Caught IOException writing " + x + ", " + y + ", "
-                                    + zfi);
+                        logger.info("writing zoom level " + rangeZoomLevel + " tiles from "
+                                + zfi.getName() + " tiles...");
+                        if (!makeTiles(rangeZFI, uvBounds, null, subLayers, OMColor.clear, checkpoint)) {
+                            return;
                         }
                     }
+                }
+            }
+        } finally {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
 
+        logger.info("done writing tiles");
+    }
+
+    /**
+     * Make the tiles for one zoom level, using the thread pool. The tiles
+     * within the uv bounds are split up into blocks of metaTileSize tiles on a
+     * side, lined up with the zoom level's tile grid, and each block is a task
+     * for the pool. This method returns when all of the tiles are written.
+     * 
+     * @param zli the ZoomLevelInfo for the zoom level, for the tile paths.
+     * @param uvBounds the uv tile bounds of the areas to make tiles for.
+     * @param maker if not null, and tiles are made one at a time, the
+     *        ZoomLevelMaker used to make each tile.
+     * @param layers the layers to render into the tiles.
+     * @param background the background of the tiles.
+     * @param checkpoint used to skip finished blocks and record new ones, can
+     *        be null.
+     * @return false if the thread was interrupted before all of the tiles were
+     *         made.
+     */
+    protected boolean makeTiles(ZoomLevelInfo zli, List<Rectangle2D> uvBounds,
+                                ZoomLevelMaker maker, List<Layer> layers, Paint background,
+                                TileCheckpoint checkpoint) {
+
+        int blockSize = Math.max(1, metaTileSize);
+        int threads = Math.max(1, numThreads);
+        String name = maker != null ? maker.getName() : "range";
+
+        TileProgress progress = new TileProgress(zli.getZoomLevel());
+        List<TileTask> tasks = new ArrayList<TileTask>();
+
+        for (Rectangle2D bounds : uvBounds) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(" creating tiles " + bounds);
+            }
+            int startx = (int) bounds.getX();
+            int starty = (int) bounds.getY();
+            int endx = startx + (int) bounds.getWidth();
+            int endy = starty + (int) bounds.getHeight();
+
+            for (int bx = (startx / blockSize) * blockSize; bx < endx; bx += blockSize) {
+                for (int by = (starty / blockSize) * blockSize; by < endy; by += blockSize) {
+                    int x = Math.max(bx, startx);
+                    int y = Math.max(by, starty);
+                    int width = Math.min(bx + blockSize, endx) - x;
+                    int height = Math.min(by + blockSize, endy) - y;
+                    tasks.add(new TileTask(name, zli, x, y, width, height, maker, layers, background, checkpoint, progress));
                 }
             }
+        }
 
-            // At this point, for a specific ZoomLevelInfo, the basic tiles for
-            // it have been created. Now we can check the range and create tiles
-            // for the range out of the new tiles.
-            int range = zfi.getRange();
-            if (range < zoomLevel) {
-                Properties rangeProps = new Properties();
-                MapTileLayer tileLayer = new MapTileLayer();
-                StandardMapTileFactory tileFactory = new StandardMapTileFactory();
-                tileFactory.setRootDir(getRootDir());
-                tileFactory.setFileExt(getFormatter().getFormatLabel());
-                tileLayer.setTileFactory(tileFactory);
-
-                List<Layer> subLayers = new ArrayList<Layer>();
-                subLayers.add(tileLayer);
-
-                for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= range; rangeZoomLevel--) {
-                    tileLayer.setZoomLevel(rangeZoomLevel);
-                    ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
-                    rangeZFI.setZoomLevel(rangeZoomLevel);
-                    rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
-                    // Create new tiles from the tiles one zoom level up
-                    tileLayer.setZoomLevel(rangeZoomLevel + 1);
-
-                    for (Rectangle2D rawBounds : zfi.getBounds()) {
-                        Rectangle2D bounds = rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel);
-                        if (logger.isLoggable(Level.INFO)) {
-                            logger.fine(" creating subtiles " + bounds);
-                        }
-                        int startx = (int) bounds.getX();
-                        int starty = (int) bounds.getY();
-                        int xofflimit = (int) bounds.getWidth();
-                        int yofflimit = (int) bounds.getHeight();
-
-                        for (int xoff = 0; xoff < xofflimit; xoff++) {
-                            int x = startx + xoff;
-
-                            // Reset every x loop for first time check through y
-                            // loop
-                            String parentDirPath = null;
-
-                            for (int yoff = 0; yoff < yofflimit; yoff++) {
-                                int y = starty + yoff;
-
-                                if (parentDirPath == null) {
-                                    parentDirPath = rangeZFI.formatParentDirectoryName(getRootDir(), x, y);
-                                    File parentDir = new File(parentDirPath);
-                                    if (!parentDir.exists()) {
-                                        parentDir.mkdirs();
-                                    }
-                                }
+        progress.setTotal(tasks.size());
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (TileTask task : tasks) {
+                // Blocks of tiles run in this thread when the queue is full,
+                // which keeps the queue from getting too far ahead.
+                executor.execute(task);
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(progressInterval, TimeUnit.MILLISECONDS)) {
+                progress.report(false);
+            }
+        } catch (InterruptedException ie) {
+            executor.shutdownNow();
+            logger.info("interrupted, tiles for zoom level " + zli.getZoomLevel()
+                    + " not finished");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        progress.report(true);
+        return true;
+    }
+
+    /**
+     * Get the layers to render for a ZoomLevelMaker, in the order they are
+     * listed. If the ZoomLevelMaker has a List of Layers, that's used,
+     * otherwise the ZoomLevelMaker's layer names are matched with the property
+     * prefixes of the layers set on the MapTileMaker.
+     * 
+     * @param zfi ZoomLevelMaker
+     * @return List of Layers, may be empty.
+     */
+    public List<Layer> getLayersForZoomLevel(ZoomLevelMaker zfi) {
+        List<Layer> layerList = zfi.getLayerList();
+        if (layerList != null) {
+            return layerList;
+        }
+
+        List<Layer> ret = new ArrayList<Layer>();
+        List<String> layerNames = zfi.getLayers();
+        Layer[] layers = getLayers();
+        if (layerNames == null || layers == null) {
+            return ret;
+        }
+
+        for (String layerName : layerNames) {
+            for (Layer layer : layers) {
+                String prefix = layer.getPropertyPrefix();
+                if (prefix == null && layer instanceof PlugInLayer) {
+                    prefix = ((PlugInLayer) layer).getPlugIn().getPropertyPrefix();
+                }
+
+                if (layerName.equals(prefix)) {
+                    ret.add(layer);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Render a block of tiles into one image.
+     * 
+     * @param x the uv x coordinate of the upper left tile.
+     * @param y the uv y coordinate of the upper left tile.
+     * @param width the number of tiles across the block.
+     * @param height the number of tiles down the block.
+     * @param zoomLevel the zoom level of the tiles.
+     * @param layers the layers to render, the first layer is on top.
+     * @param background the paint to use for the background of the image.
+     * @return BufferedImage of the block, or null if it can't be created.
+     */
+    public BufferedImage makeMetaTile(int x, int y, int width, int height, int zoomLevel,
+                                      List<Layer> layers, Paint background) {
+        ImageFormatter formatter = getFormatter();
+        if (formatter == null) {
+            logger.warning("no formatter set! Can't create image.");
+            return null;
+        }
+
+        int pixelWidth = width * TILE_SIZE;
+        int pixelHeight = height * TILE_SIZE;
+        LatLonPoint center = tileUVToLatLon(new Point2D.Double(x + width / 2.0, y + height / 2.0), zoomLevel);
+        Mercator proj = new Mercator(center, mtcTransform.getScaleForZoom(zoomLevel), pixelWidth, pixelHeight);
+
+        ImageFormatter imageFormatter = formatter.makeClone();
+        Graphics graphics = createGraphics(imageFormatter, pixelWidth, pixelHeight);
+        if (graphics == null) {
+            return null;
+        }
+
+        proj.drawBackground((Graphics2D) graphics, background);
+
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.get(i);
+            if (layer != null) {
+                layer.renderDataForProjection(proj, graphics);
+            }
+        }
+
+        graphics.dispose();
+        return imageFormatter.getBufferedImage();
+    }
+
+    /**
+     * Cut a tile out of a block of tiles and format it.
+     * 
+     * @param metaTile the image of the block of tiles.
+     * @param col the column of the tile in the block.
+     * @param row the row of the tile in the block.
+     * @return the formatted image bytes for the tile.
+     */
+    protected byte[] formatMetaTileSlice(BufferedImage metaTile, int col, int row) {
+        return formatMetaTileSlice(metaTile, col, row, getFormatter().makeClone());
+    }
+
+    /**
+     * Cut a tile out of a block of tiles and format it with the given
+     * formatter.
+     * 
+     * @param metaTile the image of the block of tiles.
+     * @param col the column of the tile in the block.
+     * @param row the row of the tile in the block.
+     * @param formatter the formatter, from createMetaTileFormatter.
+     * @return the formatted image bytes for the tile.
+     */
+    protected byte[] formatMetaTileSlice(BufferedImage metaTile, int col, int row,
+                                         ImageFormatter formatter) {
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, metaTile.getType());
+        tile.getRaster().setRect(-col * TILE_SIZE, -row * TILE_SIZE, metaTile.getRaster());
+        return formatter.formatImage(tile);
+    }
 
-                                try {
+    /**
+     * Create the formatter for the tiles of a block. For 8 bit PNG tiles,
+     * the palette is made once from the whole block, so the tiles have the
+     * same colors where they meet.
+     * 
+     * @param metaTile the image of the block of tiles.
+     * @return the formatter to use for the tiles of the block.
+     */
+    protected ImageFormatter createMetaTileFormatter(BufferedImage metaTile) {
+        ImageFormatter formatter = getFormatter().makeClone();
+        if (formatter instanceof PNG8ImageFormatter) {
+            ((PNG8ImageFormatter) formatter).setPalette(PNG8ImageFormatter.createPalette(metaTile));
+        }
+        return formatter;
+    }
 
-                                    byte[] imageBytes = makeTile(x, y, rangeZoomLevel, subLayers, proj, OMColor.clear);
+    /**
+     * A block of tiles to make, run by the thread pool.
+     */
+    protected class TileTask implements Runnable {
+        protected String name;
+        protected ZoomLevelInfo zli;
+        protected int x;
+        protected int y;
+        protected int width;
+        protected int height;
+        protected ZoomLevelMaker maker;
+        protected List<Layer> layers;
+        protected Paint background;
+        protected TileCheckpoint checkpoint;
+        protected TileProgress progress;
+
+        protected TileTask(String name, ZoomLevelInfo zli, int x, int y, int width, int height,
+                ZoomLevelMaker maker, List<Layer> layers, Paint background,
+                TileCheckpoint checkpoint, TileProgress progress) {
+            this.name = name;
+            this.zli = zli;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.maker = maker;
+            this.layers = layers;
+            this.background = background;
+            this.checkpoint = checkpoint;
+            this.progress = progress;
+        }
+
+        /**
+         * @return the checkpoint key for this block of tiles.
+         */
+        protected String getKey() {
+            return name + "|" + zli.getZoomLevel() + "|" + x + "|" + y + "|" + width + "|"
+                    + height;
+        }
 
-                                    String filePath = rangeZFI.formatImageFilePath(getRootDir(), (int) x, (int) y);
-                                    String outputFile = writeImageFile(imageBytes, filePath, true);
+        public void run() {
+            String key = getKey();
+            int numTiles = width * height;
+
+            if (checkpoint != null && checkpoint.isDone(key)) {
+                progress.finished(0, numTiles);
+                return;
+            }
+
+            String root = getRootDir();
+            String[] paths = new String[numTiles];
+            int numNeeded = 0;
+            for (int col = 0; col < width; col++) {
+                for (int row = 0; row < height; row++) {
+                    String path = getImageFilePath(zli.formatImageFilePath(root, x + col, y + row));
+                    if (!skipExisting || !new File(path).exists()) {
+                        paths[col * height + row] = path;
+                        numNeeded++;
+                    }
+                }
+            }
+
+            if (numNeeded > 0) {
+                try {
+                    for (int col = 0; col < width; col++) {
+                        File parentDir = new File(zli.formatParentDirectoryName(root, x + col, y));
+                        if (!parentDir.exists()) {
+                            parentDir.mkdirs();
+                        }
+                    }
 
-                                    if (logger.isLoggable(Level.INFO)) {
-                                        logger.finer("wrote: " + outputFile);
+                    if (numTiles == 1) {
+                        // Single tiles are made the way they always have been.
+                        Proj proj = new Mercator(new LatLonPoint.Double(), 10000, TILE_SIZE, TILE_SIZE);
+                        byte[] imageBytes = (maker != null ? maker.makeTile(x, y, MapTileMaker.this, proj)
+                                : makeTile(x, y, zli.getZoomLevel(), layers, proj, background));
+                        writeImageFile(imageBytes, paths[0], false);
+                    } else {
+                        BufferedImage metaTile = makeMetaTile(x, y, width, height, zli.getZoomLevel(), layers, background);
+                        if (metaTile == null) {
+                            progress.failed(numNeeded);
+                            return;
+                        }
+                        ImageFormatter sliceFormatter = createMetaTileFormatter(metaTile);
+                        for (int col = 0; col < width; col++) {
+                            for (int row = 0; row < height; row++) {
+                                String path = paths[col * height + row];
+                                if (path != null) {
+                                    writeImageFile(formatMetaTileSlice(metaTile, col, row, sliceFormatter), path, false);
+                                    if (logger.isLoggable(Level.FINER)) {
+                                        logger.finer("wrote: " + path);
                                     }
-                                } catch (IOException ioe) {
-                                    logger.warning("Caught IOException writing " + x + ", " + y
-                                            + ", " + zfi);
                                 }
                             }
-
                         }
+                    }
+                } catch (IOException ioe) {
+                    logger.warning("Caught IOException writing tiles " + key + ": "
+                            + ioe.getMessage());
+                    progress.failed(numNeeded);
+                    return;
+                } catch (RuntimeException re) {
+                    logger.warning("Problem making tiles " + key + ": " + re.getMessage());
+                    progress.failed(numNeeded);
+                    return;
+                }
+            }
+
+            if (checkpoint != null) {
+                checkpoint.setDone(key);
+            }
+            progress.finished(numNeeded, numTiles - numNeeded);
+        }
+    }
+
+    /**
+     * Keeps track of the tiles made for a zoom level, and logs the progress.
+     */
+    protected class TileProgress {
+        protected int zoomLevel;
+        protected int total;
+        protected final AtomicInteger blocksDone = new AtomicInteger();
+        protected final AtomicLong tilesWritten = new AtomicLong();
+        protected final AtomicLong tilesSkipped = new AtomicLong();
+        protected final AtomicLong tilesFailed = new AtomicLong();
+        protected final long startTime = System.currentTimeMillis();
+        protected final AtomicLong lastReport = new AtomicLong(startTime);
+
+        protected TileProgress(int zoomLevel) {
+            this.zoomLevel = zoomLevel;
+        }
+
+        protected void setTotal(int total) {
+            this.total = total;
+        }
+
+        protected void finished(int written, int skipped) {
+            tilesWritten.addAndGet(written);
+            tilesSkipped.addAndGet(skipped);
+            blocksDone.incrementAndGet();
+            report(false);
+        }
+
+        protected void failed(int numTiles) {
+            tilesFailed.addAndGet(numTiles);
+            blocksDone.incrementAndGet();
+        }
 
+        /**
+         * Log the progress, if it hasn't been logged recently.
+         * 
+         * @param force log it anyway.
+         */
+        protected void report(boolean force) {
+            long now = System.currentTimeMillis();
+            long last = lastReport.get();
+            if (!force && (now - last < progressInterval || !lastReport.compareAndSet(last, now))) {
+                return;
+            }
+
+            long written = tilesWritten.get();
+            double seconds = Math.max(.001, (now - startTime) / 1000.0);
+            logger.info("zoom level " + zoomLevel + ": " + blocksDone.get() + " of " + total
+                    + " blocks, " + written + " tiles written, " + tilesSkipped.get()
+                    + " skipped, " + tilesFailed.get() + " failed, "
+                    + String.format("%.1f", written / seconds) + " tiles/sec");
+        }
+    }
+
+    /**
+     * Records the blocks of tiles that have been finished in a file, so an
+     * interrupted run can skip them when it's started again.
+     */
+    protected static class TileCheckpoint {
+        protected final Set<String> done = new HashSet<String>();
+        protected PrintWriter writer;
+
+        protected TileCheckpoint(String path) throws IOException {
+            File file = new File(path);
+            if (file.exists()) {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if (line.length() > 0) {
+                            done.add(line);
+                        }
                     }
+                } finally {
+                    reader.close();
                 }
+                logger.info("resuming, " + done.size() + " blocks of tiles already done");
+            }
+            writer = new PrintWriter(new FileWriter(file, true));
+        }
+
+        protected synchronized boolean isDone(String key) {
+            return done.contains(key);
+        }
 
+        protected synchronized void setDone(String key) {
+            if (done.add(key) && writer != null) {
+                writer.println(key);
+                writer.flush();
             }
         }
 
-        logger.info("done writing tiles");
+        protected synchronized void close() {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
     }
 
     public String getRootDir() {
@@ -503,6 +911,53 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         this.rootDir = rootDir;
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads the number of threads rendering tiles.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getMetaTileSize() {
+        return metaTileSize;
+    }
+
+    /**
+     * @param metaTileSize the number of tiles across each block of tiles
+     *        rendered at once. 1 makes each tile separately.
+     */
+    public void setMetaTileSize(int metaTileSize) {
+        this.metaTileSize = metaTileSize;
+    }
+
+    public boolean isSkipExisting() {
+        return skipExisting;
+    }
+
+    /**
+     * @param skipExisting if true, tile files that already exist aren't
+     *        replaced.
+     */
+    public void setSkipExisting(boolean skipExisting) {
+        this.skipExisting = skipExisting;
+    }
+
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * @param checkpointFile path to a file that records finished blocks of
+     *        tiles, null for none.
+     */
+    public void setCheckpointFile(String checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
     public List<ZoomLevelMaker> getZoomLevels() {
         if (zoomLevels == null) {
             zoomLevels = new LinkedList<ZoomLevelMaker>();
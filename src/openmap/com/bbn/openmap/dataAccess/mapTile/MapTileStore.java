@@ -0,0 +1,57 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.io.IOException;
+
+/**
+ * A MapTileStore holds the encoded image bytes of map tiles, and can be shared
+ * by several threads. The tiles are addressed by uv coordinates in the OSM
+ * layout, with y increasing to the south, and the store is responsible for
+ * converting them to whatever layout it uses internally.
+ *
+ * @author dietrick
+ */
+public interface MapTileStore {
+
+    /**
+     * Get the image bytes for a tile.
+     *
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @return the encoded image for the tile, or null if the store doesn't
+     *         have it.
+     * @throws IOException if the store can't be read.
+     */
+    byte[] getTileBytes(int x, int y, int zoomLevel) throws IOException;
+
+    /**
+     * Add or replace the image bytes for a tile.
+     *
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @param imageBytes the encoded image for the tile.
+     * @throws IOException if the store can't be written.
+     */
+    void putTileBytes(int x, int y, int zoomLevel, byte[] imageBytes) throws IOException;
+
+    /**
+     * Release any resources held by the store. The store can't be used after
+     * it's closed.
+     */
+    void close();
+}
@@ -34,9 +34,19 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.logging.Level;
@@ -50,6 +60,7 @@ import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.image.BufferedImageHelper;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMRasterObject;
 import com.bbn.openmap.omGraphics.OMScalingRaster;
 import com.bbn.openmap.omGraphics.OMText;
 import com.bbn.openmap.omGraphics.OMTextLabeler;
@@ -79,6 +90,8 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * rootDir=the path to the parent directory of the tiles. The factory will construct specific file paths that are appended to this value.
  * fileExt=the file extension to append to the tile names
  * cacheSize=the number of mapTiles the factory should hold on to. The default is 100.
+ * # optional limit on the memory used by cached tile images, in bytes
+ * cacheMaxBytes=67108864
  * # default is OSMMapTileCoordinateTransform, but it depends on the source of tiles.  GDAL is TSMMapTileCoordinateTransform
  * mapTileTransform=com.bbn.openmap.dataAccess.mapTile.OSMMapTileCoordinateTransform, or com.bbn.openmap.dataAccess.mapTile.TSMMapTileCoordinateTransform
  * # what to do about missing tiles?
@@ -87,8 +100,22 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.StandardImagePreparer
  * # or
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.GreyscaleImagePreparer
+ * # number of threads loading tiles for a MapTileRequester, 4 by default, 0 loads them on the calling thread
+ * loaderThreads=4
+ * # number of zoom levels to look up for a cached tile to stand in for a tile being loaded, 4 by default
+ * placeholderLevels=4
  * </pre>
  * 
+ * When a MapTileRequester is set on the factory, tiles that aren't in the cache
+ * are loaded in the background by a small pool of loader threads, and getTiles
+ * returns right away with the cached tiles. The missing tiles are loaded
+ * closest to the center of the map first, and are added to the list as they
+ * arrive, with the requester being told each time the list changes. Until a
+ * tile arrives, part of a cached tile from a lower zoom level is scaled up to
+ * stand in for it. Tiles still waiting to be loaded when the next getTiles
+ * call no longer needs them are dropped. Without a requester, getTiles loads
+ * all of the tiles before returning.
+ * 
  * @author dietrick
  */
 public class StandardMapTileFactory extends CacheHandler implements MapTileFactory,
@@ -99,11 +126,27 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     public final static String ROOT_DIR_PROPERTY = "rootDir";
     public final static String FILE_EXT_PROPERTY = "fileExt";
     public final static String CACHE_SIZE_PROPERTY = "cacheSize";
+    /**
+     * Property for the maximum number of bytes of tile images held in memory,
+     * in addition to the cacheSize limit on the number of tiles. No limit if
+     * not set.
+     */
+    public final static String CACHE_MAX_BYTES_PROPERTY = "cacheMaxBytes";
     public final static String MTCTRANSFORM_PROPERTY = "mapTileTransform";
     public final static String EMPTY_TILE_HANDLER_PROPERTY = "emptyTileHandler";
     public final static String ZOOM_LEVEL_INFO_PROPERTY = "zoomLevelInfo";
     public final static String ZOOM_LEVEL_TILE_SIZE_PROPERTY = "zoomLevelTileSize";
     public final static String TILE_IMAGE_PREPARER_PROPERTY = "tileImagePreparer";
+    /**
+     * Property for the number of threads loading tiles in the background for
+     * a MapTileRequester. 0 loads tiles on the thread calling getTiles.
+     */
+    public final static String LOADER_THREADS_PROPERTY = "loaderThreads";
+    /**
+     * Property for the number of zoom levels to check for a cached tile that
+     * can stand in for a tile being loaded in the background.
+     */
+    public final static String PLACEHOLDER_LEVELS_PROPERTY = "placeholderLevels";
     /**
      * Inserted into properties loaded via tiles.omp, so that the
      * EmptyTileHandler can know where the tile set is located, in case it needs
@@ -151,6 +194,34 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
      */
     protected MapTileCoordinateTransform mtcTransform = new OSMMapTileCoordinateTransform();
 
+    /**
+     * Whether tiles missing from the cache are loaded in the background. Only
+     * useful if the MapTileRequester repaints as tiles arrive.
+     */
+    protected boolean backgroundLoading = false;
+    /**
+     * The number of threads loading tiles in the background.
+     */
+    protected int loaderThreads = 4;
+    /**
+     * The number of zoom levels to look up for placeholder tiles.
+     */
+    protected int placeholderLevels = 4;
+    /**
+     * The thread pool loading tiles in the background, created when needed.
+     */
+    protected ThreadPoolExecutor tileLoader;
+    /**
+     * The tiles waiting to be loaded in the background, keyed by cache key.
+     * Also the lock for the tile lists and tasks of background loading.
+     */
+    protected final Map<String, TileLoadTask> pendingLoads = new HashMap<String, TileLoadTask>();
+    /**
+     * Incremented for every getTiles call, so background loads for old
+     * requests can be recognized.
+     */
+    protected long loadGeneration = 0;
+
     public StandardMapTileFactory() {
         super(100);
         verbose = logger.isLoggable(Level.FINE);
@@ -169,10 +240,26 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         return null;
     }
 
+    /**
+     * Tiles are weighed by the bytes held by their images, for the
+     * cacheMaxBytes limit.
+     */
+    @Override
+    protected long weigh(CacheObject co) {
+        if (co.obj instanceof OMRasterObject) {
+            Image image = ((OMRasterObject) co.obj).getImage();
+            if (image != null) {
+                return Math.max(1, 4L * image.getWidth(null) * image.getHeight(null));
+            }
+        }
+        return 1;
+    }
+
     /**
      * Tell the factory to dump the cache.
      */
     public void reset() {
+        cancelTileLoads(Long.MAX_VALUE);
         clear();
     }
 
@@ -337,22 +424,14 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
      *        tiles matches the rendered projection.
      * @return object from cache.
      */
-    public Object get(Object key, int x, int y, int zoomLevel, Projection proj) {
-        CacheObject ret = searchCache(key);
-        if (ret != null) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("found tile (" + x + ", " + y + ") in cache");
+    public Object get(final Object key, final int x, final int y, final int zoomLevel,
+                      final Projection proj) {
+        CacheObject ret = get(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key, x, y, zoomLevel, proj);
             }
-            return ret.obj;
-        }
-
-        ret = load(key, x, y, zoomLevel, proj);
-        if (ret == null) {
-            return null;
-        }
-
-        replaceLeastUsed(ret);
-        return ret.obj;
+        });
+        return ret == null ? null : ret.obj;
     }
 
     /**
@@ -470,12 +549,18 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
 
         if (lastProj == null || !proj.getClass().isAssignableFrom(lastProj.getClass())) {
             logger.fine("Clearing out cache for new projection type");
+            cancelTileLoads(Long.MAX_VALUE);
             clear(); // empty the cache to rebuild OMGraphics for different type
             // projection.
         }
 
         lastProj = proj;
 
+        long generation;
+        synchronized (pendingLoads) {
+            generation = ++loadGeneration;
+        }
+
         /**
          * Given a projection, a couple of things have to happen.
          * 
@@ -536,6 +621,11 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
             }
 
         }
+
+        // Anything still waiting to be loaded that wasn't asked for again is
+        // off the map now.
+        cancelTileLoads(generation);
+
         return list;
     }
 
@@ -583,40 +673,44 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         int uvupM = (int) Math.min(uvbottom, uvup);
         int uvbottomM = (int) Math.max(uvbottom, uvup);
 
-        for (int x = uvleftM; x < uvrightM; x++) {
-            for (int y = uvupM; y < uvbottomM; y++) {
+        // Loader threads add tiles to lists while holding this lock, so they
+        // won't be generating tiles while the cached ones are gathered here.
+        synchronized (pendingLoads) {
+            for (int x = uvleftM; x < uvrightM; x++) {
+                for (int y = uvupM; y < uvbottomM; y++) {
 
-                if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
-                    return;
-                }
-
-                String imagePath = buildCacheKey(x, y, zoomLevel, getFileExt());
-
-                /**
-                 * Need to modify the action of the cache a little to make the
-                 * map appear more responsive. So, we cycle through the desired
-                 * tiles, gathering all of the tiles that are immediately
-                 * available. Generate them, add them to list, and call repaint
-                 * when they are set.
-                 * 
-                 * Keep track of the ones that are not there, and load those
-                 * one-by-one after, calling repaint as they are added to the
-                 * list.
-                 */
-                OMGraphic tileGraphic = (OMGraphic) getFromCache(imagePath, x, y, zoomLevel);
+                    if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
+                        return;
+                    }
 
-                if (tileGraphic != null) {
+                    String imagePath = buildCacheKey(x, y, zoomLevel, getFileExt());
+
+                    /**
+                     * Need to modify the action of the cache a little to make the
+                     * map appear more responsive. So, we cycle through the desired
+                     * tiles, gathering all of the tiles that are immediately
+                     * available. Generate them, add them to list, and call repaint
+                     * when they are set.
+                     * 
+                     * Keep track of the ones that are not there, and load those
+                     * after, in the background if there's a requester, calling
+                     * repaint as they are added to the list.
+                     */
+                    OMGraphic tileGraphic = (OMGraphic) getFromCache(imagePath, x, y, zoomLevel);
+
+                    if (tileGraphic != null) {
+
+                        if (mapTileLogger.isLoggable(Level.FINE)) {
+                            tileGraphic.putAttribute(OMGraphic.LABEL, new OMTextLabeler("Tile: "
+                                    + zoomLevel + "|" + x + "|" + y, OMText.JUSTIFY_CENTER));
+                            tileGraphic.setSelected(true);
+                        }
 
-                    if (mapTileLogger.isLoggable(Level.FINE)) {
-                        tileGraphic.putAttribute(OMGraphic.LABEL, new OMTextLabeler("Tile: "
-                                + zoomLevel + "|" + x + "|" + y, OMText.JUSTIFY_CENTER));
-                        tileGraphic.setSelected(true);
+                        tileGraphic.generate(proj);
+                        list.add(tileGraphic);
+                    } else {
+                        reloads.add(new LoadObj(imagePath, x, y, zoomLevel));
                     }
-
-                    tileGraphic.generate(proj);
-                    list.add(tileGraphic);
-                } else {
-                    reloads.add(new LoadObj(imagePath, x, y, zoomLevel));
                 }
             }
         }
@@ -626,6 +720,15 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
                     + " others now...");
         }
 
+        if (isLoadingInBackground()) {
+            queueTileLoads(reloads, proj, list);
+
+            if (mapTileRequester != null) {
+                mapTileRequester.listUpdated();
+            }
+            return;
+        }
+
         if (mapTileRequester != null) {
             mapTileRequester.listUpdated();
         }
@@ -747,15 +850,9 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     private void loadTile(String imagePath, int x, int y, int zoomLevel, Projection proj,
                           OMGraphicList list) {
 
-        CacheObject ret = load(imagePath, x, y, zoomLevel, proj);
-        if (ret == null) {
-
-            // Check if the factory wants to do anything for empty tiles.
-            ret = getEmptyTile(imagePath, x, y, zoomLevel, proj);
-        }
+        CacheObject ret = fetchTile(imagePath, x, y, zoomLevel, proj);
 
         if (ret != null) {
-            replaceLeastUsed(ret);
             OMGraphic raster = (OMGraphic) ret.obj;
 
             if (raster != null) {
@@ -770,6 +867,279 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
     }
 
+    /**
+     * Gets a tile from the cache, loading it from the source or getting an
+     * empty tile for it if it isn't there. Going through the cache means only
+     * one thread loads a tile, even if several threads ask for it.
+     * 
+     * @param imagePath the image path for the tile
+     * @param x the x uv coordinate of the tile
+     * @param y the y uv coordinate of the tile
+     * @param zoomLevel the zoomLevel of the tile
+     * @param proj the current projection.
+     * @return CacheObject holding the tile, or null if there isn't one.
+     */
+    protected CacheObject fetchTile(final String imagePath, final int x, final int y,
+                                    final int zoomLevel, final Projection proj) {
+        return get(imagePath, new Callable<CacheObject>() {
+            public CacheObject call() {
+                CacheObject co = load(imagePath, x, y, zoomLevel, proj);
+                if (co == null) {
+                    // Check if the factory wants to do anything for empty
+                    // tiles.
+                    co = getEmptyTile(imagePath, x, y, zoomLevel, proj);
+                }
+                return co;
+            }
+        });
+    }
+
+    /**
+     * @return true if tiles missing from the cache should be loaded in the
+     *         background, which is done when background loading is turned on
+     *         and there is a MapTileRequester to tell when they arrive.
+     */
+    protected boolean isLoadingInBackground() {
+        return backgroundLoading && mapTileRequester != null && loaderThreads > 0;
+    }
+
+    /**
+     * Queue up tiles to be loaded in the background, in order of their
+     * distance from the center of the map. Tiles that are already waiting to
+     * be loaded are moved over to the new list and projection. Placeholder
+     * tiles are added to the list for tiles that can use them.
+     * 
+     * @param reloads the tiles that aren't in the cache.
+     * @param proj the current projection.
+     * @param list the list to add the tiles to as they arrive.
+     */
+    protected void queueTileLoads(List<LoadObj> reloads, Projection proj, OMGraphicList list) {
+        if (reloads.isEmpty()) {
+            return;
+        }
+
+        int zoomLevel = reloads.get(0).zoomLevel;
+        Point2D center = mtcTransform.latLonToTileUV(proj.getCenter(), zoomLevel);
+
+        synchronized (pendingLoads) {
+            ThreadPoolExecutor loader = getTileLoader();
+            List<TileLoadTask> tasks = new ArrayList<TileLoadTask>(reloads.size());
+
+            for (LoadObj reload : reloads) {
+                double dx = reload.x + .5 - center.getX();
+                double dy = reload.y + .5 - center.getY();
+
+                TileLoadTask task = pendingLoads.get(reload.imagePath);
+                if (task != null && !loader.remove(task)) {
+                    // Already loading, just have it go to the new list.
+                    task.setTarget(list, proj, loadGeneration, dx * dx + dy * dy);
+                    task.setPlaceholder(getPlaceholderTile(reload.x, reload.y, zoomLevel, proj));
+                    continue;
+                }
+
+                if (task == null) {
+                    task = new TileLoadTask(reload.imagePath, reload.x, reload.y, zoomLevel);
+                    pendingLoads.put(reload.imagePath, task);
+                }
+
+                task.setTarget(list, proj, loadGeneration, dx * dx + dy * dy);
+                task.setPlaceholder(getPlaceholderTile(reload.x, reload.y, zoomLevel, proj));
+                tasks.add(task);
+            }
+
+            Collections.sort(tasks);
+            for (TileLoadTask task : tasks) {
+                loader.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Cancel the background loading of tiles that were last requested before
+     * the given generation.
+     * 
+     * @param generation the loadGeneration of the current request, or
+     *        Long.MAX_VALUE to cancel everything.
+     */
+    protected void cancelTileLoads(long generation) {
+        synchronized (pendingLoads) {
+            for (Iterator<TileLoadTask> it = pendingLoads.values().iterator(); it.hasNext();) {
+                TileLoadTask task = it.next();
+                if (task.generation < generation) {
+                    task.cancelled = true;
+                    if (tileLoader != null) {
+                        tileLoader.remove(task);
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the thread pool for loading tiles in the background, creating it if
+     * needed. Idle threads time out, and the pool threads are daemons so they
+     * don't keep the application running. Called with the pendingLoads lock
+     * held.
+     * 
+     * @return ThreadPoolExecutor
+     */
+    protected ThreadPoolExecutor getTileLoader() {
+        if (tileLoader == null) {
+            int numThreads = Math.max(1, loaderThreads);
+            tileLoader = new ThreadPoolExecutor(numThreads, numThreads, 30L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MapTileLoader-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            tileLoader.allowCoreThreadTimeOut(true);
+        }
+        return tileLoader;
+    }
+
+    /**
+     * Create a tile to show until a tile is loaded, from part of a cached tile
+     * at a lower zoom level, scaled up. Only tiles cached as OMRasterObjects
+     * with BufferedImages can be used.
+     * 
+     * @param x the x uv coordinate of the tile
+     * @param y the y uv coordinate of the tile
+     * @param zoomLevel the zoomLevel of the tile
+     * @param proj the current projection.
+     * @return OMGraphic generated for the projection, or null if there isn't a
+     *         cached tile to use.
+     */
+    protected OMGraphic getPlaceholderTile(int x, int y, int zoomLevel, Projection proj) {
+        for (int levels = 1; levels <= placeholderLevels && levels <= zoomLevel; levels++) {
+            int px = x >> levels;
+            int py = y >> levels;
+            int pz = zoomLevel - levels;
+            Object obj = getFromCache(buildCacheKey(px, py, pz, getFileExt()), px, py, pz);
+            if (!(obj instanceof OMRasterObject)) {
+                continue;
+            }
+
+            Image image = ((OMRasterObject) obj).getImage();
+            if (!(image instanceof BufferedImage)) {
+                continue;
+            }
+
+            BufferedImage bi = (BufferedImage) image;
+            int numAcross = 1 << levels;
+            int width = bi.getWidth() / numAcross;
+            int height = bi.getHeight() / numAcross;
+            if (width < 1 || height < 1) {
+                return null;
+            }
+
+            int col = x - (px << levels);
+            int row = y - (py << levels);
+            if (mtcTransform.isYDirectionUp()) {
+                row = numAcross - 1 - row;
+            }
+
+            BufferedImage subImage = bi.getSubimage(col * width, row * height, width, height);
+            OMGraphic placeholder = (proj instanceof Mercator ? getTileMatchingProjectionType(subImage, x, y, zoomLevel)
+                    : getTileNotMatchingProjectionType(subImage, x, y, zoomLevel));
+            placeholder.generate(proj);
+            return placeholder;
+        }
+        return null;
+    }
+
+    /**
+     * A tile being loaded in the background. The list, projection and
+     * placeholder it's loaded for can change if the tile is asked for again
+     * before it's loaded, and are protected by the pendingLoads lock.
+     * Tasks are ordered by request, newest first, and then by distance from
+     * the center of the map.
+     */
+    protected class TileLoadTask implements Runnable, Comparable<TileLoadTask> {
+        final String imagePath;
+        final int x;
+        final int y;
+        final int zoomLevel;
+        OMGraphicList list;
+        Projection proj;
+        OMGraphic placeholder;
+        long generation;
+        double distance;
+        boolean cancelled = false;
+
+        TileLoadTask(String imagePath, int x, int y, int zoomLevel) {
+            this.imagePath = imagePath;
+            this.x = x;
+            this.y = y;
+            this.zoomLevel = zoomLevel;
+        }
+
+        void setTarget(OMGraphicList list, Projection proj, long generation, double distance) {
+            this.list = list;
+            this.proj = proj;
+            this.generation = generation;
+            this.distance = distance;
+        }
+
+        void setPlaceholder(OMGraphic placeholder) {
+            this.placeholder = placeholder;
+            if (placeholder != null) {
+                list.add(placeholder);
+            }
+        }
+
+        public int compareTo(TileLoadTask task) {
+            if (generation != task.generation) {
+                return generation > task.generation ? -1 : 1;
+            }
+            return Double.compare(distance, task.distance);
+        }
+
+        public void run() {
+            Projection loadProj;
+            synchronized (pendingLoads) {
+                if (cancelled) {
+                    return;
+                }
+                loadProj = proj;
+            }
+
+            CacheObject ret = fetchTile(imagePath, x, y, zoomLevel, loadProj);
+            OMGraphic raster = ret != null ? (OMGraphic) ret.obj : null;
+
+            synchronized (pendingLoads) {
+                if (pendingLoads.get(imagePath) == this) {
+                    pendingLoads.remove(imagePath);
+                }
+
+                if (cancelled) {
+                    return;
+                }
+
+                if (placeholder != null) {
+                    list.remove(placeholder);
+                }
+
+                if (raster != null) {
+                    raster.generate(proj);
+                    list.add(raster);
+
+                    if (logger.isLoggable(Level.FINE)) {
+                        raster.putAttribute(OMGraphic.TOOLTIP, imagePath);
+                    }
+                }
+            }
+
+            MapTileRequester requester = mapTileRequester;
+            if (requester != null) {
+                requester.listUpdated();
+            }
+        }
+    }
+
     /**
      * Handles going to the cache, getting the cache to load the tile, and then
      * manage the resulting OMRaster tile. Adds the tile to the list after
@@ -907,11 +1277,27 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         this.mapTileRequester = mtRequestor;
     }
 
+    public boolean isBackgroundLoading() {
+        return backgroundLoading;
+    }
+
+    /**
+     * Set whether tiles missing from the cache are loaded in the background,
+     * with placeholders in the list until they arrive. The MapTileRequester
+     * is told about each tile as it arrives, so it should repaint then. Off by
+     * default, when getTiles loads all of the tiles before it returns.
+     */
+    public void setBackgroundLoading(boolean backgroundLoading) {
+        this.backgroundLoading = backgroundLoading;
+    }
+
     public Properties getProperties(Properties getList) {
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         getList.put(prefix + ROOT_DIR_PROPERTY, PropUtils.unnull(rootDirProperty));
         getList.put(prefix + FILE_EXT_PROPERTY, PropUtils.unnull(getFileExt()));
         getList.put(prefix + CACHE_SIZE_PROPERTY, Integer.toString(getCacheSize()));
+        getList.put(prefix + CACHE_MAX_BYTES_PROPERTY, (getMaxWeight() > 0 ? Long.toString(getMaxWeight())
+                : ""));
         getList.put(prefix + MTCTRANSFORM_PROPERTY, mtcTransform.getClass().toString());
         if (emptyTileHandler != null) {
             getList.put(prefix + EMPTY_TILE_HANDLER_PROPERTY, emptyTileHandler.getClass().toString());
@@ -926,6 +1312,8 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         getList.put(prefix + ZOOM_LEVEL_TILE_SIZE_PROPERTY, Integer.toString(zoomLevelTileSize));
+        getList.put(prefix + LOADER_THREADS_PROPERTY, Integer.toString(loaderThreads));
+        getList.put(prefix + PLACEHOLDER_LEVELS_PROPERTY, Integer.toString(placeholderLevels));
         TileImagePreparer tip = getTileImagePreparer();
         if (!(tip instanceof StandardImagePreparer)) {
             getList.put(prefix + TILE_IMAGE_PREPARER_PROPERTY, tip.getClass().getName());
@@ -942,7 +1330,10 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, ROOT_DIR_PROPERTY, "Tile URL or Path", "Root directory containing image tiles, or URL (http://tileserver/{z}/{x}/{y}.png)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, FILE_EXT_PROPERTY, "Image File Extension", "Extension of image files (.jpg, .png, etc)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, CACHE_SIZE_PROPERTY, "Cache Size", "Number of tile images held in memory", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, CACHE_MAX_BYTES_PROPERTY, "Cache Memory", "Maximum bytes of tile images held in memory (optional)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, ZOOM_LEVEL_TILE_SIZE_PROPERTY, "Zoom Level Tile Size", "The maximum pixel size of a tile before switching to a higher zoom level (350 is default)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, LOADER_THREADS_PROPERTY, "Loader Threads", "Number of threads loading tiles in the background (0 loads them before the map is updated)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, PLACEHOLDER_LEVELS_PROPERTY, "Placeholder Levels", "Number of zoom levels to look up for a tile to show while a tile is loading", null);
         return list;
     }
     
@@ -1010,9 +1401,13 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         super.resetCache(PropUtils.intFromProperties(setList, prefix + CACHE_SIZE_PROPERTY, getCacheSize()));
+        setMaxWeight(PropUtils.longFromProperties(setList, prefix + CACHE_MAX_BYTES_PROPERTY, getMaxWeight()));
 
         zoomLevelTileSize = PropUtils.intFromProperties(setList, prefix
                 + ZOOM_LEVEL_TILE_SIZE_PROPERTY, zoomLevelTileSize);
+        setLoaderThreads(PropUtils.intFromProperties(setList, prefix + LOADER_THREADS_PROPERTY, loaderThreads));
+        placeholderLevels = PropUtils.intFromProperties(setList, prefix
+                + PLACEHOLDER_LEVELS_PROPERTY, placeholderLevels);
     }
 
     public void setPropertyPrefix(String prefix) {
@@ -1161,6 +1556,44 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
 
     }
 
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /**
+     * Set the number of threads loading tiles in the background when
+     * background loading is on. 0 loads tiles on the thread calling getTiles.
+     * 
+     * @param loaderThreads number of threads
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        synchronized (pendingLoads) {
+            this.loaderThreads = loaderThreads;
+            if (tileLoader != null && loaderThreads > 0) {
+                if (loaderThreads > tileLoader.getCorePoolSize()) {
+                    tileLoader.setMaximumPoolSize(loaderThreads);
+                    tileLoader.setCorePoolSize(loaderThreads);
+                } else {
+                    tileLoader.setCorePoolSize(loaderThreads);
+                    tileLoader.setMaximumPoolSize(loaderThreads);
+                }
+            }
+        }
+    }
+
+    public int getPlaceholderLevels() {
+        return placeholderLevels;
+    }
+
+    /**
+     * @param placeholderLevels the number of zoom levels to look up for a
+     *        cached tile to show while a tile is loaded in the background, 0
+     *        for no placeholders.
+     */
+    public void setPlaceholderLevels(int placeholderLevels) {
+        this.placeholderLevels = placeholderLevels;
+    }
+
     public TileImagePreparer getTileImagePreparer() {
         if (tileImagePreparer == null) {
             tileImagePreparer = new StandardImagePreparer();
@@ -25,10 +25,7 @@
 package com.bbn.openmap.dataAccess.mapTile;
 
 import java.awt.image.BufferedImage;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.Statement;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.logging.Level;
 
@@ -63,6 +60,9 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  *
  * </pre>
  *
+ * The database is read through an MBTilesStore, which keeps its connections
+ * open between tiles.
+ *
  * @author dietrick
  */
 public class TileMillMapTileFactory
@@ -74,6 +74,10 @@ public class TileMillMapTileFactory
      * Test class to use for existence of JDBC drivers.
      */
     protected String testClass = DEFAULT_TEST_CLASS;
+    /**
+     * The store reading the database, created when the first tile is loaded.
+     */
+    protected MBTilesStore tileStore;
 
     public TileMillMapTileFactory() {
         this(null);
@@ -98,20 +102,8 @@ public class TileMillMapTileFactory
         }
 
         try {
-            Connection conn =
-                DriverManager.getConnection(rootDir);
-            Statement stat = conn.createStatement();
-
-            //"select zoom_level, tile_column, tile_row, tile_data from map, images where map.tile_id = images.tile_id";
-            StringBuilder statement = new StringBuilder("select tile_data from map, images where");
-            statement.append(" zoom_level = ").append(zoomLevel);
-            statement.append(" and tile_column = ").append(x);
-            statement.append(" and tile_row = ").append(Math.pow(2, zoomLevel) - y - 1);
-            statement.append(" and map.tile_id = images.tile_id;");
-
-            ResultSet rs = stat.executeQuery(statement.toString());
-            while (rs.next()) {
-                byte[] imageBytes = rs.getBytes("tile_data");
+            byte[] imageBytes = getTileStore().getTileBytes(x, y, zoomLevel);
+            if (imageBytes != null) {
 
                 ImageIcon ii = new ImageIcon(imageBytes);
 
@@ -122,10 +114,9 @@ public class TileMillMapTileFactory
                 if (raster != null) {
                     return new CacheObject((String) key, raster);
                 }
-
             }
-            rs.close();
-            conn.close();
+        } catch (IOException ioe) {
+            logger.warning("something went wrong fetching image from database: " + ioe.getMessage());
         } catch (Exception e) {
             logger.warning("something went wrong fetching image from database: " + e.getMessage());
             e.printStackTrace();
@@ -134,6 +125,29 @@ public class TileMillMapTileFactory
         return null;
     }
 
+    /**
+     * @return the MBTilesStore for the rootDir database, created if needed.
+     */
+    protected synchronized MBTilesStore getTileStore() {
+        if (tileStore == null) {
+            tileStore = new MBTilesStore(rootDir);
+        }
+        return tileStore;
+    }
+
+    /**
+     * Closes the connections to the old database when the rootDir changes.
+     */
+    public void setRootDir(String rootDirectory) {
+        super.setRootDir(rootDirectory);
+        synchronized (this) {
+            if (tileStore != null && (rootDir == null || !rootDir.equals(tileStore.getUrl()))) {
+                tileStore.close();
+                tileStore = null;
+            }
+        }
+    }
+
     public Properties getProperties(Properties getList) {
         getList = super.getProperties(getList);
         if (testClass != null && !testClass.equals(DEFAULT_TEST_CLASS)) {
@@ -43,6 +43,7 @@ import com.bbn.openmap.omGraphics.OMPoly;
 import com.bbn.openmap.omGraphics.OMText;
 import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.AbstractGCT;
 import com.bbn.openmap.proj.coords.GeoCoordTransformation;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.DataBounds;
@@ -1080,9 +1081,7 @@ public class EsriGraphicFactory implements ShapeConstants {
         }
 
         int[] parts = new int[numParts];
-        for (int i = 0; i < numParts; i++) {
-            parts[i] = shpFile.readInteger();
-        }
+        shpFile.readIntegerArray(parts, 0, numParts);
         byteTracker.addRead(numParts * 4);
 
         int origin = parts[0];
@@ -1200,33 +1199,19 @@ public class EsriGraphicFactory implements ShapeConstants {
         float[] coords = new float[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
-        }
-
-        for (j = 0; j < length; j++) {
-            double x = shpFile.readDouble();
-            double y = shpFile.readDouble();
-            bitTracker.addRead(2 * 8);
+        double[] xy = new double[length * 2];
+        shpFile.readDoubleArray(xy, 0, length * 2);
+        bitTracker.addRead(length * 2 * 8);
 
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
-            } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
-            }
+        toRadianLatLon(xy, length, dataTrans);
 
-            coords[j * 2] = (float) y;
-            coords[j * 2 + 1] = (float) x;
+        for (j = 0; j < length * 2; j++) {
+            coords[j] = (float) xy[j];
         }
 
         if (isPolygon) {
-            coords[j * 2] = coords[0];
-            coords[j * 2 + 1] = coords[1];
+            coords[j] = coords[0];
+            coords[j + 1] = coords[1];
         }
         return coords;
     }
@@ -1239,33 +1224,21 @@ public class EsriGraphicFactory implements ShapeConstants {
         float[] coords = new float[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
+        double[] xy = new double[length * 2];
+        for (j = 0; j < length * 2; j++) {
+            xy[j] = iStream.readLEDouble();
         }
+        bitTracker.addRead(length * 2 * 8);
 
-        for (j = 0; j < length; j++) {
-            double x = iStream.readLEDouble();
-            double y = iStream.readLEDouble();
-            bitTracker.addRead(2 * 8);
-
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
-            } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
-            }
+        toRadianLatLon(xy, length, dataTrans);
 
-            coords[j * 2] = (float) y;
-            coords[j * 2 + 1] = (float) x;
+        for (j = 0; j < length * 2; j++) {
+            coords[j] = (float) xy[j];
         }
 
         if (isPolygon) {
-            coords[j * 2] = coords[0];
-            coords[j * 2 + 1] = coords[1];
+            coords[j] = coords[0];
+            coords[j + 1] = coords[1];
         }
         return coords;
     }
@@ -1275,35 +1248,18 @@ public class EsriGraphicFactory implements ShapeConstants {
             throws IOException, FormatException {
 
         double[] coords = new double[isPolygon ? length * 2 + 2 : length * 2];
-        int j = 0;
-
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
-        }
-
-        for (j = 0; j < length; j++) {
-            double x = shpFile.readDouble();
-            double y = shpFile.readDouble();
-            bitTracker.addRead(2 * 8);
 
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
-            } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
-            }
+        // Read the x, y pairs straight into the coordinate array (a bulk copy
+        // for mapped files), and then convert them in place to lat, lon
+        // radians.
+        shpFile.readDoubleArray(coords, 0, length * 2);
+        bitTracker.addRead(length * 2 * 8);
 
-            coords[j * 2] = y;
-            coords[j * 2 + 1] = x;
-        }
+        toRadianLatLon(coords, length, dataTrans);
 
         if (isPolygon) {
-            coords[j * 2] = coords[0];
-            coords[j * 2 + 1] = coords[1];
+            coords[length * 2] = coords[0];
+            coords[length * 2 + 1] = coords[1];
         }
         return coords;
     }
@@ -1313,39 +1269,48 @@ public class EsriGraphicFactory implements ShapeConstants {
             throws IOException, FormatException {
 
         double[] coords = new double[isPolygon ? length * 2 + 2 : length * 2];
-        int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
+        for (int j = 0; j < length * 2; j++) {
+            coords[j] = iStream.readLEDouble();
         }
+        bitTracker.addRead(length * 2 * 8);
 
-        for (j = 0; j < length; j++) {
-            double x = iStream.readLEDouble();
-            double y = iStream.readLEDouble();
-            bitTracker.addRead(2 * 8);
-
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
-            } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
-            }
-
-            coords[j * 2] = y;
-            coords[j * 2 + 1] = x;
-        }
+        toRadianLatLon(coords, length, dataTrans);
 
         if (isPolygon) {
-            coords[j * 2] = coords[0];
-            coords[j * 2 + 1] = coords[1];
+            coords[length * 2] = coords[0];
+            coords[length * 2 + 1] = coords[1];
         }
         return coords;
     }
 
+    /**
+     * Convert the x, y pairs read from a shape file, in place, to the lat, lon
+     * pairs in radians that OMGraphics use. The data transformation, if there
+     * is one, converts the whole array at once.
+     * 
+     * @param coords x, y pairs starting at index 0.
+     * @param length the number of pairs.
+     * @param dataTrans the transformation for the coordinates, null if they
+     *        are decimal degrees.
+     */
+    protected static void toRadianLatLon(double[] coords, int length,
+                                         GeoCoordTransformation dataTrans) {
+        int end = length * 2;
+        if (dataTrans != null) {
+            AbstractGCT.inverse(dataTrans, coords, 0, coords, 0, length);
+            for (int j = 0; j < end; j++) {
+                coords[j] = ProjMath.degToRad(coords[j]);
+            }
+        } else {
+            for (int j = 0; j < end; j += 2) {
+                double x = coords[j];
+                coords[j] = ProjMath.degToRad(coords[j + 1]);
+                coords[j + 1] = ProjMath.degToRad(x);
+            }
+        }
+    }
+
     public static boolean isPolygon(int shapeType) {
         return shapeType == SHAPE_TYPE_POLYGON || shapeType == SHAPE_TYPE_POLYGONZ
                 || shapeType == SHAPE_TYPE_POLYGONM;
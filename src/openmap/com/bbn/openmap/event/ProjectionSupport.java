@@ -23,6 +23,14 @@
 package com.bbn.openmap.event;
 
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +41,13 @@ import com.bbn.openmap.proj.Projection;
  * handling ProjectionListeners and firing ProjectionEvents. You can use an
  * instance of this class as a member field of your bean and delegate work to
  * it.
+ * <p>
+ * Listeners are usually told about projection changes one after another. If
+ * the concurrency is set, they are told at the same time instead, on that many
+ * threads, so a listener that takes a while doesn't hold up the others. A
+ * listener that is still working on a projection when more arrive only gets
+ * the latest one when it's done. How long each listener takes is kept track
+ * of.
  */
 public class ProjectionSupport extends ListenerSupport<ProjectionListener> {
 
@@ -41,6 +56,12 @@ public class ProjectionSupport extends ListenerSupport<ProjectionListener> {
     protected ProjectionChangeNotifier pcNotifier;
     protected boolean useNotifier;
 
+    /** The number of threads listeners are told on, 0 for one at a time. */
+    protected int concurrency = 0;
+    protected ThreadPoolExecutor executor;
+    /** Delivery status for each listener, when telling them concurrently. */
+    protected final Map<ProjectionListener, Delivery> deliveries = new ConcurrentHashMap<ProjectionListener, Delivery>();
+
     /**
      * Construct a ProjectionSupport.
      */
@@ -67,13 +88,23 @@ public class ProjectionSupport extends ListenerSupport<ProjectionListener> {
         if (proj == null || isEmpty())
             return; // no event or no listeners
 
+        ProjectionEvent event = new ProjectionEvent(getSource(), proj);
+
+        ThreadPoolExecutor exec = getExecutor();
+        if (exec != null) {
+            // Bottom of the map first, like the notifier.
+            ListIterator<ProjectionListener> li = listIterator();
+            while (li.hasPrevious()) {
+                getDelivery(li.previous()).post(event, exec);
+            }
+            return;
+        }
+
         if (useNotifier && pcNotifier == null) {
             pcNotifier = new ProjectionChangeNotifier();
             pcNotifier.start();
         }
 
-        ProjectionEvent event = new ProjectionEvent(getSource(), proj);
-
         if (pcNotifier != null) {
             pcNotifier.fireProjectionEvent(event);
         } else {
@@ -83,12 +114,104 @@ public class ProjectionSupport extends ListenerSupport<ProjectionListener> {
         }
     }
 
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Set the number of threads listeners are told about projection changes
+     * on at the same time. 0 or less has them told one after another, the
+     * default.
+     */
+    public synchronized void setConcurrency(int threads) {
+        threads = Math.max(0, threads);
+        if (threads == concurrency) {
+            return;
+        }
+        concurrency = threads;
+        if (executor != null) {
+            if (threads > 0) {
+                executor.setMaximumPoolSize(Math.max(threads, executor.getCorePoolSize()));
+                executor.setCorePoolSize(threads);
+                executor.setMaximumPoolSize(threads);
+            } else {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * @return the executor listeners are told on, null if they're told one
+     *         after another.
+     */
+    protected synchronized ThreadPoolExecutor getExecutor() {
+        if (concurrency > 0 && executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ProjectionSupport-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    protected Delivery getDelivery(ProjectionListener listener) {
+        Delivery delivery = deliveries.get(listener);
+        if (delivery == null) {
+            delivery = new Delivery(listener);
+            Delivery current = ((ConcurrentHashMap<ProjectionListener, Delivery>) deliveries).putIfAbsent(listener, delivery);
+            if (current != null) {
+                delivery = current;
+            }
+        }
+        return delivery;
+    }
+
+    /**
+     * How long a listener took to handle the last projection it was told
+     * about, when listeners are told concurrently.
+     * 
+     * @return milliseconds, or -1 if it hasn't been told about one.
+     */
+    public long getLatency(ProjectionListener listener) {
+        Delivery delivery = deliveries.get(listener);
+        return delivery == null ? -1 : delivery.getLatency();
+    }
+
+    /**
+     * How long a listener took to handle projections on average, when
+     * listeners are told concurrently.
+     * 
+     * @return milliseconds, or -1 if it hasn't been told about any.
+     */
+    public long getAverageLatency(ProjectionListener listener) {
+        Delivery delivery = deliveries.get(listener);
+        return delivery == null ? -1 : delivery.getAverageLatency();
+    }
+
+    public synchronized boolean remove(Object o) {
+        deliveries.remove(o);
+        return super.remove(o);
+    }
+
+    public synchronized void clear() {
+        deliveries.clear();
+        super.clear();
+    }
+
     /**
      * Call when getting rid of the ProjectionSupport, it kills the
      * ProjectionSupport thread. (from CJS)
      */
     public void dispose() {
         super.clear();
+        deliveries.clear();
+        setConcurrency(0);
         if (pcNotifier != null) {
             pcNotifier.setTerminated(true);
             pcNotifier.fireProjectionEvent(null);
@@ -97,6 +220,107 @@ public class ProjectionSupport extends ListenerSupport<ProjectionListener> {
         }
     }
 
+    /**
+     * Tells one listener about projection changes, on the executor. Only one
+     * projection is handled at a time, and if more are posted while it's
+     * busy, only the latest is handled next.
+     */
+    protected class Delivery implements Runnable {
+        protected final ProjectionListener listener;
+        /* the next event for the listener, guarded by this */
+        protected ProjectionEvent pending;
+        /* whether a task is handling events, guarded by this */
+        protected boolean running;
+
+        protected volatile long latency = -1;
+        protected long totalTime;
+        protected int count;
+
+        protected Delivery(ProjectionListener listener) {
+            this.listener = listener;
+        }
+
+        public void post(ProjectionEvent event, ThreadPoolExecutor exec) {
+            synchronized (this) {
+                pending = event;
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            try {
+                exec.execute(this);
+            } catch (RejectedExecutionException ree) {
+                // The executor was shut down by setConcurrency(0) after it
+                // was handed out, tell the listener on this thread.
+                run();
+            }
+        }
+
+        public void run() {
+            boolean done = false;
+            try {
+                deliver();
+                done = true;
+            } finally {
+                if (!done) {
+                    // The listener threw an Error, let the next post start
+                    // another task.
+                    synchronized (this) {
+                        running = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Hand the pending events to the listener until there aren't any.
+         */
+        protected void deliver() {
+            while (true) {
+                ProjectionEvent event;
+                synchronized (this) {
+                    event = pending;
+                    pending = null;
+                    if (event == null) {
+                        running = false;
+                        return;
+                    }
+                }
+
+                long start = System.nanoTime();
+                try {
+                    listener.projectionChanged(event);
+                } catch (Exception e) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.info("ProjectionListener not handling projection well: "
+                                + listener.getClass().getName() + " : " + e.getClass().getName()
+                                + " : " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+                long time = (System.nanoTime() - start) / 1000000;
+
+                synchronized (this) {
+                    latency = time;
+                    totalTime += time;
+                    count++;
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(listener.getClass().getName() + " took " + time + " ms");
+                }
+            }
+        }
+
+        public long getLatency() {
+            return latency;
+        }
+
+        public synchronized long getAverageLatency() {
+            return count == 0 ? -1 : totalTime / count;
+        }
+    }
+
     /**
      * A thread that disperses the projection event, instead of letting the
      * Swing thread do it. A new one is created for every projection change, so
@@ -0,0 +1,522 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.geo;
+
+import java.util.Arrays;
+
+/**
+ * An index of the great circle segments of a polygon or polyline, for finding
+ * the places where it crosses itself or another one without testing every pair
+ * of segments. The points are kept as Geo coordinates in a double array, and
+ * the space around the earth is divided into cubes. Each segment is bucketed
+ * into the cubes its bounds touch, so only segments sharing a cube are tested
+ * against each other. Segments much longer than the rest are kept to one side
+ * and tested against everything whose bounds they overlap.
+ * <p>
+ * The segments are tested the same way as
+ * Intersection.getSegIntersection(Geo, Geo, Geo, Geo), without creating any
+ * Geos. An index can be searched by several threads at once.
+ */
+public class GeoSegmentIndex {
+
+    /** The most cubes along each axis. */
+    protected final static int MAX_CELLS = 1000;
+    /**
+     * Segments touching more cubes than this are kept out of the cubes, and
+     * searches covering more cubes than this look at all the segments.
+     */
+    protected final static int MAX_CELLS_PER_SEGMENT = 64;
+    /** How much the bounds of segments are padded, for rounding errors. */
+    protected final static double PAD = 1e-9;
+
+    /** The Geo coordinates of the points, x, y, z. */
+    protected final double[] xyz;
+    /**
+     * The decimal degree lat/lon of the points, if they were provided that
+     * way. Used to tell if the ends of segments are the same point.
+     */
+    protected final double[] latlon;
+    protected final int numSegments;
+    /** The bounds of each segment, min x, y, z, max x, y, z. */
+    protected double[] bounds;
+
+    protected double cellSize;
+    protected int numCells;
+    /**
+     * Cube number in the top 32 bits, segment in the bottom, sorted. Null
+     * until the segments are bucketed.
+     */
+    protected long[] entries;
+    /** The segments that aren't in the cubes. */
+    protected int[] oversized;
+
+    /**
+     * Create an index for points in decimal degrees.
+     *
+     * @param llpts lat, lon, lat, lon... For closed polygons the last point
+     *        should be the same as the first.
+     */
+    public GeoSegmentIndex(double[] llpts) {
+        this(llpts.length / 2, llpts.clone());
+    }
+
+    /**
+     * Create an index for points in decimal degrees.
+     *
+     * @param llpts lat, lon, lat, lon... For closed polygons the last point
+     *        should be the same as the first.
+     */
+    public GeoSegmentIndex(float[] llpts) {
+        this(llpts.length / 2, toDoubles(llpts));
+    }
+
+    /**
+     * Create an index for a GeoArray. For closed polygons the last point
+     * should be the same as the first.
+     */
+    public GeoSegmentIndex(GeoArray points) {
+        int numPoints = points.getSize();
+        xyz = new double[numPoints * 3];
+        latlon = null;
+        Geo tmp = new Geo();
+        for (int i = 0; i < numPoints; i++) {
+            points.get(i, tmp);
+            xyz[i * 3] = tmp.x();
+            xyz[i * 3 + 1] = tmp.y();
+            xyz[i * 3 + 2] = tmp.z();
+        }
+        numSegments = Math.max(0, numPoints - 1);
+        build();
+    }
+
+    protected GeoSegmentIndex(int numPoints, double[] latlon) {
+        this.latlon = latlon;
+        xyz = new double[numPoints * 3];
+        Geo tmp = new Geo();
+        for (int i = 0; i < numPoints; i++) {
+            tmp.initialize(latlon[i * 2], latlon[i * 2 + 1]);
+            xyz[i * 3] = tmp.x();
+            xyz[i * 3 + 1] = tmp.y();
+            xyz[i * 3 + 2] = tmp.z();
+        }
+        numSegments = Math.max(0, numPoints - 1);
+        build();
+    }
+
+    private static double[] toDoubles(float[] llpts) {
+        double[] ret = new double[llpts.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = llpts[i];
+        }
+        return ret;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    /**
+     * Figure out the segment bounds, and pick the cube size from the average
+     * segment length.
+     */
+    protected void build() {
+        bounds = new double[numSegments * 6];
+        double total = 0;
+        int counted = 0;
+        for (int s = 0; s < numSegments; s++) {
+            int a = s * 3;
+            int b = a + 3;
+            double dx = xyz[b] - xyz[a];
+            double dy = xyz[b + 1] - xyz[a + 1];
+            double dz = xyz[b + 2] - xyz[a + 2];
+            double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (chord > 0) {
+                total += chord;
+                counted++;
+            }
+
+            // The arc bows out from the chord by at most the sagitta.
+            double cos = Math.max(-1, Math.min(1, xyz[a] * xyz[b] + xyz[a + 1] * xyz[b + 1] + xyz[a + 2]
+                    * xyz[b + 2]));
+            double pad = 1 - Math.sqrt((1 + cos) / 2) + PAD;
+            if (cos < -.5) {
+                // Over 120 degrees, the distance test also passes points on
+                // the other part of the great circle.
+                pad = 2;
+            }
+            int o = s * 6;
+            for (int k = 0; k < 3; k++) {
+                bounds[o + k] = Math.min(xyz[a + k], xyz[b + k]) - pad;
+                bounds[o + 3 + k] = Math.max(xyz[a + k], xyz[b + k]) + pad;
+            }
+        }
+
+        cellSize = counted == 0 ? 2 : Math.max(2.0 / MAX_CELLS, Math.min(2, 2 * total / counted));
+        numCells = (int) Math.ceil(2 / cellSize) + 1;
+    }
+
+    /**
+     * Bucket the segments into the cubes, the first time segments are looked
+     * up. Indexes that are only used to search others don't need it.
+     */
+    protected synchronized void bucket() {
+        if (entries != null) {
+            return;
+        }
+
+        int numEntries = 0;
+        int numOversized = 0;
+        for (int s = 0; s < numSegments; s++) {
+            int count = countCells(bounds, s * 6);
+            if (count > MAX_CELLS_PER_SEGMENT) {
+                numOversized++;
+            } else {
+                numEntries += count;
+            }
+        }
+
+        long[] entries = new long[numEntries];
+        int[] oversized = new int[numOversized];
+        int e = 0;
+        int v = 0;
+        for (int s = 0; s < numSegments; s++) {
+            int o = s * 6;
+            if (countCells(bounds, o) > MAX_CELLS_PER_SEGMENT) {
+                oversized[v++] = s;
+                continue;
+            }
+            int x0 = cell(bounds[o]);
+            int y0 = cell(bounds[o + 1]);
+            int z0 = cell(bounds[o + 2]);
+            int x1 = cell(bounds[o + 3]);
+            int y1 = cell(bounds[o + 4]);
+            int z1 = cell(bounds[o + 5]);
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    for (int cz = z0; cz <= z1; cz++) {
+                        entries[e++] = ((long) key(cx, cy, cz) << 32) | s;
+                    }
+                }
+            }
+        }
+        Arrays.sort(entries);
+        this.oversized = oversized;
+        this.entries = entries;
+    }
+
+    protected int cell(double v) {
+        int c = (int) ((v + 1) / cellSize);
+        return c < 0 ? 0 : (c >= numCells ? numCells - 1 : c);
+    }
+
+    protected int key(int cx, int cy, int cz) {
+        return (cx * numCells + cy) * numCells + cz;
+    }
+
+    /**
+     * @return the number of cubes touched by bounds, or more than
+     *         MAX_CELLS_PER_SEGMENT if there are a lot.
+     */
+    protected int countCells(double[] b, int o) {
+        long count = (long) (cell(b[o + 3]) - cell(b[o]) + 1) * (cell(b[o + 4]) - cell(b[o + 1]) + 1)
+                * (cell(b[o + 5]) - cell(b[o + 2]) + 1);
+        return (int) Math.min(count, MAX_CELLS_PER_SEGMENT + 1);
+    }
+
+    /**
+     * Check if any segment of this crosses any segment of another index.
+     */
+    public boolean intersects(GeoSegmentIndex other) {
+        return search(other, true, null) > 0;
+    }
+
+    /**
+     * Check if any segment crosses another one, other than segments next to
+     * each other touching where they meet.
+     */
+    public boolean isSelfIntersecting() {
+        return search(this, true, null) > 0;
+    }
+
+    /**
+     * Find the points where the segments of this cross the segments of another
+     * index.
+     *
+     * @return Geo coordinates, x, y, z, for each point.
+     */
+    public double[] getIntersections(GeoSegmentIndex other) {
+        Points points = new Points();
+        search(other, false, points);
+        return points.toArray();
+    }
+
+    /**
+     * Find the points where the segments cross each other, other than segments
+     * next to each other touching where they meet.
+     *
+     * @return Geo coordinates, x, y, z, for each point.
+     */
+    public double[] getSelfIntersections() {
+        Points points = new Points();
+        search(this, false, points);
+        return points.toArray();
+    }
+
+    /**
+     * Test the segments of another index against the segments of this one.
+     *
+     * @param other the other index, or this one to find where segments cross
+     *        each other.
+     * @param first stop at the first intersection.
+     * @param points where intersections are added, can be null.
+     * @return the number of intersections found.
+     */
+    protected int search(GeoSegmentIndex other, boolean first, Points points) {
+        bucket();
+        boolean self = other == this;
+        int found = 0;
+        int[] seen = new int[numSegments];
+        double[] hit = new double[6];
+
+        for (int q = 0; q < other.numSegments; q++) {
+            double[] qb = other.bounds;
+            int qo = q * 6;
+            int stamp = q + 1;
+
+            int count = countCells(qb, qo);
+            if (count > MAX_CELLS_PER_SEGMENT) {
+                // Big search, just look at everything.
+                for (int s = self ? q + 1 : 0; s < numSegments; s++) {
+                    int n = test(other, q, s, self, hit);
+                    if (n > 0) {
+                        found += n;
+                        if (first) {
+                            return found;
+                        }
+                        add(points, hit, n);
+                    }
+                }
+                continue;
+            }
+
+            for (int i = 0; i < oversized.length; i++) {
+                int s = oversized[i];
+                if (self && s <= q) {
+                    continue;
+                }
+                seen[s] = stamp;
+                int n = test(other, q, s, self, hit);
+                if (n > 0) {
+                    found += n;
+                    if (first) {
+                        return found;
+                    }
+                    add(points, hit, n);
+                }
+            }
+
+            int x0 = cell(qb[qo]);
+            int y0 = cell(qb[qo + 1]);
+            int z0 = cell(qb[qo + 2]);
+            int x1 = cell(qb[qo + 3]);
+            int y1 = cell(qb[qo + 4]);
+            int z1 = cell(qb[qo + 5]);
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    for (int cz = z0; cz <= z1; cz++) {
+                        long key = key(cx, cy, cz);
+                        for (int e = firstEntry(key); e < entries.length && (entries[e] >>> 32) == key; e++) {
+                            int s = (int) entries[e];
+                            if (seen[s] == stamp || (self && s <= q)) {
+                                continue;
+                            }
+                            seen[s] = stamp;
+                            int n = test(other, q, s, self, hit);
+                            if (n > 0) {
+                                found += n;
+                                if (first) {
+                                    return found;
+                                }
+                                add(points, hit, n);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the index of the first entry for a cube, or where it would be.
+     */
+    protected int firstEntry(long key) {
+        long target = key << 32;
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void add(Points points, double[] hit, int n) {
+        if (points != null) {
+            for (int i = 0; i < n; i++) {
+                points.add(hit[i * 3], hit[i * 3 + 1], hit[i * 3 + 2]);
+            }
+        }
+    }
+
+    /**
+     * Test a segment of another index against one of this one, if their
+     * bounds overlap.
+     *
+     * @param hit filled with the intersection points, x, y, z.
+     * @return the number of intersection points, 0, 1 or 2.
+     */
+    protected int test(GeoSegmentIndex other, int q, int s, boolean self, double[] hit) {
+        double[] qb = other.bounds;
+        int qo = q * 6;
+        int so = s * 6;
+        if (qb[qo] > bounds[so + 3] || qb[qo + 3] < bounds[so] || qb[qo + 1] > bounds[so + 4]
+                || qb[qo + 4] < bounds[so + 1] || qb[qo + 2] > bounds[so + 5]
+                || qb[qo + 5] < bounds[so + 2]) {
+            return 0;
+        }
+
+        if (self && (samePoint(q, s + 1) || samePoint(q + 1, s))) {
+            // ignore adjacent segments
+            return 0;
+        }
+
+        return intersect(other.xyz, q * 3, xyz, s * 3, hit);
+    }
+
+    /**
+     * Check if two points are the same, by lat/lon if they were given that
+     * way.
+     */
+    protected boolean samePoint(int i, int j) {
+        if (latlon != null) {
+            return latlon[i * 2] == latlon[j * 2] && latlon[i * 2 + 1] == latlon[j * 2 + 1];
+        }
+        return xyz[i * 3] == xyz[j * 3] && xyz[i * 3 + 1] == xyz[j * 3 + 1]
+                && xyz[i * 3 + 2] == xyz[j * 3 + 2];
+    }
+
+    /**
+     * Find the intersections of two great circle segments, like
+     * Intersection.getSegIntersection(Geo, Geo, Geo, Geo).
+     *
+     * @param p Geo coordinates holding the first segment.
+     * @param a offset of the first segment's start in p, its end follows.
+     * @param q Geo coordinates holding the second segment.
+     * @param b offset of the second segment's start in q, its end follows.
+     * @param hit filled with up to two intersection points, x, y, z.
+     * @return the number of intersection points, 0, 1 or 2.
+     */
+    public static int intersect(double[] p, int a, double[] q, int b, double[] hit) {
+        double p1x = p[a], p1y = p[a + 1], p1z = p[a + 2];
+        double p2x = p[a + 3], p2y = p[a + 4], p2z = p[a + 5];
+        double p3x = q[b], p3y = q[b + 1], p3z = q[b + 2];
+        double p4x = q[b + 3], p4y = q[b + 4], p4z = q[b + 5];
+
+        // The poles of the two great circles.
+        double c1x = p1y * p2z - p1z * p2y;
+        double c1y = p1z * p2x - p1x * p2z;
+        double c1z = p1x * p2y - p1y * p2x;
+        double l = Math.sqrt(c1x * c1x + c1y * c1y + c1z * c1z);
+        c1x /= l;
+        c1y /= l;
+        c1z /= l;
+
+        double c2x = p3y * p4z - p3z * p4y;
+        double c2y = p3z * p4x - p3x * p4z;
+        double c2z = p3x * p4y - p3y * p4x;
+        l = Math.sqrt(c2x * c2x + c2y * c2y + c2z * c2z);
+        c2x /= l;
+        c2y /= l;
+        c2z /= l;
+
+        // Where the great circles cross, and the antipode.
+        double ix = c1y * c2z - c1z * c2y;
+        double iy = c1z * c2x - c1x * c2z;
+        double iz = c1x * c2y - c1y * c2x;
+        l = Math.sqrt(ix * ix + iy * iy + iz * iz);
+        ix /= l;
+        iy /= l;
+        iz /= l;
+
+        double d1 = distance(p1x, p1y, p1z, p2x, p2y, p2z);
+        double d2 = distance(p3x, p3y, p3z, p4x, p4y, p4z);
+
+        int n = 0;
+        if (d1 >= distance(p1x, p1y, p1z, ix, iy, iz) && d1 >= distance(p2x, p2y, p2z, ix, iy, iz)
+                && d2 >= distance(p3x, p3y, p3z, ix, iy, iz)
+                && d2 >= distance(p4x, p4y, p4z, ix, iy, iz)) {
+            hit[0] = ix;
+            hit[1] = iy;
+            hit[2] = iz;
+            n++;
+        }
+        if (d1 >= distance(p1x, p1y, p1z, -ix, -iy, -iz)
+                && d1 >= distance(p2x, p2y, p2z, -ix, -iy, -iz)
+                && d2 >= distance(p3x, p3y, p3z, -ix, -iy, -iz)
+                && d2 >= distance(p4x, p4y, p4z, -ix, -iy, -iz)) {
+            hit[n * 3] = -ix;
+            hit[n * 3 + 1] = -iy;
+            hit[n * 3 + 2] = -iz;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Angular distance in radians, like Geo.distance(Geo).
+     */
+    private static double distance(double ax, double ay, double az, double bx, double by, double bz) {
+        double x = by * az - bz * ay;
+        double y = bz * ax - bx * az;
+        double z = bx * ay - by * ax;
+        return Math.atan2(Math.sqrt(x * x + y * y + z * z), bx * ax + by * ay + bz * az);
+    }
+
+    /**
+     * A growing list of Geo coordinates.
+     */
+    protected static class Points {
+        protected double[] xyz = new double[24];
+        protected int size = 0;
+
+        protected void add(double x, double y, double z) {
+            if (size + 3 > xyz.length) {
+                xyz = Arrays.copyOf(xyz, xyz.length * 2);
+            }
+            xyz[size++] = x;
+            xyz[size++] = y;
+            xyz[size++] = z;
+        }
+
+        protected double[] toArray() {
+            return Arrays.copyOf(xyz, size);
+        }
+    }
+}
@@ -13,6 +13,7 @@
 
 package com.bbn.openmap.geo;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -459,90 +460,74 @@ public class Intersection {
      * Checks if the two polygonal areas intersect. The two polygonal regions
      * are represented by two lat-lon arrays in the lat1, lon1, lat2, lon2,...
      * format. For closed polygons the last pair of points in the array should
-     * be the same as the first pair. All lat-lon values are in degrees.
+     * be the same as the first pair. All lat-lon values are in degrees. Only
+     * sides near each other are tested, using a GeoSegmentIndex.
      */
     public static boolean polyIntersect(float[] polyPoints1, float[] polyPoints2) {
-
-        // go through each side of poly1 and test to see if it
-        // intersects with any side of poly2
-
-        for (int i = 0; i < polyPoints1.length / 2 - 1; i++) {
-
-            for (int j = 0; j < polyPoints2.length / 2 - 1; j++) {
-
-                if (intersects(polyPoints1[2 * i], polyPoints1[2 * i + 1], polyPoints1[2 * i + 2], polyPoints1[2 * i + 3],
-                               polyPoints2[2 * j], polyPoints2[2 * j + 1], polyPoints2[2 * j + 2], polyPoints2[2 * j + 3]))
-                    return true;
-            }
-        }
-
-        return false;
+        return polyIntersect(new GeoSegmentIndex(polyPoints1), new GeoSegmentIndex(polyPoints2));
     }
 
     /**
      * Checks if the two polygonal areas intersect. The two polygonal regions
      * are represented by two lat-lon arrays in the lat1, lon1, lat2, lon2,...
      * format. For closed polygons the last pair of points in the array should
-     * be the same as the first pair. All lat-lon values are in degrees.
+     * be the same as the first pair. All lat-lon values are in degrees. Only
+     * sides near each other are tested, using a GeoSegmentIndex.
      */
     public static boolean polyIntersect(double[] polyPoints1, double[] polyPoints2) {
+        return polyIntersect(new GeoSegmentIndex(polyPoints1), new GeoSegmentIndex(polyPoints2));
+    }
 
-        // go through each side of poly1 and test to see if it
-        // intersects with any side of poly2
-
-        for (int i = 0; i < polyPoints1.length / 2 - 1; i++) {
-
-            for (int j = 0; j < polyPoints2.length / 2 - 1; j++) {
-
-                if (intersects(polyPoints1[2 * i], polyPoints1[2 * i + 1], polyPoints1[2 * i + 2], polyPoints1[2 * i + 3],
-                               polyPoints2[2 * j], polyPoints2[2 * j + 1], polyPoints2[2 * j + 2], polyPoints2[2 * j + 3]))
-                    return true;
-            }
-        }
-
-        return false;
+    /**
+     * Checks if the two polygonal areas intersect. For closed polygons the
+     * last point should be the same as the first.
+     */
+    public static boolean polyIntersect(GeoArray poly1, GeoArray poly2) {
+        return polyIntersect(new GeoSegmentIndex(poly1), new GeoSegmentIndex(poly2));
     }
 
     /**
      * Checks if the two polygonal areas intersect. The two polygonal regions
      * are represented by two lat-lon arrays in the lat1, lon1, lat2, lon2,...
      * format. For closed polygons the last pair of points in the array should
-     * be the same as the first pair. All lat-lon values are in degrees. KM
-     * optimized to create each Geo only once. (TODO consider optimizing the
-     * other paths.)
+     * be the same as the first pair. All lat-lon values are in degrees. Now
+     * the same as polyIntersect(double[], double[]), which doesn't create any
+     * Geos either.
      */
     public static boolean polyIntersect_optimized(double[] polyPoints1, double[] polyPoints2) {
+        return polyIntersect(polyPoints1, polyPoints2);
+    }
 
-        // go through each side of poly1 and test to see if it
-        // intersects with any side of poly2
-
-        Geo geos1[] = new Geo[polyPoints1.length / 2];
-        Geo geos2[] = new Geo[polyPoints2.length / 2];
-
-        for (int i = 0; i < geos1.length; i++) {
-            geos1[i] = new Geo(polyPoints1[2 * i], polyPoints1[2 * i + 1]);
-        }
-        for (int i = 0; i < geos2.length; i++) {
-            geos2[i] = new Geo(polyPoints2[2 * i], polyPoints2[2 * i + 1]);
+    /**
+     * Checks if the sides of two indexed polygons intersect, looking up the
+     * sides of the one with fewer sides in the index of the other.
+     */
+    private static boolean polyIntersect(GeoSegmentIndex index1, GeoSegmentIndex index2) {
+        if (index1.getNumSegments() >= index2.getNumSegments()) {
+            return index1.intersects(index2);
         }
+        return index2.intersects(index1);
+    }
 
-        for (int i = 0; i < geos1.length - 1; i++) {
-
-            for (int j = 0; j < geos2.length - 1; j++) {
-                Geo p1 = geos1[i];
-                Geo p2 = geos1[i + 1];
-                Geo p3 = geos2[j];
-                Geo p4 = geos2[j + 1];
-
-                Geo[] results = getSegIntersection(p1, p2, p3, p4);
-
-                if (results[0] != null || results[1] != null) {
-                    return true;
-                }
-            }
-        }
+    /**
+     * Finds the points where the sides of two polygonal areas cross. The two
+     * polygonal regions are represented by two lat-lon arrays in the lat1,
+     * lon1, lat2, lon2,... format. For closed polygons the last pair of points
+     * in the array should be the same as the first pair. All lat-lon values
+     * are in degrees.
+     * 
+     * @return lat, lon, lat, lon... of the intersections, in degrees.
+     */
+    public static double[] getPolyIntersections(double[] polyPoints1, double[] polyPoints2) {
+        return toLLDegrees(new GeoSegmentIndex(polyPoints2).getIntersections(new GeoSegmentIndex(polyPoints1)));
+    }
 
-        return false;
+    /**
+     * Finds the points where the sides of two polygonal areas cross. For
+     * closed polygons the last point should be the same as the first.
+     */
+    public static List<Geo> getPolyIntersections(GeoArray poly1, GeoArray poly2) {
+        return toGeos(new GeoSegmentIndex(poly2).getIntersections(new GeoSegmentIndex(poly1)));
     }
 
     /**
@@ -550,33 +535,7 @@ public class Intersection {
      * any lines that intersect each other. All lat-lon values are in degrees.
      */
     public static boolean isSelfIntersectingPoly(float[] polyPoints) {
-
-        for (int i = 0; i < polyPoints.length / 2 - 1; i++) {
-
-            for (int j = i + 1; j < polyPoints.length / 2 - 1; j++) {
-
-                float lat1 = polyPoints[2 * i];
-                float lon1 = polyPoints[2 * i + 1];
-                float lat2 = polyPoints[2 * i + 2];
-                float lon2 = polyPoints[2 * i + 3];
-
-                float lat3 = polyPoints[2 * j];
-                float lon3 = polyPoints[2 * j + 1];
-                float lat4 = polyPoints[2 * j + 2];
-                float lon4 = polyPoints[2 * j + 3];
-
-                // ignore adjacent segments
-                if ((lat1 == lat4 && lon1 == lon4) || (lat2 == lat3 && lon2 == lon3))
-                    continue;
-
-                if (intersects(lat1, lon1, lat2, lon2, lat3, lon3, lat4, lon4))
-                    return true;
-
-            }
-        }
-
-        return false;
-
+        return new GeoSegmentIndex(polyPoints).isSelfIntersecting();
     }
 
     /**
@@ -584,33 +543,53 @@ public class Intersection {
      * any lines that intersect each other. All lat-lon values are in degrees.
      */
     public static boolean isSelfIntersectingPoly(double[] polyPoints) {
+        return new GeoSegmentIndex(polyPoints).isSelfIntersecting();
+    }
 
-        for (int i = 0; i < polyPoints.length / 2 - 1; i++) {
-
-            for (int j = i + 1; j < polyPoints.length / 2 - 1; j++) {
-
-                double lat1 = polyPoints[2 * i];
-                double lon1 = polyPoints[2 * i + 1];
-                double lat2 = polyPoints[2 * i + 2];
-                double lon2 = polyPoints[2 * i + 3];
-
-                double lat3 = polyPoints[2 * j];
-                double lon3 = polyPoints[2 * j + 1];
-                double lat4 = polyPoints[2 * j + 2];
-                double lon4 = polyPoints[2 * j + 3];
+    /**
+     * checks if the polygon or polyline contains any lines that intersect each
+     * other.
+     */
+    public static boolean isSelfIntersectingPoly(GeoArray poly) {
+        return new GeoSegmentIndex(poly).isSelfIntersecting();
+    }
 
-                // ignore adjacent segments
-                if ((lat1 == lat4 && lon1 == lon4) || (lat2 == lat3 && lon2 == lon3))
-                    continue;
+    /**
+     * Finds the points where the lines of the polygon or polyline represented
+     * by the polypoints cross each other. Lines next to each other touching
+     * where they meet don't count. All lat-lon values are in degrees.
+     * 
+     * @return lat, lon, lat, lon... of the intersections, in degrees.
+     */
+    public static double[] getSelfIntersections(double[] polyPoints) {
+        return toLLDegrees(new GeoSegmentIndex(polyPoints).getSelfIntersections());
+    }
 
-                if (intersects(lat1, lon1, lat2, lon2, lat3, lon3, lat4, lon4))
-                    return true;
+    /**
+     * Finds the points where the lines of the polygon or polyline cross each
+     * other. Lines next to each other touching where they meet don't count.
+     */
+    public static List<Geo> getSelfIntersections(GeoArray poly) {
+        return toGeos(new GeoSegmentIndex(poly).getSelfIntersections());
+    }
 
-            }
+    private static double[] toLLDegrees(double[] xyz) {
+        double[] ll = new double[xyz.length / 3 * 2];
+        Geo tmp = new Geo();
+        for (int i = 0, j = 0; i < xyz.length; i += 3, j += 2) {
+            tmp.initialize(xyz[i], xyz[i + 1], xyz[i + 2]);
+            ll[j] = tmp.getLatitude();
+            ll[j + 1] = tmp.getLongitude();
         }
+        return ll;
+    }
 
-        return false;
-
+    private static List<Geo> toGeos(double[] xyz) {
+        List<Geo> geos = new ArrayList<Geo>(xyz.length / 3);
+        for (int i = 0; i < xyz.length; i += 3) {
+            geos.add(new Geo(xyz[i], xyz[i + 1], xyz[i + 2]));
+        }
+        return geos;
     }
 
     /**
@@ -45,6 +45,31 @@ public class IntersectionTest extends TestCase {
         assertFalse(Intersection.isSelfIntersectingPoly(poly));
     }
 
+    // @Test
+    public void testPolyIntersections() {
+        double[] poly = swap(_Polygon);
+        assertEquals(0, Intersection.getSelfIntersections(poly).length);
+
+        // A bow tie crosses itself once, in the middle.
+        double[] bowTie = { 0, 0, 1, 1, 1, 0, 0, 1, 0, 0 };
+        assertTrue(Intersection.isSelfIntersectingPoly(bowTie));
+        double[] ll = Intersection.getSelfIntersections(bowTie);
+        assertEquals(2, ll.length);
+        assertEquals(.5, ll[0], .01);
+        assertEquals(.5, ll[1], .01);
+        assertEquals(1, Intersection.getSelfIntersections(GeoArray.Double.createFromLatLonDegrees(bowTie)).size());
+
+        double[] square1 = { 0, 0, 0, 2, 2, 2, 2, 0, 0, 0 };
+        double[] square2 = { 1, 1, 1, 3, 3, 3, 3, 1, 1, 1 };
+        double[] square3 = { 10, 10, 10, 11, 11, 11, 11, 10, 10, 10 };
+        assertTrue(Intersection.polyIntersect(square1, square2));
+        assertTrue(Intersection.polyIntersect_optimized(square2, square1));
+        assertFalse(Intersection.polyIntersect(square1, square3));
+        assertEquals(4, Intersection.getPolyIntersections(square1, square2).length);
+        assertTrue(Intersection.polyIntersect(GeoArray.Double.createFromLatLonDegrees(square1),
+                                              GeoArray.Double.createFromLatLonDegrees(square2)));
+    }
+
     // @Test
     public void testIsPointInPolygonGeoGeoArrayBoolean() {
         double[] poly = swap(_Polygon);        
@@ -0,0 +1,104 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.image;
+
+import java.awt.Paint;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bbn.openmap.Layer;
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * The settings for one image request: the formatter, background, projection
+ * and layers to use. Passed to ImageServer.createImage(ImageRequestContext)
+ * instead of setting them on the ImageServer, so one ImageServer can handle
+ * requests from several threads at the same time without them changing each
+ * other's settings.
+ */
+public class ImageRequestContext {
+
+    protected ImageFormatter formatter;
+    protected Paint background;
+    protected boolean transparent;
+    protected Projection projection;
+    protected List<Layer> layers = new ArrayList<Layer>();
+
+    public ImageRequestContext() {
+    }
+
+    /**
+     * @param formatter the formatter for the image, cloned before it's used.
+     * @param background the Paint for the background of the image.
+     * @param transparent whether the image should be transparent where
+     *        nothing is drawn.
+     * @param projection the projection of the image.
+     * @param layers the layers to paint into the image, top first.
+     */
+    public ImageRequestContext(ImageFormatter formatter, Paint background, boolean transparent,
+            Projection projection, List<Layer> layers) {
+        this.formatter = formatter;
+        this.background = background;
+        this.transparent = transparent;
+        this.projection = projection;
+        setLayers(layers);
+    }
+
+    public ImageFormatter getFormatter() {
+        return formatter;
+    }
+
+    public void setFormatter(ImageFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    public Paint getBackground() {
+        return background;
+    }
+
+    public void setBackground(Paint background) {
+        this.background = background;
+    }
+
+    public boolean getTransparent() {
+        return transparent;
+    }
+
+    public void setTransparent(boolean transparent) {
+        this.transparent = transparent;
+    }
+
+    public Projection getProjection() {
+        return projection;
+    }
+
+    public void setProjection(Projection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * @return the layers to paint into the image, top first.
+     */
+    public List<Layer> getLayers() {
+        return layers;
+    }
+
+    public void setLayers(List<Layer> layers) {
+        this.layers = new ArrayList<Layer>();
+        if (layers != null) {
+            this.layers.addAll(layers);
+        }
+    }
+}
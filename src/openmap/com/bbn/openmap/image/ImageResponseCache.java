@@ -0,0 +1,886 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.OMComponent;
+import com.bbn.openmap.util.PropUtils;
+
+/**
+ * A cache of rendered image responses, so image servers don't have to render
+ * the same request over and over, like they get from tiled map clients asking
+ * for the same tiles. Requests are turned into keys with createKey, which
+ * leaves out the differences that don't change the image, like the order and
+ * case of the parameter names, and how the numbers are written.
+ * <p>
+ * Responses are kept in memory, up to a number of bytes, with the least
+ * recently used ones thrown out first. If a directory is set, responses are
+ * also written there, and read back when they're no longer in memory, up to a
+ * number of bytes on disk, with the oldest files thrown out first. Responses
+ * older than the time to live are rendered again. The responses with a layer
+ * can be thrown out with invalidate(String), when the layer's data changes.
+ * The invalidations are written to the directory too, so responses left there
+ * from before a restart aren't used if they're out of date.
+ * <p>
+ * If a request comes in while the same request is being rendered, it waits for
+ * that rendering instead of rendering it again. The number of hits and misses,
+ * and the time spent rendering, are counted.
+ * <p>
+ * Set up with properties on an ImageServer:
+ *
+ * <pre>
+ * responseCache.enabled=true
+ * # bytes kept in memory
+ * responseCache.maxMemory=67108864
+ * # seconds, 0 for forever
+ * responseCache.timeToLive=3600
+ * # optional
+ * responseCache.directory=/tmp/tiles
+ * # bytes kept in the directory, 0 for no limit
+ * responseCache.maxDisk=1073741824
+ * # optional request parameters that don't change the image
+ * responseCache.ignore=_ TIMESTAMP
+ * </pre>
+ */
+public class ImageResponseCache extends OMComponent {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.image.ImageResponseCache");
+
+    public final static String EnabledProperty = "enabled";
+    public final static String MaxMemoryProperty = "maxMemory";
+    public final static String TimeToLiveProperty = "timeToLive";
+    public final static String DirectoryProperty = "directory";
+    public final static String MaxDiskProperty = "maxDisk";
+    public final static String IgnoreProperty = "ignore";
+
+    public final static long DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+    public final static long DEFAULT_MAX_DISK = 1024L * 1024 * 1024;
+
+    /** The file in the directory the layer generations are kept in. */
+    protected final static String GENERATIONS_FILE = "generations.properties";
+
+    /** Parameters with values that don't depend on case. */
+    protected final static Set<String> CASELESS = new HashSet<String>();
+    /** Parameters with numbers, or lists of numbers, for values. */
+    protected final static Set<String> NUMERIC = new HashSet<String>();
+
+    static {
+        for (String key : new String[] { "REQUEST", "SERVICE", "SRS", "CRS", "BGCOLOR",
+                "TRANSPARENT", "EXCEPTIONS", "PROJTYPE" }) {
+            CASELESS.add(key);
+        }
+        for (String key : new String[] { "BBOX", "WIDTH", "HEIGHT", "SCALE", "LAT", "LON", "X",
+                "Y", "I", "J" }) {
+            NUMERIC.add(key);
+        }
+    }
+
+    protected long maxMemory = DEFAULT_MAX_MEMORY;
+    /** Milliseconds, 0 or less for forever. */
+    protected long timeToLive = 0;
+    protected File directory;
+    protected long maxDisk = DEFAULT_MAX_DISK;
+    protected Set<String> ignored = new HashSet<String>();
+
+    /* Guarded by memory. */
+    protected final LinkedHashMap<String, Response> memory = new LinkedHashMap<String, Response>(64, .75f, true);
+    protected long memorySize = 0;
+
+    /** Requests being rendered. */
+    protected final ConcurrentHashMap<String, FutureTask<Response>> rendering = new ConcurrentHashMap<String, FutureTask<Response>>();
+
+    /** Incremented to invalidate the responses with a layer. */
+    protected final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<String, Long>();
+
+    /** About how many bytes of responses are in the directory. */
+    protected final AtomicLong diskSize = new AtomicLong();
+    /** Whether diskSize has been counted since the directory was set. */
+    protected volatile boolean diskCounted = false;
+    /** Held while throwing out files from the directory. */
+    protected final Object diskLock = new Object();
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong diskHits = new AtomicLong();
+    protected final AtomicLong sharedRenders = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong renderTime = new AtomicLong();
+
+    public ImageResponseCache() {
+    }
+
+    /**
+     * A rendered response, the image bytes and their content type.
+     */
+    public static class Response {
+        protected final String contentType;
+        protected final byte[] bytes;
+        protected final long created;
+
+        public Response(String contentType, byte[] bytes) {
+            this(contentType, bytes, System.currentTimeMillis());
+        }
+
+        protected Response(String contentType, byte[] bytes, long created) {
+            this.contentType = contentType;
+            this.bytes = bytes;
+            this.created = created;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Set the most bytes of responses kept in memory.
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        synchronized (memory) {
+            trim();
+        }
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Set how long responses are used, in milliseconds. 0 or less for
+     * forever.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the directory responses are written to, null to only keep them in
+     * memory. The layer generations left there are read back, so responses
+     * invalidated before aren't used. Nothing in the directory is changed
+     * until a response is put in the cache.
+     */
+    public void setDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            logger.warning("can't create cache directory " + directory);
+            directory = null;
+        }
+        if (directory != null) {
+            readGenerations(directory);
+        }
+        this.directory = directory;
+        diskCounted = false;
+    }
+
+    public long getMaxDisk() {
+        return maxDisk;
+    }
+
+    /**
+     * Set the most bytes of responses kept in the directory, 0 or less for no
+     * limit.
+     */
+    public void setMaxDisk(long maxDisk) {
+        this.maxDisk = maxDisk;
+        trimDisk();
+    }
+
+    /**
+     * Set the request parameters that don't change the image, like ones
+     * clients add to get around browser caches. They're left out of keys.
+     */
+    public void setIgnored(Collection<String> names) {
+        Set<String> set = new HashSet<String>();
+        for (String name : names) {
+            set.add(name.trim().toUpperCase(Locale.ENGLISH));
+        }
+        ignored = set;
+    }
+
+    public Set<String> getIgnored() {
+        return ignored;
+    }
+
+    /**
+     * Create a key for a request. Parameter names are upper cased and sorted,
+     * values that don't depend on case are upper cased, and numbers are
+     * written the same way.
+     */
+    public String createKey(Properties request) {
+        TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> entry : request.entrySet()) {
+            String name = entry.getKey().toString().trim().toUpperCase(Locale.ENGLISH);
+            if (ignored.contains(name)) {
+                continue;
+            }
+            String value = entry.getValue().toString().trim();
+            if (CASELESS.contains(name)) {
+                value = value.toUpperCase(Locale.ENGLISH);
+                if (name.equals("TRANSPARENT")) {
+                    if (value.equals("1")) {
+                        value = "TRUE";
+                    } else if (value.equals("0")) {
+                        value = "FALSE";
+                    }
+                }
+            } else if (NUMERIC.contains(name)) {
+                value = normalizeNumbers(value);
+            }
+            sorted.put(name, value);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            if (key.length() > 0) {
+                key.append('&');
+            }
+            key.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Write a comma separated list of numbers the same way, however they came
+     * in. Left alone if they aren't numbers.
+     */
+    protected String normalizeNumbers(String value) {
+        String[] parts = value.split(",");
+        StringBuilder buf = new StringBuilder();
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                double d = Double.parseDouble(parts[i].trim());
+                if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                    buf.append((long) d);
+                } else {
+                    buf.append(d);
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            return value;
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Get the response for a request, rendering it if it isn't cached.
+     *
+     * @param key from createKey.
+     * @param layers the names of the layers in the response, for
+     *        invalidate(String).
+     * @param renderer renders the response if it isn't cached. Not cached if
+     *        it throws an exception or returns null.
+     * @return the response.
+     * @throws Exception from the renderer.
+     */
+    public Response get(String key, Collection<String> layers, Callable<Response> renderer)
+            throws Exception {
+        String fullKey = addGenerations(key, layers);
+
+        Response response = getCached(fullKey);
+        if (response != null) {
+            return response;
+        }
+
+        FutureTask<Response> task = new FutureTask<Response>(renderer);
+        FutureTask<Response> current = rendering.putIfAbsent(fullKey, task);
+        if (current != null) {
+            // Someone else is rendering it.
+            sharedRenders.incrementAndGet();
+            return waitFor(current);
+        }
+
+        try {
+            misses.incrementAndGet();
+            long start = System.nanoTime();
+            task.run();
+            response = waitFor(task);
+            long time = System.nanoTime() - start;
+            renderTime.addAndGet(time);
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("rendered " + key + " in " + (time / 1000000) + " ms");
+            }
+
+            if (response != null) {
+                put(fullKey, response);
+            }
+            return response;
+        } finally {
+            rendering.remove(fullKey, task);
+        }
+    }
+
+    protected Response waitFor(FutureTask<Response> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ee;
+        }
+    }
+
+    /**
+     * Add the generation of each layer to a key, so the responses with a layer
+     * aren't found anymore after invalidate(layer).
+     */
+    protected String addGenerations(String key, Collection<String> layers) {
+        if (layers == null || layers.isEmpty()) {
+            return key;
+        }
+        StringBuilder buf = new StringBuilder(key);
+        for (String layer : layers) {
+            Long generation = generations.get(layer);
+            buf.append('#').append(layer).append('=').append(generation == null ? 0 : generation.longValue());
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Get a response from memory or disk, if it's there and not too old.
+     */
+    protected Response getCached(String fullKey) {
+        synchronized (memory) {
+            Response response = memory.get(fullKey);
+            if (response != null) {
+                if (!isExpired(response.getCreated())) {
+                    hits.incrementAndGet();
+                    return response;
+                }
+                remove(fullKey);
+            }
+        }
+
+        if (directory != null) {
+            Response response = read(getFile(fullKey));
+            if (response != null) {
+                diskHits.incrementAndGet();
+                synchronized (memory) {
+                    memory.put(fullKey, response);
+                    memorySize += response.getBytes().length;
+                    trim();
+                }
+                return response;
+            }
+        }
+        return null;
+    }
+
+    protected boolean isExpired(long created) {
+        return timeToLive > 0 && System.currentTimeMillis() - created > timeToLive;
+    }
+
+    protected void put(String fullKey, Response response) {
+        synchronized (memory) {
+            Response old = memory.put(fullKey, response);
+            if (old != null) {
+                memorySize -= old.getBytes().length;
+            }
+            memorySize += response.getBytes().length;
+            trim();
+        }
+        if (directory != null) {
+            File file = getFile(fullKey);
+            long old = file.length();
+            write(file, response);
+            if (!diskCounted) {
+                trimDisk();
+            } else if (diskSize.addAndGet(file.length() - old) > maxDisk && maxDisk > 0) {
+                trimDisk();
+            }
+        }
+    }
+
+    /** Called with memory locked. */
+    protected void remove(String fullKey) {
+        Response old = memory.remove(fullKey);
+        if (old != null) {
+            memorySize -= old.getBytes().length;
+        }
+    }
+
+    /**
+     * Throw out the least recently used responses until they fit. Called with
+     * memory locked.
+     */
+    protected void trim() {
+        Iterator<Response> it = memory.values().iterator();
+        while (memorySize > maxMemory && it.hasNext()) {
+            memorySize -= it.next().getBytes().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Throw out all of the responses with a layer, when its data has changed.
+     * The files for them in the directory aren't found anymore either, and get
+     * thrown out as the oldest ones when the directory fills up.
+     */
+    public synchronized void invalidate(String layer) {
+        Long generation = generations.get(layer);
+        generations.put(layer, Long.valueOf(generation == null ? 1 : generation.longValue() + 1));
+
+        File dir = directory;
+        if (dir != null) {
+            writeGenerations(dir);
+        }
+
+        // The responses won't be found anymore, but free up the memory.
+        String marker = "#" + layer + "=";
+        synchronized (memory) {
+            Iterator<Map.Entry<String, Response>> it = memory.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Response> entry = it.next();
+                if (entry.getKey().contains(marker)) {
+                    memorySize -= entry.getValue().getBytes().length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Throw out all of the responses, in memory and on disk.
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memorySize = 0;
+        }
+        File dir = directory;
+        if (dir != null) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".response")) {
+                        file.delete();
+                    }
+                }
+            }
+            diskSize.set(0);
+        }
+    }
+
+    /**
+     * Throw out the responses that are too old, in memory and on disk.
+     */
+    public void purge() {
+        synchronized (memory) {
+            Iterator<Response> it = memory.values().iterator();
+            while (it.hasNext()) {
+                Response response = it.next();
+                if (isExpired(response.getCreated())) {
+                    memorySize -= response.getBytes().length;
+                    it.remove();
+                }
+            }
+        }
+        trimDisk();
+    }
+
+    /**
+     * Throw out the files in the directory that are too old, and the oldest
+     * ones if there are more bytes than the most kept, down to three quarters
+     * of that so it isn't done on every put.
+     */
+    protected void trimDisk() {
+        File dir = directory;
+        if (dir == null) {
+            return;
+        }
+        synchronized (diskLock) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+
+            List<DiskFile> kept = new ArrayList<DiskFile>(files.length);
+            long total = 0;
+            for (File file : files) {
+                if (!file.getName().endsWith(".response")) {
+                    continue;
+                }
+                DiskFile diskFile = new DiskFile(file);
+                if (isExpired(diskFile.modified)) {
+                    file.delete();
+                } else {
+                    kept.add(diskFile);
+                    total += diskFile.length;
+                }
+            }
+
+            long most = maxDisk;
+            if (most > 0 && total > most) {
+                Collections.sort(kept);
+                long target = most / 4 * 3;
+                for (int i = 0; i < kept.size() && total > target; i++) {
+                    DiskFile diskFile = kept.get(i);
+                    if (diskFile.file.delete()) {
+                        total -= diskFile.length;
+                    }
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("trimmed " + dir + " to " + total + " bytes");
+                }
+            }
+            diskSize.set(total);
+            diskCounted = true;
+        }
+    }
+
+    /**
+     * A response file, with the time and length it had when listed, so they
+     * don't change while sorting.
+     */
+    protected static class DiskFile implements Comparable<DiskFile> {
+        protected final File file;
+        protected final long modified;
+        protected final long length;
+
+        protected DiskFile(File file) {
+            this.file = file;
+            modified = file.lastModified();
+            length = file.length();
+        }
+
+        public int compareTo(DiskFile other) {
+            return modified < other.modified ? -1 : (modified == other.modified ? 0 : 1);
+        }
+    }
+
+    /**
+     * Read the layer generations written to a directory, keeping the newer of
+     * those and the ones already here.
+     */
+    protected synchronized void readGenerations(File dir) {
+        File file = new File(dir, GENERATIONS_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        Properties props = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException ioe) {
+            logger.warning("can't read " + file + ": " + ioe.getMessage());
+            return;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                }
+            }
+        }
+
+        for (String layer : props.stringPropertyNames()) {
+            try {
+                long generation = Long.parseLong(props.getProperty(layer).trim());
+                Long current = generations.get(layer);
+                if (current == null || current.longValue() < generation) {
+                    generations.put(layer, Long.valueOf(generation));
+                }
+            } catch (NumberFormatException nfe) {
+                logger.fine("bad generation for " + layer + " in " + file);
+            }
+        }
+    }
+
+    /**
+     * Write the layer generations to a directory, so invalidated responses
+     * there aren't used after a restart. Called with this locked.
+     */
+    protected void writeGenerations(File dir) {
+        Properties props = new Properties();
+        for (Map.Entry<String, Long> entry : generations.entrySet()) {
+            props.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+
+        File file = new File(dir, GENERATIONS_FILE);
+        File temp = new File(dir, GENERATIONS_FILE + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            props.store(out, "ImageResponseCache layer generations");
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    logger.warning("can't write " + file);
+                    temp.delete();
+                }
+            }
+        } catch (IOException ioe) {
+            logger.warning("can't write " + file + ": " + ioe.getMessage());
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    protected File getFile(String fullKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(fullKey.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.append(".response").toString());
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    protected Response read(File file) {
+        if (!file.isFile() || isExpired(file.lastModified())) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            String contentType = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Response(contentType, bytes, file.lastModified());
+        } catch (IOException ioe) {
+            logger.fine("can't read " + file + ": " + ioe.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                }
+            }
+        }
+    }
+
+    protected void write(File file, Response response) {
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeUTF(response.getContentType() == null ? "" : response.getContentType());
+            out.writeInt(response.getBytes().length);
+            out.write(response.getBytes());
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            }
+        } catch (IOException ioe) {
+            logger.warning("can't write " + file + ": " + ioe.getMessage());
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests answered from memory.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests answered from disk.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of requests that waited for the same request to be
+     *         rendered.
+     */
+    public long getSharedRenders() {
+        return sharedRenders.get();
+    }
+
+    /**
+     * @return the number of requests rendered.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the part of the requests that weren't rendered, 0 to 1.
+     */
+    public double getHitRatio() {
+        long hit = hits.get() + diskHits.get() + sharedRenders.get();
+        long total = hit + misses.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return the average time rendering a request took, in milliseconds.
+     */
+    public double getAverageRenderTime() {
+        long count = misses.get();
+        return count == 0 ? 0 : renderTime.get() / 1e6 / count;
+    }
+
+    /**
+     * @return the bytes of responses in memory.
+     */
+    public long getMemorySize() {
+        synchronized (memory) {
+            return memorySize;
+        }
+    }
+
+    /**
+     * @return about how many bytes of responses are in the directory.
+     */
+    public long getDiskSize() {
+        return diskSize.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        diskHits.set(0);
+        sharedRenders.set(0);
+        misses.set(0);
+        renderTime.set(0);
+    }
+
+    public String toString() {
+        return "ImageResponseCache[hits=" + getHits() + ", diskHits=" + getDiskHits() + ", shared="
+                + getSharedRenders() + ", misses=" + getMisses() + ", hitRatio=" + getHitRatio()
+                + ", avgRenderMs=" + getAverageRenderTime() + ", memory=" + getMemorySize() + ", disk="
+                + getDiskSize() + "]";
+    }
+
+    public void setProperties(String prefix, Properties props) {
+        super.setProperties(prefix, props);
+        prefix = PropUtils.getScopedPropertyPrefix(prefix);
+
+        setMaxMemory(PropUtils.longFromProperties(props, prefix + MaxMemoryProperty, maxMemory));
+        setTimeToLive(PropUtils.longFromProperties(props, prefix + TimeToLiveProperty, timeToLive / 1000) * 1000);
+
+        maxDisk = PropUtils.longFromProperties(props, prefix + MaxDiskProperty, maxDisk);
+
+        String dir = props.getProperty(prefix + DirectoryProperty);
+        if (dir != null && dir.trim().length() > 0) {
+            setDirectory(new File(dir.trim()));
+        }
+
+        String ignore = props.getProperty(prefix + IgnoreProperty);
+        if (ignore != null) {
+            setIgnored(PropUtils.parseSpacedMarkers(ignore));
+        }
+    }
+
+    public Properties getProperties(Properties props) {
+        props = super.getProperties(props);
+        String prefix = PropUtils.getScopedPropertyPrefix(this);
+        props.put(prefix + EnabledProperty, "true");
+        props.put(prefix + MaxMemoryProperty, Long.toString(maxMemory));
+        props.put(prefix + TimeToLiveProperty, Long.toString(timeToLive / 1000));
+        props.put(prefix + DirectoryProperty, directory == null ? "" : directory.getPath());
+        props.put(prefix + MaxDiskProperty, Long.toString(maxDisk));
+        StringBuilder buf = new StringBuilder();
+        for (String name : ignored) {
+            buf.append(name).append(' ');
+        }
+        props.put(prefix + IgnoreProperty, buf.toString().trim());
+        return props;
+    }
+
+    public Properties getPropertyInfo(Properties props) {
+        props = super.getPropertyInfo(props);
+        props.put(EnabledProperty, "Whether rendered responses are cached");
+        props.put(MaxMemoryProperty, "Most bytes of responses kept in memory");
+        props.put(TimeToLiveProperty, "Seconds responses are used for, 0 for forever");
+        props.put(DirectoryProperty, "Directory responses are also kept in (optional)");
+        props.put(MaxDiskProperty, "Most bytes of responses kept in the directory, 0 for no limit");
+        props.put(IgnoreProperty, "Request parameters that don't change the image (optional)");
+        return props;
+    }
+}
@@ -145,6 +145,12 @@ public class ImageServer
      */
     public static final String BackgroundProperty = "background";
 
+    /**
+     * Property prefix for the ImageResponseCache settings, the cache is used
+     * if responseCache.enabled is true.
+     */
+    public static final String ResponseCacheProperty = "responseCache";
+
     /** Flag to do graphics and text anti-aliasing on the map image. */
     protected boolean doAntiAliasing = false;
 
@@ -162,6 +168,11 @@ public class ImageServer
 
     private boolean transparent = true;
 
+    /**
+     * The cache of rendered responses, null if they aren't cached.
+     */
+    protected ImageResponseCache responseCache;
+
     /**
      * Empty constructor that expects to be configured later.
      */
@@ -344,51 +355,43 @@ public class ImageServer
 
         logger.fine("using the new ProjectionPainter interface!  createImage with layer string array.");
 
-        if (formatter == null) {
-            logger.warning("no formatter set! Can't create image.");
-            return new byte[0];
-        }
-
-        ImageFormatter imageFormatter = formatter.makeClone();
-        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
+        return createImageFromLayers(proj, scaledWidth, scaledHeight, getLayers(showLayers), background);
+    }
 
-        if (graphics == null) {
-            return new byte[0];
+    /**
+     * Get the layers for a set of layer marker names.
+     * 
+     * @param showLayers Layer marker names reflecting the layers wanted, top
+     *        first.
+     * @return the layers matching the names, in the same order, empty if
+     *         showLayers is null.
+     */
+    public List<Layer> getLayers(List<String> showLayers) {
+        List<Layer> ret = new ArrayList<Layer>();
+        if (showLayers == null) {
+            return ret;
         }
 
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
-
-        if (showLayers != null) {
-            int size = showLayers.size();
-            for (int j = size - 1; j >= 0; j--) {
-                for (int i = layers.length - 1; i >= 0; i--) {
-                    String layerName = (String) showLayers.get(j);
-                    Layer layer = layers[i];
-                    String prefix = layer.getPropertyPrefix();
-                    if (prefix == null) {
-                        // Just in case the PlugInLayer prefix didn't get set to
-                        // the
-                        // same as the plugins'
-                        if (layer instanceof PlugInLayer) {
-                            prefix = ((PlugInLayer) layer).getPlugIn().getPropertyPrefix();
-                        }
+        Layer[] layers = getLayers();
+        for (String layerName : showLayers) {
+            for (int i = 0; i < layers.length; i++) {
+                Layer layer = layers[i];
+                String prefix = layer.getPropertyPrefix();
+                if (prefix == null) {
+                    // Just in case the PlugInLayer prefix didn't get set to
+                    // the
+                    // same as the plugins'
+                    if (layer instanceof PlugInLayer) {
+                        prefix = ((PlugInLayer) layer).getPlugIn().getPropertyPrefix();
                     }
+                }
 
-                    if (layerName.equals(prefix)) {
-                        layer.renderDataForProjection(proj, graphics);
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine("image request adding layer graphics from : " + layer.getName());
-                        }
-                    }
+                if (layerName.equals(prefix)) {
+                    ret.add(layer);
                 }
             }
-        } else if (logger.isLoggable(Level.FINE)) {
-            logger.fine("no layers available for image");
         }
-
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
+        return ret;
     }
 
     /**
@@ -407,19 +410,41 @@ public class ImageServer
 
         logger.fine("using the new ProjectionPainter interface!  createImage with layer list.");
 
+        return createImage(new ImageRequestContext(getFormatter(), background, getTransparent(), proj, layers), scaledWidth, scaledHeight);
+    }
+
+    /**
+     * Create an image with the settings of one request, instead of the ones
+     * set in this ImageServer, so several threads can create images at the
+     * same time with different settings.
+     * 
+     * @param context the formatter, background, projection and layers for
+     *        the image.
+     * @param scaledWidth scaled pixel width of final image. If you don't want
+     *        it scaled, use -1.
+     * @param scaledHeight scaled pixel height of final image. If you don't want
+     *        it scaled, use -1.
+     * @return a byte[] representing the formatted image.
+     */
+    public byte[] createImage(ImageRequestContext context, int scaledWidth, int scaledHeight) {
+
+        ImageFormatter formatter = context.getFormatter();
         if (formatter == null) {
             logger.warning("no formatter set! Can't create image.");
             return new byte[0];
         }
 
+        Projection proj = context.getProjection();
+        List<Layer> layers = context.getLayers();
+
         ImageFormatter imageFormatter = formatter.makeClone();
-        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
+        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight(), context.getTransparent());
 
         if (graphics == null) {
             return new byte[0];
         }
 
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
+        ((Proj) proj).drawBackground((Graphics2D) graphics, context.getBackground());
 
         if (layers != null && !layers.isEmpty()) {
             for (int i = layers.size() - 1; i >= 0; i--) {
@@ -557,6 +582,21 @@ public class ImageServer
      * @param height the pixel height of the image.
      */
     protected Graphics createGraphics(ImageFormatter formatter, int width, int height) {
+        return createGraphics(formatter, width, height, getTransparent());
+    }
+
+    /**
+     * Create a java.awt.Graphics to use for an image. The Graphics will affect
+     * the image contained within the ImageFormatter.
+     * 
+     * @param formatter the ImageFormatter containing the image.
+     * @param width the pixel width of the image.
+     * @param height the pixel height of the image.
+     * @param transparent whether the image should be transparent where
+     *        nothing is drawn.
+     */
+    protected Graphics createGraphics(ImageFormatter formatter, int width, int height,
+                                      boolean transparent) {
 
         java.awt.Graphics graphics = null;
 
@@ -565,7 +605,7 @@ public class ImageServer
             return null;
         }
 
-        graphics = formatter.getGraphics(width, height, getTransparent());
+        graphics = formatter.getGraphics(width, height, transparent);
 
         if (graphics == null) {
             logger.warning("ImageServer.createGraphics: NOT able to create Graphics!");
@@ -636,6 +676,31 @@ public class ImageServer
         doAntiAliasing = PropUtils.booleanFromProperties(props, prefix + AntiAliasingProperty, false);
 
         background = getBackground(props, prefix + BackgroundProperty);
+
+        String cachePrefix = prefix + ResponseCacheProperty;
+        if (PropUtils.booleanFromProperties(props, cachePrefix + "."
+                + ImageResponseCache.EnabledProperty, false)) {
+            ImageResponseCache cache = new ImageResponseCache();
+            cache.setProperties(cachePrefix, props);
+            setResponseCache(cache);
+        } else {
+            setResponseCache(null);
+        }
+    }
+
+    /**
+     * Get the cache of rendered responses, null if they aren't cached.
+     */
+    public ImageResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Set the cache of rendered responses, used by subclasses that handle
+     * requests. Null to not cache them.
+     */
+    public void setResponseCache(ImageResponseCache cache) {
+        responseCache = cache;
     }
 
     /**
@@ -727,6 +792,10 @@ public class ImageServer
             props.put(Environment.BackgroundColor, colorString);
         }
 
+        if (responseCache != null) {
+            responseCache.getProperties(props);
+        }
+
         return props;
     }
 
@@ -1017,6 +1086,35 @@ public class ImageServer
         projectionFactory = projFactory;
     }
 
+    /**
+     * Returns the file path with the file extension for the current active
+     * formatter, if the path doesn't already end with it.
+     * 
+     * @param outputPath the path of the image file.
+     * @return the path with the extension added.
+     */
+    public String getImageFilePath(String outputPath) {
+        String appendix;
+        ImageFormatter formatter = getFormatter();
+        if (formatter == null) {
+            appendix = ".jpg";
+        } else {
+            String fileType = formatter.getFormatLabel();
+            if (fileType.equals(WMTConstants.IMAGEFORMAT_JPEG)) {
+                appendix = ".jpg";
+            } else {
+                appendix = "." + fileType.toLowerCase();
+            }
+        }
+
+        // If the file output path already ends properly, don't bother
+        // changing it.
+        if (outputPath.endsWith(appendix)) {
+            return outputPath;
+        }
+        return outputPath + appendix;
+    }
+
     /**
      * Takes a byte array and writes it out to a file path.
      * 
@@ -1030,30 +1128,8 @@ public class ImageServer
      */
     public String writeImageFile(byte[] imageBytes, String outputPath, boolean checkFormatterForExtension)
             throws IOException {
-        String appendix = "";
-
-        if (checkFormatterForExtension) {
-            ImageFormatter formatter = getFormatter();
-            if (formatter == null) {
-                appendix = ".jpg";
-            } else {
-                String fileType = formatter.getFormatLabel();
-                if (fileType.equals(WMTConstants.IMAGEFORMAT_JPEG)) {
-                    appendix = ".jpg";
-                } else {
-                    appendix = "." + fileType.toLowerCase();
-                }
-            }
-
-            // If the file output path already ends properly, don't bother
-            // changing
-            // it.
-            if (outputPath.endsWith(appendix)) {
-                appendix = "";
-            }
-        }
-
-        String finalOutputPath = outputPath + appendix;
+        String finalOutputPath = checkFormatterForExtension ? getImageFilePath(outputPath)
+                : outputPath;
 
         FileOutputStream fos = new FileOutputStream(finalOutputPath);
 
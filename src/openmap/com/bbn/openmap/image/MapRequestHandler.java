@@ -26,8 +26,10 @@ import java.awt.Paint;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URLDecoder;
+import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import com.bbn.openmap.Environment;
 import com.bbn.openmap.Layer;
@@ -330,6 +332,48 @@ public class MapRequestHandler extends ImageServer implements
      */
     public byte[] handleMapRequest(Properties requestProperties)
             throws IOException, MapRequestFormatException {
+        ImageResponseCache cache = getResponseCache();
+        if (cache != null) {
+            return getCachedMapResponse(cache, requestProperties).getBytes();
+        }
+        return createMapImage(requestProperties);
+    }
+
+    /**
+     * Get the response for a map request from the cache, creating the image
+     * if it isn't there.
+     */
+    protected ImageResponseCache.Response getCachedMapResponse(ImageResponseCache cache,
+                                                               final Properties requestProperties)
+            throws IOException, MapRequestFormatException {
+        String strLayers = requestProperties.getProperty(LAYERS);
+        List<String> layers = strLayers != null ? PropUtils.parseMarkers(strLayers, ",")
+                : PropUtils.parseMarkers(getAllLayerNames(), " ");
+
+        try {
+            return cache.get(cache.createKey(requestProperties), layers, new Callable<ImageResponseCache.Response>() {
+                public ImageResponseCache.Response call() throws Exception {
+                    byte[] image = createMapImage(requestProperties);
+                    return new ImageResponseCache.Response(getFormatterContentType(getFormatter()), image);
+                }
+            });
+        } catch (IOException ioe) {
+            throw ioe;
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Create the image for a map request.
+     * 
+     * @param requestProperties the request in properties format.
+     * @return byte[] of formatted image.
+     */
+    protected byte[] createMapImage(Properties requestProperties)
+            throws IOException, MapRequestFormatException {
 
         Proj projection = ImageServerUtils.createOMProjection(requestProperties,
                 defaultProjection);
@@ -426,14 +470,22 @@ public class MapRequestHandler extends ImageServer implements
     public void handleMapRequest(Properties requestProperties, OutputStream out)
             throws IOException, MapRequestFormatException {
 
-        byte[] image = handleMapRequest(requestProperties);
+        byte[] image;
+        String contentType;
+        ImageResponseCache cache = getResponseCache();
+        if (cache != null) {
+            ImageResponseCache.Response response = getCachedMapResponse(cache, requestProperties);
+            image = response.getBytes();
+            contentType = response.getContentType();
+        } else {
+            image = createMapImage(requestProperties);
+            contentType = getFormatterContentType(getFormatter());
+        }
 
         if (Debug.debugging("imageserver")) {
             Debug.output("MRH: have completed image, size " + image.length);
         }
 
-        String contentType = getFormatterContentType(getFormatter());
-
         if (contentType == null) {
             contentType = HttpConnection.CONTENT_PLAIN;
         }
@@ -0,0 +1,500 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Reduces images to a palette of 256 colors or less, with partially
+ * transparent colors, for 8 bit PNG images. The pixels of one or more images
+ * are added to an octree (sixteen children per node, one for each combination
+ * of the alpha, red, green and blue bits at that level), the tree is pruned
+ * down to the number of colors wanted, and each leaf becomes a palette entry.
+ * Images are reduced by following their pixels down the tree to a leaf. Fully
+ * transparent pixels are kept out of the tree, and get the first palette
+ * entry, so they stay clear.
+ * <p>
+ * TYPE_INT_ARGB and TYPE_INT_RGB images are read straight out of their
+ * DataBufferInt, and the tree is kept in flat arrays, so this is a lot faster
+ * than ColorReducer. Once the palette has been made, the quantizer can reduce
+ * other images with the same palette, which keeps the colors of tiles cut out
+ * of the same image the same across the tile edges. Colors that weren't in the
+ * images the palette was made from get the closest palette entry.
+ * <p>
+ * A quantizer can be used from several threads to reduce images once its
+ * palette has been made, but pixels can't be added from more than one thread.
+ *
+ * <pre>
+ * OctreeQuantizer quantizer = new OctreeQuantizer(256);
+ * quantizer.addPixels(bigImage);
+ * BufferedImage reduced = quantizer.reduce(pieceOfBigImage);
+ * </pre>
+ */
+public class OctreeQuantizer {
+
+    /** The number of levels below the root, one for each bit of a color. */
+    public final static int MAX_DEPTH = 8;
+    /**
+     * The default number of leaves the tree can grow to while pixels are
+     * added, before it's pruned back.
+     */
+    public final static int DEFAULT_MAX_LEAVES = 4096;
+
+    protected final static int CHILDREN = 16;
+
+    protected int maxColors;
+    protected int maxLeaves = DEFAULT_MAX_LEAVES;
+
+    // The tree, node 0 is the root. A child of 0 means there isn't one.
+    protected int nodeCount;
+    protected int[] children;
+    protected boolean[] leaf;
+    protected int[] count;
+    protected long[] sumA;
+    protected long[] sumR;
+    protected long[] sumG;
+    protected long[] sumB;
+    /** Palette index of leaves, after the palette is made. */
+    protected int[] index;
+    /**
+     * Links nodes that can be pruned at each depth, and nodes that have been
+     * freed.
+     */
+    protected int[] next;
+    protected int[] reducible = new int[MAX_DEPTH];
+    protected int free = -1;
+    protected int leafCount;
+    /** Whether fully transparent pixels have been added. */
+    protected boolean hasClear;
+
+    protected int[] palette;
+    protected IndexColorModel colorModel;
+
+    /**
+     * @param maxColors the most colors for the palette, no more than 256.
+     */
+    public OctreeQuantizer(int maxColors) {
+        this.maxColors = Math.max(1, Math.min(256, maxColors));
+        int capacity = 1024;
+        children = new int[capacity * CHILDREN];
+        leaf = new boolean[capacity];
+        count = new int[capacity];
+        sumA = new long[capacity];
+        sumR = new long[capacity];
+        sumG = new long[capacity];
+        sumB = new long[capacity];
+        next = new int[capacity];
+        Arrays.fill(reducible, -1);
+        newNode(0);
+    }
+
+    public int getMaxColors() {
+        return maxColors;
+    }
+
+    public int getMaxLeaves() {
+        return maxLeaves;
+    }
+
+    /**
+     * Set how many leaves the tree can grow to while pixels are added. More
+     * leaves make a better palette, but take more memory and time.
+     */
+    public void setMaxLeaves(int maxLeaves) {
+        this.maxLeaves = Math.max(maxColors, maxLeaves);
+    }
+
+    /**
+     * Add the pixels of an image to the colors the palette is made from.
+     *
+     * @throws IllegalStateException if the palette has already been made.
+     */
+    public void addPixels(BufferedImage bi) {
+        if (palette != null) {
+            throw new IllegalStateException("palette has already been made");
+        }
+
+        int width = bi.getWidth();
+        int height = bi.getHeight();
+        PixelSource source = new PixelSource(bi);
+
+        for (int y = 0; y < height; y++) {
+            int offset = source.row(y);
+            int[] data = source.data;
+            int end = offset + width;
+            int i = offset;
+            while (i < end) {
+                // Maps are mostly runs of the same color.
+                int argb = data[i];
+                int run = 1;
+                while (++i < end && data[i] == argb) {
+                    run++;
+                }
+                addPixel(source.normalize(argb), run);
+            }
+        }
+    }
+
+    /**
+     * Add a color to the tree.
+     *
+     * @param argb the color, with transparent colors all set to 0.
+     * @param n the number of pixels with the color.
+     */
+    protected void addPixel(int argb, int n) {
+        if (argb == 0) {
+            hasClear = true;
+            return;
+        }
+
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+
+        int node = 0;
+        int level = 0;
+        while (!leaf[node]) {
+            int shift = 7 - level;
+            int c = ((a >> shift) & 1) << 3 | ((r >> shift) & 1) << 2 | ((g >> shift) & 1) << 1
+                    | ((b >> shift) & 1);
+            int child = children[node * CHILDREN + c];
+            if (child == 0) {
+                child = newNode(level + 1);
+                children[node * CHILDREN + c] = child;
+            }
+            node = child;
+            level++;
+        }
+
+        count[node] += n;
+        sumA[node] += (long) a * n;
+        sumR[node] += (long) r * n;
+        sumG[node] += (long) g * n;
+        sumB[node] += (long) b * n;
+
+        while (leafCount > maxLeaves && prune()) {
+        }
+    }
+
+    protected int newNode(int level) {
+        int node;
+        if (free >= 0) {
+            node = free;
+            free = next[node];
+        } else {
+            node = nodeCount++;
+            if (node == next.length) {
+                grow();
+            }
+        }
+
+        count[node] = 0;
+        sumA[node] = 0;
+        sumR[node] = 0;
+        sumG[node] = 0;
+        sumB[node] = 0;
+        if (level == MAX_DEPTH) {
+            leaf[node] = true;
+            leafCount++;
+        } else {
+            leaf[node] = false;
+            next[node] = reducible[level];
+            reducible[level] = node;
+        }
+        return node;
+    }
+
+    protected void grow() {
+        int capacity = next.length * 2;
+        children = Arrays.copyOf(children, capacity * CHILDREN);
+        leaf = Arrays.copyOf(leaf, capacity);
+        count = Arrays.copyOf(count, capacity);
+        sumA = Arrays.copyOf(sumA, capacity);
+        sumR = Arrays.copyOf(sumR, capacity);
+        sumG = Arrays.copyOf(sumG, capacity);
+        sumB = Arrays.copyOf(sumB, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+
+    /**
+     * Merge the children of the deepest node that has children into it,
+     * which makes it a leaf. The children of the deepest nodes are all
+     * leaves.
+     * 
+     * @return false if the tree can't be pruned any more.
+     */
+    protected boolean prune() {
+        int level = MAX_DEPTH - 1;
+        while (level >= 0 && reducible[level] < 0) {
+            level--;
+        }
+        if (level < 0) {
+            return false;
+        }
+
+        int node = reducible[level];
+        reducible[level] = next[node];
+
+        int base = node * CHILDREN;
+        for (int c = 0; c < CHILDREN; c++) {
+            int child = children[base + c];
+            if (child != 0) {
+                count[node] += count[child];
+                sumA[node] += sumA[child];
+                sumR[node] += sumR[child];
+                sumG[node] += sumG[child];
+                sumB[node] += sumB[child];
+                children[base + c] = 0;
+                leaf[child] = false;
+                next[child] = free;
+                free = child;
+                leafCount--;
+            }
+        }
+        leaf[node] = true;
+        leafCount++;
+        return true;
+    }
+
+    /**
+     * Make the palette from the pixels added so far, if it hasn't been made
+     * yet. No more pixels can be added after this.
+     *
+     * @return the palette, with at least two colors, since some PNG readers
+     *         don't like a palette with one.
+     */
+    public synchronized IndexColorModel getColorModel() {
+        if (colorModel != null) {
+            return colorModel;
+        }
+
+        int first = hasClear ? 1 : 0;
+        while (leafCount + first > maxColors && prune()) {
+        }
+
+        index = new int[next.length];
+        int[] colors = new int[Math.max(2, leafCount + first)];
+        int numColors = first;
+
+        int[] stack = new int[MAX_DEPTH * CHILDREN + 1];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (leaf[node]) {
+                int n = Math.max(1, count[node]);
+                int a = (int) ((sumA[node] + n / 2) / n);
+                int r = (int) ((sumR[node] + n / 2) / n);
+                int g = (int) ((sumG[node] + n / 2) / n);
+                int b = (int) ((sumB[node] + n / 2) / n);
+                index[node] = numColors;
+                colors[numColors++] = (a << 24) | (r << 16) | (g << 8) | b;
+            } else {
+                for (int c = CHILDREN - 1; c >= 0; c--) {
+                    int child = children[node * CHILDREN + c];
+                    if (child != 0) {
+                        stack[top++] = child;
+                    }
+                }
+            }
+        }
+
+        // Extra entries can't be clear, ArcGIS doesn't handle PNGs with
+        // more than one clear entry.
+        for (int i = numColors; i < colors.length; i++) {
+            colors[i] = 0xff00ff00;
+        }
+
+        palette = colors;
+        colorModel = new IndexColorModel(8, colors.length, colors, 0, true, -1, DataBuffer.TYPE_BYTE);
+        return colorModel;
+    }
+
+    /**
+     * Reduce an image to the palette, making the palette from the pixels
+     * added so far if it hasn't been made yet.
+     *
+     * @return a TYPE_BYTE_INDEXED image.
+     */
+    public BufferedImage reduce(BufferedImage bi) {
+        IndexColorModel icm = getColorModel();
+        int width = bi.getWidth();
+        int height = bi.getHeight();
+
+        BufferedImage reducedImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        WritableRaster raster = reducedImage.getRaster();
+        byte[] out = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int outStride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+
+        // Closest palette entries for colors that weren't in the tree.
+        int[] cacheKeys = new int[1024];
+        int[] cacheValues = new int[1024];
+        Arrays.fill(cacheValues, -1);
+
+        PixelSource source = new PixelSource(bi);
+        int lastColor = 0;
+        int lastIndex = -1;
+
+        for (int y = 0; y < height; y++) {
+            int offset = source.row(y);
+            int[] data = source.data;
+            int o = y * outStride;
+            for (int x = 0; x < width; x++) {
+                int argb = data[offset + x];
+                if (argb != lastColor || lastIndex < 0) {
+                    lastColor = argb;
+                    lastIndex = lookup(source.normalize(argb), cacheKeys, cacheValues);
+                }
+                out[o + x] = (byte) lastIndex;
+            }
+        }
+
+        return reducedImage;
+    }
+
+    /**
+     * Find the palette index for a color by following it down the tree, or
+     * by looking for the closest palette entry if it's not in the tree.
+     */
+    protected int lookup(int argb, int[] cacheKeys, int[] cacheValues) {
+        if (argb == 0 && hasClear) {
+            return 0;
+        }
+
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+
+        int node = 0;
+        int level = 0;
+        while (!leaf[node]) {
+            int shift = 7 - level;
+            int c = ((a >> shift) & 1) << 3 | ((r >> shift) & 1) << 2 | ((g >> shift) & 1) << 1
+                    | ((b >> shift) & 1);
+            node = children[node * CHILDREN + c];
+            if (node == 0) {
+                int slot = (argb * 0x9E3779B1) >>> 22;
+                if (cacheValues[slot] < 0 || cacheKeys[slot] != argb) {
+                    cacheKeys[slot] = argb;
+                    cacheValues[slot] = closest(a, r, g, b);
+                }
+                return cacheValues[slot];
+            }
+            level++;
+        }
+        return index[node];
+    }
+
+    /**
+     * @return the index of the palette entry closest to a color.
+     */
+    protected int closest(int a, int r, int g, int b) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int color = palette[i];
+            int da = (color >>> 24) - a;
+            int dr = ((color >> 16) & 0xff) - r;
+            int dg = ((color >> 8) & 0xff) - g;
+            int db = (color & 0xff) - b;
+            int distance = da * da + dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reduce an image to a palette made from its own pixels.
+     *
+     * @param bi the image.
+     * @param colors the most colors for the palette.
+     * @return a TYPE_BYTE_INDEXED image.
+     */
+    public static BufferedImage reduce(BufferedImage bi, int colors) {
+        OctreeQuantizer quantizer = new OctreeQuantizer(colors);
+        quantizer.addPixels(bi);
+        return quantizer.reduce(bi);
+    }
+
+    /**
+     * Hands out the rows of an image as ARGB ints, straight from the
+     * DataBufferInt of TYPE_INT_ARGB and TYPE_INT_RGB images, and through
+     * getRGB for the others.
+     */
+    protected static class PixelSource {
+        protected final BufferedImage bi;
+        protected final boolean direct;
+        protected final boolean opaque;
+        protected int[] data;
+        protected int base;
+        protected int stride;
+
+        protected PixelSource(BufferedImage bi) {
+            this.bi = bi;
+            int type = bi.getType();
+            WritableRaster raster = bi.getRaster();
+            direct = (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                    && raster.getDataBuffer() instanceof DataBufferInt
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+            opaque = !bi.getColorModel().hasAlpha();
+
+            if (direct) {
+                DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+                SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                data = db.getData();
+                stride = sm.getScanlineStride();
+                base = db.getOffset()
+                        + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            } else {
+                data = new int[bi.getWidth()];
+            }
+        }
+
+        /**
+         * @return the offset of row y in data.
+         */
+        protected int row(int y) {
+            if (direct) {
+                return base + y * stride;
+            }
+            bi.getRGB(0, y, data.length, 1, data, 0, data.length);
+            return 0;
+        }
+
+        /**
+         * Fill in alpha for opaque images, and make all transparent pixels
+         * the same color.
+         */
+        protected int normalize(int argb) {
+            if (opaque) {
+                return argb | 0xff000000;
+            }
+            return (argb >>> 24) == 0 ? 0 : argb;
+        }
+    }
+}
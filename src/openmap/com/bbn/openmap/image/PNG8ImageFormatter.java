@@ -10,17 +10,49 @@ import com.bbn.openmap.util.http.HttpConnection;
 
 public class PNG8ImageFormatter extends ImageIOFormatter {
 
+    /**
+     * A palette shared by images that should have the same colors, like the
+     * tiles cut from one image. If null, each image gets its own palette.
+     */
+    protected OctreeQuantizer palette;
+
     public PNG8ImageFormatter() {
         setFormatName("png");
     }
 
+    /**
+     * @return the palette used for all images, or null if each image gets
+     *         its own.
+     */
+    public OctreeQuantizer getPalette() {
+        return palette;
+    }
+
+    /**
+     * Set a palette to use for all images formatted, and by clones of this
+     * formatter, instead of making one for each image. Tiles reduced with
+     * the same palette have the same colors where they meet.
+     */
+    public void setPalette(OctreeQuantizer palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * Make a palette from an image, for images cut from it.
+     * 
+     * @param bi the image.
+     * @return the palette.
+     */
+    public static OctreeQuantizer createPalette(BufferedImage bi) {
+        OctreeQuantizer quantizer = new OctreeQuantizer(256);
+        quantizer.addPixels(bi);
+        quantizer.getColorModel();
+        return quantizer;
+    }
+
     public byte[] formatImage(BufferedImage bi) {
-        BufferedImage reducedImage = null;
-        if (bi.getColorModel().hasAlpha()) {
-			reducedImage = ColorReducer.reduce32(bi, 256);
-		} else {
-			reducedImage = ColorReducer.reduce24(bi, 256);
-		}
+        BufferedImage reducedImage = (palette != null ? palette.reduce(bi)
+                : OctreeQuantizer.reduce(bi, 256));
         try {
             ByteArrayOutputStream byo = new ByteArrayOutputStream();
             ImageIO.write(reducedImage, getFormatName(), byo);
@@ -36,7 +68,9 @@ public class PNG8ImageFormatter extends ImageIOFormatter {
     }
 
     public ImageFormatter makeClone() {
-        return new PNG8ImageFormatter();
+        PNG8ImageFormatter formatter = new PNG8ImageFormatter();
+        formatter.setPalette(palette);
+        return formatter;
     }
 
     public String getContentType() {
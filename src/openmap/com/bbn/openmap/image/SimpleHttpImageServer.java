@@ -35,6 +35,7 @@ import com.bbn.openmap.util.http.HttpConnection;
 import com.bbn.openmap.util.http.HttpRequestEvent;
 import com.bbn.openmap.util.http.HttpRequestListener;
 import com.bbn.openmap.util.http.HttpServer;
+import com.bbn.openmap.util.http.NioHttpServer;
 
 /**
  * The SimpleHttpImageServer is an ImageServer extended into a simple
@@ -116,7 +117,16 @@ public class SimpleHttpImageServer implements HttpRequestListener {
 
     public SimpleHttpImageServer(int port, boolean asDeamon, Properties props)
             throws IOException {
-        httpd = new HttpServer(port, asDeamon);
+        this(new HttpServer(port, asDeamon), props);
+    }
+
+    /**
+     * Create the server on an HttpServer that's already been created, like
+     * a NioHttpServer.
+     */
+    public SimpleHttpImageServer(HttpServer server, Properties props)
+            throws IOException {
+        httpd = server;
         httpd.addHttpRequestListener(this);
 
         iServer = new MapRequestHandler(props);
@@ -191,6 +201,9 @@ public class SimpleHttpImageServer implements HttpRequestListener {
             ap.add("port",
                     "The port to listen for new map image requests on. (Default 0)",
                     1);
+            ap.add("threads",
+                    "Handle connections without blocking, with this many threads rendering images.",
+                    1);
             ap.add("verbose", "Print action messages.");
             ap.add("test", "Create a test default image.");
 
@@ -216,7 +229,13 @@ public class SimpleHttpImageServer implements HttpRequestListener {
 
             SimpleHttpImageServer shis;
             String[] portarg = ap.getArgValues("port");
-            if (portarg != null) {
+            String[] threadarg = ap.getArgValues("threads");
+            if (threadarg != null) {
+                int port = portarg != null ? Integer.parseInt(portarg[0])
+                        : HttpServer.DEFAULT_PORT;
+                int threads = Integer.parseInt(threadarg[0]);
+                shis = new SimpleHttpImageServer(new NioHttpServer(port, false, threads, NioHttpServer.DEFAULT_QUEUE_SIZE), propHandler.getProperties());
+            } else if (portarg != null) {
                 int port = Integer.parseInt(portarg[0]);
                 shis = new SimpleHttpImageServer(port, false, propHandler.getProperties());
             } else {
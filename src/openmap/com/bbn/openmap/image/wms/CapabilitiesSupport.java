@@ -325,6 +325,10 @@ public class CapabilitiesSupport {
         wmslayers.add(wmsLayer);
     }
 
+    public boolean removeLayer(IWmsLayer wmsLayer) {
+        return wmslayers.remove(wmsLayer);
+    }
+
     public void setLayersTitle(String title) {
         this.layersTitle = title;
     }
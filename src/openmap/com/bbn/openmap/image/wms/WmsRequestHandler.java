@@ -11,6 +11,7 @@ import java.awt.Paint;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -19,11 +20,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 import com.bbn.openmap.Layer;
 import com.bbn.openmap.event.ProjectionEvent;
 import com.bbn.openmap.image.ImageFormatter;
+import com.bbn.openmap.image.ImageRequestContext;
+import com.bbn.openmap.image.ImageResponseCache;
 import com.bbn.openmap.image.ImageServer;
 import com.bbn.openmap.image.ImageServerConstants;
 import com.bbn.openmap.image.MapRequestFormatException;
@@ -56,6 +60,10 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
     private WmsLayerFactory wmsLayerFactory;
     private Map<String, ImageFormatter> imageFormatterByContentType = new HashMap<String, ImageFormatter>();
     private FeatureInfoResponse featureInfoResponse;
+    /**
+     * The layers added to the capabilities, null if they need to be added.
+     */
+    private List<IWmsLayer> capabilitiesLayers;
     public static final String WMSPrefix = CapabilitiesSupport.WMSPrefix;
     private static final String FeatureInfoResponseClassNameProperty = "featureInfoResponse.class";
 
@@ -107,6 +115,20 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
         capabilities.setFormats(CapabilitiesSupport.FMT_GETFEATUREINFO, getFeatureInfoResponse().getInfoFormats());
     }
 
+    /**
+     * Set the url of the wms servlet given in capabilities descriptions, for
+     * handlers that are kept and used for requests made through different
+     * urls.
+     * 
+     * @param wmsScheme for capabilities description
+     * @param wmsHostName for capabilities description
+     * @param wmsPort for capabilities description
+     * @param wmsUrlPath for capabilities description
+     */
+    public void setUrl(String wmsScheme, String wmsHostName, int wmsPort, String wmsUrlPath) {
+        getCapabilities().setUrl(wmsScheme, wmsHostName, wmsPort, wmsUrlPath);
+    }
+
     /**
      * For each layer managed by ImageServer create corresponding IWmsLayer
      * which contains additional information for WMS service about given openmap
@@ -116,6 +138,14 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      * same.
      */
     protected void createWmsLayers() {
+        synchronized (this) {
+            if (capabilitiesLayers != null) {
+                for (IWmsLayer wmsLayer : capabilitiesLayers) {
+                    getCapabilities().removeLayer(wmsLayer);
+                }
+                capabilitiesLayers = null;
+            }
+        }
         wmsLayerByName.clear();
         wmsLayers.clear();
         for (int i = 0; i < layers.length; i++) {
@@ -236,17 +266,58 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      */
     public void handleGetMapRequest(Properties requestProperties, IHttpResponse httpResponse)
             throws IOException, MapRequestFormatException, WMSException {
-        byte[] image = handleGetMapRequest(requestProperties);
+        byte[] image;
+        String contentType;
+        ImageResponseCache cache = getResponseCache();
+        if (cache != null) {
+            ImageResponseCache.Response response = getCachedGetMapResponse(cache, requestProperties);
+            image = response.getBytes();
+            contentType = response.getContentType();
+        } else {
+            GetMapRequestParameters parameters = new GetMapRequestParameters();
+            image = handleGetMapRequest(requestProperties, parameters);
+            contentType = parameters.formatter.getContentType();
+        }
         if (Debug.debugging("imageserver")) {
             Debug.output("OGCMRH: have completed image, size " + image.length);
         }
-        String contentType = getFormatter().getContentType();
         if (contentType == null) {
             contentType = HttpConnection.CONTENT_PLAIN;
         }
         httpResponse.writeHttpResponse(contentType, image);
     }
 
+    /**
+     * Get the response for a GetMap request from the cache, rendering it if
+     * it isn't there. The responses are listed in the cache under the names in
+     * the LAYERS parameter, for ImageResponseCache.invalidate(String).
+     */
+    protected ImageResponseCache.Response getCachedGetMapResponse(ImageResponseCache cache,
+                                                                  final Properties requestProperties)
+            throws IOException, MapRequestFormatException, WMSException {
+        String strLayers = requestProperties.getProperty(LAYERS);
+        List<String> layers = strLayers == null ? new ArrayList<String>()
+                : Arrays.asList(strLayers.split(","));
+
+        try {
+            return cache.get(cache.createKey(requestProperties), layers, new Callable<ImageResponseCache.Response>() {
+                public ImageResponseCache.Response call() throws Exception {
+                    GetMapRequestParameters parameters = new GetMapRequestParameters();
+                    byte[] image = handleGetMapRequest(requestProperties, parameters);
+                    return new ImageResponseCache.Response(parameters.formatter.getContentType(), image);
+                }
+            });
+        } catch (IOException ioe) {
+            throw ioe;
+        } catch (WMSException wmse) {
+            throw wmse;
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
     /**
      * @param requestProperties
      * @return byte array for image, formatted
@@ -256,12 +327,24 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      */
     public byte[] handleGetMapRequest(Properties requestProperties)
             throws IOException, MapRequestFormatException, WMSException {
-        GetMapRequestParameters parameters = new GetMapRequestParameters();
+        return handleGetMapRequest(requestProperties, new GetMapRequestParameters());
+    }
 
+    /**
+     * The request is rendered with an ImageRequestContext made from the
+     * parameters, nothing is set on the handler, so requests can be handled
+     * at the same time.
+     * 
+     * @param requestProperties
+     * @param parameters filled in from the request properties.
+     * @return byte array for image, formatted
+     */
+    private byte[] handleGetMapRequest(Properties requestProperties,
+                                       GetMapRequestParameters parameters)
+            throws IOException, MapRequestFormatException, WMSException {
         checkVersion(requestProperties, parameters);
         checkExceptions(requestProperties, parameters);
         checkFormat(requestProperties, parameters);
-        setFormatter(parameters.formatter);
 
         checkBackground(requestProperties, parameters);
         Paint bgPaint = parameters.background;
@@ -275,25 +358,29 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
 
         Debug.message("ms", "handleGetMapRequest: createImage layers:"
                 + parameters.topLayerNames.toString());
-        return createImage(projection, parameters.width, parameters.height, parameters.topLayerNames, bgPaint);
+        ImageRequestContext context = new ImageRequestContext(parameters.formatter, bgPaint, parameters.getTransparent(), projection, getLayers(parameters.topLayerNames));
+        return createImage(context, parameters.width, parameters.height);
     }
 
     public byte[] handleGetLegendGraphicRequest(Properties requestProperties)
             throws IOException, MapRequestFormatException, WMSException {
-        GetLegendGraphicRequestParameters parameters = new GetLegendGraphicRequestParameters();
+        return handleGetLegendGraphicRequest(requestProperties, new GetLegendGraphicRequestParameters());
+    }
 
+    private byte[] handleGetLegendGraphicRequest(Properties requestProperties,
+                                                 GetLegendGraphicRequestParameters parameters)
+            throws IOException, MapRequestFormatException, WMSException {
         checkVersion(requestProperties, parameters);
         checkExceptions(requestProperties, parameters);
         checkWidthAndHeight(requestProperties, parameters);
         checkFormat(requestProperties, parameters);
-        setFormatter(parameters.getFormatter());
         checkLayerAndStyle(requestProperties, parameters);
 
         Debug.message("ms", "handleGetLegendGraphic: createImage layer:" + parameters.layerName);
 
         IWmsLayer layer = wmsLayerByName.get(parameters.layerName);
 
-        ImageFormatter imageFormatter = formatter.makeClone();
+        ImageFormatter imageFormatter = parameters.getFormatter().makeClone();
         java.awt.Graphics graphics = createGraphics(imageFormatter, parameters.getWidth(), parameters.getHeight());
 
         if (graphics == null) {
@@ -354,10 +441,18 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
             throw new WMSException("Invalid FORMAT parameter.", WMSException.INVALIDFORMAT);
         }
 
-        Layer[] layers = getLayers();
-        for (int i = 0; i < layers.length; i++) {
-            if (layers[i].getPropertyPrefix() != null) {
-                getCapabilities().addLayer(wmsLayerFactory.createWmsLayer(layers[i]));
+        // only once, the handler may be used for many requests
+        synchronized (this) {
+            if (capabilitiesLayers == null) {
+                capabilitiesLayers = new ArrayList<IWmsLayer>();
+                Layer[] layers = getLayers();
+                for (int i = 0; i < layers.length; i++) {
+                    if (layers[i].getPropertyPrefix() != null) {
+                        IWmsLayer wmsLayer = wmsLayerFactory.createWmsLayer(layers[i]);
+                        getCapabilities().addLayer(wmsLayer);
+                        capabilitiesLayers.add(wmsLayer);
+                    }
+                }
             }
         }
 
@@ -379,8 +474,9 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
     public void handleGetLegendGraphicRequest(Properties requestProperties,
                                               IHttpResponse httpResponse)
             throws IOException, MapRequestFormatException, WMSException {
-        byte[] image = handleGetLegendGraphicRequest(requestProperties);
-        String contentType = getFormatter().getContentType();
+        GetLegendGraphicRequestParameters parameters = new GetLegendGraphicRequestParameters();
+        byte[] image = handleGetLegendGraphicRequest(requestProperties, parameters);
+        String contentType = parameters.getFormatter().getContentType();
         httpResponse.writeHttpResponse(contentType, image);
     }
 
@@ -410,7 +506,6 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
         checkVersion(requestProperties, parameters);
         checkExceptions(requestProperties, parameters);
         checkFormat(requestProperties, parameters);
-        setFormatter(parameters.formatter);
         checkBackground(requestProperties, parameters);
         checkProjectionType(requestProperties, parameters);
         checkWidthAndHeight(requestProperties, parameters);
@@ -423,7 +518,7 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
 
         Proj projection = createProjection(requestProperties, parameters);
 
-        FeatureInfoResponse featureInfoResponse = getFeatureInfoResponse();
+        FeatureInfoResponse featureInfoResponse = createFeatureInfoResponse();
         StringBuffer out = new StringBuffer();
         featureInfoResponse.setOutput(parameters.infoFormat, out);
 
@@ -431,9 +526,15 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
             IWmsLayer wmslayer = wmsLayerByName.get(queryLayerName);
             Layer layer = getTopLayerByName(queryLayerName);
 
-            layer.setProjection(new ProjectionEvent(this, projection));
-
-            LayerFeatureInfoResponse layerResponse = wmslayer.query(parameters.x, parameters.y);
+            // The layer answers queries for the projection it has, keep other
+            // requests from changing it in between. Layers rendering for
+            // requests that don't support concurrent rendering lock
+            // themselves, too.
+            LayerFeatureInfoResponse layerResponse;
+            synchronized (layer) {
+                layer.setProjection(new ProjectionEvent(this, projection));
+                layerResponse = wmslayer.query(parameters.x, parameters.y);
+            }
             featureInfoResponse.output(layerResponse);
         }
 
@@ -447,6 +548,30 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
         return featureInfoResponse;
     }
 
+    /**
+     * Create a FeatureInfoResponse for one request, the same kind as the
+     * configured one, since it holds the output for the request.
+     */
+    protected FeatureInfoResponse createFeatureInfoResponse() throws WMSException {
+        Class<? extends FeatureInfoResponse> c = getFeatureInfoResponse().getClass();
+        try {
+            return c.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException e) {
+            throw misconfigured(c, e);
+        } catch (InstantiationException e) {
+            throw misconfigured(c, e);
+        } catch (IllegalAccessException e) {
+            throw misconfigured(c, e);
+        } catch (InvocationTargetException e) {
+            throw misconfigured(c, e.getCause());
+        }
+    }
+
+    private WMSException misconfigured(Class<?> c, Throwable t) {
+        Debug.error("WmsRequestHandler: can't create " + c.getName() + ": " + t);
+        return new WMSException("Unable to compile a response due to server misconfiguration.", WMSException.INTERNALERROR);
+    }
+
     /**
      * TODO: This method covers the equivalent of a base class and returns the
      * drawing, which is not rescaled. To them may be a problem. Scaling has
@@ -925,9 +1050,5 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
                         + " number in the form 0xXXXXXX, where X is a hexadecimal digit (0..9,A-F)");
             }
         }
-
-        // hint to the ImageServer
-        setTransparent(parameters.getTransparent());
-        setBackground(parameters.background);
     }
 }
@@ -76,7 +76,7 @@ public class BinaryFile {
      * 
      * @param inputReader the input reader to be opened for reading
      */
-    private BinaryFile(InputReader inputReader) {
+    protected BinaryFile(InputReader inputReader) {
         this.inputReader = inputReader;
         classCount++;
         openCount++;
@@ -720,6 +720,23 @@ public class BinaryFile {
         return Double.longBitsToDouble(readLong());
     }
 
+    /**
+     * Reads consecutive doubles into an array.
+     * 
+     * @param vec the array to read into
+     * @param offset the index of the first double in vec
+     * @param len the number of doubles to read
+     * @exception EOFException there were less than 8 bytes left in the file
+     * @exception FormatException rethrow of IOExceptions encountered while
+     *            reading the bytes for the doubles
+     */
+    public void readDoubleArray(double vec[], int offset, int len)
+            throws EOFException, FormatException {
+        for (int i = 0; i < len; i++) {
+            vec[offset++] = readDouble();
+        }
+    }
+
     /**
      * Reads <code>length</code> bytes and returns a string composed of the
      * bytes cast to chars
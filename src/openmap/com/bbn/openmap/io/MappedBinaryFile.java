@@ -0,0 +1,224 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+import com.bbn.openmap.Environment;
+
+/**
+ * A BinaryFile that reads a memory-mapped local file through a
+ * MappedInputReader. The primitive read methods read straight from the mapped
+ * buffer, without the temporary byte arrays the BinaryFile uses, and the array
+ * read methods copy values from the buffer into the array in bulk.
+ * <p>
+ * Closing a MappedBinaryFile doesn't unmap the file, and a mapped file doesn't
+ * hold a file descriptor open, so it's cheap to close and read again. Use
+ * dispose() when the file is no longer needed.
+ *
+ * @see MappedInputReader
+ */
+public class MappedBinaryFile extends BinaryFile {
+
+    protected MappedInputReader mappedReader;
+
+    /**
+     * Map a local file.
+     *
+     * @param f the file to read.
+     * @throws IOException if the file can't be found or mapped.
+     */
+    public MappedBinaryFile(File f) throws IOException {
+        this(new MappedInputReader(f));
+    }
+
+    /**
+     * Map a local file.
+     *
+     * @param name the path to the file to read.
+     * @throws IOException if the file can't be found or mapped.
+     */
+    public MappedBinaryFile(String name) throws IOException {
+        this(new MappedInputReader(name));
+    }
+
+    /**
+     * Create a MappedBinaryFile for a reader that has already mapped a file.
+     *
+     * @param reader MappedInputReader
+     */
+    public MappedBinaryFile(MappedInputReader reader) {
+        super(reader);
+        mappedReader = reader;
+    }
+
+    /**
+     * Create another MappedBinaryFile for the same mapped file, with its own
+     * file pointer, so another thread can read the file at the same time.
+     *
+     * @return MappedBinaryFile with the same byte order as this one.
+     * @throws IOException if the file has to be mapped again and can't be.
+     */
+    public MappedBinaryFile duplicate() throws IOException {
+        MappedBinaryFile ret = new MappedBinaryFile(new MappedInputReader(mappedReader));
+        ret.byteOrder(MSBFirst);
+        return ret;
+    }
+
+    /**
+     * Checks whether the name refers to a local file that can be mapped, as
+     * opposed to a resource in a jar file or a URL.
+     *
+     * @param name path to file.
+     * @return true if the file is local.
+     */
+    public static boolean canMap(String name) {
+        try {
+            return name != null && !Environment.isApplet() && new File(name).isFile();
+        } catch (SecurityException se) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the input reader, which has to be a MappedInputReader.
+     */
+    public void setInputReader(InputReader reader) {
+        if (!(reader instanceof MappedInputReader)) {
+            throw new IllegalArgumentException("MappedBinaryFile needs a MappedInputReader");
+        }
+        super.setInputReader(reader);
+        mappedReader = (MappedInputReader) reader;
+    }
+
+    /**
+     * Releases the mapping of the file.
+     */
+    public void dispose() throws IOException {
+        if (mappedReader != null) {
+            mappedReader.release();
+        }
+        super.dispose();
+        mappedReader = null;
+    }
+
+    /**
+     * Moves the file pointer past a value, checking that it's all in the
+     * file.
+     *
+     * @param size the number of bytes in the value.
+     * @return the position of the value.
+     */
+    protected long advance(long size) throws EOFException, FormatException {
+        try {
+            long pos = mappedReader.getFilePointer();
+            long avail = mappedReader.length() - pos;
+            if (avail < size) {
+                if (avail > 0) {
+                    throw new FormatException("MappedBinaryFile: EOF while reading data");
+                }
+                throw new EOFException();
+            }
+            mappedReader.seek(pos + size);
+            return pos;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (IOException ioe) {
+            throw new FormatException("MappedBinaryFile IOException: " + ioe.getMessage());
+        }
+    }
+
+    public char readChar() throws EOFException, FormatException {
+        try {
+            return (char) (mappedReader.getByte(advance(1)) & 0xff);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readChar IOException: " + ioe.getMessage());
+        }
+    }
+
+    public short readShort() throws EOFException, FormatException {
+        try {
+            return mappedReader.getShort(advance(2), MSBFirst);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readShort IOException: " + ioe.getMessage());
+        }
+    }
+
+    public int readInteger() throws EOFException, FormatException {
+        try {
+            return mappedReader.getInt(advance(4), MSBFirst);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readInteger IOException: " + ioe.getMessage());
+        }
+    }
+
+    public void readIntegerArray(int vec[], int offset, int len) throws EOFException,
+            FormatException {
+        try {
+            mappedReader.getInts(advance(len * 4L), vec, offset, len, MSBFirst);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readIntegerArray IOException: " + ioe.getMessage());
+        }
+    }
+
+    public long readLong() throws EOFException, FormatException {
+        try {
+            return mappedReader.getLong(advance(8), MSBFirst);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readLong IOException: " + ioe.getMessage());
+        }
+    }
+
+    public double readDouble() throws EOFException, FormatException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public void readDoubleArray(double vec[], int offset, int len) throws EOFException,
+            FormatException {
+        try {
+            mappedReader.getDoubles(advance(len * 8L), vec, offset, len, MSBFirst);
+        } catch (FormatException fe) {
+            throw fe;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            throw new FormatException("readDoubleArray IOException: " + ioe.getMessage());
+        }
+    }
+}
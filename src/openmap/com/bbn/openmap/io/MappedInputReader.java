@@ -0,0 +1,404 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.util.Debug;
+
+/**
+ * An InputReader that memory-maps a local file, so reads come straight from
+ * the page cache without a system call and a copy for each read. Files larger
+ * than the chunk size (1 GB by default) are mapped in several chunks. Each
+ * chunk is mapped with a few extra bytes past its end, so any primitive value
+ * starting in a chunk can be read from that chunk.
+ * <p>
+ * The file channel is closed as soon as the file is mapped, so a mapped file
+ * doesn't hold a file descriptor. Calling close() doesn't release the mapping,
+ * the reader can be used again without remapping the file. Call release() to
+ * drop the mapping, it will be remapped if the reader is used again.
+ * <p>
+ * Besides the InputReader methods, which use the reader's file pointer, the
+ * reader provides absolute, position based methods for reading primitive
+ * values and arrays of values directly from the mapped buffers.
+ *
+ * @see MappedBinaryFile
+ */
+public class MappedInputReader implements InputReader {
+
+    /** The default size of each mapped region of the file, 1 GB. */
+    public final static long DEFAULT_CHUNK_SIZE = 1L << 30;
+
+    /**
+     * The number of bytes each chunk overlaps the next one, enough for the
+     * largest primitive value.
+     */
+    protected final static int CHUNK_OVERLAP = 8;
+
+    protected String name = null;
+    protected String absolutePath = null;
+    protected long chunkSize;
+    protected long length;
+    protected MappedByteBuffer[] chunks;
+    protected long filePointer = 0;
+
+    /**
+     * Map the file for reading.
+     *
+     * @param f the file to map
+     * @throws IOException if the file can't be opened or mapped.
+     */
+    public MappedInputReader(File f) throws IOException {
+        this(f, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Map the file for reading.
+     *
+     * @param f the path to the file to map
+     * @throws IOException if the file can't be opened or mapped.
+     */
+    public MappedInputReader(String f) throws IOException {
+        this(new File(f), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Map the file for reading, in regions of chunkSize bytes.
+     *
+     * @param f the file to map
+     * @param chunkSize the size of each mapped region of the file.
+     * @throws IOException if the file can't be opened or mapped.
+     */
+    public MappedInputReader(File f, long chunkSize) throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedInputReader created from " + f.getAbsolutePath());
+        }
+        if (chunkSize < CHUNK_OVERLAP || chunkSize > Integer.MAX_VALUE - CHUNK_OVERLAP) {
+            throw new IllegalArgumentException("MappedInputReader: bad chunk size " + chunkSize);
+        }
+        name = f.getName();
+        absolutePath = f.getAbsolutePath();
+        this.chunkSize = chunkSize;
+        map();
+    }
+
+    /**
+     * Create a reader that shares the mapping of another reader, with its own
+     * file pointer. Readers sharing a mapping can be used by different
+     * threads at the same time.
+     *
+     * @param reader the reader with the mapped file.
+     * @throws IOException if the other reader's mapping has been released and
+     *         the file can't be mapped again.
+     */
+    public MappedInputReader(MappedInputReader reader) throws IOException {
+        name = reader.name;
+        absolutePath = reader.absolutePath;
+        chunkSize = reader.chunkSize;
+        length = reader.length;
+        chunks = reader.checkChunks();
+    }
+
+    /**
+     * Map the file into memory.
+     *
+     * @throws IOException
+     */
+    protected void map() throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            try {
+                raf = new RandomAccessFile(absolutePath, "r");
+            } catch (IOException ioe) {
+                if (!new File(absolutePath).canRead()) {
+                    throw ioe;
+                }
+                BinaryFile.closeClosable();
+                raf = new RandomAccessFile(absolutePath, "r");
+            }
+
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int numChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            MappedByteBuffer[] newChunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = i * chunkSize;
+                long size = Math.min(chunkSize + CHUNK_OVERLAP, length - start);
+                newChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            chunks = newChunks;
+        } finally {
+            if (raf != null) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * @return the mapped chunks, mapping the file again if it's been released.
+     * @throws IOException
+     */
+    protected MappedByteBuffer[] checkChunks() throws IOException {
+        MappedByteBuffer[] ret = chunks;
+        if (ret == null) {
+            map();
+            ret = chunks;
+        }
+        return ret;
+    }
+
+    /**
+     * Get the file name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the absolute path of the file.
+     */
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    /**
+     * Skip over n bytes in the input file.
+     *
+     * @param n the number of bytes to skip
+     * @return the actual number of bytes skipped.
+     */
+    public long skipBytes(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, length - filePointer));
+        filePointer += skipped;
+        return skipped;
+    }
+
+    public long getFilePointer() throws IOException {
+        return filePointer;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("MappedInputReader: negative seek offset " + pos);
+        }
+        filePointer = pos;
+    }
+
+    public long length() throws IOException {
+        return length;
+    }
+
+    public long available() throws IOException {
+        return length - filePointer;
+    }
+
+    /**
+     * Doesn't release the mapping, which doesn't hold a file descriptor open,
+     * so the reader can be reused cheaply.
+     */
+    public void close() throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedInputReader.close()");
+        }
+    }
+
+    /**
+     * Drops the references to the mapped buffers, so the mapping can be
+     * released when they are garbage collected. The file will be mapped again
+     * if the reader is used.
+     */
+    public void release() {
+        chunks = null;
+    }
+
+    public int read() throws IOException {
+        if (filePointer >= length) {
+            return -1;
+        }
+        int ret = getByte(filePointer) & 0xff;
+        filePointer++;
+        return ret;
+    }
+
+    public int read(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (filePointer >= length) {
+            return -1;
+        }
+        int numRead = get(filePointer, b, off, len);
+        filePointer += numRead;
+        return numRead;
+    }
+
+    public int read(byte b[]) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public byte[] readBytes(int howmany, boolean allowless) throws EOFException, FormatException {
+        long avail = length - filePointer;
+        if (avail < howmany) {
+            if (!allowless) {
+                if (avail > 0) {
+                    throw new FormatException("EOF while reading data");
+                } else {
+                    throw new EOFException();
+                }
+            }
+            howmany = (int) Math.max(0, avail);
+        }
+
+        byte[] ret = new byte[howmany];
+        try {
+            filePointer += get(filePointer, ret, 0, howmany);
+        } catch (IOException ioe) {
+            throw new FormatException("MappedInputReader: " + ioe.getMessage());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the chunk containing the byte at pos.
+     */
+    protected ByteBuffer chunk(long pos) throws IOException {
+        return checkChunks()[(int) (pos / chunkSize)];
+    }
+
+    /**
+     * Copy bytes from an absolute position in the file, without changing the
+     * file pointer.
+     *
+     * @param pos the position in the file.
+     * @param b array to copy bytes into.
+     * @param off the index of the first byte in b to copy into.
+     * @param len the number of bytes to copy.
+     * @return the number of bytes copied, less than len if the end of the
+     *         file is reached.
+     * @throws IOException
+     */
+    public int get(long pos, byte[] b, int off, int len) throws IOException {
+        len = (int) Math.max(0, Math.min(len, length - pos));
+        int copied = 0;
+        while (copied < len) {
+            long p = pos + copied;
+            ByteBuffer chunk = chunk(p).duplicate();
+            int index = (int) (p % chunkSize);
+            int count = (int) Math.min(len - copied, chunkSize - index);
+            chunk.position(index);
+            chunk.get(b, off + copied, count);
+            copied += count;
+        }
+        return copied;
+    }
+
+    /**
+     * Read a byte at an absolute position in the file.
+     */
+    public byte getByte(long pos) throws IOException {
+        return chunk(pos).get((int) (pos % chunkSize));
+    }
+
+    /**
+     * Read a short at an absolute position in the file.
+     */
+    public short getShort(long pos, boolean msbFirst) throws IOException {
+        short s = chunk(pos).getShort((int) (pos % chunkSize));
+        return msbFirst ? s : Short.reverseBytes(s);
+    }
+
+    /**
+     * Read an integer at an absolute position in the file.
+     */
+    public int getInt(long pos, boolean msbFirst) throws IOException {
+        int i = chunk(pos).getInt((int) (pos % chunkSize));
+        return msbFirst ? i : Integer.reverseBytes(i);
+    }
+
+    /**
+     * Read a long at an absolute position in the file.
+     */
+    public long getLong(long pos, boolean msbFirst) throws IOException {
+        long l = chunk(pos).getLong((int) (pos % chunkSize));
+        return msbFirst ? l : Long.reverseBytes(l);
+    }
+
+    /**
+     * Read a double at an absolute position in the file.
+     */
+    public double getDouble(long pos, boolean msbFirst) throws IOException {
+        return Double.longBitsToDouble(getLong(pos, msbFirst));
+    }
+
+    /**
+     * Read consecutive doubles from an absolute position in the file, copied
+     * directly from the mapped buffer into the array.
+     *
+     * @param pos the position of the first double in the file.
+     * @param vec the array to copy into.
+     * @param offset the index of the first double in vec.
+     * @param len the number of doubles to read.
+     * @param msbFirst the byte order of the values in the file.
+     * @throws IOException
+     */
+    public void getDoubles(long pos, double[] vec, int offset, int len, boolean msbFirst)
+            throws IOException {
+        ByteOrder order = msbFirst ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        while (len > 0) {
+            ByteBuffer chunk = chunk(pos).duplicate();
+            long chunkStart = (pos / chunkSize) * chunkSize;
+            // The overlap lets doubles starting in this chunk be read here.
+            int count = (int) Math.min(len, (chunkStart + chunkSize - pos + 7) / 8);
+            chunk.position((int) (pos - chunkStart));
+            chunk.order(order).asDoubleBuffer().get(vec, offset, count);
+            pos += count * 8L;
+            offset += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Read consecutive integers from an absolute position in the file, copied
+     * directly from the mapped buffer into the array.
+     *
+     * @param pos the position of the first integer in the file.
+     * @param vec the array to copy into.
+     * @param offset the index of the first integer in vec.
+     * @param len the number of integers to read.
+     * @param msbFirst the byte order of the values in the file.
+     * @throws IOException
+     */
+    public void getInts(long pos, int[] vec, int offset, int len, boolean msbFirst)
+            throws IOException {
+        ByteOrder order = msbFirst ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        while (len > 0) {
+            ByteBuffer chunk = chunk(pos).duplicate();
+            long chunkStart = (pos / chunkSize) * chunkSize;
+            int count = (int) Math.min(len, (chunkStart + chunkSize - pos + 3) / 4);
+            chunk.position((int) (pos - chunkStart));
+            chunk.order(order).asIntBuffer().get(vec, offset, count);
+            pos += count * 4L;
+            offset += count;
+            len -= count;
+        }
+    }
+}
@@ -132,10 +132,6 @@ public class GraticuleLayer
     * one lines appear.
     */
    protected int threshold = defaultThreshold;
-   /** The ten degree latitude and longitude lines, premade. */
-   protected OMGraphicList tenDegreeLines = null;
-   /** The equator, dateline and meridian lines, premade. */
-   protected OMGraphicList markerLines = null;
 
    private final static int SHOW_TENS = 0;
    private final static int SHOW_FIVES = 1;
@@ -242,10 +238,6 @@ public class GraticuleLayer
       setShowBelowOneLines(PropUtils.booleanFromProperties(properties, prefix + ShowBelowOneProperty, defaultShowBelowOneLines));
 
       setShowRuler(PropUtils.booleanFromProperties(properties, prefix + ShowRulerProperty, defaultShowRuler));
-
-      // So they will get re-created.
-      tenDegreeLines = null;
-      markerLines = null;
    }
 
    protected JCheckBox showRulerButton = null;
@@ -472,26 +464,6 @@ public class GraticuleLayer
       return properties;
    }
 
-   /**
-    * Implementing the ProjectionPainter interface.
-    */
-   public synchronized void renderDataForProjection(Projection proj, java.awt.Graphics g) {
-      if (proj == null) {
-         Debug.error("GraticuleLayer.renderDataForProjection: null projection!");
-         return;
-      } else if (!proj.equals(getProjection())) {
-         setProjection(proj.makeClone());
-         // Figure out which line type to use
-         if (proj instanceof Cylindrical)
-            boxy = true;
-         else
-            boxy = false;
-
-         setList(constructGraticuleLines());
-      }
-      paint(g);
-   }
-
    /**
     * Invoked when the projection has changed or this Layer has been added to
     * the MapBean.
@@ -532,6 +504,23 @@ public class GraticuleLayer
       return constructGraticuleLines();
    }
 
+   /**
+    * Creates a new OMGraphic list with graticule lines for the projection,
+    * without changing the layer.
+    */
+   public OMGraphicList prepare(Projection proj) {
+      return constructGraticuleLines(proj);
+   }
+
+   /**
+    * The graticule lines only depend on the projection, so the layer can be
+    * rendered by several threads at once. Subclasses are rendered one thread
+    * at a time, unless they override this method.
+    */
+   public boolean isConcurrentRenderingSupported() {
+      return getClass() == GraticuleLayer.class;
+   }
+
    /**
     * Create the graticule lines.
     * <p>
@@ -547,15 +536,24 @@ public class GraticuleLayer
     * @return OMGraphicList new graphic list
     */
    protected OMGraphicList constructGraticuleLines() {
+      return constructGraticuleLines(getProjection());
+   }
+
+   /**
+    * Create the graticule lines for a projection. All of the lines are
+    * created new, so different threads can create lines for different
+    * projections.
+    * 
+    * @param projection the projection to create the lines for.
+    * @return OMGraphicList new graphic list
+    */
+   protected OMGraphicList constructGraticuleLines(Projection projection) {
 
       OMGraphicList newgraphics = new OMGraphicList(20);
       // Lets figure out which lines should be painted...
-      Projection projection = getProjection();
-
       if (projection == null) {
          return newgraphics;
       }
-      tenDegreeLines = null;
       // Need the cast to make Windows happy during the ant build for jdk1.5.0_22
       double ctrLon = ((Point2D)projection.getCenter()).getX();
       if (projection instanceof GeoProj) {
@@ -590,45 +588,27 @@ public class GraticuleLayer
             // the labels.
 
             if (showWhichLines != SHOW_TENS) {
-               newgraphics.add(constructGraticuleLines(up, down, left, 180.0f, showWhichLines));
-               newgraphics.add(constructGraticuleLines(up, down, -180.0f, right, showWhichLines));
+               newgraphics.add(constructGraticuleLines(up, down, left, 180.0f, showWhichLines, projection));
+               newgraphics.add(constructGraticuleLines(up, down, -180.0f, right, showWhichLines, projection));
             } else if (showRuler) { // Just do the labels for the
                // tens lines
-               newgraphics.add(constructTensLabels(up, down, left, 180.0f, true));
-               newgraphics.add(constructTensLabels(up, down, -180.0f, right, false));
+               newgraphics.add(constructTensLabels(up, down, left, 180.0f, true, projection));
+               newgraphics.add(constructTensLabels(up, down, -180.0f, right, false, projection));
             }
          } else {
             // Test to draw the ones and fives, which will also do
             // the labels.
             if (showWhichLines != SHOW_TENS) {
-               newgraphics = constructGraticuleLines(up, down, left, right, showWhichLines);
+               newgraphics = constructGraticuleLines(up, down, left, right, showWhichLines, projection);
             } else if (showRuler) { // Just do the labels for the
                // tens lines
-               newgraphics.add(constructTensLabels(up, down, left, right, true));
+               newgraphics.add(constructTensLabels(up, down, left, right, true, projection));
             }
          }
       }
 
-      OMGraphicList list;
-      if (tenDegreeLines == null) {
-         list = constructTenDegreeLines(ctrLon);
-         tenDegreeLines = list;
-      } else {
-         synchronized (tenDegreeLines) {
-            setLineTypeAndProject(tenDegreeLines, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
-         }
-      }
-      if (markerLines == null) {
-         list = constructMarkerLines(ctrLon);
-         markerLines = list;
-      } else {
-         synchronized (markerLines) {
-            setLineTypeAndProject(markerLines, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
-         }
-      }
-
-      newgraphics.add(markerLines);
-      newgraphics.add(tenDegreeLines);
+      newgraphics.add(constructMarkerLines(ctrLon, projection));
+      newgraphics.add(constructTenDegreeLines(ctrLon, projection));
 
       if (Debug.debugging("graticule")) {
          Debug.output("GraticuleLayer.constructGraticuleLines(): " + "constructed " + newgraphics.size() + " graticule lines");
@@ -700,9 +680,12 @@ public class GraticuleLayer
     * @param showWhichLines indicator for which level of lines should be
     *        included, either SHOW_FIVES or SHOW_ONES. SHOW_TENS could be there,
     *        too, but then we wouldn't do anything.
+    * @param projection the projection to create the lines for.
     */
-   protected OMGraphicList constructGraticuleLines(float up, float down, float left, float right, int showWhichLines) {
+   protected OMGraphicList constructGraticuleLines(float up, float down, float left, float right, int showWhichLines,
+                                                   Projection projection) {
       OMGraphicList lines = new OMGraphicList();
+      boolean straight = projection instanceof Cylindrical;
 
       // Set the line limits for the lat/lon lines...
       int north = (int) Math.ceil(up);
@@ -741,8 +724,6 @@ public class GraticuleLayer
       Point point = new Point();
       LatLonPoint llpoint;
 
-      Projection projection = getProjection();
-
       // generate other parallels of latitude be creating series
       // of polylines
       for (int i = south; i < north; i += stepSize) {
@@ -765,7 +746,7 @@ public class GraticuleLayer
 
          // Do not duplicate the 10 degree line.
          if ((lat % 10) != 0) {
-            currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
+            currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
             if ((lat % 5) == 0) {
                currentLine.setLinePaint(fiveDegreeColor);
             } else {
@@ -775,7 +756,7 @@ public class GraticuleLayer
          }
 
          if (showRuler && (lat % 2) == 0) {
-            if (boxy) {
+            if (straight) {
                projection.forward(lat, west, point);
                point.x = 0;
                llpoint = projection.inverse(point.x, point.y, new LatLonPoint.Double());
@@ -819,7 +800,7 @@ public class GraticuleLayer
 
          if ((lon % 10) != 0) {
             currentLine =
-                  new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
+                  new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
             if ((lon % 5) == 0) {
                currentLine.setLinePaint(fiveDegreeColor);
             } else {
@@ -829,7 +810,7 @@ public class GraticuleLayer
          }
 
          if (showRuler && (lon % 2) == 0) {
-            if (boxy) {
+            if (straight) {
                projection.forward(south, lon, point);
                point.y = projection.getHeight();
                llpoint = projection.inverse(point.x, point.y, new LatLonPoint.Double());
@@ -862,9 +843,10 @@ public class GraticuleLayer
    }
 
    /** Create the ten degree lines. */
-   protected OMGraphicList constructTenDegreeLines(double ctrLon) {
+   protected OMGraphicList constructTenDegreeLines(double ctrLon, Projection projection) {
 
       OMGraphicList lines = new OMGraphicList(3);
+      boolean straight = projection instanceof Cylindrical;
       OMPoly currentLine;
 
       // generate other parallels of latitude by creating series
@@ -886,7 +868,7 @@ public class GraticuleLayer
                lat,
                ctrLon + 180f
             };
-            currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
+            currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_RHUMB);
             currentLine.setLinePaint(tenDegreeColor);
             lines.add(currentLine);
          }
@@ -910,7 +892,7 @@ public class GraticuleLayer
                llp[4] = -89.999f;
             }
             currentLine =
-                  new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
+                  new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
             currentLine.setLinePaint(tenDegreeColor);
             lines.add(currentLine);
          }
@@ -919,7 +901,7 @@ public class GraticuleLayer
       if (Debug.debugging("graticule")) {
          Debug.output("GraticuleLayer.constructTenDegreeLines(): " + "constructed " + lines.size() + " graticule lines");
       }
-      lines.generate(getProjection());
+      lines.generate(projection);
       return lines;
    }
 
@@ -933,11 +915,14 @@ public class GraticuleLayer
     * @param left western longitude coordinate, in decimal degrees,
     * @param right eastern longitude coordinate, in decimal degrees.
     * @param doLats do the latitude labels if true.
+    * @param projection the projection to create the labels for.
     * @return OMGraphicList of labels.
     */
-   protected OMGraphicList constructTensLabels(float up, float down, float left, float right, boolean doLats) {
+   protected OMGraphicList constructTensLabels(float up, float down, float left, float right, boolean doLats,
+                                               Projection projection) {
 
       OMGraphicList labels = new OMGraphicList();
+      boolean straight = projection instanceof Cylindrical;
 
       // Set the line limits for the lat/lon lines...
       int north = (int) Math.ceil(up);
@@ -971,7 +956,6 @@ public class GraticuleLayer
       // For calculating text locations
       Point point = new Point();
       LatLonPoint llpoint;
-      Projection projection = getProjection();
 
       if (doLats) {
 
@@ -981,7 +965,7 @@ public class GraticuleLayer
             float lat = (float) i;
 
             if ((lat % 2) == 0) {
-               if (boxy) {
+               if (straight) {
                   projection.forward(lat, west, point);
                   point.x = 0;
                   llpoint = projection.inverse(point.x, point.y, new LatLonPoint.Double());
@@ -1013,7 +997,7 @@ public class GraticuleLayer
          float lon = (float) i;
 
          if ((lon % 2) == 0) {
-            if (boxy) {
+            if (straight) {
                projection.forward(south, lon, point);
                point.y = projection.getHeight();
                llpoint = projection.inverse(point.x, point.y, new LatLonPoint.Double());
@@ -1046,9 +1030,10 @@ public class GraticuleLayer
    }
 
    /** Constructs the Dateline and Prime Meridian lines. */
-   protected OMGraphicList constructMarkerLines(double ctrLon) {
+   protected OMGraphicList constructMarkerLines(double ctrLon, Projection projection) {
 
       OMGraphicList lines = new OMGraphicList(3);
+      boolean straight = projection instanceof Cylindrical;
       OMPoly currentLine;
 
       // generate Prime Meridian and Dateline
@@ -1063,7 +1048,7 @@ public class GraticuleLayer
             lon
          };
          currentLine =
-               new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
+               new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
          currentLine.setLinePaint(dateLineColor);
          lines.add(currentLine);
       }
@@ -1082,14 +1067,14 @@ public class GraticuleLayer
          ctrLon + 180f
       };
       // polyline
-      currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, boxy ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
+      currentLine = new OMPoly(llp, OMGraphic.DECIMAL_DEGREES, straight ? OMGraphic.LINETYPE_STRAIGHT : OMGraphic.LINETYPE_GREATCIRCLE);
       currentLine.setLinePaint(equatorColor);
       lines.add(currentLine);
 
       if (Debug.debugging("graticule")) {
          Debug.output("GraticuleLayer.constructMarkerLines(): " + "constructed " + lines.size() + " graticule lines");
       }
-      lines.generate(getProjection());
+      lines.generate(projection);
       return lines;
    }
 
@@ -516,21 +516,74 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      * when this method returns, everything that the ProjectionPainter needed to
      * do is complete.
      * <P>
-     * If the layer doesn't override this method, then the paint(Graphics)
-     * method will be called.
+     * If the layer supports concurrent rendering, the OMGraphicList is created
+     * with prepare(Projection) and painted by the RenderPolicy without touching
+     * the layer's projection or list, and several threads can be rendering the
+     * layer at once. Otherwise, the layer's projection is set, prepare() is
+     * called through the RenderPolicy and paint(Graphics) is called, one
+     * thread at a time.
      *
      * @param proj Projection of the map.
      * @param g java.awt.Graphics to draw into.
      */
-    public synchronized void renderDataForProjection(Projection proj, Graphics g) {
+    public void renderDataForProjection(Projection proj, Graphics g) {
         if (proj == null) {
             logger.warning("Layer(" + getName() + ").renderDataForProjection: null projection!");
             return;
-        } else if (!proj.equals(getProjection())) {
-            setProjection(proj.makeClone());
-            setList(getRenderPolicy().prepare());
         }
-        paint(g);
+
+        if (isConcurrentRenderingSupported()) {
+            if (!isProjectionOK(proj)) {
+                return;
+            }
+            OMGraphicList list = prepare(proj);
+            if (list != null) {
+                Graphics g2 = g.create();
+                StandardRenderPolicy.paint(getRenderPolicy(), g2, list, proj);
+                g2.dispose();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (!proj.equals(getProjection())) {
+                setProjection(proj.makeClone());
+                setList(getRenderPolicy().prepare());
+            }
+            paint(g);
+        }
+    }
+
+    /**
+     * Create an OMGraphicList for a projection without changing the layer's
+     * projection or OMGraphicList, for renderDataForProjection() calls from
+     * image servers handling several requests at the same time. The returned
+     * list should be generated for the projection and ready to render. Layers
+     * that implement this method should return true from
+     * isConcurrentRenderingSupported(), and not modify OMGraphics that might be
+     * on another list being rendered.
+     * <P>
+     * The default implementation returns null, the layer has to be rendered
+     * through prepare().
+     *
+     * @param proj the projection to create OMGraphics for.
+     * @return OMGraphicList generated for proj, or null if there is nothing to
+     *         render.
+     */
+    public OMGraphicList prepare(Projection proj) {
+        return null;
+    }
+
+    /**
+     * Whether renderDataForProjection() can use prepare(Projection), so
+     * several threads can render this layer at the same time for different
+     * projections. False by default, layers that implement prepare(Projection)
+     * should return true.
+     *
+     * @return true if prepare(Projection) can be called concurrently.
+     */
+    public boolean isConcurrentRenderingSupported() {
+        return false;
     }
 
     /**
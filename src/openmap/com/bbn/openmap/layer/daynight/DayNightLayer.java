@@ -38,6 +38,7 @@ import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMRaster;
 import com.bbn.openmap.proj.Cylindrical;
+import com.bbn.openmap.proj.InverseGrid;
 import com.bbn.openmap.proj.Length;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
@@ -428,10 +429,13 @@ public class DayNightLayer extends OMGraphicHandlerLayer implements
         float lowerFadeLimit = (float) (MoreMath.HALF_PI * (1.0 - termFade));
         int fadeColorValue = 0x00FFFFFF & (dark); // RGB
 
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
+        // Shared with other layers drawing rasters for the same projection.
+        InverseGrid grid = InverseGrid.get(projection);
 
-                projection.inverse(i, j, testPoint);
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+
+                grid.inverse(i, j, testPoint);
                 distance = brightPoint.distance(testPoint);
 
                 if (distance > upperFadeLimit) {
@@ -47,6 +47,7 @@ import com.bbn.openmap.layer.policy.ListResetPCPolicy;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMRaster;
 import com.bbn.openmap.proj.CADRG;
+import com.bbn.openmap.proj.InverseGrid;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
@@ -558,6 +559,9 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 			// method description)
 			Point2D center = projection.getCenter();
 			LatLonPoint llp = new LatLonPoint.Double();
+			// shared with other layers drawing rasters for the same
+			// projection
+			InverseGrid grid = InverseGrid.get(projection);
 			// build array
 			for (int y = sy; y < ey; y++) {
 
@@ -565,7 +569,11 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 				for (int x = sx; x < ex; x++) {
 
 					// inverse project x,y to lon,lat
-					projection.inverse(x, y, llp);
+					if (grid.contains(x, y)) {
+						grid.inverse(x, y, llp);
+					} else {
+						projection.inverse(x, y, llp);
+					}
 
 					// get point values
 					float lat = llp.getLatitude();
@@ -146,7 +146,8 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
      * Property to allow the MapTileFactory to call repaint on this layer as map
      * tiles become available. Default is false, enabling it will not allow this
      * layer to be used with an ImageServer (renderDataForProjection won't
-     * work).
+     * work). With incremental updates, a StandardMapTileFactory loads missing
+     * tiles in the background and the layer repaints as they arrive.
      */
     public final static String INCREMENTAL_UPDATES_PROPERTY = "incrementalUpdates";
 
@@ -235,6 +236,48 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
 		return null;
 	}
 	
+	/**
+	 * Gets the tiles for a projection without changing the layer's projection
+	 * or list. The tile factory is used by one thread at a time, since the
+	 * tiles it caches are generated for each projection, and the list returned
+	 * holds copies of the tiles, so they can be rendered while other threads
+	 * get tiles for other projections.
+	 */
+	public OMGraphicList prepare(Projection projection) {
+		if (projection == null || tileFactory == null) {
+			return null;
+		}
+
+		OMGraphicList tiles;
+		synchronized (tileFactory) {
+			tiles = tileFactory.getTiles(projection, zoomLevel, new OMGraphicList());
+			if (tiles != null) {
+				OMGraphicList copies = new OMGraphicList(tiles.size());
+				for (OMGraphic tile : tiles) {
+					copies.add((OMGraphic) tile.clone());
+				}
+				tiles = copies;
+			}
+		}
+
+		OMText attrib = getAttributionGraphic(projection);
+		if (attrib != null) {
+			if (tiles == null) {
+				tiles = new OMGraphicList();
+			}
+			tiles.add(attrib);
+		}
+		return tiles;
+	}
+
+	/**
+	 * Tiles can be fetched for several projections at once, unless the tile
+	 * factory is updating the layer as tiles arrive.
+	 */
+	public boolean isConcurrentRenderingSupported() {
+		return !incrementalUpdates;
+	}
+
 	public void paint(java.awt.Graphics g) {
 		super.paint(g);
 		
@@ -248,7 +291,14 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
 	 * @return OMText for attribution text
 	 */
 	protected OMText getAttributionGraphic() {
-		Projection proj = getProjection();
+		return getAttributionGraphic(getProjection());
+	}
+
+	/**
+	 * @param proj the projection to generate the text for.
+	 * @return OMText for attribution text
+	 */
+	protected OMText getAttributionGraphic(Projection proj) {
 		if (attribution != null && proj != null) {
 			OMText attText = new OMText(10, proj.getHeight() - 10, attribution, OMText.JUSTIFY_LEFT);
 			if (attributionAttributes != null) {
@@ -308,8 +358,8 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
             ((PropertyConsumer) tileFactory).setProperties(prefix, props);
         }
 
-		incrementalUpdates = PropUtils.booleanFromProperties(props, prefix + INCREMENTAL_UPDATES_PROPERTY,
-				incrementalUpdates);
+		setIncrementalUpdates(PropUtils.booleanFromProperties(props, prefix + INCREMENTAL_UPDATES_PROPERTY,
+				incrementalUpdates));
 
         setZoomLevel(PropUtils.intFromProperties(props, prefix + ZOOM_LEVEL_PROPERTY, zoomLevel));
 
@@ -384,6 +434,11 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
         // less confusing to the user.
 
         tileFactory.setMapTileRequester(this);
+        if (tileFactory instanceof StandardMapTileFactory) {
+            // Tiles loaded in the background are only seen if the layer
+            // repaints as they arrive.
+            ((StandardMapTileFactory) tileFactory).setBackgroundLoading(incrementalUpdates);
+        }
 
 		this.tileFactory = tileFactory;
 		
@@ -396,6 +451,9 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
 
     public void setIncrementalUpdates(boolean incrementalUpdates) {
         this.incrementalUpdates = incrementalUpdates;
+        if (tileFactory instanceof StandardMapTileFactory) {
+            ((StandardMapTileFactory) tileFactory).setBackgroundLoading(incrementalUpdates);
+        }
     }
 
     public int getZoomLevel() {
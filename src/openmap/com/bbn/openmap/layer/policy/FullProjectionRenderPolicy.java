@@ -25,6 +25,7 @@ package com.bbn.openmap.layer.policy;
 import java.awt.Graphics;
 
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.proj.Projection;
 
 /**
@@ -60,4 +61,9 @@ public class FullProjectionRenderPolicy extends StandardRenderPolicy {
         }
         super.paint(g);
     }
+
+    public void paint(Graphics g, OMGraphicList list, Projection proj) {
+        g.setClip(0, 0, proj.getWidth(), proj.getHeight());
+        super.paint(g, list, proj);
+    }
 }
\ No newline at end of file
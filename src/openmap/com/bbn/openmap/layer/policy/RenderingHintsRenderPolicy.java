@@ -32,6 +32,8 @@ import java.util.Vector;
 import java.util.logging.Level;
 
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.PropUtils;
 
 /**
@@ -144,6 +146,11 @@ public class RenderingHintsRenderPolicy extends StandardRenderPolicy {
         super.paint(g);
     }
 
+    public void paint(Graphics g, OMGraphicList list, Projection proj) {
+        setRenderingHints(g);
+        super.paint(g, list, proj);
+    }
+
     public void setRenderingHints(Graphics g) {
         if (renderingHints != null && g instanceof Graphics2D) {
             Graphics2D g2 = (Graphics2D) g;
@@ -132,4 +132,45 @@ public class StandardRenderPolicy extends OMComponent implements RenderPolicy {
             logger.fine("StandardRenderPolicy.paint():  NULL layer, skipping...");
         }
     }
+
+    /**
+     * Called from OMGraphicHandlerLayer.renderDataForProjection(Projection,
+     * Graphics) for layers rendered for several image requests at the same
+     * time, to paint a list made for one of them. The layer's list and
+     * projection are not the ones being painted, so only the list and
+     * projection passed in should be used. The Graphics is a copy made for
+     * this call.
+     * 
+     * @param g the Graphics to paint into.
+     * @param list the OMGraphicList generated for proj.
+     * @param proj the projection of the image.
+     */
+    public void paint(Graphics g, OMGraphicList list, Projection proj) {
+        setCompositeOnGraphics((Graphics2D) g);
+        list.render(g);
+    }
+
+    /**
+     * Paint a list made for one image request with a RenderPolicy. Policies
+     * that extend StandardRenderPolicy do it with paint(Graphics,
+     * OMGraphicList, Projection), others just have their Composite set on
+     * the Graphics before the list is rendered.
+     * 
+     * @param policy the layer's RenderPolicy.
+     * @param g the Graphics to paint into.
+     * @param list the OMGraphicList generated for proj.
+     * @param proj the projection of the image.
+     */
+    public static void paint(RenderPolicy policy, Graphics g, OMGraphicList list, Projection proj) {
+        if (policy instanceof StandardRenderPolicy) {
+            ((StandardRenderPolicy) policy).paint(g, list, proj);
+            return;
+        }
+
+        Composite composite = policy.getComposite();
+        if (composite != null && g instanceof Graphics2D) {
+            ((Graphics2D) g).setComposite(composite);
+        }
+        list.render(g);
+    }
 }
\ No newline at end of file
@@ -40,7 +40,16 @@ package com.bbn.openmap.layer.rpf;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
@@ -124,6 +133,12 @@ public class RpfCacheHandler {
     protected boolean DEBUG_RPF = false;
     protected boolean DEBUG_RPFDETAIL = false;
 
+    /**
+     * The threads shared by all the cache handlers for decompressing
+     * subframes, one per processor.
+     */
+    private static ThreadPoolExecutor subframeLoader;
+
     /** The entire subframe cache */
     static public class SubframeCache {
         RpfSubframe[] subframe;
@@ -323,18 +338,49 @@ public class RpfCacheHandler {
                                          Projection proj, OMGraphicList omGraphics) {
         setCache(ullat, ullon, lrlat, lrlon, proj);
 
-        int subframeRunningCount = 0;
-
         if (omGraphics == null) {
             omGraphics = new OMGraphicList();
         }
 
+        if (!goodData) {
+            return omGraphics;
+        }
+
+        int numSubframes = (end.x - start.x + 1) * (end.y - start.y + 1);
+        if (numSubframes <= 0) {
+            return omGraphics;
+        }
+
+        // Sort out the cache for all the subframes first, and gather up the
+        // ones that have to be decompressed so they can be loaded together.
+        RpfSubframe[] subframes = new RpfSubframe[numSubframes];
+        List<SubframeLoad> loads = new ArrayList<SubframeLoad>();
+
+        int subframeRunningCount = 0;
+        for (int subx = start.x; subx <= end.x; subx++) {
+            for (int suby = start.y; suby <= end.y; suby++) {
+                subframes[subframeRunningCount] = getCached(subx, suby, subframeRunningCount, loads);
+                subframeRunningCount++;
+            }
+        }
+
+        loadSubframes(loads);
+
+        for (SubframeLoad load : loads) {
+            if (!load.loaded) {
+                subframes[load.slot] = null;
+                freeCache(load.index);
+                if (subframeIndex != null) {
+                    subframeIndex[load.y][load.x] = NOT_PRESENT;
+                }
+            }
+        }
+
+        subframeRunningCount = 0;
         for (int subx = start.x; subx <= end.x; subx++) {
             for (int suby = start.y; suby <= end.y; suby++) {
 
-                // /////
-                RpfSubframe subframe = getCached(subx, suby, subframeRunningCount);
-                // /////
+                RpfSubframe subframe = subframes[subframeRunningCount];
 
                 if (subframe == null) {
                     if (Debug.debugging("rpf")) {
@@ -366,6 +412,72 @@ public class RpfCacheHandler {
         return omGraphics;
     }
 
+    /**
+     * Decompress the subframes that weren't in the cache. If the frame
+     * provider is local, the subframes are spread over the subframe loader
+     * threads, otherwise they are loaded one at a time on the calling thread.
+     * Each SubframeLoad is marked with whether it worked.
+     * 
+     * @param loads the subframes to load.
+     */
+    protected void loadSubframes(List<SubframeLoad> loads) {
+        if (loads.size() < 2 || !(frameProvider instanceof RpfFrameCacheHandler)) {
+            for (SubframeLoad load : loads) {
+                load.call();
+            }
+            return;
+        }
+
+        ThreadPoolExecutor loader = getSubframeLoader();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(loads.size());
+        // Keep one for this thread, instead of just waiting.
+        for (int i = 1; i < loads.size(); i++) {
+            futures.add(loader.submit(loads.get(i)));
+        }
+        loads.get(0).call();
+
+        boolean interrupted = false;
+        for (Future<Boolean> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ie) {
+                    // The cache has to be consistent before returning.
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Debug.error("RpfCacheHandler: problem loading subframe: " + ee.getCause());
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the thread pool used to decompress subframes, creating it if needed.
+     * The threads are daemons and time out when they're idle.
+     */
+    protected static synchronized ThreadPoolExecutor getSubframeLoader() {
+        if (subframeLoader == null) {
+            int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            subframeLoader = new ThreadPoolExecutor(numThreads, numThreads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RpfSubframeLoader-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            subframeLoader.allowCoreThreadTimeOut(true);
+        }
+        return subframeLoader;
+    }
+
     /**
      * Resets the indicators in the subframe cache, so that none of the current
      * contents will be used - they'll have to be loaded with data first. The
@@ -706,6 +818,25 @@ public class RpfCacheHandler {
      *        the size of the cache.
      */
     protected RpfSubframe getCached(int cbx, int cby, int subframeCount) {
+        return getCached(cbx, cby, subframeCount, null);
+    }
+
+    /**
+     * Get a subframe from the cache if possible, otherwise allocate a new cache
+     * entry for it. If loads is null, the subframe is decompressed before
+     * returning, like getCached(cbx, cby, subframeCount). Otherwise, the
+     * subframe is returned empty and a SubframeLoad for it is added to the
+     * list, and the caller has to load it and clear the cache entry if that
+     * fails.
+     * 
+     * @param cbx the x index of subframe in the rcbIndex A.TOC space.
+     * @param cby the y index of subframe in the rcbIndex A.TOC space.
+     * @param subframeCount a running count of the number of subframes retrieved
+     *        so far for the current map.
+     * @param loads the list to add the subframe to if it has to be loaded, or
+     *        null to load it now.
+     */
+    protected RpfSubframe getCached(int cbx, int cby, int subframeCount, List<SubframeLoad> loads) {
 
         RpfSubframe ret;
         RpfCoverageBox currentBox = null;
@@ -792,6 +923,11 @@ public class RpfCacheHandler {
                 ret = cache.subframe[index];
             }
 
+            if (loads != null) {
+                loads.add(new SubframeLoad(ret, currentBox, cbx, cby, x, y, index, subframeCount));
+                return ret;
+            }
+
             if (loadSubframe(ret, currentBox, cbx, cby)) {
                 return ret;
             } else {
@@ -826,14 +962,31 @@ public class RpfCacheHandler {
 
         subframe.opaqueness = viewAttributes.opaqueness;
 
+        // A local frame provider can decompress into the arrays the subframe
+        // was holding for its last image, so cache entries don't need new
+        // ones every time they are reused.
+        RpfFrameCacheHandler localProvider = null;
+        if (frameProvider instanceof RpfFrameCacheHandler) {
+            localProvider = (RpfFrameCacheHandler) frameProvider;
+        }
+
         if (viewAttributes.colorModel == OMRasterObject.COLORMODEL_DIRECT) {
-            pixels = frameProvider.getSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
+            if (localProvider != null) {
+                pixels = localProvider.getSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y, subframe.getPixels());
+            } else {
+                pixels = frameProvider.getSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
+            }
             if (pixels != null) {
                 subframe.setPixels(pixels);
                 good = true;
             }
         } else if (viewAttributes.colorModel == OMRasterObject.COLORMODEL_INDEXED) {
-            RpfIndexedImageData riid = frameProvider.getRawSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
+            RpfIndexedImageData riid;
+            if (localProvider != null) {
+                riid = localProvider.getRawSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y, subframe.getBits());
+            } else {
+                riid = frameProvider.getRawSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
+            }
 
             if (riid != null && riid.imageData != null && riid.colortable != null) {
                 subframe.setBitsAndColors(riid.imageData, riid.colortable);
@@ -883,4 +1036,39 @@ public class RpfCacheHandler {
         return false;
     }
 
+    /**
+     * A subframe that has a place in the cache, waiting to be decompressed.
+     */
+    protected class SubframeLoad
+            implements Callable<Boolean> {
+        final RpfSubframe subframe;
+        final RpfCoverageBox coverageBox;
+        /** Coverage box indexes of the subframe. */
+        final int cbx, cby;
+        /** Cache matrix indexes of the subframe. */
+        final int x, y;
+        /** The cache entry for the subframe. */
+        final int index;
+        /** The position of the subframe in the list for the map. */
+        final int slot;
+        volatile boolean loaded = false;
+
+        protected SubframeLoad(RpfSubframe subframe, RpfCoverageBox coverageBox, int cbx, int cby,
+                int x, int y, int index, int slot) {
+            this.subframe = subframe;
+            this.coverageBox = coverageBox;
+            this.cbx = cbx;
+            this.cby = cby;
+            this.x = x;
+            this.y = y;
+            this.index = index;
+            this.slot = slot;
+        }
+
+        public Boolean call() {
+            loaded = loadSubframe(subframe, coverageBox, cbx, cby);
+            return Boolean.valueOf(loaded);
+        }
+    }
+
 }
@@ -82,6 +82,16 @@ public interface RpfConstants {
 	 * "auxSubframeCacheSize"
 	 */
 	public static final String AuxCacheSizeProperty = "auxSubframeCacheSize";
+	/**
+	 * Directory for a disk cache of decompressed subframes, kept between
+	 * runs. No disk cache is used if not set. "diskCache"
+	 */
+	public static final String DiskCacheProperty = "diskCache";
+	/**
+	 * The most megabytes of subframes to keep in the disk cache.
+	 * "diskCacheSize"
+	 */
+	public static final String DiskCacheSizeProperty = "diskCacheSize";
 	/**
 	 * Tell the RpfLayer to get the detailed subframe attributes for each
 	 * subframe.
@@ -846,6 +846,22 @@ public class RpfFrame {
     * @param y the y coord for the subframe
     */
    public byte[] decompressSubframe(int x, int y) {
+      return decompressSubframe(x, y, (byte[]) null);
+   }
+
+   /**
+    * Decompress a subframe into an array of bytes suitable for in indexed color
+    * model image, reusing an array from a subframe that isn't needed anymore.
+    * The frame isn't modified, so several threads can decompress subframes
+    * from it at the same time.
+    * 
+    * @param x the x coord for the subframe
+    * @param y the y coord for the subframe
+    * @param pixels the array to decompress into. If null or too small, a new
+    *        array is allocated.
+    * @return the pixels, or null if the subframe isn't in the frame.
+    */
+   public byte[] decompressSubframe(int x, int y, byte[] pixels) {
       // Convert x,y to the subframe index in the frame - they come
       // in as
       // cache subframe indexes
@@ -868,7 +884,9 @@ public class RpfFrame {
       if ((compressedSubframe == null) || masked[y][x]) {
          return null;
       } else { // Normal pixel */
-         byte[] pixels = new byte[256 * 256];
+         if (pixels == null || pixels.length < 256 * 256) {
+            pixels = new byte[256 * 256];
+         }
          for (int i = 0; i < 256; i += 4) {
             for (int j = 0; j < 256; j += 8) {
                int firstByte = compressedSubframe[readptr++] & 0xff;
@@ -914,6 +932,24 @@ public class RpfFrame {
     *        RpfColortable from the frame will be used.
     */
    public int[] decompressSubframe(int x, int y, RpfColortable colortable) {
+      return decompressSubframe(x, y, colortable, null);
+   }
+
+   /**
+    * Decompress a subframe into an array of ints suitable for a direct color
+    * model image (argb format), reusing an array from a subframe that isn't
+    * needed anymore. The frame isn't modified, so several threads can
+    * decompress subframes from it at the same time.
+    * 
+    * @param x the x coord for the subframe
+    * @param y the y coord for the subframe
+    * @param colortable the colortable to use with this image. If null, the
+    *        RpfColortable from the frame will be used.
+    * @param pixels the array to decompress into. If null or too small, a new
+    *        array is allocated.
+    * @return the pixels, or null if the subframe isn't in the frame.
+    */
+   public int[] decompressSubframe(int x, int y, RpfColortable colortable, int[] pixels) {
       // Convert x,y to the subframe index in the frame - they come
       // in as
       // cache subframe indexes
@@ -940,7 +976,15 @@ public class RpfFrame {
       if ((compressedSubframe == null) || masked[y][x]) {
          return null;
       } else { // Normal pixel */
-         int[] pixels = new int[256 * 256];
+         if (pixels == null || pixels.length < 256 * 256) {
+            pixels = new int[256 * 256];
+         }
+         // Look up the argb values once, instead of for every pixel.
+         Color[] colors = colortable.colors;
+         int[] argb = new int[colors.length];
+         for (int c = 0; c < colors.length; c++) {
+            argb[c] = colors[c] == null ? 0 : colors[c].getRGB();
+         }
          for (int i = 0; i < 256; i += 4) {
             for (int j = 0; j < 256; j += 8) {
                int firstByte = compressedSubframe[readptr++] & 0xff;
@@ -966,8 +1010,8 @@ public class RpfFrame {
                         tableVal2 = RpfColortable.CADRG_COLORS - 1;
                      }
                      int pixindex = (i + t) * 256 + j + e;
-                     pixels[pixindex] = colortable.colors[tableVal1].getRGB();
-                     pixels[pixindex + 4] = colortable.colors[tableVal2].getRGB();
+                     pixels[pixindex] = argb[tableVal1];
+                     pixels[pixindex + 4] = argb[tableVal2];
                   } // for e
                } // for t
             } /* for j */
@@ -29,9 +29,12 @@
 
 package com.bbn.openmap.layer.rpf;
 
+import java.io.File;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
+import com.bbn.openmap.omGraphics.OMRasterObject;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.cacheHandler.CacheHandler;
@@ -61,6 +64,8 @@ public class RpfFrameCacheHandler
    protected RpfTocHandler[] tocs;
    /** View and display attributes for the data. */
    protected RpfViewAttributes viewAttributes = new RpfViewAttributes();
+   /** Optional cache of decompressed subframes, kept across restarts. */
+   protected RpfSubframeDiskCache diskCache;
 
    /**
     * The default constructor.
@@ -460,7 +465,7 @@ public class RpfFrameCacheHandler
     * @see #getCoverage
     * @return string.
     */
-   public String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
+   public synchronized String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
 
       if (!tocs[tocNumber].isValid())
          return null;
@@ -508,22 +513,121 @@ public class RpfFrameCacheHandler
     * @return integer pixel data.
     */
    public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y) {
+      return getSubframeData(tocNumber, entryNumber, x, y, null);
+   }
 
-      if (!tocs[tocNumber].isValid()) {
+   /**
+    * Given the indexes to a certain RpfTocEntry within a certain A.TOC, find
+    * the frame/subframe data and decompress it into a pixel array that isn't
+    * being used anymore. Several threads can decompress subframes at the same
+    * time, the frame lookup is the only part done one at a time.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler for a particular frame
+    *        provider.
+    * @param entryNumber the RpfTocEntry id for a RpfTocHandler for a particular
+    *        frame provider.
+    * @param x the horizontal subframe index, from the left side of a boundary
+    *        rectangle of the entry.
+    * @param y the vertical subframe index, from the top side of a boundary
+    *        rectangle of the entry.
+    * @param pixels the array to decompress the pixels into, a new one is
+    *        allocated if null.
+    * @return integer pixel data.
+    */
+   public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y, int[] pixels) {
+      String key = getDiskCacheKey(tocNumber, entryNumber, x, y, OMRasterObject.COLORMODEL_DIRECT);
+      if (key != null) {
+         int[] cached = diskCache.getPixels(key, pixels);
+         if (cached != null) {
+            return cached;
+         }
+      }
+
+      RpfColortable ct = new RpfColortable();
+      RpfFrame frame = getSubframeFrame(tocNumber, entryNumber, x, y, ct);
+
+      if (frame == null) {
          return null;
       }
 
-      RpfTocEntry entry = tocs[tocNumber].entries[entryNumber];
+      /*
+       * This should never fail, since all subframes should be present
+       */
+      pixels = frame.decompressSubframe(x, y, ct, pixels);
 
-      /* If beyond the image boundary, forget it */
-      if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
+      if (key != null && pixels != null) {
+         diskCache.putPixels(key, pixels);
+      }
+      return pixels;
+   }
+
+   public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+      return getRawSubframeData(tocNumber, entryNumber, x, y, null);
+   }
+
+   /**
+    * Given the indexes to a certain RpfTocEntry within a certain A.TOC, find
+    * the frame/subframe data and decompress it into a byte array that isn't
+    * being used anymore, for an indexed color model image. Several threads can
+    * decompress subframes at the same time.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler for a particular frame
+    *        provider.
+    * @param entryNumber the RpfTocEntry id for a RpfTocHandler for a particular
+    *        frame provider.
+    * @param x the horizontal subframe index, from the left side of a boundary
+    *        rectangle of the entry.
+    * @param y the vertical subframe index, from the top side of a boundary
+    *        rectangle of the entry.
+    * @param pixels the array to decompress the color indexes into, a new one
+    *        is allocated if null.
+    * @return the indexed image data and colors.
+    */
+   public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y, byte[] pixels) {
+      String key = getDiskCacheKey(tocNumber, entryNumber, x, y, OMRasterObject.COLORMODEL_INDEXED);
+      if (key != null) {
+         RpfIndexedImageData cached = diskCache.getIndexed(key, pixels);
+         if (cached != null) {
+            return cached;
+         }
+      }
+
+      RpfColortable ct = new RpfColortable();
+      RpfFrame frame = getSubframeFrame(tocNumber, entryNumber, x, y, ct);
+
+      if (frame == null) {
          return null;
       }
 
-      if (!entry.isFramesLoaded()) {
-         tocs[tocNumber].loadFrameInformation(entry);
+      RpfIndexedImageData riid = new RpfIndexedImageData();
+      riid.imageData = frame.decompressSubframe(x, y, pixels);
+      riid.colortable = ct.colors;
+
+      if (key != null && riid.imageData != null) {
+         diskCache.putIndexed(key, riid.imageData, riid.colortable);
+      }
+      return riid;
+   }
+
+   /**
+    * Find the frame holding a subframe, and set up the colortable for it. The
+    * frame information in the A.TOC and the shared colortable are only touched
+    * here, one thread at a time. The frame doesn't change after it's read, so
+    * the subframe can be decompressed outside of the lock.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler.
+    * @param entryNumber the RpfTocEntry id in the RpfTocHandler.
+    * @param x the horizontal subframe index.
+    * @param y the vertical subframe index.
+    * @param ct a colortable to set from the colortable for the frame.
+    * @return the RpfFrame, or null if the subframe isn't available.
+    */
+   protected synchronized RpfFrame getSubframeFrame(int tocNumber, int entryNumber, int x, int y, RpfColortable ct) {
+      RpfFrameEntry frameEntry = getFrameEntry(tocNumber, entryNumber, x, y);
+
+      if (frameEntry == null) {
+         return null;
       }
-      RpfFrameEntry frameEntry = entry.getFrame(y / 6, x / 6);
 
       /* Get the right frame from the frame cache */
       RpfFrame frame = (RpfFrame) get(frameEntry);
@@ -532,15 +636,22 @@ public class RpfFrameCacheHandler
          return null;
       }
 
-      checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
-
-      /*
-       * This should never fail, since all subframes should be present
-       */
-      return frame.decompressSubframe(x, y, colortable);
+      checkColortable(frame, frameEntry, tocs[tocNumber].entries[entryNumber], tocNumber, entryNumber);
+      ct.setFrom(colortable);
+      return frame;
    }
 
-   public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+   /**
+    * Find the RpfFrameEntry for a subframe, reading the frame information from
+    * the A.TOC if it hasn't been read yet.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler.
+    * @param entryNumber the RpfTocEntry id in the RpfTocHandler.
+    * @param x the horizontal subframe index.
+    * @param y the vertical subframe index.
+    * @return the RpfFrameEntry, or null if the subframe is outside the entry.
+    */
+   protected synchronized RpfFrameEntry getFrameEntry(int tocNumber, int entryNumber, int x, int y) {
       if (!tocs[tocNumber].isValid()) {
          return null;
       }
@@ -549,26 +660,133 @@ public class RpfFrameCacheHandler
 
       /* If beyond the image boundary, forget it */
       if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
-
          return null;
       }
+
       if (!entry.isFramesLoaded()) {
          tocs[tocNumber].loadFrameInformation(entry);
       }
-      RpfFrameEntry frameEntry = entry.getFrame(y / 6, x / 6);
+      return entry.getFrame(y / 6, x / 6);
+   }
 
-      /* Get the right frame from the frame cache */
-      RpfFrame frame = (RpfFrame) get(frameEntry);
+   /**
+    * Get the key for a subframe in the disk cache.
+    * 
+    * @return the key, or null if there isn't a disk cache or the frame file
+    *         can't be found.
+    */
+   protected String getDiskCacheKey(int tocNumber, int entryNumber, int x, int y, int colorModel) {
+      if (diskCache == null) {
+         return null;
+      }
 
-      if (frame == null)
+      RpfFrameEntry frameEntry = getFrameEntry(tocNumber, entryNumber, x, y);
+      if (frameEntry == null || !frameEntry.exists) {
          return null;
+      }
 
-      checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
+      // If the path is wrong, the frame fixes it when it's loaded. Skip the
+      // disk cache until then.
+      File frameFile = new File(frameEntry.framePath);
+      if (!frameFile.isFile()) {
+         return null;
+      }
 
-      RpfIndexedImageData riid = new RpfIndexedImageData();
-      riid.imageData = frame.decompressSubframe(x, y);
-      riid.colortable = colortable.colors;
-      return riid;
+      int opaqueness = viewAttributes != null ? viewAttributes.opaqueness : RpfColortable.DEFAULT_OPAQUENESS;
+      int numberOfColors = viewAttributes != null ? viewAttributes.numberOfColors : RpfColortable.CADRG_COLORS;
+      return RpfSubframeDiskCache.getKey(frameFile, x % 6, y % 6, colorModel, opaqueness, numberOfColors);
+   }
+
+   public RpfSubframeDiskCache getDiskCache() {
+      return diskCache;
+   }
+
+   /**
+    * Set a disk cache for decompressed subframes, so they don't have to be
+    * decompressed again after a restart.
+    * 
+    * @param diskCache RpfSubframeDiskCache, or null to stop using it.
+    */
+   public void setDiskCache(RpfSubframeDiskCache diskCache) {
+      this.diskCache = diskCache;
+   }
+
+   /**
+    * Decompress all the subframes that cover an area into the disk cache, for
+    * every chart series unless the view attributes limit it to one. Uses the
+    * color model and opaqueness from the view attributes.
+    * 
+    * @param ullat NW latitude.
+    * @param ullon NW longitude.
+    * @param lrlat SE latitude.
+    * @param lrlon SE longitude.
+    * @param verbose print out progress for each TOC entry.
+    * @return the number of subframes found for the area.
+    */
+   public int prewarm(double ullat, double ullon, double lrlat, double lrlon, boolean verbose) {
+      if (diskCache == null) {
+         return 0;
+      }
+
+      boolean direct = viewAttributes == null || viewAttributes.colorModel != OMRasterObject.COLORMODEL_INDEXED;
+      String chartSeries = viewAttributes != null ? viewAttributes.chartSeries : null;
+      boolean anySeries = chartSeries == null || chartSeries.equalsIgnoreCase(RpfViewAttributes.ANY);
+      int count = 0;
+
+      for (int t = 0; t < tocs.length; t++) {
+         if (!tocs[t].isValid() || tocs[t].entries == null) {
+            continue;
+         }
+
+         for (int e = 0; e < tocs[t].entries.length; e++) {
+            RpfTocEntry entry = tocs[t].entries[e];
+            if (entry == null
+                  || (!anySeries && (entry.info == null || !chartSeries.equalsIgnoreCase(entry.info.seriesCode)))) {
+               continue;
+            }
+
+            RpfCoverageBox box = entry.coverage;
+            if (box.subframeLatInterval <= 0 || box.subframeLonInterval <= 0 || ullat < box.se_lat
+                  || lrlat > box.nw_lat || ullon > box.se_lon || lrlon < box.nw_lon) {
+               continue;
+            }
+
+            int startX = (int) Math.floor((Math.max(ullon, box.nw_lon) - box.nw_lon) / box.subframeLonInterval);
+            int endX = (int) Math.floor((Math.min(lrlon, box.se_lon) - box.nw_lon) / box.subframeLonInterval);
+            int startY = (int) Math.floor((box.nw_lat - Math.min(ullat, box.nw_lat)) / box.subframeLatInterval);
+            int endY = (int) Math.floor((box.nw_lat - Math.max(lrlat, box.se_lat)) / box.subframeLatInterval);
+            endX = Math.min(endX, entry.horizFrames * 6 - 1);
+            endY = Math.min(endY, entry.vertFrames * 6 - 1);
+
+            int entryCount = 0;
+            int[] pixels = null;
+            byte[] bits = null;
+            for (int y = startY; y <= endY; y++) {
+               for (int x = startX; x <= endX; x++) {
+                  if (direct) {
+                     int[] p = getSubframeData(t, e, x, y, pixels);
+                     if (p != null) {
+                        pixels = p;
+                        entryCount++;
+                     }
+                  } else {
+                     RpfIndexedImageData riid = getRawSubframeData(t, e, x, y, bits);
+                     if (riid != null && riid.imageData != null) {
+                        bits = riid.imageData;
+                        entryCount++;
+                     }
+                  }
+               }
+            }
+
+            if (verbose) {
+               Debug.output("RpfFrameCacheHandler: " + entryCount + " subframes from " + tocs[t].getATocFilePath()
+                     + ", entry " + e + " (" + entry.scale.trim() + ")");
+            }
+            count += entryCount;
+         }
+      }
+      return count;
    }
 
    /**
@@ -640,22 +858,19 @@ public class RpfFrameCacheHandler
     * kicked off in the frame. If you don't care about Dchum, use the other get
     * method. CacheHandler method.
     */
-   public Object get(RpfFrameEntry rfe) {
-
-      CacheObject ret = searchCache(rfe.framePath);
-      if (ret != null)
-         return ret.obj;
-
-      ret = load(rfe);
-      if (ret == null)
-         return null;
+   public Object get(final RpfFrameEntry rfe) {
 
-      if (Debug.debugging("rpfdetail")) {
-         System.out.println(rfe);
-      }
+      CacheObject ret = get(rfe.framePath, new Callable<CacheObject>() {
+         public CacheObject call() {
+            CacheObject co = load(rfe);
+            if (co != null && Debug.debugging("rpfdetail")) {
+               System.out.println(rfe);
+            }
+            return co;
+         }
+      });
 
-      replaceLeastUsed(ret);
-      return ret.obj;
+      return ret == null ? null : ret.obj;
    }
 
    public CacheObject load(Object key) {
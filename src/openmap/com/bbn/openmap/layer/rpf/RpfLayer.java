@@ -117,6 +117,10 @@ import com.bbn.openmap.util.cacheHandler.CacheHandler;
  *           rpf.coverage=true
  *           # Set the subframe cache size. (Number of subframes to hold on to, 256x256 pixels)
  *           rpf.subframeCacheSize=128
+ *           # Keep decompressed subframes in a directory between runs. (optional)
+ *           rpf.diskCache=/var/cache/openmap/rpf
+ *           # The most megabytes of subframes to keep there.  Default is 256.
+ *           rpf.diskCacheSize=256
  *           # Then also include coverage properties, which are available in the RpfConstants.
  *           #------------------------------------
  *           # End of properties for RpfLayer
@@ -159,6 +163,10 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 	protected int subframeCacheSize = RpfCacheHandler.SUBFRAME_CACHE_SIZE;
 	/** Auxiliary subframe cache size. Default is 10. */
 	protected int auxSubframeCacheSize = RpfCacheManager.SMALL_CACHE_SIZE;
+	/** Directory for the disk cache of decompressed subframes, or null. */
+	protected String diskCachePath;
+	/** Disk cache size, in megabytes. Default is 256. */
+	protected int diskCacheSize = (int) (RpfSubframeDiskCache.DEFAULT_MAX_BYTES / (1024 * 1024));
 
 	/**
 	 * The default constructor for the Layer. All of the attributes are set to
@@ -274,6 +282,9 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 
 		killCache = PropUtils.booleanFromProperties(properties, prefix + KillCacheProperty, killCache);
 
+		diskCacheSize = PropUtils.intFromProperties(properties, prefix + DiskCacheSizeProperty, diskCacheSize);
+		setDiskCachePath(properties.getProperty(prefix + DiskCacheProperty, diskCachePath));
+
 		if (coverage != null) {
 			coverage.setProperties(prefix, properties);
 		}
@@ -320,6 +331,8 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 		props.put(prefix + KillCacheProperty, new Boolean(killCache).toString());
 		props.put(prefix + CacheSizeProperty, Integer.toString(subframeCacheSize));
 		props.put(prefix + AuxCacheSizeProperty, Integer.toString(auxSubframeCacheSize));
+		props.put(prefix + DiskCacheProperty, PropUtils.unnull(diskCachePath));
+		props.put(prefix + DiskCacheSizeProperty, Integer.toString(diskCacheSize));
 
 		viewAttributes.setPropertyPrefix(prefix);
 		viewAttributes.getProperties(props);
@@ -383,6 +396,19 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 		interString = i18n.get(RpfLayer.class, AuxCacheSizeProperty, "Aux Frame Cache Size");
 		list.put(AuxCacheSizeProperty + LabelEditorProperty, interString);
 
+		interString = i18n.get(RpfLayer.class, DiskCacheProperty, I18n.TOOLTIP,
+				"Directory to keep decompressed subframes in between runs (optional).");
+		list.put(DiskCacheProperty, interString);
+		list.put(DiskCacheProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+		interString = i18n.get(RpfLayer.class, DiskCacheProperty, "Disk Cache");
+		list.put(DiskCacheProperty + LabelEditorProperty, interString);
+
+		interString = i18n.get(RpfLayer.class, DiskCacheSizeProperty, I18n.TOOLTIP,
+				"Megabytes of decompressed subframes to keep in the disk cache.");
+		list.put(DiskCacheSizeProperty, interString);
+		interString = i18n.get(RpfLayer.class, DiskCacheSizeProperty, "Disk Cache Size");
+		list.put(DiskCacheSizeProperty + LabelEditorProperty, interString);
+
 		viewAttributes.getPropertyInfo(list);
 
 		RpfCoverage tmpCov = coverage;
@@ -394,6 +420,7 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 
 		list.put(initPropertiesProperty,
 				RpfPathsProperty + " " + KillCacheProperty + " " + CacheSizeProperty + " " + AuxCacheSizeProperty + " "
+						+ DiskCacheProperty + " " + DiskCacheSizeProperty + " "
 						+ viewAttributes.getInitPropertiesOrder() + " " + AddToBeanContextProperty + " "
 						+ AddAsBackgroundProperty + " " + RemovableProperty + " " + CoverageProperty + " "
 						+ tmpCov.getInitPropertiesOrder());
@@ -495,6 +522,44 @@ public class RpfLayer extends OMGraphicHandlerLayer implements ActionListener, R
 		if (this.cache != null) {
 			this.cache.setFrameProvider(frameProvider);
 		}
+		updateDiskCache();
+	}
+
+	/**
+	 * Get the directory used for the disk cache of decompressed subframes.
+	 * 
+	 * @return the directory path, or null if there isn't a disk cache.
+	 */
+	public String getDiskCachePath() {
+		return diskCachePath;
+	}
+
+	/**
+	 * Set the directory to keep decompressed subframes in between runs. Only
+	 * used with a local frame provider.
+	 * 
+	 * @param path
+	 *            the directory path, or null or empty for no disk cache.
+	 */
+	public void setDiskCachePath(String path) {
+		if (path != null && path.trim().length() == 0) {
+			path = null;
+		}
+		diskCachePath = path;
+		updateDiskCache();
+	}
+
+	/**
+	 * Hand the disk cache to the frame provider, if it can use one.
+	 */
+	protected void updateDiskCache() {
+		if (frameProvider instanceof RpfFrameCacheHandler) {
+			RpfSubframeDiskCache diskCache = null;
+			if (diskCachePath != null) {
+				diskCache = RpfSubframeDiskCache.get(diskCachePath, diskCacheSize * 1024L * 1024L);
+			}
+			((RpfFrameCacheHandler) frameProvider).setDiskCache(diskCache);
+		}
 	}
 
 	/**
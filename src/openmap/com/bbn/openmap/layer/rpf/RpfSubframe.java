@@ -108,6 +108,26 @@ public class RpfSubframe {
         imageCreator = new BitsAndColors(bits, colors);
     }
 
+    /**
+     * Get the direct color pixels currently held by the subframe, so they can
+     * be reused when the subframe is loaded with a different image.
+     * 
+     * @return int[] pixels, or null if the subframe doesn't have any.
+     */
+    public int[] getPixels() {
+        return imageCreator instanceof Pixels ? ((Pixels) imageCreator).pixels : null;
+    }
+
+    /**
+     * Get the indexed color bits currently held by the subframe, so they can
+     * be reused when the subframe is loaded with a different image.
+     * 
+     * @return byte[] bits, or null if the subframe doesn't have any.
+     */
+    public byte[] getBits() {
+        return imageCreator instanceof BitsAndColors ? ((BitsAndColors) imageCreator).bits : null;
+    }
+
     public void setTransparent(int opaqueness) {
         if (this.opaqueness != opaqueness) {
             this.opaqueness = opaqueness;
@@ -0,0 +1,561 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.rpf;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.omGraphics.OMRasterObject;
+import com.bbn.openmap.util.ArgParser;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * The RpfSubframeDiskCache keeps decompressed RPF subframes in a directory, so
+ * they don't have to be read out of the frame files and decompressed again
+ * after the application restarts. The RpfFrameCacheHandler checks it before
+ * loading a frame, and adds the subframes it decompresses to it.
+ * <p>
+ * Each subframe is kept in its own file, and is keyed by the frame file path,
+ * the subframe location in the frame, the color model, the opaqueness of the
+ * colors and the number of colors in the colortable. The colortable for a subframe comes from its frame, so the size
+ * and modification time of the frame file are part of the key, too, and
+ * subframes from replaced frames aren't used. The cache is limited by the
+ * number of bytes in its files, and the least recently used subframes are
+ * deleted when it gets too big.
+ * <p>
+ * The cache can be filled for an area before the map is opened, by running
+ * this class as a program:
+ *
+ * <pre>
+ * java com.bbn.openmap.layer.rpf.RpfSubframeDiskCache -paths /data/RPF -cache /tmp/rpfcache -boundary 40 -75 38 -72
+ * </pre>
+ */
+public class RpfSubframeDiskCache {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.rpf.RpfSubframeDiskCache");
+
+    /** The default size limit for the cache, 256 MB. */
+    public final static long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    protected final static int MAGIC = 0x52534643;
+    protected final static byte DIRECT = 0;
+    protected final static byte INDEXED = 1;
+    protected final static String SUFFIX = ".rsf";
+    protected final static String TMP_SUFFIX = ".tmp";
+
+    protected final static int NUM_PIXELS = RpfSubframe.PIXEL_EDGE_SIZE * RpfSubframe.PIXEL_EDGE_SIZE;
+
+    private final static Map<String, RpfSubframeDiskCache> caches = new HashMap<String, RpfSubframeDiskCache>();
+
+    protected final File dir;
+    protected long maxBytes;
+    protected long numBytes = 0;
+    /**
+     * The sizes of the files in the cache, by file name, least recently used
+     * first.
+     */
+    protected final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(64, .75f, true);
+
+    /**
+     * Get the cache for a directory. Layers using the same directory share a
+     * cache, so its size is tracked properly.
+     *
+     * @param dirPath the directory to keep the subframe files in, created if
+     *        needed.
+     * @param maxBytes the most bytes of subframe files to keep.
+     * @return RpfSubframeDiskCache, or null if the directory can't be used.
+     */
+    public static RpfSubframeDiskCache get(String dirPath, long maxBytes) {
+        File dir = new File(dirPath);
+        String path;
+        try {
+            path = dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            path = dir.getAbsolutePath();
+        }
+
+        synchronized (caches) {
+            RpfSubframeDiskCache cache = caches.get(path);
+            if (cache == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    logger.warning("can't create subframe cache directory " + dirPath);
+                    return null;
+                }
+                cache = new RpfSubframeDiskCache(dir, maxBytes);
+                caches.put(path, cache);
+            } else {
+                cache.setMaxBytes(maxBytes);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Create a cache for a directory, picking up the subframe files already in
+     * it. Use get(String, long) unless the directory is only going to be used
+     * by this object.
+     *
+     * @param dir the directory, which has to exist.
+     * @param maxBytes the most bytes of subframe files to keep.
+     */
+    public RpfSubframeDiskCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+
+        // The file modification times are updated when subframes are used,
+        // so the least recently used order survives a restart.
+        Arrays.sort(list, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+
+        synchronized (this) {
+            for (File file : list) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX)) {
+                    long length = file.length();
+                    files.put(name, Long.valueOf(length));
+                    numBytes += length;
+                } else if (name.endsWith(TMP_SUFFIX)) {
+                    // Left over from a write that didn't finish.
+                    file.delete();
+                }
+            }
+            trim();
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("subframe cache in " + dir + " has " + files.size() + " subframes, "
+                    + numBytes + " bytes");
+        }
+    }
+
+    /**
+     * Create the key for a subframe.
+     *
+     * @param frameFile the frame file holding the subframe.
+     * @param x the horizontal subframe index in the frame.
+     * @param y the vertical subframe index in the frame.
+     * @param colorModel OMRasterObject.COLORMODEL_DIRECT or
+     *        OMRasterObject.COLORMODEL_INDEXED.
+     * @param opaqueness the alpha value of the colors.
+     * @param numberOfColors the number of colors in the colortable, 216, 32
+     *        or 16.
+     * @return the key.
+     */
+    public static String getKey(File frameFile, int x, int y, int colorModel, int opaqueness,
+                                int numberOfColors) {
+        StringBuilder sb = new StringBuilder(frameFile.getAbsolutePath());
+        sb.append('|').append(frameFile.length()).append('|').append(frameFile.lastModified());
+        sb.append('|').append(x).append(',').append(y);
+        sb.append('|').append(colorModel).append('|').append(opaqueness);
+        sb.append('|').append(numberOfColors);
+        return sb.toString();
+    }
+
+    /**
+     * Get direct color pixels for a subframe.
+     *
+     * @param key from getKey.
+     * @param pixels an array to put the pixels in, a new one is allocated if
+     *        null or too small.
+     * @return the pixels, or null if the subframe isn't cached.
+     */
+    public int[] getPixels(String key, int[] pixels) {
+        ByteBuffer buf = read(key, DIRECT);
+        if (buf == null) {
+            return null;
+        }
+        if (pixels == null || pixels.length < NUM_PIXELS) {
+            pixels = new int[NUM_PIXELS];
+        }
+        buf.asIntBuffer().get(pixels, 0, NUM_PIXELS);
+        return pixels;
+    }
+
+    /**
+     * Get indexed color bits and colors for a subframe.
+     *
+     * @param key from getKey.
+     * @param bits an array to put the color indexes in, a new one is allocated
+     *        if null or too small.
+     * @return the image data, or null if the subframe isn't cached.
+     */
+    public RpfIndexedImageData getIndexed(String key, byte[] bits) {
+        ByteBuffer buf = read(key, INDEXED);
+        if (buf == null) {
+            return null;
+        }
+        Color[] colors = new Color[buf.getShort()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(buf.getInt(), true);
+        }
+        if (bits == null || bits.length < NUM_PIXELS) {
+            bits = new byte[NUM_PIXELS];
+        }
+        buf.get(bits, 0, NUM_PIXELS);
+
+        RpfIndexedImageData riid = new RpfIndexedImageData();
+        riid.imageData = bits;
+        riid.colortable = colors;
+        return riid;
+    }
+
+    /**
+     * Add direct color pixels for a subframe to the cache.
+     *
+     * @param key from getKey.
+     * @param pixels the argb pixels.
+     */
+    public void putPixels(String key, int[] pixels) {
+        if (pixels == null || pixels.length < NUM_PIXELS) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("rsf", TMP_SUFFIX, dir);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            try {
+                writeHeader(dos, key, DIRECT);
+                for (int i = 0; i < NUM_PIXELS; i++) {
+                    dos.writeInt(pixels[i]);
+                }
+            } finally {
+                dos.close();
+            }
+            add(key, tmp);
+        } catch (IOException ioe) {
+            handleWriteProblem(tmp, ioe);
+        }
+    }
+
+    /**
+     * Add indexed color bits and colors for a subframe to the cache.
+     *
+     * @param key from getKey.
+     * @param bits the color indexes for the pixels.
+     * @param colors the colors.
+     */
+    public void putIndexed(String key, byte[] bits, Color[] colors) {
+        if (bits == null || bits.length < NUM_PIXELS || colors == null) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("rsf", TMP_SUFFIX, dir);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            try {
+                writeHeader(dos, key, INDEXED);
+                dos.writeShort(colors.length);
+                for (Color color : colors) {
+                    dos.writeInt(color == null ? 0 : color.getRGB());
+                }
+                dos.write(bits, 0, NUM_PIXELS);
+            } finally {
+                dos.close();
+            }
+            add(key, tmp);
+        } catch (IOException ioe) {
+            handleWriteProblem(tmp, ioe);
+        }
+    }
+
+    protected void writeHeader(DataOutputStream dos, String key, byte type) throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeUTF(key);
+        dos.writeByte(type);
+    }
+
+    protected void handleWriteProblem(File tmp, IOException ioe) {
+        if (tmp != null) {
+            tmp.delete();
+        }
+        logger.warning("can't write subframe to cache in " + dir + ": " + ioe.getMessage());
+    }
+
+    /**
+     * Read a cached subframe file, checking that it's the subframe wanted.
+     *
+     * @return a buffer positioned after the header, or null if the subframe
+     *         isn't cached.
+     */
+    protected ByteBuffer read(String key, byte type) {
+        String name = getFileName(key);
+        synchronized (this) {
+            if (files.get(name) == null) {
+                return null;
+            }
+        }
+
+        File file = new File(dir, name);
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            byte[] data;
+            try {
+                data = new byte[(int) file.length()];
+                int off = 0;
+                while (off < data.length) {
+                    int n = fis.read(data, off, data.length - off);
+                    if (n < 0) {
+                        throw new IOException("file truncated");
+                    }
+                    off += n;
+                }
+            } finally {
+                fis.close();
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("not a subframe file");
+            }
+            // Written with DataOutputStream.writeUTF, which is plain UTF-8
+            // for anything in a file path.
+            byte[] keyBytes = new byte[buf.getShort() & 0xffff];
+            buf.get(keyBytes);
+            if (!key.equals(new String(keyBytes, "UTF-8")) || buf.get() != type) {
+                // Different subframe with the same hash, or a different color
+                // model.
+                return null;
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            return buf;
+
+        } catch (IOException ioe) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("problem reading " + file + ": " + ioe.getMessage());
+            }
+        } catch (RuntimeException re) {
+            // Buffer underflow, from a bad file.
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("problem reading " + file + ": " + re);
+            }
+        }
+
+        remove(name);
+        return null;
+    }
+
+    /**
+     * Move a finished subframe file into place and add it to the cache.
+     */
+    protected synchronized void add(String key, File tmp) throws IOException {
+        String name = getFileName(key);
+        File file = new File(dir, name);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can't replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't rename " + tmp + " to " + file);
+        }
+
+        long length = file.length();
+        Long old = files.put(name, Long.valueOf(length));
+        if (old != null) {
+            numBytes -= old.longValue();
+        }
+        numBytes += length;
+        trim();
+    }
+
+    protected synchronized void remove(String name) {
+        Long old = files.remove(name);
+        if (old != null) {
+            numBytes -= old.longValue();
+        }
+        new File(dir, name).delete();
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits in maxBytes.
+     * Called with the lock held.
+     */
+    protected void trim() {
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (numBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            numBytes -= entry.getValue().longValue();
+            new File(dir, entry.getKey()).delete();
+        }
+    }
+
+    /**
+     * Delete all the subframes in the cache.
+     */
+    public synchronized void clear() {
+        for (String name : files.keySet()) {
+            new File(dir, name).delete();
+        }
+        files.clear();
+        numBytes = 0;
+    }
+
+    /**
+     * The file name for a key, a hash of the key so it's a safe length.
+     */
+    protected String getFileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            return Integer.toHexString(key.hashCode()) + SUFFIX;
+        } catch (IOException ioe) {
+            return Integer.toHexString(key.hashCode()) + SUFFIX;
+        }
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * The number of bytes in the cached subframe files.
+     */
+    public synchronized long getNumBytes() {
+        return numBytes;
+    }
+
+    /**
+     * The number of subframes in the cache.
+     */
+    public synchronized int getNumSubframes() {
+        return files.size();
+    }
+
+    /**
+     * Decompress the subframes for an area into the cache, so they're ready
+     * when the map is opened.
+     */
+    public static void main(String[] args) {
+        Debug.init();
+        ArgParser ap = new ArgParser("RpfSubframeDiskCache");
+        ap.add("paths", "Paths to the RPF directories, separated by semi-colons.", 1);
+        ap.add("cache", "The directory to put the subframe cache in.", 1);
+        ap.add("boundary", "Coordinates of bounding box (upper lat, left lon, lower lat, right lon)", 4, true);
+        ap.add("size", "The maximum size of the cache, in megabytes. (optional, default 256)", 1);
+        ap.add("chartSeries", "Only cache subframes for a chart series code (GN, JN, ON, TP, etc.). (optional)", 1);
+        ap.add("colormodel", "The colormodel the layer uses, direct or indexed. (optional, default direct)", 1);
+        ap.add("opaque", "The opaqueness the layer uses, 0-255. (optional, default 255)", 1);
+        ap.add("verbose", "Print out progress");
+
+        if (!ap.parse(args) || ap.getArgValues("paths") == null || ap.getArgValues("cache") == null
+                || ap.getArgValues("boundary") == null) {
+            ap.printUsage();
+            System.exit(0);
+        }
+
+        double ullat, ullon, lrlat, lrlon;
+        long maxBytes = DEFAULT_MAX_BYTES;
+        int opaqueness = RpfColortable.DEFAULT_OPAQUENESS;
+        try {
+            String[] arg = ap.getArgValues("boundary");
+            ullat = Double.parseDouble(arg[0]);
+            ullon = Double.parseDouble(arg[1]);
+            lrlat = Double.parseDouble(arg[2]);
+            lrlon = Double.parseDouble(arg[3]);
+
+            arg = ap.getArgValues("size");
+            if (arg != null) {
+                maxBytes = Long.parseLong(arg[0]) * 1024L * 1024L;
+            }
+            arg = ap.getArgValues("opaque");
+            if (arg != null) {
+                opaqueness = Integer.parseInt(arg[0]);
+            }
+        } catch (NumberFormatException nfe) {
+            Debug.error("RpfSubframeDiskCache: problem parsing number: " + nfe.getMessage());
+            ap.printUsage();
+            System.exit(0);
+            return;
+        }
+
+        if (ullat <= lrlat || ullon >= lrlon) {
+            Debug.error("RpfSubframeDiskCache: boundary coordinates should be upper lat, left lon, lower lat, right lon");
+            System.exit(0);
+        }
+
+        RpfSubframeDiskCache diskCache = get(ap.getArgValues("cache")[0], maxBytes);
+        if (diskCache == null) {
+            System.exit(1);
+        }
+
+        RpfViewAttributes rva = new RpfViewAttributes();
+        rva.opaqueness = opaqueness;
+        String[] arg = ap.getArgValues("colormodel");
+        if (arg != null && arg[0].equalsIgnoreCase("indexed")) {
+            rva.colorModel = OMRasterObject.COLORMODEL_INDEXED;
+        } else {
+            rva.colorModel = OMRasterObject.COLORMODEL_DIRECT;
+        }
+        arg = ap.getArgValues("chartSeries");
+        if (arg != null) {
+            rva.chartSeries = arg[0];
+        }
+
+        RpfFrameCacheHandler frameCache = new RpfFrameCacheHandler(ap.getArgValues("paths")[0].split(";"));
+        frameCache.setViewAttributes(rva);
+        frameCache.setDiskCache(diskCache);
+
+        long time = System.currentTimeMillis();
+        int count = frameCache.prewarm(ullat, ullon, lrlat, lrlon, ap.getArgValues("verbose") != null);
+        time = System.currentTimeMillis() - time;
+
+        Debug.output("RpfSubframeDiskCache: " + count + " subframes cached in " + time / 1000f
+                + " seconds, cache holds " + diskCache.getNumSubframes() + " subframes, "
+                + diskCache.getNumBytes() / (1024 * 1024) + " MB");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,417 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.dataAccess.shape.ShapeUtils;
+import com.bbn.openmap.omGraphics.util.PolylineSimplifier;
+import com.bbn.openmap.proj.Planet;
+
+/**
+ * The ShapeFilePyramid creates generalized copies of a polyline or polygon
+ * shape file, one for each of a set of map scales, so a ShapeLayer can read
+ * much less data when it's zoomed out. Each copy has vertices removed that
+ * would be within a fraction of a pixel of the original lines at its scale.
+ * The copies are written next to the original shape file, named
+ * file.lod&lt;scale&gt;.shp, with their spatial index files.
+ * <p>
+ * Every record of the original is kept in the copies, in the same order, so
+ * the copies use the dbf file of the original. Polygon rings that are too
+ * small to see are reduced to four points. Records with z or m values are
+ * written without them.
+ * <p>
+ * To create copies for use at scales of 1:5,000,000 and 1:50,000,000 and
+ * smaller:
+ *
+ * <pre>
+ *   java com.bbn.openmap.layer.shape.ShapeFilePyramid coast.shp 5000000 50000000
+ * </pre>
+ *
+ * and then tell the ShapeLayer about them:
+ *
+ * <pre>
+ *   shapeLayer.lodScales=5000000 50000000
+ * </pre>
+ *
+ * @see ShapeLayer
+ */
+public class ShapeFilePyramid extends ShapeUtils {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.ShapeFilePyramid");
+
+    /**
+     * The default pixel distance that vertices can be from the original line.
+     */
+    public final static double DEFAULT_PIXEL_TOLERANCE = 0.5;
+
+    protected double pixelTolerance = DEFAULT_PIXEL_TOLERANCE;
+
+    /**
+     * True if the shape file coordinates are in meters instead of decimal
+     * degrees.
+     */
+    protected boolean meters = false;
+
+    public ShapeFilePyramid() {
+    }
+
+    /**
+     * Get the name of the file for a scale level of a shape file.
+     *
+     * @param shpFileName the path to the original shape file.
+     * @param scale the scale of the level.
+     * @return the path to the shape file for the level.
+     */
+    public static String getLevelFileName(String shpFileName, float scale) {
+        int index = shpFileName.lastIndexOf(".shp");
+        String base = index == -1 ? shpFileName : shpFileName.substring(0, index);
+        return base + ".lod" + Long.toString((long) scale) + ".shp";
+    }
+
+    /**
+     * Get the tolerance for simplifying lines at a scale, in the units of the
+     * shape file coordinates.
+     */
+    public double getTolerance(float scale) {
+        double metersPerPixel = scale / Planet.defaultPixelsPerMeter;
+        double tolerance = pixelTolerance * metersPerPixel;
+        if (!meters) {
+            // Meters per degree at the equator, so the tolerance is never
+            // too big for longitudes.
+            tolerance /= Planet.wgs84_earthEquatorialCircumferenceMeters_D / 360.0;
+        }
+        return tolerance;
+    }
+
+    /**
+     * Create the scale levels of a shape file, reading it once.
+     *
+     * @param shpFileName the path to the shape file.
+     * @param scales the map scales to create levels for.
+     * @throws IOException if the shape file can't be read, or the levels
+     *         can't be written.
+     */
+    public void create(String shpFileName, float[] scales) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(shpFileName), 1 << 16));
+        Level[] levels = new Level[scales.length];
+        try {
+            byte[] header = new byte[SHAPE_FILE_HEADER_LENGTH];
+            in.readFully(header);
+            int fileShapeType = readLEInt(header, 32);
+            int outShapeType = getOutputShapeType(fileShapeType);
+            if (outShapeType == SHAPE_TYPE_NULL) {
+                throw new IOException("Can only create levels for polyline and polygon shape files, "
+                        + shpFileName + " has shape type " + fileShapeType);
+            }
+            writeLEInt(header, 32, outShapeType);
+
+            for (int i = 0; i < scales.length; i++) {
+                levels[i] = new Level(getLevelFileName(shpFileName, scales[i]), getTolerance(scales[i]), header);
+            }
+
+            byte[] recHeader = new byte[SHAPE_FILE_RECORD_HEADER_LENGTH];
+            byte[] content = new byte[1024];
+            int numRecords = 0;
+
+            while (true) {
+                try {
+                    in.readFully(recHeader);
+                } catch (EOFException eofe) {
+                    break;
+                }
+                int recordNumber = readBEInt(recHeader, 0);
+                int contentLength = readBEInt(recHeader, 4) * 2;
+                if (content.length < contentLength) {
+                    content = new byte[contentLength];
+                }
+                in.readFully(content, 0, contentLength);
+
+                Record record = new Record(content, contentLength);
+                for (int i = 0; i < levels.length; i++) {
+                    levels[i].write(recordNumber, record, outShapeType);
+                }
+                numRecords++;
+            }
+
+            for (int i = 0; i < levels.length; i++) {
+                levels[i].close();
+                levels[i] = null;
+                SpatialIndex.FileIndex.create(getLevelFileName(shpFileName, scales[i]));
+            }
+
+            logger.info("created " + scales.length + " levels for " + numRecords + " records of "
+                    + shpFileName);
+        } finally {
+            in.close();
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i] != null) {
+                    levels[i].close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the shape type the levels are written as, SHAPE_TYPE_NULL if the
+     * file can't have levels.
+     */
+    protected static int getOutputShapeType(int shapeType) {
+        switch (shapeType) {
+        case SHAPE_TYPE_POLYLINE:
+        case SHAPE_TYPE_POLYLINEZ:
+        case SHAPE_TYPE_POLYLINEM:
+            return SHAPE_TYPE_POLYLINE;
+        case SHAPE_TYPE_POLYGON:
+        case SHAPE_TYPE_POLYGONZ:
+        case SHAPE_TYPE_POLYGONM:
+            return SHAPE_TYPE_POLYGON;
+        default:
+            return SHAPE_TYPE_NULL;
+        }
+    }
+
+    public double getPixelTolerance() {
+        return pixelTolerance;
+    }
+
+    public void setPixelTolerance(double pixelTolerance) {
+        this.pixelTolerance = pixelTolerance;
+    }
+
+    public boolean isMeters() {
+        return meters;
+    }
+
+    public void setMeters(boolean meters) {
+        this.meters = meters;
+    }
+
+    /**
+     * The parts of a polyline or polygon record, read from the original file.
+     */
+    protected static class Record {
+        /** Null shape if false. */
+        boolean hasShape;
+        int[] partStarts;
+        int numPoints;
+        /** x, y pairs. */
+        double[] points;
+
+        Record(byte[] b, int length) {
+            int shapeType = readLEInt(b, 0);
+            hasShape = shapeType != SHAPE_TYPE_NULL && length > 4;
+            if (!hasShape) {
+                return;
+            }
+            // skip the type and bounding box
+            int ptr = 36;
+            int numParts = readLEInt(b, ptr);
+            numPoints = readLEInt(b, ptr + 4);
+            ptr += 8;
+            partStarts = new int[numParts];
+            for (int i = 0; i < numParts; i++) {
+                partStarts[i] = readLEInt(b, ptr);
+                ptr += 4;
+            }
+            points = new double[numPoints * 2];
+            for (int i = 0; i < numPoints * 2; i++) {
+                points[i] = readLEDouble(b, ptr);
+                ptr += 8;
+            }
+        }
+
+        int getPartLength(int part) {
+            int end = part + 1 < partStarts.length ? partStarts[part + 1] : numPoints;
+            return end - partStarts[part];
+        }
+    }
+
+    /**
+     * One scale level being written.
+     */
+    protected class Level {
+        final String fileName;
+        final double tolerance;
+        final byte[] header;
+        OutputStream out;
+        long fileLength = SHAPE_FILE_HEADER_LENGTH;
+        ESRIBoundingBox bounds = new ESRIBoundingBox();
+        byte[] buf = new byte[1024];
+
+        Level(String fileName, double tolerance, byte[] header) throws IOException {
+            this.fileName = fileName;
+            this.tolerance = tolerance;
+            this.header = header.clone();
+            out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+            out.write(this.header);
+        }
+
+        void write(int recordNumber, Record record, int shapeType) throws IOException {
+            if (!record.hasShape) {
+                writeRecord(recordNumber, SHAPE_TYPE_NULL, null, null, 0);
+                return;
+            }
+
+            PolylineSimplifier simplifier = PolylineSimplifier.get();
+            boolean polygon = shapeType == SHAPE_TYPE_POLYGON;
+            int numParts = record.partStarts.length;
+            double[][] parts = new double[numParts][];
+            int numPoints = 0;
+            for (int i = 0; i < numParts; i++) {
+                int off = record.partStarts[i] * 2;
+                int n = record.getPartLength(i);
+                double[] part = simplifier.simplify(record.points, off, n, tolerance);
+                if (polygon && part.length < 8 && n >= 4) {
+                    // Keep a ring a ring, even if it's too small to see.
+                    part = new double[8];
+                    int[] picks = new int[] { 0, n / 3, (2 * n) / 3, n - 1 };
+                    for (int j = 0; j < 4; j++) {
+                        part[j * 2] = record.points[off + picks[j] * 2];
+                        part[j * 2 + 1] = record.points[off + picks[j] * 2 + 1];
+                    }
+                }
+                parts[i] = part;
+                numPoints += part.length / 2;
+            }
+            writeRecord(recordNumber, shapeType, parts, record, numPoints);
+        }
+
+        void writeRecord(int recordNumber, int shapeType, double[][] parts, Record record,
+                         int numPoints) throws IOException {
+            int contentLength = 4;
+            if (parts != null) {
+                contentLength += 32 + 8 + parts.length * 4 + numPoints * 16;
+            }
+            int recordLength = SHAPE_FILE_RECORD_HEADER_LENGTH + contentLength;
+            if (buf.length < recordLength) {
+                buf = new byte[recordLength];
+            }
+
+            int ptr = writeBEInt(buf, 0, recordNumber);
+            ptr += writeBEInt(buf, ptr, contentLength / 2);
+            ptr += writeLEInt(buf, ptr, shapeType);
+
+            if (parts != null) {
+                ESRIBoundingBox box = new ESRIBoundingBox();
+                for (int i = 0; i < parts.length; i++) {
+                    double[] part = parts[i];
+                    for (int j = 0; j < part.length; j += 2) {
+                        box.addPoint(part[j], part[j + 1]);
+                    }
+                }
+                if (box.min != null) {
+                    bounds.addBounds(box);
+                } else {
+                    // no points
+                    box.addPoint(0, 0);
+                }
+
+                ptr += writeBox(buf, ptr, box);
+                ptr += writeLEInt(buf, ptr, parts.length);
+                ptr += writeLEInt(buf, ptr, numPoints);
+                int start = 0;
+                for (int i = 0; i < parts.length; i++) {
+                    ptr += writeLEInt(buf, ptr, start);
+                    start += parts[i].length / 2;
+                }
+                for (int i = 0; i < parts.length; i++) {
+                    double[] part = parts[i];
+                    for (int j = 0; j < part.length; j++) {
+                        ptr += writeLEDouble(buf, ptr, part[j]);
+                    }
+                }
+            }
+
+            out.write(buf, 0, ptr);
+            fileLength += ptr;
+        }
+
+        /**
+         * Finish the file, and put the length and bounds in the header.
+         */
+        void close() throws IOException {
+            if (out == null) {
+                return;
+            }
+            out.close();
+            out = null;
+
+            writeBEInt(header, 24, (int) (fileLength / 2));
+            if (bounds.min != null) {
+                writeBox(header, 36, bounds);
+            }
+            RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+            try {
+                raf.seek(0);
+                raf.write(header, 0, SHAPE_FILE_HEADER_LENGTH);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    public static void usage() {
+        System.out.println("Usage: java com.bbn.openmap.layer.shape.ShapeFilePyramid [-t pixel tolerance] [-m] file.shp scale [scale...]");
+        System.out.println("Creates generalized copies of the shape file for map scales, named file.lod<scale>.shp");
+        System.out.println("Arguments:");
+        System.out.println("-t tolerance    Pixel distance vertices can be moved at each scale (default "
+                + DEFAULT_PIXEL_TOLERANCE + ")");
+        System.out.println("-m              Shape file coordinates are meters, not decimal degrees");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        ShapeFilePyramid pyramid = new ShapeFilePyramid();
+        String shpFileName = null;
+        float[] scales = new float[args.length];
+        int numScales = 0;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-t")) {
+                    pyramid.setPixelTolerance(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("-m")) {
+                    pyramid.setMeters(true);
+                } else if (shpFileName == null) {
+                    shpFileName = args[i];
+                } else {
+                    scales[numScales++] = Float.parseFloat(args[i]);
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            usage();
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            usage();
+        }
+
+        if (shpFileName == null || numScales == 0) {
+            usage();
+        }
+
+        float[] levelScales = new float[numScales];
+        System.arraycopy(scales, 0, levelScales, 0, numScales);
+        pyramid.create(shpFileName, levelScales);
+    }
+}
@@ -32,7 +32,9 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -77,6 +79,9 @@ import com.bbn.openmap.util.PropUtils;
  * shapeLayer.fillColor=ff000000
  * # plus any other properties used by the DrawingAttributes object.
  * shapeLayer.pointImageURL=&amp;ltURL for image to use for point objects&amp;gt
+ * # Optional, scales of generalized copies of the shape file made by the
+ * # ShapeFilePyramid, used instead of the shape file at those scales and smaller
+ * shapeLayer.lodScales=5000000 50000000
  *        
  *        
  * # Optionally, Rule marker names specified in space-separated list
@@ -134,6 +139,12 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
     /** The URL of an image to use for point objects. */
     public final static String pointImageURLProperty = "pointImageURL";
 
+    /**
+     * The scales of generalized copies of the shape file, created by the
+     * ShapeFilePyramid.
+     */
+    public final static String lodScalesProperty = "lodScales";
+
     /** The spatial index of the shape file to be rendered. */
     protected SpatialIndex spatialIndex;
 
@@ -142,9 +153,16 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
      */
     protected DrawingAttributes drawingAttributes = DrawingAttributes.getDefaultClone();
 
+    /**
+     * The generalized copies of the shape file. Replaced as a whole, so the
+     * scales and indexes used by a render always go together.
+     */
+    protected volatile Levels levels = new Levels(new float[0], new SpatialIndex[0]);
+
     // For writing out to properties file later.
     String shapeFileName = null;
     String imageURLString = null;
+    String lodScalesString = null;
 
     /**
      * Initializes an empty shape layer.
@@ -167,6 +185,88 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         return spatialIndex;
     }
 
+    /**
+     * Get the spatial index to use for a map scale, the one for the
+     * generalized copy of the shape file with the largest scale that isn't
+     * larger than the map scale, or the spatial index for the shape file if
+     * the map scale is larger than all of them.
+     * 
+     * @param scale the map scale.
+     * @return SpatialIndex, may be null if the shape file hasn't been set.
+     */
+    public SpatialIndex getSpatialIndex(float scale) {
+        Levels lod = levels;
+        SpatialIndex ret = spatialIndex;
+        for (int i = 0; i < lod.scales.length && lod.scales[i] <= scale; i++) {
+            ret = lod.indexes[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Set up the generalized copies of the shape file made by the
+     * ShapeFilePyramid. The copies share the dbf handler and point icon of the
+     * shape file, so this should be called after the spatial index for the
+     * shape file has been set up. Copies that can't be found are skipped.
+     * The spatial indexes of the copies being replaced aren't closed, since
+     * a render might still be using them, they're left for the garbage
+     * collector.
+     * 
+     * @param scales the scales of the copies.
+     */
+    protected void setLevels(String[] scales) {
+        float[] levelScales = new float[0];
+        SpatialIndex[] levelIndexes = new SpatialIndex[0];
+
+        if (scales != null && spatialIndex != null) {
+            TreeMap<Float, SpatialIndex> byScale = new TreeMap<Float, SpatialIndex>();
+            for (int i = 0; i < scales.length; i++) {
+                try {
+                    float scale = Float.parseFloat(scales[i]);
+                    String levelFileName = ShapeFilePyramid.getLevelFileName(shapeFileName, scale);
+                    if (!BinaryFile.exists(levelFileName)) {
+                        logger.warning(getName() + ": can't find " + levelFileName
+                                + ", create it with the ShapeFilePyramid");
+                        continue;
+                    }
+                    SpatialIndex si = SpatialIndex.locateAndSetShapeData(levelFileName);
+                    if (si != null) {
+                        si.setDbf(spatialIndex.getDbf());
+                        si.setPointIcon(spatialIndex.getPointIcon());
+                        byScale.put(Float.valueOf(scale), si);
+                    }
+                } catch (NumberFormatException nfe) {
+                    logger.warning(getName() + ": can't read scale " + scales[i]);
+                }
+            }
+
+            levelScales = new float[byScale.size()];
+            levelIndexes = new SpatialIndex[byScale.size()];
+            int i = 0;
+            for (Map.Entry<Float, SpatialIndex> entry : byScale.entrySet()) {
+                levelScales[i] = entry.getKey().floatValue();
+                levelIndexes[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        levels = new Levels(levelScales, levelIndexes);
+    }
+
+    /**
+     * The scales of the generalized copies of the shape file, smallest first,
+     * and their spatial indexes.
+     */
+    protected static class Levels {
+        protected final float[] scales;
+        protected final SpatialIndex[] indexes;
+
+        protected Levels(float[] scales, SpatialIndex[] indexes) {
+            this.scales = scales;
+            this.indexes = indexes;
+        }
+    }
+
     /**
      * A call-back method to override in case you want to change the BinaryFile
      * used to in the DbfHandler.
@@ -234,6 +334,9 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
             setSpatialIndex(spatialIndex);
 
+            lodScalesString = props.getProperty(realPrefix + lodScalesProperty);
+            setLevels(PropUtils.stringArrayFromProperties(props, realPrefix + lodScalesProperty, " "));
+
         } else {
             logger.warning(getName() + ": No Shape file was specified:\n\t" + realPrefix
                     + shapeFileProperty);
@@ -264,6 +367,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + shapeFileProperty, (shapeFileName == null ? "" : shapeFileName));
         props.put(prefix + pointImageURLProperty, (imageURLString == null ? "" : imageURLString));
+        props.put(prefix + lodScalesProperty, (lodScalesString == null ? "" : lodScalesString));
 
         if (drawingAttributes != null) {
             drawingAttributes.setPropertyPrefix(getPropertyPrefix());
@@ -307,11 +411,12 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, dummyMarker, "Rendering Attributes", "Attributes that determine how the shapes will be drawn.", "com.bbn.openmap.omGraphics.DrawingAttributesPropertyEditor");
 
         list.put(initPropertiesProperty, shapeFileProperty + " " + " " + pointImageURLProperty
-                + " " + dummyMarker + " "
+                + " " + lodScalesProperty + " " + dummyMarker + " "
                 + AddToBeanContextProperty + " " + MinScaleProperty + " " + MaxScaleProperty);
 
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, shapeFileProperty, shapeFileProperty, "Location of Shape file - .shp (File, CURL or relative file path).", "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, pointImageURLProperty, pointImageURLProperty, "Image file to use for map location of point data (optional).", "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, lodScalesProperty, lodScalesProperty, "Scales of generalized copies of the shape file made by the ShapeFilePyramid (optional).", null);
 
         return list;
     }
@@ -352,8 +457,19 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
      * @return OMGraphicList
      */
     public synchronized OMGraphicList prepare() {
+        return prepare(getProjection());
+    }
 
-        Projection projection = getProjection();
+    /**
+     * Create the OMGraphics for a projection using the shape file and
+     * SpatialIndex, without changing the layer's projection or list. If there
+     * isn't a SpatialIndex, the layer's current list is generated for the
+     * projection and returned.
+     * 
+     * @param projection the projection to create the OMGraphics for.
+     * @return OMGraphicList
+     */
+    public OMGraphicList prepare(Projection projection) {
 
         boolean DEBUG_FINE = logger.isLoggable(Level.FINE);
 
@@ -364,6 +480,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
             return new OMGraphicList();
         }
 
+        SpatialIndex spatialIndex = getSpatialIndex(projection.getScale());
+
         if (spatialIndex == null) {
             if (DEBUG_FINE) {
                 logger.fine(getName() + ": spatialIndex is null!");
@@ -403,8 +521,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
             try {
 
-                list = spatialIndex.getOMGraphics(ulLon, ymin, 180.0d, ymax, list, drawingAttributes, projection, coordTransform);
-                list = spatialIndex.getOMGraphics(-180.0d, ymin, lrLon, ymax, list, drawingAttributes, projection, coordTransform);
+                list = spatialIndex.getOMGraphicsAcrossDateline(ulLon, ymin, lrLon, ymax, list, drawingAttributes, projection, coordTransform);
 
             } catch (InterruptedIOException iioe) {
                 // This means that the thread has been interrupted,
@@ -462,6 +579,16 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         return list;
     }
 
+    /**
+     * A ShapeLayer with a SpatialIndex creates new OMGraphics for every
+     * projection, so several threads can render it at once. Subclasses are
+     * rendered one thread at a time, since they may prepare their lists
+     * differently, unless they override this method.
+     */
+    public boolean isConcurrentRenderingSupported() {
+        return getClass() == ShapeLayer.class && spatialIndex != null;
+    }
+
     protected transient JPanel box;
 
     public Component getGUI() {
@@ -526,5 +653,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
             spatialIndex.close(true);
         }
 
+        for (SpatialIndex si : levels.indexes) {
+            si.close(true);
+        }
     }
 }
\ No newline at end of file
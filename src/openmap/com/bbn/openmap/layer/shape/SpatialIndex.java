@@ -47,12 +47,13 @@ import com.bbn.openmap.dataAccess.shape.ShapeUtils;
 import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.io.MappedBinaryFile;
 import com.bbn.openmap.omGraphics.DrawingAttributes;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.AbstractGCT;
 import com.bbn.openmap.proj.coords.GeoCoordTransformation;
-import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.DataBounds;
 import com.bbn.openmap.util.PropUtils;
 
@@ -75,6 +76,9 @@ import com.bbn.openmap.util.PropUtils;
  *
  * <i>Creates spatial index <code>file.ssx</code> from shape file.shp</i>
  * java com.bbn.openmap.layer.shape.SpatialIndex -c file.shp
+ *
+ * <i>Creates R-tree file <code>file.ssr</code> for the spatial index of shape file.shp</i>
+ * java com.bbn.openmap.layer.shape.SpatialIndex -t file.shp
  * 
  * </pre>
  * 
@@ -105,6 +109,9 @@ public class SpatialIndex extends ShapeUtils {
     /** Size of the spatial index record in bytes. */
     public final static int SPATIAL_INDEX_RECORD_LENGTH = 40;
 
+    /** The number of index records transformed together when reading. */
+    protected final static int INDEX_READ_BATCH = 512;
+
     /** Default size for shape record buffer. */
     public final static int DEFAULT_SHAPE_RECORD_SIZE = 50000;
 
@@ -132,6 +139,17 @@ public class SpatialIndex extends ShapeUtils {
      */
     protected List<Entry> entries;
 
+    /**
+     * An R-tree over the entries, built the first time the index is searched,
+     * or read from the ssr file if one exists next to the shp file.
+     */
+    protected volatile SpatialIndexTree tree;
+
+    /**
+     * Whether local shp files should be memory mapped.
+     */
+    protected boolean memoryMapped = true;
+
     /**
      * A factory object to use to create OMGraphics from the shp file.
      */
@@ -191,6 +209,21 @@ public class SpatialIndex extends ShapeUtils {
         return ret;
     }
 
+    /**
+     * Figures out the ssr file name, the R-tree sidecar of the spatial index,
+     * from the shp file name.
+     * 
+     * @param shpFileName
+     * @return ssr file name created from shp file name.
+     */
+    public static String ssr(String shpFileName) {
+        String ret = null;
+        if (shpFileName != null) {
+            ret = shpFileName.substring(0, shpFileName.indexOf(".shp")) + ".ssr";
+        }
+        return ret;
+    }
+
     /**
      * Get the box boundary containing all the shapes.
      */
@@ -200,16 +233,40 @@ public class SpatialIndex extends ShapeUtils {
 
     /**
      * Method that can be overridden to adjust how the BinaryFile is created for
-     * shp files.
+     * shp files. Local files are memory mapped, unless memory mapping has been
+     * turned off.
      * 
      * @param shapeFileName The path to shape file, absolute, relative or URL
      * @return BinaryFile
      * @throws IOException if the shapeFileName can't be found.
      */
     protected synchronized BinaryFile getShpFile(String shapeFileName) throws IOException {
+        if (memoryMapped && MappedBinaryFile.canMap(shapeFileName)) {
+            try {
+                return new MappedBinaryFile(shapeFileName);
+            } catch (IOException ioe) {
+                logger.fine("couldn't map " + shapeFileName + ", reading it instead: "
+                        + ioe.getMessage());
+            }
+        }
         return new BinaryBufferedFile(shapeFileName);
     }
 
+    /**
+     * Set whether local shp files should be memory mapped. Mapped files are
+     * read without system calls or copies through read buffers, and stay
+     * mapped between reads. Set to false to read them through a file buffer.
+     * 
+     * @param memoryMapped true by default.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns the bounds of the shape file. If bounds don't exist, they are
      * read from the shape file header.
@@ -298,20 +355,11 @@ public class SpatialIndex extends ShapeUtils {
     public ESRIRecord[] locateRecords(double xmin, double ymin, double xmax, double ymax)
             throws IOException, FormatException {
 
-        boolean gatherBounds = false;
-
-        if (bounds == null) {
-            bounds = new ESRIBoundingBox();
-            gatherBounds = true;
-        }
-
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("locateRecords:\n\txmin: " + xmin + "; ymin: " + ymin + "\n\txmax: " + xmax
                     + "; ymax: " + ymax);
         }
 
-        byte ixRecord[] = new byte[SPATIAL_INDEX_RECORD_LENGTH];
-        int recNum = 0;
         Vector<ESRIRecord> v = new Vector<ESRIRecord>();
         int sRecordSize = DEFAULT_SHAPE_RECORD_SIZE;
         byte sRecord[] = new byte[sRecordSize];
@@ -320,99 +368,73 @@ public class SpatialIndex extends ShapeUtils {
             return null;
         }
 
-        BinaryBufferedFile ssx = new BinaryBufferedFile(ssx(shpFileName));
+        List<Entry> located = locateEntries(xmin, ymin, xmax, ymax, null);
+
         if (shp == null) {
             shp = getShpFile(shpFileName);
         }
 
         // Need to figure out what the shape type is...
-        ssx.seek(32);
-
-        // int shapeType = readLEInt(ssx);
-        // /
-        ssx.byteOrder(false);
-        int shapeType = ssx.readInteger();
-        // /
-        ssx.seek(100); // skip the file header
+        shp.seek(32);
+        shp.byteOrder(false);
+        int shapeType = shp.readInteger();
 
-        while (true) {
-            int result = ssx.read(ixRecord, 0, SPATIAL_INDEX_RECORD_LENGTH);
-            // if (result == -1) {
-            if (result <= 0) {
-                break;// EOF
-            } else {
-                recNum++;
-                double xmin2 = readLEDouble(ixRecord, 8);
-                double ymin2 = readLEDouble(ixRecord, 16);
-                double xmax2 = readLEDouble(ixRecord, 24);
-                double ymax2 = readLEDouble(ixRecord, 32);
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("Looking at rec num " + recNum);
-                    logger.finer("  " + xmin2 + ", " + ymin2 + "\n  " + xmax2 + ", " + ymax2);
-                }
+        for (Entry entry : located) {
+            int byteOffset = entry.getByteOffset();
 
-                if (gatherBounds) {
-                    bounds.addPoint(xmin2, ymin2);
-                    bounds.addPoint(xmax2, ymax2);
+            try {
+                shp.seek(byteOffset);
+                if (shp.read(sRecord, 0, SHAPE_RECORD_HEADER_LENGTH) < SHAPE_RECORD_HEADER_LENGTH) {
+                    logger.warning("Shapefile SpatialIndex couldn't read record header at "
+                            + byteOffset);
+                    break;
                 }
 
-                if (intersects(xmin, ymin, xmax, ymax, xmin2, ymin2, xmax2, ymax2)) {
-
-                    int offset = readBEInt(ixRecord, 0);
-                    int byteOffset = offset * 2;
-                    int contentLength = readBEInt(ixRecord, 4);
-                    int recordSize = (contentLength * 2) + 8;
-                    // System.out.print(".");
-                    // System.out.flush();
-
-                    if (recordSize < 0) {
-                        logger.warning("SpatialIndex: supposed to read record size of "
-                                + recordSize);
-                        break;
-                    }
+                int contentLength = readBEInt(sRecord, 4);
+                int recordSize = (contentLength * 2) + 8;
 
-                    if (recordSize > sRecordSize) {
-                        sRecordSize = recordSize;
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.finer("Shapefile SpatialIndex record size: " + sRecordSize);
-                        }
-                        sRecord = new byte[sRecordSize];
-                    }
+                if (recordSize < SHAPE_RECORD_HEADER_LENGTH) {
+                    logger.warning("SpatialIndex: supposed to read record size of " + recordSize);
+                    break;
+                }
 
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("going to shp byteOffset = " + byteOffset
-                                + " for record size = " + recordSize + ", offset = " + offset
-                                + ", shape type = " + shapeType);
+                if (recordSize > sRecordSize) {
+                    sRecordSize = recordSize;
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer("Shapefile SpatialIndex record size: " + sRecordSize);
                     }
+                    byte[] tmp = new byte[sRecordSize];
+                    System.arraycopy(sRecord, 0, tmp, 0, SHAPE_RECORD_HEADER_LENGTH);
+                    sRecord = tmp;
+                }
 
-                    try {
-                        shp.seek(byteOffset);
-                        int nBytes = shp.read(sRecord, 0, recordSize);
-                        if (nBytes < recordSize) {
-                            logger.warning("Shapefile SpatialIndex expected " + recordSize
-                                    + " bytes, but got " + nBytes + " bytes instead.");
-                        }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("going to shp byteOffset = " + byteOffset + " for record size = "
+                            + recordSize + ", shape type = " + shapeType);
+                }
 
-                        ESRIRecord record = makeESRIRecord(shapeType, sRecord, 0);
-                        v.addElement(record);
-                    } catch (IOException ioe) {
-                        logger.warning("SpatialIndex.locateRecords: IOException. ");
-                        ioe.printStackTrace();
-                        break;
-                    }
+                int contentSize = recordSize - SHAPE_RECORD_HEADER_LENGTH;
+                int nBytes = shp.read(sRecord, SHAPE_RECORD_HEADER_LENGTH, contentSize);
+                if (nBytes < contentSize) {
+                    logger.warning("Shapefile SpatialIndex expected " + contentSize
+                            + " bytes, but got " + nBytes + " bytes instead.");
                 }
+
+                ESRIRecord record = makeESRIRecord(shapeType, sRecord, 0);
+                v.addElement(record);
+            } catch (IOException ioe) {
+                logger.warning("SpatialIndex.locateRecords: IOException. ");
+                ioe.printStackTrace();
+                break;
             }
         }
 
         if (logger.isLoggable(Level.FINE)) {
-            logger.fine("Processed " + recNum + " records");
             logger.fine("Selected " + v.size() + " records");
         }
         int nRecords = v.size();
 
-        ssx.close();
         shp.close();
-        shp = null;
         ESRIRecord result[] = new ESRIRecord[nRecords];
         v.copyInto(result);
         return result;
@@ -473,6 +495,68 @@ public class SpatialIndex extends ShapeUtils {
                     + "; ymax: " + ymax);
         }
 
+        return getOMGraphics(locateEntries(xmin, ymin, xmax, ymax, dataProj), list, drawingAttributes, mapProj, dataProj);
+    }
+
+    /**
+     * Locates OMGraphics in the shape file that intersect with a rectangle
+     * that crosses the dateline, with one search of the spatial index. This
+     * gives the same results as calling getOMGraphics for the west to 180
+     * rectangle and then for the -180 to east rectangle, except that shapes
+     * that intersect both sides are only returned once.
+     * 
+     * @param west the western longitude of the rectangle, greater than east.
+     * @param south the smaller of the y coordinates
+     * @param east the eastern longitude of the rectangle.
+     * @param north the larger of the y coordinates
+     * @param list OMGraphicList to add OMGraphics to and return, if null one
+     *        will be created.
+     * @param drawingAttributes DrawingAttributes to set on the OMGraphics.
+     * @param mapProj the Map Projection for the OMGraphics so they can be
+     *        generated right after creation.
+     * @param dataProj for pre-projected data, a coordinate translator for the
+     *        data's projection to use to translate the coordinates to decimal
+     *        degree lat/lon. Can be null to leave the coordinates untouched.
+     * @return an OMGraphicList containing OMGraphics that intersect the given
+     *         rectangle
+     * @exception IOException if something goes wrong reading the files
+     */
+    public OMGraphicList getOMGraphicsAcrossDateline(double west, double south, double east,
+                                                     double north, OMGraphicList list,
+                                                     DrawingAttributes drawingAttributes,
+                                                     Projection mapProj,
+                                                     GeoCoordTransformation dataProj)
+            throws IOException, FormatException {
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("locateRecords across dateline:\n\twest: " + west + "; south: " + south
+                    + "\n\teast: " + east + "; north: " + north);
+        }
+
+        List<Entry> located = getTree(dataProj).queryAcrossDateline(west, south, east, north);
+        return getOMGraphics(located, list, drawingAttributes, mapProj, dataProj);
+    }
+
+    /**
+     * Creates OMGraphics from the shape file for the provided entries.
+     * 
+     * @param located the entries to read, usually from locateEntries.
+     * @param list OMGraphicList to add OMGraphics to and return, if null one
+     *        will be created.
+     * @param drawingAttributes DrawingAttributes to set on the OMGraphics.
+     * @param mapProj the Map Projection for the OMGraphics so they can be
+     *        generated right after creation.
+     * @param dataProj for pre-projected data, a coordinate translator for the
+     *        data's projection to use to translate the coordinates to decimal
+     *        degree lat/lon. Can be null to leave the coordinates untouched.
+     * @return an OMGraphicList containing OMGraphics for the entries.
+     * @exception IOException if something goes wrong reading the files
+     */
+    protected OMGraphicList getOMGraphics(List<Entry> located, OMGraphicList list,
+                                          DrawingAttributes drawingAttributes, Projection mapProj,
+                                          GeoCoordTransformation dataProj)
+            throws IOException, FormatException {
+
         if (list == null) {
             list = new OMGraphicList();
         }
@@ -481,14 +565,26 @@ public class SpatialIndex extends ShapeUtils {
         DbfHandler dbfFile = dbf;
 
         if (shpFile == null) {
-            shp = getShpFile(shpFileName);
-            shpFile = shp;
+            synchronized (this) {
+                if (shp == null) {
+                    shp = getShpFile(shpFileName);
+                }
+                shpFile = shp;
+            }
         }
 
         if (shpFile == null) {
             return list;
         }
 
+        // A mapped file can be read by several threads at once, each with its
+        // own file pointer. Otherwise, the threads take turns with the file.
+        boolean sharedFile = true;
+        if (shpFile instanceof MappedBinaryFile) {
+            shpFile = ((MappedBinaryFile) shpFile).duplicate();
+            sharedFile = false;
+        }
+
         EsriGraphicFactory.ReadByteTracker byteTracker = new EsriGraphicFactory.ReadByteTracker();
         EsriGraphicFactory factory = getFactory();
         factory.setDataCoordTransformation(dataProj);
@@ -496,56 +592,161 @@ public class SpatialIndex extends ShapeUtils {
         OMGraphicList labels = new OMGraphicList();
         list.add(labels);
 
-        for (Iterator<?> it = entryIterator(dataProj); it.hasNext();) {
-            Entry entry = (Entry) it.next();
-
-            if (entry.intersects(xmin, ymin, xmax, ymax)) {
+        for (Entry entry : located) {
 
-                try {
+            try {
 
-                    OMGraphic omg = (OMGraphic) factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shpFile, drawingAttributes, pointIcon, byteTracker);
+                OMGraphic omg;
+                if (sharedFile) {
+                    synchronized (shpFile) {
+                        omg = factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shpFile, drawingAttributes, pointIcon, byteTracker);
+                    }
+                } else {
+                    omg = factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shpFile, drawingAttributes, pointIcon, byteTracker);
+                }
 
-                    if (omg != null) {
+                if (omg != null) {
 
-                        if (dbfFile != null) {
+                    if (dbfFile != null) {
+                        synchronized (dbfFile) {
                             omg = dbfFile.evaluate(omg, labels, mapProj);
-
-                            if (omg == null) {
-                                // Failed dbf test, should be ignored.
-                                continue;
-                            }
                         }
 
-                        if (mapProj != null) {
-                            omg.generate(mapProj);
+                        if (omg == null) {
+                            // Failed dbf test, should be ignored.
+                            continue;
                         }
-                        list.add(omg);
                     }
 
-                } catch (IOException ioe) {
-                    logger.warning("IOException message: " + ioe.getMessage());
-                    ioe.printStackTrace();
-                    break;
+                    if (mapProj != null) {
+                        omg.generate(mapProj);
+                    }
+                    list.add(omg);
                 }
+
+            } catch (IOException ioe) {
+                logger.warning("IOException message: " + ioe.getMessage());
+                ioe.printStackTrace();
+                break;
             }
         }
 
-        if (shpFile != null) {
-            shpFile.close();
-            // Not sure why we want to set this null here. It's cleaner, but a
-            // new
-            // BinaryFile object is created for every projection change.
-            // shp = null;
+        if (sharedFile) {
+            synchronized (shpFile) {
+                shpFile.close();
+            }
         }
 
         if (dbfFile != null) {
-            dbfFile.close();
+            synchronized (dbfFile) {
+                dbfFile.close();
+            }
         }
 
         return list;
 
     }
 
+    /**
+     * Searches the spatial index for the entries intersecting a rectangle.
+     * 
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @param dataTransform GeoCoordTransform for pre-projected data, used if
+     *        the index hasn't been read yet.
+     * @return List of entries in shape file record order.
+     * @throws IOException
+     * @throws FormatException
+     */
+    public List<Entry> locateEntries(double xmin, double ymin, double xmax, double ymax,
+                                     GeoCoordTransformation dataTransform)
+            throws IOException, FormatException {
+        return getTree(dataTransform).query(xmin, ymin, xmax, ymax);
+    }
+
+    /**
+     * Returns the R-tree over the spatial index entries, reading it from the
+     * ssr file or building it from the entries the first time it's needed.
+     * 
+     * @param dataTransform GeoCoordTransform for pre-projected data, used if
+     *        the index hasn't been read yet. The ssr file is only used for
+     *        unprojected data.
+     * @return SpatialIndexTree
+     * @throws IOException
+     * @throws FormatException
+     */
+    public SpatialIndexTree getTree(GeoCoordTransformation dataTransform) throws IOException,
+            FormatException {
+        SpatialIndexTree treeHandle = tree;
+        if (treeHandle != null) {
+            return treeHandle;
+        }
+
+        synchronized (this) {
+            treeHandle = tree;
+            if (treeHandle != null) {
+                return treeHandle;
+            }
+
+            if (entries == null && dataTransform == null) {
+                treeHandle = readTreeFile();
+                if (treeHandle != null) {
+                    entries = treeHandle.getEntries();
+                    if (bounds == null) {
+                        bounds = new ESRIBoundingBox();
+                        for (Entry entry : entries) {
+                            entry.addToBounds(bounds);
+                        }
+                    }
+                }
+            }
+
+            if (treeHandle == null) {
+                // Makes sure the entries are loaded.
+                entryIterator(dataTransform);
+                treeHandle = new SpatialIndexTree(entries);
+            }
+
+            tree = treeHandle;
+        }
+        return treeHandle;
+    }
+
+    /**
+     * Reads the ssr file next to the shp file, if it exists and isn't older
+     * than the ssx file.
+     * 
+     * @return SpatialIndexTree, or null if the file isn't available.
+     */
+    protected SpatialIndexTree readTreeFile() {
+        if (shpFileName == null) {
+            return null;
+        }
+
+        String ssrFileName = ssr(shpFileName);
+        if (!BinaryFile.exists(ssrFileName)) {
+            return null;
+        }
+
+        File ssrFile = new File(ssrFileName);
+        File ssxFile = new File(ssx(shpFileName));
+        if (ssrFile.exists() && ssxFile.exists() && ssrFile.lastModified() < ssxFile.lastModified()) {
+            logger.info("ignoring " + ssrFileName + ", it is older than the ssx file");
+            return null;
+        }
+
+        try {
+            return SpatialIndexTree.read(ssrFileName);
+        } catch (IOException ioe) {
+            logger.warning("couldn't read " + ssrFileName + ": " + ioe.getMessage());
+        } catch (FormatException fe) {
+            logger.warning("couldn't read " + ssrFileName + ": " + fe.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Retrieves all OMGraphics in the shape file.
      * 
@@ -734,49 +935,83 @@ public class SpatialIndex extends ShapeUtils {
         ssx.byteOrder(false);
         ssx.seek(100); // skip the file header
 
-        LatLonPoint llp = null;
-        if (dataTransform != null) {
-            llp = new LatLonPoint.Double();
-        }
+        // The bounds of the records are gathered in batches, so the data
+        // transform can convert a batch of corners at once.
+        double[] corners = new double[INDEX_READ_BATCH * 4];
+        int[] offsets = new int[INDEX_READ_BATCH];
+        int count = 0;
 
         while (true) {
             int result = ssx.read(ixRecord, 0, SPATIAL_INDEX_RECORD_LENGTH);
             if (result <= 0) {
                 break;// EOF
             } else {
-                double xmin = readLEDouble(ixRecord, 8);
-                double ymin = readLEDouble(ixRecord, 16);
-                double xmax = readLEDouble(ixRecord, 24);
-                double ymax = readLEDouble(ixRecord, 32);
-                int byteOffset = readBEInt(ixRecord, 0) * 2;
-
-                if (dataTransform != null) {
-                    llp = dataTransform.inverse(xmin, ymin, llp);
-                    xmin = llp.getX();
-                    ymin = llp.getY();
-                    llp = dataTransform.inverse(xmax, ymax, llp);
-                    xmax = llp.getX();
-                    ymax = llp.getY();
+                int c = count * 4;
+                corners[c] = readLEDouble(ixRecord, 8);
+                corners[c + 1] = readLEDouble(ixRecord, 16);
+                corners[c + 2] = readLEDouble(ixRecord, 24);
+                corners[c + 3] = readLEDouble(ixRecord, 32);
+                offsets[count] = readBEInt(ixRecord, 0) * 2;
+
+                if (++count == INDEX_READ_BATCH) {
+                    addEntries(entries, bounds, corners, offsets, count, dataTransform);
+                    count = 0;
                 }
+            }
+        }
+        addEntries(entries, bounds, corners, offsets, count, dataTransform);
 
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("entry:\t" + xmin + ", " + ymin + "\n\t" + xmax + ", " + ymax);
-                }
+        ssx.close();
 
-                Entry entry = new Entry(xmin, ymin, xmax, ymax, byteOffset);
-                entries.add(entry);
+        return entries;
 
-                if (bounds != null) {
-                    bounds.addPoint(xmin, ymin);
-                    bounds.addPoint(xmax, ymax);
-                }
+    }
+
+    /**
+     * Create entries for a batch of index records.
+     * 
+     * @param entries the list to add the entries to.
+     * @param bounds if not null, add min/max values to them.
+     * @param corners xmin, ymin, xmax, ymax for each record, converted in
+     *        place to decimal degrees if there is a data transform.
+     * @param offsets the byte offsets for the records.
+     * @param count the number of records in the batch.
+     * @param dataTransform GeoCoordTransform for pre-projected data.
+     */
+    private void addEntries(List<Entry> entries, ESRIBoundingBox bounds, double[] corners,
+                            int[] offsets, int count, GeoCoordTransformation dataTransform) {
+        if (count == 0) {
+            return;
+        }
+
+        if (dataTransform != null) {
+            // x, y pairs in, lat, lon pairs out, swap them back.
+            AbstractGCT.inverse(dataTransform, corners, 0, corners, 0, count * 2);
+            for (int j = 0; j < count * 4; j += 2) {
+                double lat = corners[j];
+                corners[j] = corners[j + 1];
+                corners[j + 1] = lat;
             }
         }
 
-        ssx.close();
+        for (int i = 0; i < count; i++) {
+            int c = i * 4;
+            double xmin = corners[c];
+            double ymin = corners[c + 1];
+            double xmax = corners[c + 2];
+            double ymax = corners[c + 3];
 
-        return entries;
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("entry:\t" + xmin + ", " + ymin + "\n\t" + xmax + ", " + ymax);
+            }
 
+            entries.add(new Entry(xmin, ymin, xmax, ymax, offsets[i]));
+
+            if (bounds != null) {
+                bounds.addPoint(xmin, ymin);
+                bounds.addPoint(xmax, ymax);
+            }
+        }
     }
 
     /**
@@ -855,6 +1090,10 @@ public class SpatialIndex extends ShapeUtils {
         out.println("java " + className + " -c file.shp");
         out.println("Creates spatial index <file.ssx> from " + "shape file <file.shp>.");
         out.println();
+        out.println("java " + className + " -t file.shp");
+        out.println("Creates R-tree file <file.ssr> for the spatial index of "
+                + "shape file <file.shp>.");
+        out.println();
         out.println("java " + className + " -d file.shp");
         out.println("Dumps spatial index information, excluding "
                 + "bounding boxes to stdout.  Useful for " + "comparing to a shape index.");
@@ -979,6 +1218,15 @@ public class SpatialIndex extends ShapeUtils {
         } else if ((argc == 2) && argv[0].equals("-c")) {
             String shapeFile = argv[1];
             SpatialIndex.FileIndex.create(shapeFile);
+        } else if ((argc == 2) && argv[0].equals("-t")) {
+            String shapeFile = argv[1];
+            SpatialIndex si = new SpatialIndex(shapeFile);
+            try {
+                new SpatialIndexTree(si.readIndexFile(null)).write(ssr(shapeFile));
+            } catch (FormatException fe) {
+                logger.warning("Problem reading spatial index: " + fe.getMessage());
+                System.exit(1);
+            }
         } else {
             printUsage(System.err);
             System.exit(1);
@@ -1011,7 +1259,12 @@ public class SpatialIndex extends ShapeUtils {
     public boolean close(boolean done) {
         try {
             if (shp != null) {
-                shp.close();
+                if (done) {
+                    // Releases memory mapped files, too.
+                    shp.dispose();
+                } else {
+                    shp.close();
+                }
             }
 
             if (done) {
@@ -1023,6 +1276,10 @@ public class SpatialIndex extends ShapeUtils {
                 entries = null;
             }
 
+            if (done) {
+                tree = null;
+            }
+
             return true;
         } catch (IOException ioe) {
 
@@ -0,0 +1,468 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * A static, Sort-Tile-Recursive (STR) packed R-tree over the entries of a
+ * SpatialIndex. The tree is built once from the list of SpatialIndex.Entry
+ * objects (or read from a sidecar file next to the .ssx file), and then
+ * answers bounding box queries in O(log n + k) instead of testing every entry
+ * in the index.
+ * <p>
+ * The nodes are held in flat arrays. The leaf nodes come first, each one
+ * referring to a contiguous run of entries in the entries array, followed by
+ * each higher level of the tree, each node referring to a contiguous run of
+ * nodes in the level below it. The root is the last node.
+ * <p>
+ * Query results are returned in shape file record order, so the rendering
+ * order of the OMGraphics created from them matches the order they would be
+ * rendered if the whole index was scanned.
+ *
+ * <pre>
+ *
+ * <i>Creates the R-tree sidecar file <code>file.ssr</code> for shape file.shp</i>
+ * java com.bbn.openmap.layer.shape.SpatialIndex -t file.shp
+ *
+ * </pre>
+ *
+ * @see SpatialIndex
+ */
+public class SpatialIndexTree {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.SpatialIndexTree");
+
+    /** The default number of children for each node in the tree. */
+    public final static int DEFAULT_NODE_CAPACITY = 16;
+
+    /** The magic number at the beginning of the sidecar file, "SSTR". */
+    public final static int FILE_MAGIC = 0x53535452;
+
+    /** The version of the sidecar file format. */
+    public final static int FILE_VERSION = 1;
+
+    /** Size of the sidecar file header in bytes. */
+    public final static int FILE_HEADER_LENGTH = 24;
+
+    /** Size of each node record in the sidecar file, in bytes. */
+    public final static int FILE_NODE_RECORD_LENGTH = 40;
+
+    /** Size of each entry record in the sidecar file, in bytes. */
+    public final static int FILE_ENTRY_RECORD_LENGTH = 36;
+
+    /**
+     * Orders entries by their byte offset, which is the order of the records
+     * in the shape file.
+     */
+    protected final static Comparator<SpatialIndex.Entry> RECORD_ORDER = new Comparator<SpatialIndex.Entry>() {
+        public int compare(SpatialIndex.Entry e1, SpatialIndex.Entry e2) {
+            return e1.byteOffset < e2.byteOffset ? -1 : (e1.byteOffset == e2.byteOffset ? 0 : 1);
+        }
+    };
+
+    protected int nodeCapacity;
+    protected SpatialIndex.Entry[] entries;
+
+    protected double[] nodeXMin;
+    protected double[] nodeYMin;
+    protected double[] nodeXMax;
+    protected double[] nodeYMax;
+    protected int[] nodeFirst;
+    protected int[] nodeCount;
+
+    /**
+     * The number of leaf nodes, which are stored first in the node arrays.
+     * Leaf children are indexes into the entries array, the children of the
+     * other nodes are indexes into the node arrays.
+     */
+    protected int leafCount;
+
+    /**
+     * Build a tree over the entries, using the default node capacity.
+     *
+     * @param entryList the entries to index, the list isn't modified.
+     */
+    public SpatialIndexTree(List<SpatialIndex.Entry> entryList) {
+        this(entryList, DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * Build a tree over the entries.
+     *
+     * @param entryList the entries to index, the list isn't modified.
+     * @param nodeCapacity the maximum number of children for each node.
+     */
+    public SpatialIndexTree(List<SpatialIndex.Entry> entryList, int nodeCapacity) {
+        this.nodeCapacity = Math.max(2, nodeCapacity);
+        entries = entryList.toArray(new SpatialIndex.Entry[entryList.size()]);
+        pack();
+    }
+
+    /**
+     * Used when reading a tree from a file.
+     */
+    protected SpatialIndexTree() {
+    }
+
+    /**
+     * Sort-Tile-Recursive packing of the entries and the nodes above them.
+     */
+    protected void pack() {
+        List<Node> level = new ArrayList<Node>();
+        int n = entries.length;
+
+        strSort(entries, 0, n, ENTRY_X, ENTRY_Y);
+        for (int i = 0; i < n; i += nodeCapacity) {
+            Node leaf = new Node(i, Math.min(nodeCapacity, n - i));
+            for (int j = leaf.first; j < leaf.first + leaf.count; j++) {
+                SpatialIndex.Entry entry = entries[j];
+                leaf.add(entry.xMin, entry.yMin, entry.xMax, entry.yMax);
+            }
+            level.add(leaf);
+        }
+
+        leafCount = level.size();
+        List<Node> nodes = new ArrayList<Node>();
+
+        while (level.size() > 1) {
+            Node[] children = level.toArray(new Node[level.size()]);
+            strSort(children, 0, children.length, NODE_X, NODE_Y);
+
+            int offset = nodes.size();
+            nodes.addAll(Arrays.asList(children));
+
+            level = new ArrayList<Node>();
+            for (int i = 0; i < children.length; i += nodeCapacity) {
+                Node parent = new Node(offset + i, Math.min(nodeCapacity, children.length - i));
+                for (int j = i; j < i + parent.count; j++) {
+                    Node child = children[j];
+                    parent.add(child.xMin, child.yMin, child.xMax, child.yMax);
+                }
+                level.add(parent);
+            }
+        }
+
+        // The root, or the only leaf, or nothing for an empty index.
+        nodes.addAll(level);
+
+        int nodeTotal = nodes.size();
+        allocateNodes(nodeTotal);
+        for (int i = 0; i < nodeTotal; i++) {
+            Node node = nodes.get(i);
+            nodeXMin[i] = node.xMin;
+            nodeYMin[i] = node.yMin;
+            nodeXMax[i] = node.xMax;
+            nodeYMax[i] = node.yMax;
+            nodeFirst[i] = node.first;
+            nodeCount[i] = node.count;
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("packed " + n + " entries into " + leafCount + " leaves, " + nodeTotal
+                    + " nodes");
+        }
+    }
+
+    protected void allocateNodes(int nodeTotal) {
+        nodeXMin = new double[nodeTotal];
+        nodeYMin = new double[nodeTotal];
+        nodeXMax = new double[nodeTotal];
+        nodeYMax = new double[nodeTotal];
+        nodeFirst = new int[nodeTotal];
+        nodeCount = new int[nodeTotal];
+    }
+
+    /**
+     * Sorts the objects into vertical slices by x center, and each slice by y
+     * center, so that each run of nodeCapacity objects are close together.
+     */
+    protected <T> void strSort(T[] objs, int from, int to, Comparator<T> xOrder,
+                               Comparator<T> yOrder) {
+        int n = to - from;
+        if (n <= nodeCapacity) {
+            return;
+        }
+
+        int numNodes = (n + nodeCapacity - 1) / nodeCapacity;
+        int numSlices = (int) Math.ceil(Math.sqrt(numNodes));
+        int sliceSize = numSlices * nodeCapacity;
+
+        Arrays.sort(objs, from, to, xOrder);
+        for (int i = from; i < to; i += sliceSize) {
+            Arrays.sort(objs, i, Math.min(to, i + sliceSize), yOrder);
+        }
+    }
+
+    /**
+     * @return the number of entries in the tree.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return the entries held by the tree, in shape file record order.
+     */
+    public List<SpatialIndex.Entry> getEntries() {
+        List<SpatialIndex.Entry> ret = new ArrayList<SpatialIndex.Entry>(Arrays.asList(entries));
+        Collections.sort(ret, RECORD_ORDER);
+        return ret;
+    }
+
+    /**
+     * Find the entries that intersect the bounding box.
+     *
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @return List of entries, in shape file record order.
+     */
+    public List<SpatialIndex.Entry> query(double xmin, double ymin, double xmax, double ymax) {
+        return query(xmin, ymin, xmax, ymax, false);
+    }
+
+    /**
+     * Find the entries that intersect a bounding box crossing the dateline,
+     * i.e. the entries intersecting either the west to 180 box or the -180 to
+     * east box, with one traversal of the tree. An entry intersecting both
+     * sides is only returned once.
+     *
+     * @param west the western limit of the box.
+     * @param south the southern limit of the box.
+     * @param east the eastern limit of the box.
+     * @param north the northern limit of the box.
+     * @return List of entries, in shape file record order.
+     */
+    public List<SpatialIndex.Entry> queryAcrossDateline(double west, double south, double east,
+                                                        double north) {
+        return query(west, south, east, north, true);
+    }
+
+    protected List<SpatialIndex.Entry> query(double west, double south, double east,
+                                             double north, boolean wrap) {
+        List<SpatialIndex.Entry> ret = new ArrayList<SpatialIndex.Entry>();
+        int numNodes = nodeFirst.length;
+        if (numNodes == 0) {
+            return ret;
+        }
+
+        int[] stack = new int[nodeCapacity * 8];
+        int top = 0;
+        stack[top++] = numNodes - 1;
+
+        while (top > 0) {
+            int node = stack[--top];
+            if (!intersects(west, south, east, north, wrap, nodeXMin[node], nodeYMin[node], nodeXMax[node], nodeYMax[node])) {
+                continue;
+            }
+
+            int first = nodeFirst[node];
+            int last = first + nodeCount[node];
+
+            if (node < leafCount) {
+                for (int i = first; i < last; i++) {
+                    SpatialIndex.Entry entry = entries[i];
+                    if (intersects(west, south, east, north, wrap, entry.xMin, entry.yMin, entry.xMax, entry.yMax)) {
+                        ret.add(entry);
+                    }
+                }
+            } else {
+                if (top + nodeCapacity > stack.length) {
+                    int[] tmp = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, tmp, 0, top);
+                    stack = tmp;
+                }
+                for (int i = last - 1; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+
+        Collections.sort(ret, RECORD_ORDER);
+        return ret;
+    }
+
+    protected final static boolean intersects(double west, double south, double east,
+                                              double north, boolean wrap, double xMin,
+                                              double yMin, double xMax, double yMax) {
+        if (wrap) {
+            return SpatialIndex.intersects(west, south, 180.0, north, xMin, yMin, xMax, yMax)
+                    || SpatialIndex.intersects(-180.0, south, east, north, xMin, yMin, xMax, yMax);
+        }
+        return SpatialIndex.intersects(west, south, east, north, xMin, yMin, xMax, yMax);
+    }
+
+    /**
+     * Write the tree to a sidecar file, so it doesn't have to be built the
+     * next time the shape file is opened. The file contains the entries too,
+     * so the .ssx file doesn't have to be read when the tree file is used.
+     *
+     * @param fileName the path to the file to write.
+     * @throws IOException
+     */
+    public void write(String fileName) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            int numNodes = nodeFirst.length;
+            dos.writeInt(FILE_MAGIC);
+            dos.writeInt(FILE_VERSION);
+            dos.writeInt(nodeCapacity);
+            dos.writeInt(entries.length);
+            dos.writeInt(numNodes);
+            dos.writeInt(leafCount);
+
+            for (int i = 0; i < numNodes; i++) {
+                dos.writeDouble(nodeXMin[i]);
+                dos.writeDouble(nodeYMin[i]);
+                dos.writeDouble(nodeXMax[i]);
+                dos.writeDouble(nodeYMax[i]);
+                dos.writeInt(nodeFirst[i]);
+                dos.writeInt(nodeCount[i]);
+            }
+
+            for (SpatialIndex.Entry entry : entries) {
+                dos.writeDouble(entry.xMin);
+                dos.writeDouble(entry.yMin);
+                dos.writeDouble(entry.xMax);
+                dos.writeDouble(entry.yMax);
+                dos.writeInt(entry.byteOffset);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Read a tree from a sidecar file written with write().
+     *
+     * @param fileName the path to the file, absolute, relative or URL.
+     * @return SpatialIndexTree
+     * @throws IOException
+     * @throws FormatException if the file isn't a tree file.
+     */
+    public static SpatialIndexTree read(String fileName) throws IOException, FormatException {
+        BinaryFile bf = new BinaryBufferedFile(fileName);
+        try {
+            bf.byteOrder(true);
+            if (bf.readInteger() != FILE_MAGIC) {
+                throw new FormatException("SpatialIndexTree: " + fileName
+                        + " is not a spatial index tree file");
+            }
+            int version = bf.readInteger();
+            if (version != FILE_VERSION) {
+                throw new FormatException("SpatialIndexTree: unsupported file version " + version);
+            }
+
+            SpatialIndexTree tree = new SpatialIndexTree();
+            tree.nodeCapacity = bf.readInteger();
+            int numEntries = bf.readInteger();
+            int numNodes = bf.readInteger();
+            tree.leafCount = bf.readInteger();
+
+            long expected = FILE_HEADER_LENGTH + (long) numNodes * FILE_NODE_RECORD_LENGTH
+                    + (long) numEntries * FILE_ENTRY_RECORD_LENGTH;
+            if (numEntries < 0 || numNodes < 0 || bf.length() < expected) {
+                throw new FormatException("SpatialIndexTree: " + fileName + " is truncated");
+            }
+
+            tree.allocateNodes(numNodes);
+            for (int i = 0; i < numNodes; i++) {
+                tree.nodeXMin[i] = bf.readDouble();
+                tree.nodeYMin[i] = bf.readDouble();
+                tree.nodeXMax[i] = bf.readDouble();
+                tree.nodeYMax[i] = bf.readDouble();
+                tree.nodeFirst[i] = bf.readInteger();
+                tree.nodeCount[i] = bf.readInteger();
+            }
+
+            tree.entries = new SpatialIndex.Entry[numEntries];
+            for (int i = 0; i < numEntries; i++) {
+                double xMin = bf.readDouble();
+                double yMin = bf.readDouble();
+                double xMax = bf.readDouble();
+                double yMax = bf.readDouble();
+                tree.entries[i] = new SpatialIndex.Entry(xMin, yMin, xMax, yMax, bf.readInteger());
+            }
+
+            return tree;
+        } finally {
+            bf.close();
+        }
+    }
+
+    /**
+     * Bounding box accumulator used while packing the tree.
+     */
+    protected static class Node {
+        double xMin = Double.POSITIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        int first;
+        int count;
+
+        Node(int first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        void add(double x1, double y1, double x2, double y2) {
+            xMin = Math.min(xMin, x1);
+            yMin = Math.min(yMin, y1);
+            xMax = Math.max(xMax, x2);
+            yMax = Math.max(yMax, y2);
+        }
+    }
+
+    protected final static Comparator<SpatialIndex.Entry> ENTRY_X = new Comparator<SpatialIndex.Entry>() {
+        public int compare(SpatialIndex.Entry e1, SpatialIndex.Entry e2) {
+            return Double.compare(e1.xMin + e1.xMax, e2.xMin + e2.xMax);
+        }
+    };
+
+    protected final static Comparator<SpatialIndex.Entry> ENTRY_Y = new Comparator<SpatialIndex.Entry>() {
+        public int compare(SpatialIndex.Entry e1, SpatialIndex.Entry e2) {
+            return Double.compare(e1.yMin + e1.yMax, e2.yMin + e2.yMax);
+        }
+    };
+
+    protected final static Comparator<Node> NODE_X = new Comparator<Node>() {
+        public int compare(Node n1, Node n2) {
+            return Double.compare(n1.xMin + n1.xMax, n2.xMin + n2.xMax);
+        }
+    };
+
+    protected final static Comparator<Node> NODE_Y = new Comparator<Node>() {
+        public int compare(Node n1, Node n2) {
+            return Double.compare(n1.yMin + n1.yMax, n2.yMin + n2.yMax);
+        }
+    };
+}
@@ -540,10 +540,8 @@ public class AreaHandler implements PropertyConsumer {
 
             try {
 
-                list = spatialIndex.getOMGraphics(ulLon, ymin, 180.0d, ymax, list,
-                                                  drawingAttributes, proj, coordTransform);
-                list = spatialIndex.getOMGraphics(-180.0d, ymin, lrLon, ymax, list,
-                                                  drawingAttributes, proj, coordTransform);
+                list = spatialIndex.getOMGraphicsAcrossDateline(ulLon, ymin, lrLon, ymax, list,
+                                                                drawingAttributes, proj, coordTransform);
 
             } catch (InterruptedIOException iioe) {
                 // This means that the thread has been interrupted,
@@ -26,8 +26,6 @@ import java.awt.Color;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 
-import com.bbn.openmap.MoreMath;
-import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
 import com.bbn.openmap.event.LayerStatusEvent;
 import com.bbn.openmap.event.ProgressEvent;
 import com.bbn.openmap.event.ProgressListener;
@@ -253,15 +251,10 @@ public class LOSGenerator implements TerrainTool {
 
     /**
      * Takes the member settings and manages the creation of the
-     * image. A large vector of slope values are created, depending on
-     * the size of the circle, and how many pixels are around it. Each
-     * entry in the vector is the value of the largest slope value in
-     * that direction. The image is created from the inside out, pixel
-     * by pixel. The slope from the pixel to the center is calculated,
-     * and then compared with the value for that direction (in the
-     * vector). If the pixel's slope is larger, the point is visible,
-     * and is colored that way. The vector is updated, and the cycle
-     * continues.
+     * image. A ViewshedGenerator sweeps rays out from the center to
+     * the edge of the circle, with a sample for each pixel of
+     * radius, and each pixel inside the circle is then colored by
+     * whether the Viewshed says its location is visible.
      */
     public synchronized void createLOSImage() {
         if (Debug.debugging("los")) {
@@ -273,96 +266,54 @@ public class LOSGenerator implements TerrainTool {
             return;
         }
 
-        int squareRadius = LOSedge / 2 + 1;
-        int[] newPixels = new int[LOSedge * LOSedge];
-        float[] azimuthVals = new float[8 * (squareRadius - 1)];
-        // center point of raster
-        newPixels[((LOSedge / 2) * LOSedge) + squareRadius] = MAYBEVISIBLE;
-
-        if (Debug.debugging("los")) {
-            Debug.output("createLOSimage: size of azimuth array = "
-                    + azimuthVals.length);
-        }
-
         fireProgressUpdate(ProgressEvent.START,
                 "Building LOS Image Mask...",
                 0,
                 100);
-        int x, y;
-        boolean mark = false;
-        int markColor = colortable[INVISIBLE];
-        int range;
-        float pix_arc_interval = (float) (2 * Math.PI / azimuthVals.length);
-        //  Do this in a spiral, around the center point.
-        for (int round = 1; round < squareRadius; round++) {
-            if (Debug.debugging("los")) {
-                Debug.output("createLOSimage: round " + round);
-            }
-            y = LOScenterP.y - round;
-            x = LOScenterP.x - round;
-
-            if (round == 1) {
-                mark = true;
-                markColor = colortable[MAYBEVISIBLE];
-            }
 
-            else
-                mark = false;
-
-            if (LOSprecision == AZIMUTH) { // As of now, this is the
-                // only option
-                range = ((LOSedge * 4) - 4) / (round * 16);
-                for (; x < LOScenterP.x + round; x++)
-                    // top
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y < LOScenterP.y + round; y++)
-                    // right
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; x > LOScenterP.x - round; x--)
-                    // bottom
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y > LOScenterP.y - round; y--)
-                    // left
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-            }
+        int pixelRadius = (LOSedge - 1) / 2;
+        LatLonPoint edge = proj.inverse(LOScenterP.x + pixelRadius,
+                LOScenterP.y,
+                new LatLonPoint.Double());
+        double radius = Math.max(1.0, LOScenterLLP.distance(edge)
+                * Planet.wgs84_earthEquatorialRadiusMeters);
 
-            int whereWeAre = (int) (100f * ((float) round / (float) squareRadius));
-            fireProgressUpdate(ProgressEvent.UPDATE,
-                    "Analyzing data...",
-                    whereWeAre,
-                    100);
+        ViewshedGenerator generator = new ViewshedGenerator(layer.frameCache);
+        Viewshed viewshed = generator.generate(LOScenterLLP.getLatitude(),
+                LOScenterLLP.getLongitude(),
+                LOSobjectHeight,
+                radius,
+                Math.max(1, pixelRadius));
 
+        if (Debug.debugging("los")) {
+            Debug.output("createLOSimage: " + viewshed);
         }
 
-        fireProgressUpdate(ProgressEvent.UPDATE, "Creating Mask", 100, 100);
+        fireProgressUpdate(ProgressEvent.UPDATE, "Creating Mask", 50, 100);
+
+        int[] newPixels = new int[LOSedge * LOSedge];
+        int ox = LOScenterP.x - LOSedge / 2;
+        int oy = LOScenterP.y - LOSedge / 2;
+        LatLonPoint cord = new LatLonPoint.Double();
+        for (int y = 0; y < LOSedge; y++) {
+            for (int x = 0; x < LOSedge; x++) {
+                int dist = TerrainLayer.numPixelsBetween(LOScenterP.x,
+                        LOScenterP.y,
+                        x + ox,
+                        y + oy);
+                int color = colortable[INVISIBLE];
+                if (dist == pixelRadius || dist <= 1) {
+                    color = colortable[MAYBEVISIBLE];
+                } else if (dist < pixelRadius) {
+                    proj.inverse(x + ox, y + oy, cord);
+                    if (viewshed.isVisible(cord.getLatitude(),
+                            cord.getLongitude())) {
+                        color = colortable[VISIBLE];
+                    }
+                }
+                newPixels[x + y * LOSedge] = color;
+            }
+        }
 
         LOSimage = new OMRaster(LOScenterLLP.getLatitude(), LOScenterLLP.getLongitude(), (-1 - LOSedge / 2), (-1 - LOSedge / 2), LOSedge, LOSedge, newPixels);
         LOSimage.generate(proj);
@@ -376,133 +327,6 @@ public class LOSGenerator implements TerrainTool {
         }
     }
 
-    /**
-     * Calculates the color for each pixel. After is gets the slope
-     * value for that pixel, it manages the comparison to get the
-     * pixel colored correctly.
-     */
-    protected void resolveImagePoint(int x, int y, int[] newPixels,
-                                     float[] azimuthVals, int range,
-                                     float pix_arc_interval, boolean mark,
-                                     int colorForMark) {
-
-        int ox = LOScenterP.x - LOSedge / 2;
-        int oy = LOScenterP.y - LOSedge / 2;
-        int dist = TerrainLayer.numPixelsBetween(LOScenterP.x,
-                LOScenterP.y,
-                x,
-                y);
-        if (dist > (LOSedge - 1) / 2) {
-            mark = true;
-            colorForMark = INVISIBLE;
-        }
-        if (dist == (LOSedge - 1) / 2) {
-            mark = true;
-            colorForMark = MAYBEVISIBLE;
-        }
-
-        // This needs to be before the next two lines after this
-        LatLonPoint cord = proj.inverse(x, y, new LatLonPoint.Double());
-        x -= ox;
-        y -= oy;
-
-        if (Debug.debugging("losdetail")) {
-            Debug.output("resolveImagePoint x = " + x + ", y = " + y);
-        }
-
-        if (mark == true) {
-            newPixels[x + y * LOSedge] = colorForMark;
-            mark = false;
-            return;
-        }
-
-        double arc_dist = LOScenterLLP.distance(cord);
-        double arc_angle = LOScenterLLP.azimuth(cord);
-
-        double slope = calculateLOSslope(cord, arc_dist);
-
-        int index = (int) Math.round(arc_angle / pix_arc_interval);
-        int maxIndex = (LOSedge * 4) - 4; // 4 corners out for
-        // redundancy
-        if (index < 0)
-            index += maxIndex;
-        else if (index >= maxIndex)
-            index -= maxIndex;
-
-        if (Debug.debugging("losdetail")) {
-            Debug.output(" angle = " + arc_angle + ", index/maxIndex = "
-                    + index + "/" + maxIndex + ", slope = " + slope
-                    + " compared to slope[index]=" + azimuthVals[index]);
-        }
-        int color = colortable[INVISIBLE];
-        if (azimuthVals[index] < slope) {
-            for (int i = (index - range); i < index + range - 1; i++) {
-                if (i < 0)
-                    azimuthVals[maxIndex + i] = (float)slope;
-                else if (i >= maxIndex)
-                    azimuthVals[i - maxIndex] = (float)slope;
-                else
-                    azimuthVals[i] = (float)slope;
-            }
-            color = colortable[VISIBLE];
-        }
-        if (Debug.debugging("losdetail")) {
-            Debug.output(" color = " + color);
-        }
-        newPixels[x + y * LOSedge] = color;
-    }
-
-    /**
-     * CalculateLOSslope figures out the slope from the pixel to the
-     * center, in radians. The arc_dist is in radians, and is the
-     * radian arc distance of the point from the center point of the
-     * image, on the earth. This slope calculation does take the
-     * earth's curvature into account, based on the spherical model.
-     */
-    protected double calculateLOSslope(LatLonPoint cord, double arc_dist) {
-        DTEDFrameCache frameCache = layer.frameCache;
-
-        if (frameCache == null) {
-            return 0;
-        }
-
-        int xyheight = frameCache.getElevation(cord.getLatitude(),
-                cord.getLongitude());
-        double ret = 0;
-        double P = Math.sin(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double xPrime = Math.cos(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double bottom;
-        double cutoff = LOScenterHeight
-                + Planet.wgs84_earthEquatorialRadiusMeters;
-
-        // Suggested changes, submitted by Mark Wigmore. Introduces
-        // use of doubles, and avoidance of PI/2 tan() calculations.
-
-        bottom = cutoff - xPrime;
-        ret = MoreMath.HALF_PI_D - Math.atan(bottom / P);
-        return ret;
-
-        // Old way...
-        //      if (xPrime < cutoff) {
-        //          bottom = cutoff - xPrime;
-        //          ret = Math.atan(P/bottom);
-
-        //      } else if (xPrime == cutoff) {
-        //          ret = MoreMath.HALF_PI_D;
-
-        //      } else if (xPrime > cutoff) {
-        //          double C = xPrime - cutoff;
-        //          double gamma = Math.atan(P/C);
-        //          ret = Math.PI - gamma;
-        //      }
-
-        //      return ret;
-    }
-
     /**
      * Called when the circle is started. It starts the circle to be
      * drawn, and sets the parameters that will be needed to figure
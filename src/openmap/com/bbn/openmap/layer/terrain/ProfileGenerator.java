@@ -217,12 +217,20 @@ public class ProfileGenerator implements TerrainTool {
         int tmp = 0;
         int max = 0;
         int[] heights = new int[xypoints.size()];
-        // Go through the points and get the heights
+        double[] lats = new double[heights.length];
+        double[] lons = new double[heights.length];
         for (int i = 0; i < heights.length; i++) {
             LatLonPoint llp = ((LatLonPoint) coords.elementAt(i));
-            // Ask the cache for the elevation
-            tmp = layer.frameCache.getElevation(llp.getLatitude(),
-                    llp.getLongitude());
+            lats[i] = llp.getY();
+            lons[i] = llp.getX();
+        }
+        // Ask the cache for all the elevations at once
+        short[] elevations = new short[heights.length];
+        layer.frameCache.sample(lats, lons, elevations);
+
+        // Go through the points and get the heights
+        for (int i = 0; i < heights.length; i++) {
+            tmp = elevations[i];
 
             if (tmp == DTEDFrameCache.NO_DATA)
                 tmp = -1;
@@ -0,0 +1,411 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.terrain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bbn.openmap.omGraphics.OMGeometryList;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.Planet;
+
+/**
+ * A Viewshed is the result of a ViewshedGenerator run, the places within a
+ * radius of an observer that the observer can see. The visibility is kept the
+ * way it was figured out, along rays going out from the observer, with a
+ * sample every getSampleSpacing() meters along each ray. The rays are close
+ * enough that they are less than a sample apart at the edge of the circle.
+ * <p>
+ * A Viewshed can be asked about any location, and it can provide the
+ * visibility as a square raster centered on the observer, or as polygons
+ * around the visible areas. The raster is laid out as an azimuthal
+ * equidistant grid, so every cell is the same ground distance across, no
+ * matter where the observer is. A Viewshed doesn't change after it's
+ * generated, and can be kept and used by several threads.
+ */
+public class Viewshed {
+
+    protected final static double EARTH_RADIUS = Planet.wgs84_earthEquatorialRadiusMeters;
+
+    /** Raster value for cells the observer can't see. */
+    public final static byte INVISIBLE = 0;
+    /** Raster value for cells the observer can see. */
+    public final static byte VISIBLE = 1;
+
+    protected final double lat;
+    protected final double lon;
+    protected final double observerHeight;
+    protected final double targetHeight;
+    protected final double radius;
+    /** The number of samples along each ray, not counting the observer. */
+    protected final int numSamples;
+    /** The number of rays. */
+    protected final int numRays;
+    /** The height of the ground under the observer, in meters. */
+    protected double groundHeight;
+
+    /**
+     * The visibility along the rays, numSamples + 1 values for each ray
+     * starting at the observer. Rays go clockwise from north.
+     */
+    protected final byte[] rays;
+    /** The square raster, made when it's asked for. */
+    protected byte[] raster;
+
+    /**
+     * Create an empty Viewshed, for a ViewshedGenerator to fill in.
+     *
+     * @param lat observer latitude in decimal degrees.
+     * @param lon observer longitude in decimal degrees.
+     * @param observerHeight height of the observer above the ground, in
+     *        meters.
+     * @param targetHeight height above the ground of the things being looked
+     *        for, in meters.
+     * @param radius distance covered, in meters.
+     * @param numSamples the number of samples along each ray.
+     */
+    protected Viewshed(double lat, double lon, double observerHeight, double targetHeight,
+            double radius, int numSamples) {
+        this.lat = lat;
+        this.lon = lon;
+        this.observerHeight = observerHeight;
+        this.targetHeight = targetHeight;
+        this.radius = radius;
+        this.numSamples = Math.max(1, numSamples);
+        // One ray for every sample around the edge of a square with the same
+        // radius, so the rays are never more than a sample apart.
+        numRays = 8 * this.numSamples;
+        rays = new byte[numRays * (this.numSamples + 1)];
+    }
+
+    public double getLatitude() {
+        return lat;
+    }
+
+    public double getLongitude() {
+        return lon;
+    }
+
+    /**
+     * @return the height of the observer above the ground, in meters.
+     */
+    public double getObserverHeight() {
+        return observerHeight;
+    }
+
+    /**
+     * @return the height of the ground under the observer, in meters, 0 if
+     *         there isn't any elevation data there.
+     */
+    public double getGroundHeight() {
+        return groundHeight;
+    }
+
+    /**
+     * @return the height above the ground of the things being looked for, in
+     *         meters.
+     */
+    public double getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * @return the distance from the observer covered by the viewshed, in
+     *         meters.
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return the number of samples along each ray, which is also the number
+     *         of raster cells from the center cell to the edge of the raster.
+     */
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    public int getNumRays() {
+        return numRays;
+    }
+
+    /**
+     * @return the distance between samples along a ray, and the size of the
+     *         raster cells, in meters.
+     */
+    public double getSampleSpacing() {
+        return radius / numSamples;
+    }
+
+    /**
+     * Check if the observer can see a location.
+     *
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return false if the location can't be seen or is outside the radius.
+     */
+    public boolean isVisible(double lat, double lon) {
+        double phi1 = Math.toRadians(this.lat);
+        double lambda0 = Math.toRadians(this.lon);
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double dist = GreatCircle.sphericalDistance(phi1, lambda0, phi, lambda) * EARTH_RADIUS;
+        if (dist > radius) {
+            return false;
+        }
+        double az = GreatCircle.sphericalAzimuth(phi1, lambda0, phi, lambda);
+        return isVisibleAt(dist / getSampleSpacing(), az);
+    }
+
+    /**
+     * Check the ray sample closest to a location given by its distance and
+     * direction from the observer.
+     *
+     * @param range distance in samples.
+     * @param az azimuth in radians, clockwise from north.
+     */
+    protected boolean isVisibleAt(double range, double az) {
+        int sample = (int) Math.round(range);
+        if (sample > numSamples) {
+            return false;
+        }
+        int ray = (int) Math.round(az * numRays / (2 * Math.PI)) % numRays;
+        if (ray < 0) {
+            ray += numRays;
+        }
+        return rays[ray * (numSamples + 1) + sample] == VISIBLE;
+    }
+
+    /**
+     * @return the fraction of the circle the observer can see, between 0 and
+     *         1.
+     */
+    public double getVisibleFraction() {
+        // Each sample stands for a piece of a ring, with an area that grows
+        // with its distance from the observer.
+        long visible = 0;
+        long total = 0;
+        for (int ray = 0; ray < numRays; ray++) {
+            int base = ray * (numSamples + 1);
+            for (int i = 1; i <= numSamples; i++) {
+                if (rays[base + i] == VISIBLE) {
+                    visible += i;
+                }
+                total += i;
+            }
+        }
+        return total == 0 ? 0 : (double) visible / total;
+    }
+
+    /**
+     * @return the area the observer can see, in square meters.
+     */
+    public double getVisibleArea() {
+        return getVisibleFraction() * Math.PI * radius * radius;
+    }
+
+    /**
+     * @return the number of columns and rows in the raster, 2 *
+     *         getNumSamples() + 1.
+     */
+    public int getRasterSize() {
+        return 2 * numSamples + 1;
+    }
+
+    /**
+     * Get the visibility as a square raster. The observer is in the center
+     * cell, and north is up. Cells are getSampleSpacing() meters across,
+     * measured along the ground from the observer.
+     *
+     * @return VISIBLE or INVISIBLE values, row by row from the upper left
+     *         corner. Cells outside the radius are INVISIBLE. The array is
+     *         shared, don't modify it.
+     */
+    public synchronized byte[] getRaster() {
+        if (raster == null) {
+            int size = getRasterSize();
+            byte[] cells = new byte[size * size];
+            for (int row = 0; row < size; row++) {
+                double dy = numSamples - row;
+                for (int col = 0; col < size; col++) {
+                    double dx = col - numSamples;
+                    if (isVisibleAt(Math.sqrt(dx * dx + dy * dy), Math.atan2(dx, dy))) {
+                        cells[row * size + col] = VISIBLE;
+                    }
+                }
+            }
+            raster = cells;
+        }
+        return raster;
+    }
+
+    /**
+     * Get the outlines of the visible areas, from the raster. Outer edges go
+     * counter-clockwise and the edges of holes go clockwise.
+     *
+     * @return a list of closed rings, as lat, lon pairs in decimal degrees.
+     */
+    public List<double[]> getVisibleRings() {
+        int size = getRasterSize();
+        byte[] cells = getRaster();
+
+        // Raster cell corners are vertices, numbered row by row. Each vertex
+        // gets a bit for each edge leaving it: east, south, west and north.
+        // Edges have the visible cell on their right in raster space, so
+        // outer edges go clockwise there.
+        int vsize = size + 1;
+        byte[] edges = new byte[vsize * vsize];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (cells[row * size + col] != VISIBLE) {
+                    continue;
+                }
+                if (!isCellVisible(cells, size, col, row - 1)) {
+                    edges[row * vsize + col] |= 1;
+                }
+                if (!isCellVisible(cells, size, col + 1, row)) {
+                    edges[row * vsize + col + 1] |= 2;
+                }
+                if (!isCellVisible(cells, size, col, row + 1)) {
+                    edges[(row + 1) * vsize + col + 1] |= 4;
+                }
+                if (!isCellVisible(cells, size, col - 1, row)) {
+                    edges[(row + 1) * vsize + col] |= 8;
+                }
+            }
+        }
+
+        int[] xstep = { 1, 0, -1, 0 };
+        int[] ystep = { 0, 1, 0, -1 };
+        List<double[]> rings = new ArrayList<double[]>();
+        int[] corners = new int[64];
+
+        for (int start = 0; start < edges.length; start++) {
+            while (edges[start] != 0) {
+                int dir = Integer.numberOfTrailingZeros(edges[start]);
+                int startDir = dir;
+                int vertex = start;
+                int count = 0;
+
+                // Follow edges until getting back to the start, keeping the
+                // corners where the direction changes. Where two visible
+                // cells only touch at a corner, turn toward the visible cell
+                // so they end up with separate outlines.
+                while (true) {
+                    edges[vertex] &= ~(1 << dir);
+                    int x = vertex % vsize + xstep[dir];
+                    int y = vertex / vsize + ystep[dir];
+                    vertex = y * vsize + x;
+                    if (vertex == start) {
+                        if (dir != startDir) {
+                            corners = addCorner(corners, count++, vertex);
+                        }
+                        break;
+                    }
+                    int next = dir;
+                    int bits = edges[vertex];
+                    if ((bits & (1 << ((dir + 1) & 3))) != 0) {
+                        next = (dir + 1) & 3;
+                    } else if ((bits & (1 << dir)) == 0) {
+                        next = (dir + 3) & 3;
+                    }
+                    if (next != dir) {
+                        corners = addCorner(corners, count++, vertex);
+                    }
+                    dir = next;
+                }
+
+                if (count < 3) {
+                    continue;
+                }
+
+                // Raster rows go down, so the order is reversed to get
+                // counter-clockwise outer rings on the ground.
+                double[] ring = new double[(count + 1) * 2];
+                for (int i = 0; i < count; i++) {
+                    int corner = corners[count - 1 - i];
+                    cornerToLatLon(corner % vsize, corner / vsize, ring, i * 2);
+                }
+                ring[count * 2] = ring[0];
+                ring[count * 2 + 1] = ring[1];
+                rings.add(ring);
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * Get the outlines of the visible areas as OMPolys, in a list that draws
+     * them as one shape, so the holes are left empty when it's filled.
+     */
+    public OMGeometryList getVisibleRegion() {
+        OMGeometryList list = new OMGeometryList();
+        for (double[] ring : getVisibleRings()) {
+            list.add(new OMPoly(ring, OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT));
+        }
+        return list;
+    }
+
+    private static boolean isCellVisible(byte[] cells, int size, int col, int row) {
+        return col >= 0 && row >= 0 && col < size && row < size
+                && cells[row * size + col] == VISIBLE;
+    }
+
+    private static int[] addCorner(int[] corners, int index, int corner) {
+        if (index == corners.length) {
+            int[] tmp = new int[corners.length * 2];
+            System.arraycopy(corners, 0, tmp, 0, corners.length);
+            corners = tmp;
+        }
+        corners[index] = corner;
+        return corners;
+    }
+
+    /**
+     * Figure out the location of a raster cell corner.
+     *
+     * @param x the corner column, 0 is the left edge of the raster.
+     * @param y the corner row, 0 is the top edge of the raster.
+     * @param ret where to put the latitude and longitude, in decimal degrees.
+     * @param off the index in ret for the latitude.
+     */
+    protected void cornerToLatLon(int x, int y, double[] ret, int off) {
+        double spacing = getSampleSpacing();
+        double dx = (x - numSamples - .5) * spacing;
+        double dy = (numSamples + .5 - y) * spacing;
+        double c = Math.sqrt(dx * dx + dy * dy) / EARTH_RADIUS;
+        double az = Math.atan2(dx, dy);
+
+        double phi1 = Math.toRadians(lat);
+        double sinphi1 = Math.sin(phi1);
+        double cosphi1 = Math.cos(phi1);
+        double sinc = Math.sin(c);
+        double cosc = Math.cos(c);
+        double cosAz = Math.cos(az);
+
+        ret[off] = Math.toDegrees(Math.asin(sinphi1 * cosc + cosphi1 * sinc * cosAz));
+        double lambda = lon
+                + Math.toDegrees(Math.atan2(sinc * Math.sin(az), cosphi1 * cosc - sinphi1 * sinc
+                        * cosAz));
+        ret[off + 1] = lambda >= 180 ? lambda - 360 : (lambda < -180 ? lambda + 360 : lambda);
+    }
+
+    public String toString() {
+        return "Viewshed[" + lat + ", " + lon + ", radius " + radius + " m, " + numSamples
+                + " samples x " + numRays + " rays]";
+    }
+}
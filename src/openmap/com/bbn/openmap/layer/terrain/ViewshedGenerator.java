@@ -0,0 +1,396 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.terrain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.dataAccess.dted.DTEDElevationStore;
+import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * The ViewshedGenerator figures out what an observer can see around them,
+ * from DTED elevations. It sweeps rays out from the observer, R2 style: each
+ * ray gets its elevations in one bulk call to a DTEDElevationStore, and each
+ * sample on a ray is visible if the angle up to it from the observer is at
+ * least as steep as the steepest angle to the ground before it on the ray.
+ * Elevations are lowered for the curvature of the earth, less the part of it
+ * that atmospheric refraction bends the line of sight back around.
+ * <p>
+ * The rays are split up into sectors that are worked on in parallel in a
+ * fork-join pool. Several observers can be done at once, for comparing sensor
+ * sites.
+ */
+public class ViewshedGenerator {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.terrain.ViewshedGenerator");
+
+    /**
+     * The default refraction coefficient, the usual value for visible light
+     * in a standard atmosphere.
+     */
+    public final static double DEFAULT_REFRACTION = .13;
+    /** The default distance between samples along a ray, in meters. */
+    public final static double DEFAULT_SAMPLE_SPACING = 90;
+    /** The most samples along a ray for the default spacing. */
+    public final static int MAX_SAMPLES = 2000;
+    /**
+     * The number of samples between locations that are figured out exactly
+     * along a ray, the rest are interpolated.
+     */
+    protected final static int STEP = 16;
+
+    protected DTEDElevationStore store;
+    protected double refraction = DEFAULT_REFRACTION;
+    protected double targetHeight = 0;
+    protected double sampleSpacing = DEFAULT_SAMPLE_SPACING;
+
+    /**
+     * Create a generator.
+     *
+     * @param store where to get the elevations.
+     */
+    public ViewshedGenerator(DTEDElevationStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Create a generator using the elevation store for a DTEDFrameCache.
+     */
+    public ViewshedGenerator(DTEDFrameCache frameCache) {
+        this(frameCache.getElevationStore());
+    }
+
+    /**
+     * Get the pool the sectors are worked on in, shared with the rest of
+     * OpenMap through the TaskService.
+     */
+    protected static ForkJoinPool getPool() {
+        return TaskService.singleton().getComputePool();
+    }
+
+    public DTEDElevationStore getStore() {
+        return store;
+    }
+
+    public void setStore(DTEDElevationStore store) {
+        this.store = store;
+    }
+
+    public double getRefraction() {
+        return refraction;
+    }
+
+    /**
+     * Set the refraction coefficient, the ratio of the radius of the earth to
+     * the radius of the curve of a line of sight. 0 turns off the refraction
+     * correction, and 1 turns off the curvature correction too.
+     */
+    public void setRefraction(double refraction) {
+        this.refraction = refraction;
+    }
+
+    public double getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Set the height above the ground of the things being looked for, in
+     * meters. 0 means the ground itself has to be visible.
+     */
+    public void setTargetHeight(double targetHeight) {
+        this.targetHeight = targetHeight;
+    }
+
+    public double getSampleSpacing() {
+        return sampleSpacing;
+    }
+
+    /**
+     * Set the distance between samples along a ray, in meters, used when the
+     * number of samples isn't given. Something around the spacing of the
+     * elevation posts makes sense.
+     */
+    public void setSampleSpacing(double sampleSpacing) {
+        this.sampleSpacing = sampleSpacing;
+    }
+
+    /**
+     * Figure out what an observer can see, with samples getSampleSpacing()
+     * apart, up to MAX_SAMPLES along each ray.
+     *
+     * @param lat observer latitude in decimal degrees.
+     * @param lon observer longitude in decimal degrees.
+     * @param observerHeight height of the observer above the ground, in
+     *        meters.
+     * @param radius how far out to look, in meters.
+     */
+    public Viewshed generate(double lat, double lon, double observerHeight, double radius) {
+        return generate(lat, lon, observerHeight, radius, getNumSamples(radius));
+    }
+
+    /**
+     * Figure out what an observer can see.
+     *
+     * @param lat observer latitude in decimal degrees.
+     * @param lon observer longitude in decimal degrees.
+     * @param observerHeight height of the observer above the ground, in
+     *        meters.
+     * @param radius how far out to look, in meters.
+     * @param numSamples the number of samples along each ray.
+     */
+    public Viewshed generate(double lat, double lon, double observerHeight, double radius,
+                             int numSamples) {
+        ViewshedTask task = new ViewshedTask(new Viewshed(lat, lon, observerHeight, targetHeight, radius, numSamples));
+        getPool().invoke(task);
+        return task.viewshed;
+    }
+
+    /**
+     * Figure out what several observers can see, all at the same time, with
+     * samples getSampleSpacing() apart.
+     *
+     * @param lats observer latitudes in decimal degrees.
+     * @param lons observer longitudes in decimal degrees, matching lats.
+     * @param observerHeight height of the observers above the ground, in
+     *        meters.
+     * @param radius how far out to look, in meters.
+     * @return a Viewshed for each observer.
+     */
+    public Viewshed[] generate(double[] lats, double[] lons, double observerHeight, double radius) {
+        return generate(lats, lons, observerHeight, radius, getNumSamples(radius));
+    }
+
+    /**
+     * Figure out what several observers can see, all at the same time.
+     *
+     * @param lats observer latitudes in decimal degrees.
+     * @param lons observer longitudes in decimal degrees, matching lats.
+     * @param observerHeight height of the observers above the ground, in
+     *        meters.
+     * @param radius how far out to look, in meters.
+     * @param numSamples the number of samples along each ray.
+     * @return a Viewshed for each observer.
+     */
+    public Viewshed[] generate(double[] lats, double[] lons, double observerHeight,
+                               double radius, int numSamples) {
+        final List<ViewshedTask> tasks = new ArrayList<ViewshedTask>(lats.length);
+        for (int i = 0; i < lats.length; i++) {
+            tasks.add(new ViewshedTask(new Viewshed(lats[i], lons[i], observerHeight, targetHeight, radius, numSamples)));
+        }
+
+        getPool().invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        Viewshed[] viewsheds = new Viewshed[tasks.size()];
+        for (int i = 0; i < viewsheds.length; i++) {
+            viewsheds[i] = tasks.get(i).viewshed;
+        }
+        return viewsheds;
+    }
+
+    protected int getNumSamples(double radius) {
+        return (int) Math.max(1, Math.min(MAX_SAMPLES, Math.ceil(radius / sampleSpacing)));
+    }
+
+    /**
+     * Sets up the sweep for one observer, and splits the rays into sectors.
+     */
+    protected class ViewshedTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final Viewshed viewshed;
+
+        protected ViewshedTask(Viewshed viewshed) {
+            this.viewshed = viewshed;
+        }
+
+        protected void compute() {
+            long start = System.currentTimeMillis();
+            int n = viewshed.numSamples;
+
+            short ground = store.sample(viewshed.lat, viewshed.lon);
+            viewshed.groundHeight = ground == DTEDFrameCache.NO_DATA ? 0 : ground;
+
+            // The distances along the rays are the same for every ray.
+            Sweep sweep = new Sweep();
+            sweep.viewshed = viewshed;
+            sweep.sinc = new double[n + 1];
+            sweep.cosc = new double[n + 1];
+            sweep.drop = new double[n + 1];
+            double spacing = viewshed.getSampleSpacing();
+            double curvature = (1 - refraction) / (2 * Viewshed.EARTH_RADIUS);
+            for (int i = 0; i <= n; i++) {
+                double dist = i * spacing;
+                double c = dist / Viewshed.EARTH_RADIUS;
+                sweep.sinc[i] = Math.sin(c);
+                sweep.cosc[i] = Math.cos(c);
+                sweep.drop[i] = dist * dist * curvature;
+            }
+            sweep.eye = viewshed.groundHeight + viewshed.observerHeight;
+
+            // Enough sectors to keep every thread busy, even when some
+            // sectors are over places without data.
+            int sectorSize = Math.max(1, viewshed.numRays
+                    / (getPool().getParallelism() * 8));
+            new SectorTask(sweep, 0, viewshed.numRays, sectorSize).invoke();
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(viewshed + " took " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+    }
+
+    /**
+     * The things that are the same for all the rays of a viewshed.
+     */
+    protected static class Sweep {
+        Viewshed viewshed;
+        /** Sine and cosine of the arc distance to each sample. */
+        double[] sinc;
+        double[] cosc;
+        /** How far the earth curves away at each sample, in meters. */
+        double[] drop;
+        /** The height of the observer's eyes, in meters. */
+        double eye;
+    }
+
+    /**
+     * Sweeps a range of rays, splitting it up if it's bigger than a sector.
+     */
+    protected class SectorTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final Sweep sweep;
+        protected final int fromRay;
+        protected final int toRay;
+        protected final int sectorSize;
+
+        protected SectorTask(Sweep sweep, int fromRay, int toRay, int sectorSize) {
+            this.sweep = sweep;
+            this.fromRay = fromRay;
+            this.toRay = toRay;
+            this.sectorSize = sectorSize;
+        }
+
+        protected void compute() {
+            if (toRay - fromRay > sectorSize) {
+                int mid = (fromRay + toRay) >>> 1;
+                invokeAll(new SectorTask(sweep, fromRay, mid, sectorSize), new SectorTask(sweep, mid, toRay, sectorSize));
+                return;
+            }
+
+            Viewshed viewshed = sweep.viewshed;
+            int n = viewshed.numSamples;
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            short[] elevations = new short[n];
+            for (int ray = fromRay; ray < toRay; ray++) {
+                sweepRay(ray, lats, lons, elevations);
+            }
+        }
+
+        protected void sweepRay(int ray, double[] lats, double[] lons, short[] elevations) {
+            Viewshed viewshed = sweep.viewshed;
+            int n = viewshed.numSamples;
+            double az = 2 * Math.PI * ray / viewshed.numRays;
+            double cosAz = Math.cos(az);
+            double sinAz = Math.sin(az);
+            double phi1 = Math.toRadians(viewshed.lat);
+            double sinphi1 = Math.sin(phi1);
+            double cosphi1 = Math.cos(phi1);
+
+            // The inverse trig functions are slow, so exact locations are
+            // only figured out every STEP samples, and the ones in between
+            // are interpolated. Longitudes aren't wrapped around until the
+            // end, so the interpolation works across the dateline.
+            double lastLat = viewshed.lat;
+            double lastLon = viewshed.lon;
+            for (int i = 0; i < n;) {
+                int next = Math.min(n, i + STEP);
+                double sinc = sweep.sinc[next];
+                double cosc = sweep.cosc[next];
+                double lat = Math.toDegrees(Math.asin(sinphi1 * cosc + cosphi1 * sinc * cosAz));
+                double lon = viewshed.lon
+                        + Math.toDegrees(Math.atan2(sinc * sinAz, cosphi1 * cosc - sinphi1
+                                * sinc * cosAz));
+                if (lon - lastLon > 180) {
+                    lon -= 360;
+                } else if (lon - lastLon < -180) {
+                    lon += 360;
+                }
+
+                int steps = next - i;
+                double dlat = (lat - lastLat) / steps;
+                double dlon = (lon - lastLon) / steps;
+                for (int j = 1; j <= steps; j++) {
+                    lats[i + j - 1] = lastLat + dlat * j;
+                    lons[i + j - 1] = lastLon + dlon * j;
+                }
+                lastLat = lat;
+                lastLon = lon;
+                i = next;
+            }
+            for (int i = 0; i < n; i++) {
+                double lon = lons[i];
+                while (lon >= 180) {
+                    lon -= 360;
+                }
+                while (lon < -180) {
+                    lon += 360;
+                }
+                lons[i] = lon;
+            }
+            store.sample(lats, lons, 0, elevations, 0, n);
+
+            int base = ray * (n + 1);
+            byte[] rays = viewshed.rays;
+            rays[base] = Viewshed.VISIBLE;
+
+            // The steepest slope up to the ground so far, as the tangent of
+            // the angle above the observer's horizontal.
+            double horizon = Double.NEGATIVE_INFINITY;
+            double spacing = viewshed.getSampleSpacing();
+            double targetHeight = viewshed.targetHeight;
+            for (int i = 1; i <= n; i++) {
+                short elevation = elevations[i - 1];
+                if (elevation == DTEDFrameCache.NO_DATA) {
+                    // Unknown ground doesn't block anything, and isn't
+                    // visible.
+                    continue;
+                }
+                double dist = i * spacing;
+                double height = elevation - sweep.drop[i] - sweep.eye;
+                if ((height + targetHeight) / dist >= horizon) {
+                    rays[base + i] = Viewshed.VISIBLE;
+                }
+                double slope = height / dist;
+                if (slope > horizon) {
+                    horizon = slope;
+                }
+            }
+        }
+    }
+}
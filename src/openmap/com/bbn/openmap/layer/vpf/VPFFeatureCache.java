@@ -22,6 +22,7 @@
 
 package com.bbn.openmap.layer.vpf;
 
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -169,17 +170,13 @@ public class VPFFeatureCache extends CacheHandler {
      * @param featureType the kind of feature, VPFUtil.Area, VPFUtil.Edge,
      *        VPFUtil.Point or VPFUtil.Text.
      */
-    public Object get(String key, String featureType) {
-        CacheObject ret = searchCache(key);
-        if (ret != null)
-            return ret.obj;
-
-        ret = load(key, featureType);
-        if (ret == null)
-            return null;
-
-        replaceLeastUsed(ret);
-        return ret.obj;
+    public Object get(final String key, final String featureType) {
+        CacheObject ret = get(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key, featureType);
+            }
+        });
+        return ret == null ? null : ret.obj;
     }
 
     /**
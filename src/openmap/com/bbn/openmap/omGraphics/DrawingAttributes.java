@@ -112,6 +112,9 @@ import com.bbn.openmap.util.propertyEditor.OptionPropertyEditor;
  *     pointOval=false
  *     # Set the pixel radius of any OMPoint given to the DrawingAttributes object.
  *     pointRadius=2
+ *     # Pixel tolerance for dropping vertices of OMPolys when they are projected,
+ *     # vertices that wouldn't move the line by more than this aren't drawn.
+ *     simplifyTolerance=0.5 (0 is the default, keeps all vertices)
  * 
  * </pre>
  */
@@ -202,6 +205,11 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
      * Property for the pixel radius of OMPoints. "pointRadius"
      */
     public static final String PointRadiusProperty = "pointRadius";
+    /**
+     * Property for the pixel tolerance used to simplify OMPolys.
+     * "simplifyTolerance"
+     */
+    public static final String SimplifyToleranceProperty = "simplifyTolerance";
     public final static int NONE = -1;
     /**
      * The default line paint. (black)
@@ -279,6 +287,10 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
      * The pixel radius to set on OMPoints.
      */
     protected int pointRadius = OMPoint.DEFAULT_RADIUS;
+    /**
+     * The pixel simplification tolerance to set on OMPolys.
+     */
+    protected float simplifyTolerance = 0f;
     /**
      * A good ol' generic DrawingAttributes object for all to use. Black lines,
      * clear fill paint.
@@ -404,6 +416,7 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
         clone.matted = matted;
         clone.pointOval = pointOval;
         clone.pointRadius = pointRadius;
+        clone.simplifyTolerance = simplifyTolerance;
         clone.enableFillPaintChoice = enableFillPaintChoice;
     }
 
@@ -419,7 +432,8 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
                 && eqTest(da.fillPaint, fillPaint) && eqTest(da.mattingPaint, mattingPaint)
                 && eqTest(da.fillPattern, fillPattern) && eqTest(da.stroke, stroke)
                 && eqTest(da.baseScale, baseScale) && eqTest(da.matted, matted)
-                && da.pointOval == pointOval && da.pointRadius == pointRadius;
+                && da.pointOval == pointOval && da.pointRadius == pointRadius
+                && da.simplifyTolerance == simplifyTolerance;
     }
 
     /**
@@ -453,6 +467,7 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
         result = HashCodeUtil.hash(result, fillPattern);
         result = HashCodeUtil.hash(result, pointOval);
         result = HashCodeUtil.hash(result, pointRadius);
+        result = HashCodeUtil.hash(result, simplifyTolerance);
         result = HashCodeUtil.hash(result, fillPattern);
         result = HashCodeUtil.hash(result, stroke);
         result = HashCodeUtil.hash(result, matted);
@@ -820,6 +835,21 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
         return pointRadius;
     }
 
+    /**
+     * Set the pixel tolerance given to OMPoly objects, for dropping vertices
+     * that don't change the projected line.
+     */
+    public void setSimplifyTolerance(float tolerance) {
+        simplifyTolerance = tolerance;
+    }
+
+    /**
+     * Get the pixel tolerance given to OMPoly objects.
+     */
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
     /**
      * Set the oval setting given to OMPoint objects.
      */
@@ -869,6 +899,10 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
             pointOval = ((OMPoint) graphic).isOval();
         }
 
+        if (graphic instanceof OMPoly) {
+            simplifyTolerance = ((OMPoly) graphic).getSimplifyTolerance();
+        }
+
         enableFillPaintChoice = !(graphic instanceof NonRegional);
 
         // Don't want to call this here, it is CPU intensive.
@@ -955,6 +989,10 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
             ((OMPoint) graphic).setOval(pointOval);
         }
 
+        if (graphic instanceof OMPoly) {
+            ((OMPoly) graphic).setSimplifyTolerance(simplifyTolerance);
+        }
+
         // The GraphicAttribute might be rendering options for this graphic,
         // needs to know if fill paint choices are available.
         if (resetGUI) {
@@ -1435,6 +1473,7 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
 
         pointRadius = PropUtils.intFromProperties(props, realPrefix + PointRadiusProperty, pointRadius);
         pointOval = PropUtils.booleanFromProperties(props, realPrefix + PointOvalProperty, pointOval);
+        simplifyTolerance = PropUtils.floatFromProperties(props, realPrefix + SimplifyToleranceProperty, simplifyTolerance);
 
         float lineWidth;
         boolean basicStrokeDefined = false;
@@ -1606,6 +1645,7 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
 
         props.put(prefix + PointRadiusProperty, Integer.toString(pointRadius));
         props.put(prefix + PointOvalProperty, new Boolean(pointOval).toString());
+        props.put(prefix + SimplifyToleranceProperty, Float.toString(simplifyTolerance));
 
         props.put(prefix + fillPatternProperty, (fPattern == null ? "" : fPattern));
 
@@ -1741,6 +1781,11 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
         list.put(PointOvalProperty + LabelEditorProperty, interString);
         list.put(PointOvalProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
 
+        interString = i18n.get(DrawingAttributes.class, SimplifyToleranceProperty, I18n.TOOLTIP, "Pixel distance for dropping poly vertices that don't change the line, 0 keeps them all.");
+        list.put(SimplifyToleranceProperty, interString);
+        interString = i18n.get(DrawingAttributes.class, SimplifyToleranceProperty, "Simplify tolerance");
+        list.put(SimplifyToleranceProperty + LabelEditorProperty, interString);
+
         PropUtils.setI18NPropertyInfo(i18n, list, DrawingAttributes.class, capProperty, "Line Cap", "Type of cap to use on end of lines.", "com.bbn.openmap.util.propertyEditor.ComboBoxPropertyEditor");
 
         list.put(capProperty + OptionPropertyEditor.ScopedOptionsProperty, "butt round square");
@@ -1771,7 +1816,7 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
                    */mattingPaintProperty + " " + fillPatternProperty + " " + mattedProperty + " "
                 + lineWidthProperty + " " + dashPatternProperty + " " + dashPhaseProperty + " "
                 + capProperty + " " + joinProperty + " " + miterLimitProperty + " "
-                + PointRadiusProperty + " " + PointOvalProperty;
+                + PointRadiusProperty + " " + PointOvalProperty + " " + SimplifyToleranceProperty;
     }
 
     /**
@@ -2167,6 +2212,11 @@ public class DrawingAttributes implements ActionListener, Serializable, Cloneabl
             return this;
         }
 
+        public Builder setSimplifyTolerance(float tolerance) {
+            da.setSimplifyTolerance(tolerance);
+            return this;
+        }
+
         public Builder setOrientation(int orientation) {
             da.setOrientation(orientation);
             return this;
@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import com.bbn.openmap.MoreMath;
 import com.bbn.openmap.geo.Geo;
 import com.bbn.openmap.geo.Intersection;
+import com.bbn.openmap.omGraphics.util.PolylineSimplifier;
 import com.bbn.openmap.proj.DrawUtil;
 import com.bbn.openmap.proj.GeoProj;
 import com.bbn.openmap.proj.ProjMath;
@@ -157,6 +158,13 @@ public class OMPoly extends OMAbstractLine implements Serializable {
      */
     protected boolean doShapes = false;
 
+    /**
+     * The pixel distance used to simplify lat/lon polys when they are
+     * generated. Vertices that wouldn't move the projected line by more than
+     * this are dropped. 0 turns simplification off.
+     */
+    protected float simplifyTolerance = 0f;
+
     /**
      * Construct a default OMPoly.
      */
@@ -579,6 +587,24 @@ public class OMPoly extends OMAbstractLine implements Serializable {
         return doShapes;
     }
 
+    /**
+     * Set the pixel tolerance used to drop vertices of lat/lon polys when they
+     * are projected. Vertices within this distance of the simplified line
+     * aren't drawn, which saves a lot of work for detailed data at small
+     * scales. A tolerance less than a pixel isn't noticeable, 0 (the default)
+     * keeps all the vertices.
+     * 
+     * @param tolerance pixel distance.
+     * @see com.bbn.openmap.omGraphics.util.PolylineSimplifier
+     */
+    public void setSimplifyTolerance(float tolerance) {
+        simplifyTolerance = tolerance;
+    }
+
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
     /**
      * Prepare the poly for rendering.
      * 
@@ -692,9 +718,20 @@ public class OMPoly extends OMAbstractLine implements Serializable {
             xpoints = loc_xpoints;
             ypoints = loc_ypoints;
 
+            PolylineSimplifier simplifier = null;
+            if (simplifyTolerance > 0f) {
+                simplifier = PolylineSimplifier.get();
+            }
+
             for (int i = 0, j = 0; i < size; i += 2, j++) {
                 loc_xpoints[j] = vector.get(i);
                 loc_ypoints[j] = vector.get(i + 1);
+
+                if (simplifier != null) {
+                    float[][] simplified = simplifier.simplify(loc_xpoints[j], loc_ypoints[j], simplifyTolerance);
+                    loc_xpoints[j] = simplified[0];
+                    loc_ypoints[j] = simplified[1];
+                }
             }
 
             if (!doShapes) {
@@ -1272,6 +1309,7 @@ public class OMPoly extends OMAbstractLine implements Serializable {
             this.isPolygon = polySource.isPolygon;
             this.rawllpts = DeepCopyUtil.deepCopy(polySource.getLatLonArray());
             this.doShapes = polySource.doShapes;
+            this.simplifyTolerance = polySource.simplifyTolerance;
         }
     }
 }
@@ -0,0 +1,344 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.omGraphics.time;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoint;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * A ColumnarTemporalOMGraphicList holds lots of tracks, things that move
+ * around over time, more efficiently than a TemporalOMGraphicList full of
+ * TemporalOMPoints. Instead of a TreeSet of TemporalRecords for each track,
+ * the times and decimal degree locations of each track are kept in arrays,
+ * sorted by time. Each track has an OMPoint marker that is moved to where the
+ * track is when generate(proj, time) is called.
+ * <p>
+ * The list remembers where each track was in its arrays for the last time, so
+ * as time moves forward the tracks only have to look at the next few
+ * positions. All of the tracks are updated and generated in parallel. Other
+ * OMGraphics can be added to the list too, and they are generated like they
+ * would be in a TemporalOMGraphicList.
+ * <p>
+ * A marker is invisible before the first time of its track, and stays at the
+ * last location after the last time.
+ */
+public class ColumnarTemporalOMGraphicList extends TemporalOMGraphicList {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tracks updated together in a parallel task. */
+    protected final static int TRACKS_PER_TASK = 1024;
+
+    /** The markers for the tracks, also in this list. */
+    protected OMGraphicList markers = new OMGraphicList();
+
+    protected int numTracks = 0;
+    protected long[][] times = new long[0][];
+    protected double[][] lats = new double[0][];
+    protected double[][] lons = new double[0][];
+    /** The number of positions in each track. */
+    protected int[] counts = new int[0];
+    /**
+     * The index of the last position at or before lastTime for each track,
+     * -1 if none.
+     */
+    protected int[] cursors = new int[0];
+    protected long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Flag to indicate that positions between times should be interpolated.
+     */
+    protected boolean interpolate = false;
+
+    public ColumnarTemporalOMGraphicList() {
+        add(markers);
+    }
+
+    /**
+     * Get the pool the tracks are updated in, shared with the rest of
+     * OpenMap through the TaskService.
+     */
+    protected static ForkJoinPool getPool() {
+        return TaskService.singleton().getComputePool();
+    }
+
+    public boolean isInterpolate() {
+        return interpolate;
+    }
+
+    /**
+     * Set whether markers should be moved along the great circle between
+     * positions when the time is between them, instead of staying at the
+     * last position.
+     */
+    public void setInterpolate(boolean interpolate) {
+        this.interpolate = interpolate;
+    }
+
+    /**
+     * Add a track with a default OMPoint marker.
+     *
+     * @return the index of the track.
+     */
+    public int addTrack() {
+        return addTrack(new OMPoint(0, 0, OMPoint.DEFAULT_RADIUS));
+    }
+
+    /**
+     * Add a track.
+     *
+     * @param marker the OMPoint to show where the track is. Its render type is
+     *        set to RENDERTYPE_LATLON.
+     * @return the index of the track.
+     */
+    public synchronized int addTrack(OMPoint marker) {
+        if (numTracks == counts.length) {
+            int capacity = Math.max(16, numTracks * 2);
+            times = Arrays.copyOf(times, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            cursors = Arrays.copyOf(cursors, capacity);
+        }
+        int track = numTracks++;
+        times[track] = new long[4];
+        lats[track] = new double[4];
+        lons[track] = new double[4];
+        counts[track] = 0;
+        cursors[track] = -1;
+
+        marker.setRenderType(OMGraphic.RENDERTYPE_LATLON);
+        marker.setVisible(false);
+        markers.add(marker);
+        return track;
+    }
+
+    public synchronized int getNumTracks() {
+        return numTracks;
+    }
+
+    /**
+     * @return the marker for a track.
+     */
+    public OMPoint getMarker(int track) {
+        return (OMPoint) markers.get(track);
+    }
+
+    /**
+     * Add a position to a track. Positions are usually added in time order,
+     * which is fastest, but they don't have to be.
+     *
+     * @param track the index of the track.
+     * @param time milliseconds.
+     * @param lat latitude in decimal degrees.
+     * @param lon longitude in decimal degrees.
+     * @return false if the track already had a position at that time, which
+     *         is left alone.
+     */
+    public synchronized boolean addPosition(int track, long time, double lat, double lon) {
+        int count = counts[track];
+        long[] trackTimes = times[track];
+
+        int index = count;
+        if (count > 0 && time <= trackTimes[count - 1]) {
+            index = Arrays.binarySearch(trackTimes, 0, count, time);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+        }
+
+        if (count == trackTimes.length) {
+            int capacity = count * 2;
+            times[track] = trackTimes = Arrays.copyOf(trackTimes, capacity);
+            lats[track] = Arrays.copyOf(lats[track], capacity);
+            lons[track] = Arrays.copyOf(lons[track], capacity);
+        }
+        if (index < count) {
+            System.arraycopy(trackTimes, index, trackTimes, index + 1, count - index);
+            System.arraycopy(lats[track], index, lats[track], index + 1, count - index);
+            System.arraycopy(lons[track], index, lons[track], index + 1, count - index);
+            // The cursor might be pointing past where the position went.
+            cursors[track] = -1;
+            lastTime = Long.MIN_VALUE;
+        }
+        trackTimes[index] = time;
+        lats[track][index] = lat;
+        lons[track][index] = lon;
+        counts[track] = count + 1;
+        return true;
+    }
+
+    /**
+     * Clear the positions of all tracks, keeping the tracks.
+     */
+    public synchronized void clearTimeStamps() {
+        super.clearTimeStamps();
+        Arrays.fill(counts, 0);
+        Arrays.fill(cursors, -1);
+        lastTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * Move all of the track markers to where they are at a time, and
+     * generate them. Other OMGraphics on the list are generated too.
+     */
+    public synchronized void generate(Projection proj, long time) {
+        boolean forward = lastTime != Long.MIN_VALUE && time >= lastTime;
+        getPool().invoke(new TrackTask(proj, time, forward, 0, numTracks));
+        lastTime = time;
+
+        for (OMGraphic geom : this) {
+            if (geom == markers) {
+                continue;
+            }
+            if (geom instanceof TemporalOMGraphic) {
+                ((TemporalOMGraphic) geom).generate(proj, time);
+            } else {
+                geom.generate(proj);
+            }
+        }
+    }
+
+    /**
+     * Find the last position at or before a time for a track, and remember it.
+     *
+     * @param forward true if the time is at or after the time the cursor was
+     *        set for, so it can be moved forward from where it is.
+     * @return the index of the position, -1 if the time is before the first
+     *         one.
+     */
+    protected int moveCursor(int track, long time, boolean forward) {
+        long[] trackTimes = times[track];
+        int count = counts[track];
+        int cursor;
+        if (forward) {
+            cursor = cursors[track];
+            while (cursor + 1 < count && trackTimes[cursor + 1] <= time) {
+                cursor++;
+            }
+        } else {
+            cursor = Arrays.binarySearch(trackTimes, 0, count, time);
+            if (cursor < 0) {
+                cursor = -cursor - 2;
+            }
+        }
+        cursors[track] = cursor;
+        return cursor;
+    }
+
+    /**
+     * Move a track marker to where the track is at a time.
+     */
+    protected void updateMarker(int track, long time, boolean forward, Projection proj) {
+        OMPoint marker = (OMPoint) markers.get(track);
+        int cursor = moveCursor(track, time, forward);
+        if (cursor < 0) {
+            marker.setVisible(false);
+            return;
+        }
+
+        double[] trackLats = lats[track];
+        double[] trackLons = lons[track];
+        long[] trackTimes = times[track];
+        if (interpolate && cursor + 1 < counts[track] && trackTimes[cursor] != time) {
+            double fraction = (double) (time - trackTimes[cursor])
+                    / (trackTimes[cursor + 1] - trackTimes[cursor]);
+            setBetween(marker, trackLats[cursor], trackLons[cursor], trackLats[cursor + 1], trackLons[cursor + 1], fraction);
+        } else {
+            marker.set(trackLats[cursor], trackLons[cursor]);
+        }
+        marker.setVisible(true);
+        marker.generate(proj);
+    }
+
+    /**
+     * Put a marker part of the way along the great circle between two
+     * locations.
+     */
+    protected void setBetween(OMPoint marker, double lat1, double lon1, double lat2,
+                              double lon2, double fraction) {
+        double phi1 = Math.toRadians(lat1);
+        double lambda1 = Math.toRadians(lon1);
+        double phi2 = Math.toRadians(lat2);
+        double lambda2 = Math.toRadians(lon2);
+
+        double cosphi1 = Math.cos(phi1);
+        double cosphi2 = Math.cos(phi2);
+        double x1 = cosphi1 * Math.cos(lambda1);
+        double y1 = cosphi1 * Math.sin(lambda1);
+        double z1 = Math.sin(phi1);
+        double x2 = cosphi2 * Math.cos(lambda2);
+        double y2 = cosphi2 * Math.sin(lambda2);
+        double z2 = Math.sin(phi2);
+
+        double dot = Math.max(-1, Math.min(1, x1 * x2 + y1 * y2 + z1 * z2));
+        double omega = Math.acos(dot);
+        double a;
+        double b;
+        if (omega < 1e-9) {
+            a = 1 - fraction;
+            b = fraction;
+        } else {
+            double sinOmega = Math.sin(omega);
+            a = Math.sin((1 - fraction) * omega) / sinOmega;
+            b = Math.sin(fraction * omega) / sinOmega;
+        }
+
+        double x = a * x1 + b * x2;
+        double y = a * y1 + b * y2;
+        double z = a * z1 + b * z2;
+        marker.set(Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y))), Math.toDegrees(Math.atan2(y, x)));
+    }
+
+    /**
+     * Updates a range of tracks, splitting it up if it's big.
+     */
+    protected class TrackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final Projection proj;
+        protected final long time;
+        protected final boolean forward;
+        protected final int from;
+        protected final int to;
+
+        protected TrackTask(Projection proj, long time, boolean forward, int from, int to) {
+            this.proj = proj;
+            this.time = time;
+            this.forward = forward;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > TRACKS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TrackTask(proj, time, forward, from, mid), new TrackTask(proj, time, forward, mid, to));
+                return;
+            }
+            for (int track = from; track < to; track++) {
+                updateMarker(track, time, forward, proj);
+            }
+        }
+    }
+}
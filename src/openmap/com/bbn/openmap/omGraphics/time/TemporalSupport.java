@@ -46,6 +46,55 @@ public abstract class TemporalSupport {
     protected TreeSet<? extends TemporalRecord> temporals;
 
     /**
+     * Flag for cursor mode, where the records found for the last time asked
+     * for are remembered. If the next time is later, the records are found
+     * by moving on from there, and updateForTemporal is only called for the
+     * records passed since the last time. Good for animation, where time
+     * mostly moves forward a little at a time.
+     */
+    protected boolean cursorMode = false;
+    /** The last time asked for in cursor mode, Long.MIN_VALUE if none. */
+    protected long cursorTime = Long.MIN_VALUE;
+    /** The last record at or before cursorTime. */
+    protected TemporalRecord cursorFloor;
+    /** The first record after cursorTime. */
+    protected TemporalRecord cursorNext;
+
+    /**
+     * Whether a subclass overrides updateForTemporal, figured out when it's
+     * first needed. If it doesn't, the records before a time don't have to
+     * be visited.
+     */
+    private Boolean updating;
+
+    public boolean isCursorMode() {
+        return cursorMode;
+    }
+
+    /**
+     * Turn cursor mode on or off.
+     */
+    public void setCursorMode(boolean cursorMode) {
+        this.cursorMode = cursorMode;
+        resetCursor();
+    }
+
+    /**
+     * Forget the records found for the last time. Called when records are
+     * added or removed through this object, needs to be called if the
+     * TreeSet is modified directly while in cursor mode.
+     */
+    public void resetCursor() {
+        cursorTime = Long.MIN_VALUE;
+        cursorFloor = null;
+        cursorNext = null;
+    }
+
+    /**
+     * Find the records around a time, using the TreeSet's floor and higher
+     * lookups, or what's left from the last time in cursor mode. The TreeSet
+     * has to be sorted by time, like with a TemporalRecordComparator.
+     * updateForTemporal is called for the records at or before the time.
      * 
      * @param time in milliseconds
      * @param interpolate flag to signal that the returned Temporal object
@@ -56,30 +105,50 @@ public abstract class TemporalSupport {
         T previous = null;
         T next = null;
 
+        TreeSet<T> set = getTemporals();
+
         // Find out where the timestamp is in relation to the reported
         // positions
-        synchronized (temporals) {
+        synchronized (set) {
 
-            Iterator<T> it = iterator();
-            while (it.hasNext()) {
-                T temporal = it.next();
-                long recTimeStamp = temporal.getTime();
+            T probe = cast(createProbe(time));
+            boolean moveOn = cursorMode && cursorTime != Long.MIN_VALUE && time >= cursorTime;
 
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("evaluating: " + temporal + " vs " + time);
-                }
+            if (moveOn && (cursorNext == null || time < cursorNext.getTime())) {
+                // Still between the same two records.
+                previous = cast(cursorFloor);
+                next = cast(cursorNext);
+            } else {
+                previous = set.floor(probe);
+                next = set.higher(probe);
+            }
 
-                if (recTimeStamp < time) {
-                    previous = temporal;
-                    updateForTemporal(time, temporal);
-                } else if (recTimeStamp > time) {
-                    next = temporal;
-                    break;
+            if (isUpdating()) {
+                Iterator<T> it;
+                if (moveOn) {
+                    T from = cast(createProbe(cursorTime));
+                    it = set.subSet(from, false, probe, true).iterator();
                 } else {
-                    // Hit a time right at a position.
-                    updateForTemporal(time, temporal);
-                    return temporal;
+                    it = set.headSet(probe, true).iterator();
                 }
+                while (it.hasNext()) {
+                    updateForTemporal(time, it.next());
+                }
+            }
+
+            if (cursorMode) {
+                cursorTime = time;
+                cursorFloor = previous;
+                cursorNext = next;
+            }
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("time " + time + " between " + previous + " and " + next);
+            }
+
+            if (previous != null && previous.getTime() == time) {
+                // Hit a time right at a position.
+                return previous;
             }
         }
 
@@ -133,7 +202,9 @@ public abstract class TemporalSupport {
 
     /**
      * Override this method to use the TemporalRecord's contents to affect the
-     * status of whatever you like.
+     * status of whatever you like. Called for every record at or before the
+     * time given to getPosition, in order, or in cursor mode, for the records
+     * passed since the last time if time has moved forward.
      * 
      * @param time milliseconds reflecting the current time.
      * @param temporal record that reflects something that has happened.
@@ -170,6 +241,50 @@ public abstract class TemporalSupport {
 
     public <T extends TemporalRecord> void setTemporals(TreeSet<T> temporals) {
         this.temporals = temporals;
+        resetCursor();
+    }
+
+    /**
+     * Create a record to look up other records by time with.
+     */
+    protected TemporalRecord createProbe(final long time) {
+        return new TemporalRecord() {
+            public long getTime() {
+                return time;
+            }
+
+            public void setTime(long t) {
+            }
+        };
+    }
+
+    /**
+     * Cast a record to the type of the records in the TreeSet for
+     * getPosition. The cursor records came out of the set, and the probes are
+     * only handed to the set's comparator, which looks at the time, and are
+     * never added to the set or returned, so the unchecked cast is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends TemporalRecord> T cast(TemporalRecord record) {
+        return (T) record;
+    }
+
+    /**
+     * Check if updateForTemporal is overridden.
+     */
+    private boolean isUpdating() {
+        if (updating == null) {
+            boolean overridden = false;
+            for (Class<?> c = getClass(); c != TemporalSupport.class && !overridden; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("updateForTemporal", long.class, TemporalRecord.class);
+                    overridden = true;
+                } catch (NoSuchMethodException nsme) {
+                }
+            }
+            updating = Boolean.valueOf(overridden);
+        }
+        return updating.booleanValue();
     }
 
     public abstract <T extends TemporalRecord> TreeSet<T> createTemporalSet();
@@ -178,6 +293,7 @@ public abstract class TemporalSupport {
 
     public void add(TemporalRecord tr) {
         getTemporals().add(tr);
+        resetCursor();
     }
 
     /**
@@ -187,10 +303,12 @@ public abstract class TemporalSupport {
      * @return true if removal was successful.
      */
     public boolean remove(TemporalRecord tr) {
+        resetCursor();
         return getTemporals().remove(tr);
     }
 
     public void clear() {
-        temporals.clear();
+        getTemporals().clear();
+        resetCursor();
     }
 }
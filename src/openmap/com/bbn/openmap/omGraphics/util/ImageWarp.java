@@ -30,17 +30,24 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.awt.image.PixelGrabber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.bbn.openmap.dataAccess.image.WorldFile;
 import com.bbn.openmap.omGraphics.OMRaster;
+import com.bbn.openmap.proj.InverseGrid;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.GeoCoordTransformation;
 import com.bbn.openmap.proj.coords.LatLonGCT;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.DataBounds;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The ImageTranslator is the object that takes a BufferedImage and creates an
@@ -50,6 +57,23 @@ public class ImageWarp {
 
     public static Logger logger = Logger.getLogger("com.bbn.openmap.omGraphics.util.ImageWarp");
 
+    /** Resampling setting, use the closest source pixel. */
+    public final static int NEAREST_NEIGHBOR = 0;
+    /** Resampling setting, blend the four closest source pixels. */
+    public final static int BILINEAR = 1;
+    /** Resampling setting, blend the sixteen closest source pixels. */
+    public final static int BICUBIC = 2;
+
+    /** The number of map pixels between control grid corners. */
+    public final static int GRID_SPACING = 32;
+    /** The default tolerance, in source image pixels. */
+    public final static double DEFAULT_TOLERANCE = .25;
+    /**
+     * How close, in pixels, a projection has to be to a whole pixel shift of
+     * another for the control grid to be used for both.
+     */
+    protected final static double SHIFT_TOLERANCE = .001;
+
     /**
      * Source image pixels.
      */
@@ -97,6 +121,18 @@ public class ImageWarp {
      */
     protected DataBounds projectedImageBounds;
 
+    /**
+     * How far, in source image pixels, interpolated image coordinates can be
+     * from the real ones. 0 or less means every pixel is figured out exactly.
+     */
+    protected double tolerance = DEFAULT_TOLERANCE;
+
+    /** How source pixels are picked for map pixels. */
+    protected int resampling = NEAREST_NEIGHBOR;
+
+    /** The control grid for the last projection. */
+    protected ControlGrid controlGrid;
+
     /**
      * Create an image warp for an image assumed to be world wide coverage, with
      * the top at 90 degrees, the bottom at -90, the left side at -180 and the
@@ -240,6 +276,18 @@ public class ImageWarp {
     /**
      * Given a projection, return the pixels for an image that will cover the
      * projection area.
+     * <p>
+     * The image coordinates for the map pixels are figured out exactly at the
+     * corners of a grid of cells, GRID_SPACING pixels apart. A cell is
+     * filled in by interpolating between its corners if the coordinates in
+     * the middle of the cell and its edges come out within the tolerance of
+     * where interpolating puts them, otherwise it's split into four and the
+     * smaller cells are checked the same way. The image coordinates are all
+     * figured out on the calling thread, since GeoCoordTransformations and
+     * projections aren't all safe to use from several threads, and then the
+     * cells are filled in with source pixels in parallel. The grid corners
+     * are kept, and used again if the next projection is the same one, just
+     * panned by whole pixels.
      * 
      * @param p map projection
      * @return int[] of ARGB pixels for an image covering the given projection.
@@ -257,17 +305,8 @@ public class ImageWarp {
             int projHeight = (int) Math.ceil(projectedImageBounds.getHeight());
             int projWidth = (int) Math.ceil(projectedImageBounds.getWidth());
 
-            // See if we can reuse the pixel array we have.
-
             int[] tmpPixels = new int[projWidth * projHeight];
-            int numTmpPixels = tmpPixels.length;
-            logger.fine("tmpPixels[" + numTmpPixels + "]");
-            int clear = 0x00000000;
-
-            Point2D ctp = new Point2D.Double();
-            Point2D ddll = new Point2D.Double();
-            Point2D imageCoord = new Point2D.Double();
-            Point2D center = p.getCenter();
+            logger.fine("tmpPixels[" + tmpPixels.length + "]");
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(projectedImageBounds.toString());
@@ -275,78 +314,540 @@ public class ImageWarp {
 
             int minx = (int) Math.floor(projectedImageBounds.getMin().getX());
             int miny = (int) Math.floor(projectedImageBounds.getMin().getY());
-            int maxx = (int) Math.ceil(projectedImageBounds.getMax().getX());
-            int maxy = (int) Math.ceil(projectedImageBounds.getMax().getY());
 
-            // i and j are map window pixel values.
-            for (int i = minx; i < maxx; i++) {
-                for (int j = miny; j < maxy; j++) {
+            Warp warp = new Warp(p, tmpPixels, minx, miny, projWidth, projHeight);
+            new Locator(warp).locateAll();
+            int n = (warp.grid != null ? warp.cells.size() : projHeight);
+            getPool().invoke(new ResampleTask(warp, 0, n));
 
-                    // ix and iy are pixel coordinates of the destination image.
-                    int ix = i - minx;
-                    int iy = j - miny;
+            logger.fine("finished creating image");
+            return tmpPixels;
+        }
 
-                    // index into the OMRaster pixel array
-                    int tmpIndex = (ix + (iy * projWidth));
+        logger.warning("problem creating image, no pixels: " + (pixels == null ? "true" : "false")
+                + ", no projection:" + (p == null ? "true" : "false"));
 
-                    if (tmpIndex >= numTmpPixels) {
-                        continue;
-                    }
+        // If you get here, something's not right.
+        return null;
+    }
 
-                    ddll = p.inverse(i, j, ddll);
-
-                    // If the llp calculated isn't on the map,
-                    // don't bother drawing it. Could be a space
-                    // point in Orthographic projection, for
-                    // instance.
-                    if (ddll.equals(center)) {
-                        p.forward(ddll, ctp);
-                        if (ctp.getX() != i || ctp.getY() != j) {
-                            tmpPixels[tmpIndex] = clear;
-                            continue;
-                        }
-                    }
+    /**
+     * Get the pool the image warping is done in, shared with the rest of
+     * OpenMap through the TaskService.
+     */
+    protected static ForkJoinPool getPool() {
+        return TaskService.singleton().getComputePool();
+    }
 
-                    if (geoTrans != null) {
-                        geoTrans.forward(ddll.getY(), ddll.getX(), imageCoord);
-                    } else {
-                        imageCoord = ddll;
-                    }
+    /**
+     * Get the control grid for a projection. The last one is returned if the
+     * projection is the same as the one it was made for, or just moved over
+     * by whole pixels.
+     */
+    protected synchronized ControlGrid getControlGrid(Projection p) {
+        ControlGrid grid = controlGrid;
+        if (grid == null || !grid.setOrigin(p)) {
+            grid = new ControlGrid(p);
+            controlGrid = grid;
+        } else if (grid.nodes.size() > ControlGrid.MAX_NODES) {
+            grid.nodes.clear();
+        }
+        return grid;
+    }
+
+    /**
+     * The image coordinates at the corners of the warping cells, held on to
+     * for the projection they were figured out for. Corners are kept by their
+     * cell row and column, so they can be used for another projection that is
+     * the same thing shifted over by whole pixels.
+     */
+    protected static class ControlGrid {
+        /** The most corners kept before they are thrown out. */
+        protected final static int MAX_NODES = 1 << 16;
+
+        protected final Projection proj;
+        /** Where the grid's corner 0, 0 is on the current projection. */
+        protected int originX;
+        protected int originY;
+        protected final ConcurrentHashMap<Long, double[]> nodes = new ConcurrentHashMap<Long, double[]>();
+
+        protected ControlGrid(Projection proj) {
+            this.proj = proj;
+        }
+
+        /**
+         * Figure out where the grid is on another projection.
+         * 
+         * @return false if the projection isn't the grid's projection moved by
+         *         whole pixels.
+         */
+        protected boolean setOrigin(Projection p) {
+            if (p.equals(proj)) {
+                originX = 0;
+                originY = 0;
+                return true;
+            }
+            if (p.getClass() != proj.getClass() || p.getScale() != proj.getScale()) {
+                return false;
+            }
 
-                    if (!sourceImageBounds.contains(imageCoord)) {
-                        tmpPixels[tmpIndex] = clear;
-                        continue;
+            int w = proj.getWidth();
+            int h = proj.getHeight();
+            double[] xs = new double[] { 0, w, 0, w, w / 2 };
+            double[] ys = new double[] { 0, 0, h, h, h / 2 };
+            Point2D ll = new Point2D.Double();
+            Point2D pt = new Point2D.Double();
+            int count = 0;
+            long dx = 0;
+            long dy = 0;
+            for (int i = 0; i < xs.length; i++) {
+                proj.inverse(xs[i], ys[i], ll);
+                proj.forward(ll, pt);
+                if (Math.abs(pt.getX() - xs[i]) > SHIFT_TOLERANCE
+                        || Math.abs(pt.getY() - ys[i]) > SHIFT_TOLERANCE) {
+                    // Not on the map, doesn't tell us anything.
+                    continue;
+                }
+                p.forward(ll, pt);
+                double sx = pt.getX() - xs[i];
+                double sy = pt.getY() - ys[i];
+                long rx = Math.round(sx);
+                long ry = Math.round(sy);
+                if (Math.abs(sx - rx) > SHIFT_TOLERANCE || Math.abs(sy - ry) > SHIFT_TOLERANCE
+                        || (count > 0 && (rx != dx || ry != dy))) {
+                    return false;
+                }
+                dx = rx;
+                dy = ry;
+                count++;
+            }
+
+            if (count < 3 || Math.abs(dx) > Integer.MAX_VALUE / 2 || Math.abs(dy) > Integer.MAX_VALUE / 2) {
+                return false;
+            }
+            originX = (int) dx;
+            originY = (int) dy;
+            return true;
+        }
+    }
+
+    /**
+     * The things needed to warp the image for one projection.
+     */
+    protected class Warp {
+        protected final Projection proj;
+        protected final Point2D center;
+        protected final int[] out;
+        protected final int minx;
+        protected final int miny;
+        protected final int width;
+        protected final int height;
+        protected final ControlGrid grid;
+        /**
+         * The shared inverse projected pixels, used when every pixel is
+         * figured out exactly.
+         */
+        protected final InverseGrid inverseGrid;
+        protected final int originX;
+        protected final int originY;
+        protected final double tolerance;
+        protected final int resampling;
+        /** The cells to fill, from the Locator, with a control grid. */
+        protected final List<double[]> cells = new ArrayList<double[]>();
+        /** The image coordinates of every map pixel, without a control grid. */
+        protected final double[] coords;
+
+        protected Warp(Projection proj, int[] out, int minx, int miny, int width, int height) {
+            this.proj = proj;
+            this.center = proj.getCenter();
+            this.out = out;
+            this.minx = minx;
+            this.miny = miny;
+            this.width = width;
+            this.height = height;
+            this.tolerance = ImageWarp.this.tolerance;
+            this.resampling = ImageWarp.this.resampling;
+            if (tolerance > 0) {
+                grid = getControlGrid(proj);
+                inverseGrid = null;
+                originX = grid.originX;
+                originY = grid.originY;
+                coords = null;
+            } else {
+                grid = null;
+                inverseGrid = InverseGrid.get(proj);
+                originX = 0;
+                originY = 0;
+                coords = new double[width * height * 2];
+            }
+        }
+    }
+
+    /**
+     * Figures out the image coordinates for a Warp, on one thread. With a
+     * control grid, the cells to fill are added to the Warp's cells, otherwise
+     * the image coordinates of every map pixel are put in its coords.
+     */
+    protected class Locator {
+        protected final Warp warp;
+
+        protected Point2D ddll = new Point2D.Double();
+        protected final Point2D ctp = new Point2D.Double();
+        protected Point2D imageCoord = new Point2D.Double();
+
+        protected Locator(Warp warp) {
+            this.warp = warp;
+        }
+
+        protected void locateAll() {
+            if (warp.grid == null) {
+                // Exact, pixel by pixel.
+                double[] coord = new double[2];
+                int k = 0;
+                for (int j = warp.miny; j < warp.miny + warp.height; j++) {
+                    for (int i = warp.minx; i < warp.minx + warp.width; i++) {
+                        locate(i, j, coord);
+                        warp.coords[k++] = coord[0];
+                        warp.coords[k++] = coord[1];
                     }
+                }
+                return;
+            }
+
+            int firstRow = floorDiv(warp.miny - warp.originY, GRID_SPACING);
+            int lastRow = floorDiv(warp.miny + warp.height - 1 - warp.originY, GRID_SPACING);
+            int firstCol = floorDiv(warp.minx - warp.originX, GRID_SPACING);
+            int lastCol = floorDiv(warp.minx + warp.width - 1 - warp.originX, GRID_SPACING);
+            for (int row = firstRow; row <= lastRow; row++) {
+                int y0 = row * GRID_SPACING + warp.originY;
+                int y1 = y0 + GRID_SPACING;
+                double[] c00 = getNode(firstCol, row);
+                double[] c01 = getNode(firstCol, row + 1);
+                for (int col = firstCol; col <= lastCol; col++) {
+                    double[] c10 = getNode(col + 1, row);
+                    double[] c11 = getNode(col + 1, row + 1);
+                    int x0 = col * GRID_SPACING + warp.originX;
+                    fill(x0, y0, x0 + GRID_SPACING, y1, c00, c10, c01, c11);
+                    c00 = c10;
+                    c01 = c11;
+                }
+            }
+        }
 
-                    // Find the corresponding pixel location in
-                    // the source image.
-                    int horIndex = (int) Math.round(horOrigin + (imageCoord.getX() / hor_upp));
-                    int verIndex = (int) Math.round(verOrigin + (imageCoord.getY() / ver_upp));
+        /**
+         * Get the image coordinates for a grid corner, from the control grid
+         * if it's been figured out before.
+         */
+        protected double[] getNode(int col, int row) {
+            Long key = Long.valueOf(((long) row << 32) | (col & 0xffffffffL));
+            double[] node = warp.grid.nodes.get(key);
+            if (node == null) {
+                node = locate(col * GRID_SPACING + warp.originX, row * GRID_SPACING + warp.originY, new double[2]);
+                warp.grid.nodes.put(key, node);
+            }
+            return node;
+        }
+
+        /**
+         * Add a cell, x0 to x1 and y0 to y1, not including the right and
+         * bottom edges, to the cells to fill, or the four quarters of it if
+         * interpolating between its corners doesn't work well enough.
+         */
+        protected void fill(int x0, int y0, int x1, int y1, double[] c00, double[] c10,
+                            double[] c01, double[] c11) {
+            if (x1 <= warp.minx || x0 >= warp.minx + warp.width || y1 <= warp.miny
+                    || y0 >= warp.miny + warp.height) {
+                return;
+            }
+
+            if (x1 - x0 <= 1 && y1 - y0 <= 1) {
+                // One pixel, all corners the same.
+                warp.cells.add(new double[] { x0, y0, x1, y1, c00[0], c00[1], c00[0], c00[1],
+                        c00[0], c00[1], c00[0], c00[1] });
+                return;
+            }
+
+            int xm = (x0 + x1) >> 1;
+            int ym = (y0 + y1) >> 1;
+            double[] top = locate(xm, y0, new double[2]);
+            double[] left = locate(x0, ym, new double[2]);
+            double[] middle = locate(xm, ym, new double[2]);
+            double[] right = locate(x1, ym, new double[2]);
+            double[] bottom = locate(xm, y1, new double[2]);
+
+            if (isValid(c00) && isValid(c10) && isValid(c01) && isValid(c11)
+                    && isClose(top, (c00[0] + c10[0]) * .5, (c00[1] + c10[1]) * .5)
+                    && isClose(left, (c00[0] + c01[0]) * .5, (c00[1] + c01[1]) * .5)
+                    && isClose(right, (c10[0] + c11[0]) * .5, (c10[1] + c11[1]) * .5)
+                    && isClose(bottom, (c01[0] + c11[0]) * .5, (c01[1] + c11[1]) * .5)
+                    && isClose(middle, (c00[0] + c10[0] + c01[0] + c11[0]) * .25,
+                            (c00[1] + c10[1] + c01[1] + c11[1]) * .25)) {
+                warp.cells.add(new double[] { x0, y0, x1, y1, c00[0], c00[1], c10[0], c10[1],
+                        c01[0], c01[1], c11[0], c11[1] });
+                return;
+            }
 
-                    if (horIndex < 0 || horIndex >= iwidth || verIndex < 0 || verIndex >= iheight) {
-                        // pixel not on the source image. This
-                        // happens if the image doesn't cover the
-                        // entire earth.
-                        continue;
+            fill(x0, y0, xm, ym, c00, top, left, middle);
+            fill(xm, y0, x1, ym, top, c10, middle, right);
+            fill(x0, ym, xm, y1, left, middle, c01, bottom);
+            fill(xm, ym, x1, y1, middle, right, bottom, c11);
+        }
+
+        protected boolean isValid(double[] coord) {
+            return !Double.isNaN(coord[0]);
+        }
+
+        /**
+         * Check if coordinates are within the tolerance of where interpolating
+         * put them, in source image pixels.
+         */
+        protected boolean isClose(double[] coord, double x, double y) {
+            return isValid(coord) && Math.abs((coord[0] - x) / hor_upp) <= warp.tolerance
+                    && Math.abs((coord[1] - y) / ver_upp) <= warp.tolerance;
+        }
+
+        /**
+         * Figure out the image coordinates for a map pixel.
+         * 
+         * @param coord set to the image coordinates, or NaN if the pixel isn't
+         *        on the map.
+         * @return coord
+         */
+        protected double[] locate(int i, int j, double[] coord) {
+            Projection p = warp.proj;
+            InverseGrid inverseGrid = warp.inverseGrid;
+            if (inverseGrid != null && inverseGrid.contains(i, j)) {
+                if (!inverseGrid.isOnMap(i, j)) {
+                    coord[0] = Double.NaN;
+                    coord[1] = Double.NaN;
+                    return coord;
+                }
+                inverseGrid.inverse(i, j, ddll);
+            } else {
+                // Some projections, like UTM, return a different point than
+                // the one passed in.
+                ddll = p.inverse(i, j, ddll);
+
+                // If the llp calculated isn't on the map,
+                // don't bother drawing it. Could be a space
+                // point in Orthographic projection, for
+                // instance.
+                if (ddll.equals(warp.center)) {
+                    p.forward(ddll, ctp);
+                    if (ctp.getX() != i || ctp.getY() != j) {
+                        coord[0] = Double.NaN;
+                        coord[1] = Double.NaN;
+                        return coord;
                     }
+                }
+            }
+
+            if (geoTrans != null) {
+                imageCoord = geoTrans.forward(ddll.getY(), ddll.getX(), imageCoord);
+                coord[0] = imageCoord.getX();
+                coord[1] = imageCoord.getY();
+            } else {
+                coord[0] = ddll.getX();
+                coord[1] = ddll.getY();
+            }
+            return coord;
+        }
+    }
+
+    /**
+     * Fills in a range of a Warp's cells, or rows of pixels if there's no
+     * control grid, with source image pixels, splitting the range up if it's
+     * big. Only uses the image coordinates the Locator figured out.
+     */
+    protected class ResampleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /** The most cells filled by one task. */
+        protected final static int CELLS_PER_TASK = 64;
+        /** The most rows filled by one task, without a control grid. */
+        protected final static int ROWS_PER_TASK = 16;
+
+        protected final Warp warp;
+        protected final int from;
+        protected final int to;
+
+        protected ResampleTask(Warp warp, int from, int to) {
+            this.warp = warp;
+            this.from = from;
+            this.to = to;
+        }
 
-                    int imageIndex = horIndex + (verIndex * iwidth);
+        protected void compute() {
+            int most = (warp.grid != null ? CELLS_PER_TASK : ROWS_PER_TASK);
+            if (to - from > most) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ResampleTask(warp, from, mid), new ResampleTask(warp, mid, to));
+                return;
+            }
 
-                    if (imageIndex >= 0 && imageIndex < pixels.length) {
-                        tmpPixels[tmpIndex] = pixels[imageIndex];
+            if (warp.grid == null) {
+                for (int row = from; row < to; row++) {
+                    int k = row * warp.width * 2;
+                    for (int col = 0; col < warp.width; col++, k += 2) {
+                        setPixel(warp.minx + col, warp.miny + row, warp.coords[k], warp.coords[k + 1]);
                     }
                 }
+                return;
             }
 
-            logger.fine("finished creating image");
-            return tmpPixels;
+            for (int c = from; c < to; c++) {
+                interpolate(warp.cells.get(c));
+            }
         }
 
-        logger.warning("problem creating image, no pixels: " + (pixels == null ? "true" : "false")
-                + ", no projection:" + (p == null ? "true" : "false"));
+        /**
+         * Fill in a cell interpolating the image coordinates between the
+         * corners.
+         * 
+         * @param cell x0, y0, x1, y1, and the image coordinates for the top
+         *        left, top right, bottom left and bottom right corners.
+         */
+        protected void interpolate(double[] cell) {
+            int x0 = (int) cell[0];
+            int y0 = (int) cell[1];
+            int x1 = (int) cell[2];
+            int y1 = (int) cell[3];
+            if (x1 - x0 <= 1 && y1 - y0 <= 1) {
+                setPixel(x0, y0, cell[4], cell[5]);
+                return;
+            }
 
-        // If you get here, something's not right.
-        return null;
+            double w = x1 - x0;
+            double h = y1 - y0;
+            int left = Math.max(x0, warp.minx);
+            int right = Math.min(x1, warp.minx + warp.width);
+            int top = Math.max(y0, warp.miny);
+            int bottom = Math.min(y1, warp.miny + warp.height);
+            for (int j = top; j < bottom; j++) {
+                double fy = (j - y0) / h;
+                double lx = cell[4] + (cell[8] - cell[4]) * fy;
+                double ly = cell[5] + (cell[9] - cell[5]) * fy;
+                double dx = (cell[6] + (cell[10] - cell[6]) * fy - lx) / w;
+                double dy = (cell[7] + (cell[11] - cell[7]) * fy - ly) / w;
+                for (int i = left; i < right; i++) {
+                    setPixel(i, j, lx + dx * (i - x0), ly + dy * (i - x0));
+                }
+            }
+        }
+
+        /**
+         * Set a map pixel from the source image pixels at image coordinates.
+         */
+        protected void setPixel(int i, int j, double x, double y) {
+            if (Double.isNaN(x) || x < sourceImageBounds.getMin().getX()
+                    || x > sourceImageBounds.getMax().getX()
+                    || y < sourceImageBounds.getMin().getY()
+                    || y > sourceImageBounds.getMax().getY()) {
+                return;
+            }
+
+            // Find the corresponding pixel location in
+            // the source image.
+            double hor = horOrigin + (x / hor_upp);
+            double ver = verOrigin + (y / ver_upp);
+            int horIndex = (int) Math.round(hor);
+            int verIndex = (int) Math.round(ver);
+
+            if (horIndex < 0 || horIndex >= iwidth || verIndex < 0 || verIndex >= iheight) {
+                // pixel not on the source image. This
+                // happens if the image doesn't cover the
+                // entire earth.
+                return;
+            }
+
+            int pixel;
+            switch (warp.resampling) {
+            case BILINEAR:
+                pixel = sampleBilinear(hor, ver);
+                break;
+            case BICUBIC:
+                pixel = sampleBicubic(hor, ver);
+                break;
+            default:
+                pixel = pixels[horIndex + (verIndex * iwidth)];
+            }
+            warp.out[(i - warp.minx) + (j - warp.miny) * warp.width] = pixel;
+        }
+    }
+
+    /**
+     * Blend the four source pixels around a source pixel location.
+     */
+    protected int sampleBilinear(double hor, double ver) {
+        int x0 = (int) Math.floor(hor);
+        int y0 = (int) Math.floor(ver);
+        double fx = hor - x0;
+        double fy = ver - y0;
+        int xa = clamp(x0, iwidth);
+        int xb = clamp(x0 + 1, iwidth);
+        int ya = clamp(y0, iheight) * iwidth;
+        int yb = clamp(y0 + 1, iheight) * iwidth;
+        int p00 = pixels[ya + xa];
+        int p10 = pixels[ya + xb];
+        int p01 = pixels[yb + xa];
+        int p11 = pixels[yb + xb];
+
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            double top = ((p00 >>> shift) & 0xff) * (1 - fx) + ((p10 >>> shift) & 0xff) * fx;
+            double bottom = ((p01 >>> shift) & 0xff) * (1 - fx) + ((p11 >>> shift) & 0xff) * fx;
+            int c = (int) Math.round(top * (1 - fy) + bottom * fy);
+            ret |= (c & 0xff) << shift;
+        }
+        return ret;
+    }
+
+    /**
+     * Blend the sixteen source pixels around a source pixel location, with a
+     * Catmull-Rom cubic.
+     */
+    protected int sampleBicubic(double hor, double ver) {
+        int x0 = (int) Math.floor(hor);
+        int y0 = (int) Math.floor(ver);
+        double[] wx = cubicWeights(hor - x0);
+        double[] wy = cubicWeights(ver - y0);
+        int[] xs = new int[4];
+        int[] ys = new int[4];
+        for (int k = 0; k < 4; k++) {
+            xs[k] = clamp(x0 - 1 + k, iwidth);
+            ys[k] = clamp(y0 - 1 + k, iheight) * iwidth;
+        }
+
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            double sum = 0;
+            for (int m = 0; m < 4; m++) {
+                double row = 0;
+                for (int k = 0; k < 4; k++) {
+                    row += ((pixels[ys[m] + xs[k]] >>> shift) & 0xff) * wx[k];
+                }
+                sum += row * wy[m];
+            }
+            int c = (int) Math.round(sum);
+            ret |= (c < 0 ? 0 : (c > 255 ? 255 : c)) << shift;
+        }
+        return ret;
+    }
+
+    private static double[] cubicWeights(double t) {
+        double t2 = t * t;
+        double t3 = t2 * t;
+        return new double[] { -.5 * t3 + t2 - .5 * t, 1.5 * t3 - 2.5 * t2 + 1,
+                -1.5 * t3 + 2 * t2 + .5 * t, .5 * t3 - .5 * t2 };
+    }
+
+    private static int floorDiv(int a, int b) {
+        int q = a / b;
+        return (a % b != 0 && ((a < 0) != (b < 0))) ? q - 1 : q;
+    }
+
+    private static int clamp(int index, int size) {
+        return index < 0 ? 0 : (index >= size ? size - 1 : index);
     }
 
     /**
@@ -510,6 +1011,31 @@ public class ImageWarp {
 
     public void setGeoTrans(GeoCoordTransformation geoTrans) {
         this.geoTrans = geoTrans;
+        controlGrid = null;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Set how far, in source image pixels, interpolated image coordinates can
+     * be from the real ones. 0 or less turns interpolation off.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getResampling() {
+        return resampling;
+    }
+
+    /**
+     * Set how source pixels are picked for map pixels, NEAREST_NEIGHBOR,
+     * BILINEAR or BICUBIC.
+     */
+    public void setResampling(int resampling) {
+        this.resampling = resampling;
     }
 
     public DataBounds getImageBounds() {
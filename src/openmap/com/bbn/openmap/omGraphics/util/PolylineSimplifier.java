@@ -0,0 +1,305 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.omGraphics.util;
+
+/**
+ * The PolylineSimplifier removes vertices from projected pixel coordinates
+ * that wouldn't change what's drawn on the screen by more than a tolerance.
+ * It's meant for lines and polygons that have far more detail than the map
+ * scale can show, like country borders at world scale, where hundreds of
+ * vertices can land on the same pixel.
+ * <p>
+ * Vertices closer than the tolerance to the last vertex kept are dropped
+ * first, which is cheap and takes care of most of them at small scales. The
+ * Douglas-Peucker algorithm then drops the vertices that are within the
+ * tolerance of the line between the vertices kept on either side of them. The
+ * first and last vertices are always kept.
+ * <p>
+ * The simplifier keeps its working arrays between calls, so it's not
+ * thread-safe. Use get() to get the one for the current thread.
+ */
+public class PolylineSimplifier {
+
+    private static final ThreadLocal<PolylineSimplifier> simplifiers = new ThreadLocal<PolylineSimplifier>() {
+        protected PolylineSimplifier initialValue() {
+            return new PolylineSimplifier();
+        }
+    };
+
+    /**
+     * Indexes of the vertices that survive the radial distance pass.
+     */
+    protected int[] indexes = new int[0];
+    /**
+     * Flags for the vertices Douglas-Peucker keeps, by index into indexes.
+     */
+    protected boolean[] keep = new boolean[0];
+    /**
+     * Start and end pairs of the ranges Douglas-Peucker has to check.
+     */
+    protected int[] stack = new int[0];
+
+    public PolylineSimplifier() {
+    }
+
+    /**
+     * Get the PolylineSimplifier for the current thread.
+     */
+    public static PolylineSimplifier get() {
+        return simplifiers.get();
+    }
+
+    /**
+     * Simplify a projected line.
+     *
+     * @param xs the x pixel coordinates.
+     * @param ys the y pixel coordinates.
+     * @param tolerance the distance in pixels that a vertex can be from the
+     *        simplified line and still be dropped.
+     * @return a two element array with the x and y coordinates of the
+     *         simplified line, the arrays passed in if no vertices are
+     *         dropped.
+     */
+    public float[][] simplify(float[] xs, float[] ys, float tolerance) {
+        int n = Math.min(xs.length, ys.length);
+        if (n <= 2 || tolerance <= 0f) {
+            return new float[][] { xs, ys };
+        }
+
+        ensureCapacity(n);
+        float tol2 = tolerance * tolerance;
+
+        // Radial distance pass.
+        int count = 0;
+        indexes[count++] = 0;
+        float lastX = xs[0];
+        float lastY = ys[0];
+        for (int i = 1; i < n - 1; i++) {
+            float dx = xs[i] - lastX;
+            float dy = ys[i] - lastY;
+            if (dx * dx + dy * dy >= tol2) {
+                indexes[count++] = i;
+                lastX = xs[i];
+                lastY = ys[i];
+            }
+        }
+        indexes[count++] = n - 1;
+
+        // Douglas-Peucker pass, over the vertices the radial pass kept.
+        for (int i = 0; i < count; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+        int kept = 2;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            float ax = xs[indexes[first]];
+            float ay = ys[indexes[first]];
+            float bx = xs[indexes[last]];
+            float by = ys[indexes[last]];
+
+            float maxDist2 = tol2;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                float dist2 = segmentDistance2(xs[indexes[i]], ys[indexes[i]], ax, ay, bx, by);
+                if (dist2 > maxDist2) {
+                    maxDist2 = dist2;
+                    farthest = i;
+                }
+            }
+
+            if (farthest != -1) {
+                keep[farthest] = true;
+                kept++;
+                if (farthest - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = farthest;
+                }
+                if (last - farthest > 1) {
+                    stack[top++] = farthest;
+                    stack[top++] = last;
+                }
+            }
+        }
+
+        if (kept == n) {
+            return new float[][] { xs, ys };
+        }
+
+        float[] sxs = new float[kept];
+        float[] sys = new float[kept];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) {
+                sxs[j] = xs[indexes[i]];
+                sys[j] = ys[indexes[i]];
+                j++;
+            }
+        }
+        return new float[][] { sxs, sys };
+    }
+
+    /**
+     * Simplify a line held as x, y pairs in double precision, for data that
+     * isn't in pixels, like decimal degree coordinates in a shape file.
+     *
+     * @param coords x, y pairs.
+     * @param off the index of the first x in coords.
+     * @param n the number of pairs in the line.
+     * @param tolerance the distance, in the units of the coordinates, that a
+     *        vertex can be from the simplified line and still be dropped.
+     * @return a new array with the x, y pairs of the simplified line.
+     */
+    public double[] simplify(double[] coords, int off, int n, double tolerance) {
+        if (n <= 2 || tolerance <= 0) {
+            double[] ret = new double[n * 2];
+            System.arraycopy(coords, off, ret, 0, n * 2);
+            return ret;
+        }
+
+        ensureCapacity(n);
+        double tol2 = tolerance * tolerance;
+
+        // Radial distance pass, indexes are to x values.
+        int count = 0;
+        indexes[count++] = off;
+        double lastX = coords[off];
+        double lastY = coords[off + 1];
+        int end = off + (n - 1) * 2;
+        for (int i = off + 2; i < end; i += 2) {
+            double dx = coords[i] - lastX;
+            double dy = coords[i + 1] - lastY;
+            if (dx * dx + dy * dy >= tol2) {
+                indexes[count++] = i;
+                lastX = coords[i];
+                lastY = coords[i + 1];
+            }
+        }
+        indexes[count++] = end;
+
+        // Douglas-Peucker pass.
+        for (int i = 0; i < count; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+        int kept = 2;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            double ax = coords[indexes[first]];
+            double ay = coords[indexes[first] + 1];
+            double bx = coords[indexes[last]];
+            double by = coords[indexes[last] + 1];
+
+            double maxDist2 = tol2;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double dist2 = segmentDistance2(coords[indexes[i]], coords[indexes[i] + 1], ax, ay, bx, by);
+                if (dist2 > maxDist2) {
+                    maxDist2 = dist2;
+                    farthest = i;
+                }
+            }
+
+            if (farthest != -1) {
+                keep[farthest] = true;
+                kept++;
+                if (farthest - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = farthest;
+                }
+                if (last - farthest > 1) {
+                    stack[top++] = farthest;
+                    stack[top++] = last;
+                }
+            }
+        }
+
+        double[] ret = new double[kept * 2];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) {
+                ret[j++] = coords[indexes[i]];
+                ret[j++] = coords[indexes[i] + 1];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The square of the distance from a point to a line segment.
+     */
+    protected static double segmentDistance2(double px, double py, double ax, double ay,
+                                             double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        if (dx != 0 || dy != 0) {
+            double t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                ax = bx;
+                ay = by;
+            } else if (t > 0) {
+                ax += dx * t;
+                ay += dy * t;
+            }
+        }
+        dx = px - ax;
+        dy = py - ay;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * The square of the distance from a point to a line segment.
+     */
+    protected static float segmentDistance2(float px, float py, float ax, float ay, float bx,
+                                            float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        if (dx != 0f || dy != 0f) {
+            float t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+            if (t > 1f) {
+                ax = bx;
+                ay = by;
+            } else if (t > 0f) {
+                ax += dx * t;
+                ay += dy * t;
+            }
+        }
+        dx = px - ax;
+        dy = py - ay;
+        return dx * dx + dy * dy;
+    }
+
+    protected void ensureCapacity(int n) {
+        if (indexes.length < n) {
+            indexes = new int[n];
+            keep = new boolean[n];
+            // Each range on the stack takes two slots, and there can't be
+            // more ranges waiting than vertices.
+            stack = new int[n * 2];
+        }
+    }
+}
@@ -0,0 +1,293 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.proj;
+
+import java.awt.geom.Point2D;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * An InverseGrid holds the inverse projected coordinates of every pixel of a
+ * projection, so layers that draw rasters pixel by pixel, like the
+ * DayNightLayer and the ETOPOLayer, don't each have to inverse project the
+ * whole screen. The grids for the last few projections are kept, and
+ * get(Projection) hands out the same grid to every layer asking about an equal
+ * projection. The coordinates are all figured out when the grid is made, a
+ * band of rows at a time in parallel, so reading them afterwards doesn't need
+ * any locking.
+ * <p>
+ * The coordinates are held in float arrays, as offsets from the center of the
+ * projection, so they stay precise when zoomed in. Pixels that aren't on the
+ * map, like the space around the globe in the Orthographic projection, are
+ * remembered so they can be left out.
+ */
+public class InverseGrid {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.proj.InverseGrid");
+
+    /** The number of grids kept for recent projections. */
+    public final static int DEFAULT_CACHE_SIZE = 2;
+
+    /** The number of rows figured out together in a parallel task. */
+    protected final static int ROWS_PER_TASK = 16;
+
+    private static int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * The grids for recent projections, as tasks so callers asking for a grid
+     * while it's being figured out wait for it instead of making their own.
+     */
+    private static final LinkedHashMap<Projection, FutureTask<InverseGrid>> grids = new LinkedHashMap<Projection, FutureTask<InverseGrid>>(8, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Projection, FutureTask<InverseGrid>> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    protected final Projection projection;
+    protected final int width;
+    protected final int height;
+    protected final double centerX;
+    protected final double centerY;
+
+    /** Longitudes less centerX, row by row. */
+    protected final float[] xs;
+    /** Latitudes less centerY, row by row. */
+    protected final float[] ys;
+    /** The pixels that aren't on the map. */
+    protected final BitSet offMap;
+
+    /**
+     * Create a grid for a projection. get(Projection) should usually be used
+     * instead, so the grid is shared.
+     *
+     * @param projection the projection, which shouldn't be changed.
+     */
+    public InverseGrid(Projection projection) {
+        this.projection = projection;
+        width = Math.max(0, projection.getWidth());
+        height = Math.max(0, projection.getHeight());
+        Point2D center = projection.getCenter();
+        centerX = center.getX();
+        centerY = center.getY();
+
+        long start = System.currentTimeMillis();
+        xs = new float[width * height];
+        ys = new float[width * height];
+        offMap = new BitSet();
+        getPool().invoke(new RowTask(0, height));
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(width + "x" + height + " grid took " + (System.currentTimeMillis() - start)
+                    + " ms");
+        }
+    }
+
+    /**
+     * Get the grid for a projection, shared with everything else asking for
+     * an equal projection.
+     */
+    public static InverseGrid get(Projection projection) {
+        FutureTask<InverseGrid> task;
+        boolean mine = false;
+        synchronized (grids) {
+            task = grids.get(projection);
+            if (task == null) {
+                // Keep a copy, in case the projection passed in is changed.
+                final Projection copy = projection.makeClone();
+                task = new FutureTask<InverseGrid>(new Callable<InverseGrid>() {
+                    public InverseGrid call() {
+                        return new InverseGrid(copy);
+                    }
+                });
+                grids.put(copy, task);
+                mine = true;
+            }
+        }
+
+        // Figured out outside of the lock, so layers asking about other
+        // projections don't have to wait.
+        if (mine) {
+            task.run();
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException ee) {
+            synchronized (grids) {
+                grids.values().remove(task);
+            }
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Set the number of grids kept for recent projections.
+     */
+    public static void setCacheSize(int size) {
+        synchronized (grids) {
+            cacheSize = Math.max(0, size);
+            while (grids.size() > cacheSize) {
+                grids.remove(grids.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Get the pool the grids are figured out in, shared with the rest of
+     * OpenMap through the TaskService.
+     */
+    protected static ForkJoinPool getPool() {
+        return TaskService.singleton().getComputePool();
+    }
+
+    public Projection getProjection() {
+        return projection;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the pixel is within the projection.
+     */
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * @return false if the pixel isn't on the map. The coordinates for a
+     *         pixel that isn't on the map are what the projection's inverse
+     *         method returns, usually the center of the projection.
+     */
+    public boolean isOnMap(int x, int y) {
+        return !offMap.get(y * width + x);
+    }
+
+    /**
+     * @return the latitude for a pixel, in decimal degrees.
+     */
+    public double getLatitude(int x, int y) {
+        return centerY + ys[y * width + x];
+    }
+
+    /**
+     * @return the longitude for a pixel, in decimal degrees.
+     */
+    public double getLongitude(int x, int y) {
+        return centerX + xs[y * width + x];
+    }
+
+    /**
+     * Get the coordinates for a pixel, like Projection.inverse(x, y, ret).
+     *
+     * @param x pixel inside the projection.
+     * @param y pixel inside the projection.
+     * @param ret set to the longitude (x) and latitude (y) of the pixel.
+     * @return ret
+     */
+    public <T extends Point2D> T inverse(int x, int y, T ret) {
+        int index = y * width + x;
+        ret.setLocation(centerX + xs[index], centerY + ys[index]);
+        return ret;
+    }
+
+    /**
+     * Figures out the coordinates for a band of rows, splitting it up if it's
+     * big.
+     */
+    protected class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final int from;
+        protected final int to;
+
+        protected RowTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RowTask(from, mid), new RowTask(mid, to));
+                return;
+            }
+
+            Point2D ll = new Point2D.Double();
+            Point2D pt = new Point2D.Double();
+            BitSet off = new BitSet();
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    int index = y * width + x;
+                    // Some projections, like UTM, return a different point
+                    // than the one passed in.
+                    ll = projection.inverse(x, y, ll);
+                    xs[index] = (float) (ll.getX() - centerX);
+                    ys[index] = (float) (ll.getY() - centerY);
+
+                    // Projections return their center for pixels that
+                    // aren't on the map.
+                    if (ll.getX() == centerX && ll.getY() == centerY) {
+                        projection.forward(ll, pt);
+                        if (pt.getX() != x || pt.getY() != y) {
+                            off.set(index);
+                        }
+                    }
+                }
+            }
+
+            if (!off.isEmpty()) {
+                synchronized (offMap) {
+                    offMap.or(off);
+                }
+            }
+        }
+    }
+}
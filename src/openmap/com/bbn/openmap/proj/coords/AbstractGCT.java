@@ -42,4 +42,91 @@ public abstract class AbstractGCT extends OMComponent implements GeoCoordTransfo
 
     public abstract LatLonPoint inverse(double x, double y, LatLonPoint ret);
 
+    /**
+     * Convert a run of coordinates in decimal degrees, without creating a
+     * point object for each one. Useful when a whole line or polygon needs to
+     * be converted. Converts the coordinates one at a time with forward(lat,
+     * lon, ret), reusing one Point2D. Subclasses that can do better should
+     * override it.
+     * 
+     * @param src n lat, lon pairs, in decimal degrees, starting at srcOff.
+     * @param srcOff the index of the first latitude in src.
+     * @param dst set to n x, y pairs starting at dstOff. May be src.
+     * @param dstOff the index of the first x in dst. Shouldn't be greater
+     *        than srcOff if dst is src.
+     * @param n the number of coordinate pairs to convert.
+     */
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        forwardEach(this, src, srcOff, dst, dstOff, n);
+    }
+
+    /**
+     * Convert a run of coordinates to decimal degrees, without creating a
+     * point object for each one. Useful when a whole line or polygon needs to
+     * be converted. Converts the coordinates one at a time with inverse(x, y,
+     * ret), reusing one LatLonPoint. Subclasses that can do better should
+     * override it.
+     * 
+     * @param src n x, y pairs starting at srcOff.
+     * @param srcOff the index of the first x in src.
+     * @param dst set to n lat, lon pairs, in decimal degrees, starting at
+     *        dstOff. May be src.
+     * @param dstOff the index of the first latitude in dst. Shouldn't be
+     *        greater than srcOff if dst is src.
+     * @param n the number of coordinate pairs to convert.
+     */
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        inverseEach(this, src, srcOff, dst, dstOff, n);
+    }
+
+    /**
+     * Convert a run of coordinates in decimal degrees with any
+     * GeoCoordTransformation, using forward(double[], int, double[], int, int)
+     * if it's an AbstractGCT.
+     */
+    public static void forward(GeoCoordTransformation gct, double[] src, int srcOff,
+                               double[] dst, int dstOff, int n) {
+        if (gct instanceof AbstractGCT) {
+            ((AbstractGCT) gct).forward(src, srcOff, dst, dstOff, n);
+        } else {
+            forwardEach(gct, src, srcOff, dst, dstOff, n);
+        }
+    }
+
+    /**
+     * Convert a run of coordinates to decimal degrees with any
+     * GeoCoordTransformation, using inverse(double[], int, double[], int, int)
+     * if it's an AbstractGCT.
+     */
+    public static void inverse(GeoCoordTransformation gct, double[] src, int srcOff,
+                               double[] dst, int dstOff, int n) {
+        if (gct instanceof AbstractGCT) {
+            ((AbstractGCT) gct).inverse(src, srcOff, dst, dstOff, n);
+        } else {
+            inverseEach(gct, src, srcOff, dst, dstOff, n);
+        }
+    }
+
+    protected static void forwardEach(GeoCoordTransformation gct, double[] src, int srcOff,
+                                      double[] dst, int dstOff, int n) {
+        Point2D pnt = new Point2D.Double();
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            pnt = gct.forward(src[s], src[s + 1], pnt);
+            dst[d] = pnt.getX();
+            dst[d + 1] = pnt.getY();
+        }
+    }
+
+    protected static void inverseEach(GeoCoordTransformation gct, double[] src, int srcOff,
+                                      double[] dst, int dstOff, int n) {
+        LatLonPoint llp = new LatLonPoint.Double();
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            llp = gct.inverse(src[s], src[s + 1], llp);
+            dst[d] = llp.getY();
+            dst[d + 1] = llp.getX();
+        }
+    }
+
 }
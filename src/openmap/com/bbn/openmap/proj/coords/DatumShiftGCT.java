@@ -47,6 +47,38 @@ public class DatumShiftGCT extends AbstractGCT {
 		return ecef.getLatLon(ret);
 	}
 
+	/**
+	 * Convert from latlons in wgs84 to the {@link Ellipsoid} of this
+	 * instance, holding the lock once for all of them.
+	 */
+	public synchronized void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+		Point2D pnt = new Point2D.Double();
+		int end = srcOff + n * 2;
+		for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+			ecef.setLatLon(src[s], src[s + 1], Ellipsoid.WGS_84);
+			eceftransf.apply(ecef);
+			ecef.getLatLon(ellip, pnt);
+			dst[d] = pnt.getX();
+			dst[d + 1] = pnt.getY();
+		}
+	}
+
+	/**
+	 * Convert from latlons in the {@link Ellipsoid} of this instance to
+	 * wgs84, holding the lock once for all of them.
+	 */
+	public synchronized void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+		Point2D pnt = new Point2D.Double();
+		int end = srcOff + n * 2;
+		for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+			ecef.setLatLon(src[s + 1], src[s], ellip);
+			eceftransfInverse.apply(ecef);
+			ecef.getLatLon(Ellipsoid.WGS_84, pnt);
+			dst[d] = LatLonPoint.normalizeLatitude(pnt.getY());
+			dst[d + 1] = LatLonPoint.wrapLongitude(pnt.getX());
+		}
+	}
+
 	public String toString() {
 		return getClass().getSimpleName() + "(" + ellip.name + ")";
 	}
@@ -27,4 +27,18 @@ public class LambertConformalGCT extends AbstractGCT {
         return (LatLonPoint) lcc.worldToLL(x, y, ret);
     }
 
+    /**
+     * Converts all of the coordinates while holding the lock once.
+     */
+    public synchronized void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        super.forward(src, srcOff, dst, dstOff, n);
+    }
+
+    /**
+     * Converts all of the coordinates while holding the lock once.
+     */
+    public synchronized void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        super.inverse(src, srcOff, dst, dstOff, n);
+    }
+
 }
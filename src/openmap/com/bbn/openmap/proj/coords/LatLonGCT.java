@@ -26,7 +26,7 @@ package com.bbn.openmap.proj.coords;
 
 import java.awt.geom.Point2D;
 
-public class LatLonGCT implements GeoCoordTransformation {
+public class LatLonGCT extends AbstractGCT implements GeoCoordTransformation {
 
     public final static LatLonGCT INSTANCE = new LatLonGCT();
 
@@ -48,4 +48,26 @@ public class LatLonGCT implements GeoCoordTransformation {
         return ret;
     }
 
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double lat = src[s];
+            dst[d] = src[s + 1];
+            dst[d + 1] = lat;
+        }
+    }
+
+    /**
+     * Swaps the x, y pairs to lat, lon, keeping the double precision of the
+     * values.
+     */
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double x = src[s];
+            dst[d] = LatLonPoint.normalizeLatitude(src[s + 1]);
+            dst[d + 1] = LatLonPoint.wrapLongitude(x);
+        }
+    }
+
 }
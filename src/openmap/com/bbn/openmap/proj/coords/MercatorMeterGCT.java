@@ -63,4 +63,28 @@ public class MercatorMeterGCT extends AbstractGCT implements
         return ret;
     }
 
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double latrad = Math.toRadians(LatLonPoint.normalizeLatitude(src[s]));
+            double lonrad = Math.toRadians(LatLonPoint.wrapLongitude(src[s + 1]));
+
+            dst[d] = lonfac * lonrad;
+            dst[d + 1] = latfac
+                    * Math.log(Math.tan(((latrad + MoreMath.HALF_PI_D) / 2d)));
+        }
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double latrad = (2d * Math.atan(Math.exp(src[s + 1] / latfac)))
+                    - MoreMath.HALF_PI_D;
+            double lonrad = src[s] / lonfac;
+
+            dst[d] = LatLonPoint.normalizeLatitude(Math.toDegrees(latrad));
+            dst[d + 1] = LatLonPoint.wrapLongitude(Math.toDegrees(lonrad));
+        }
+    }
+
 }
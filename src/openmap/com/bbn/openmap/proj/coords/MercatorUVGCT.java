@@ -47,6 +47,26 @@ public abstract class MercatorUVGCT
          return ret;
       }
 
+      public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+         double scale = Math.pow(2.0, zoomLevel);
+         int end = srcOff + n * 2;
+         for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double latrad = Math.toRadians(src[s]);
+            dst[d] = (src[s + 1] + 180.0) / 360.0 * scale;
+            dst[d + 1] = (1.0 - Math.log(Math.tan(latrad) + (1.0 / Math.cos(latrad))) / Math.PI) / 2.0 * scale;
+         }
+      }
+
+      public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+         double scale = Math.pow(2.0, zoomLevel);
+         int end = srcOff + n * 2;
+         for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double lon = 360.0 / scale * src[s] - 180.0;
+            dst[d] = LatLonPoint.normalizeLatitude(-90.0 + 360.0 / Math.PI * Math.atan(Math.exp((-2.0 * Math.PI * src[s + 1]) / scale + Math.PI)));
+            dst[d + 1] = LatLonPoint.wrapLongitude(lon);
+         }
+      }
+
       public LatLonPoint inverse(double uvx, double uvy, LatLonPoint ret) {
          if (ret == null) {
             ret = new LatLonPoint.Double();
@@ -78,6 +98,26 @@ public abstract class MercatorUVGCT
          return ret;
       }
 
+      public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+         double scale = Math.pow(2.0, zoomLevel);
+         int end = srcOff + n * 2;
+         for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double latrad = Math.toRadians(src[s]);
+            dst[d] = (src[s + 1] + 180.0) / 360.0 * scale;
+            dst[d + 1] = scale - (1.0 - Math.log(Math.tan(latrad) + (1.0 / Math.cos(latrad))) / Math.PI) / 2.0 * scale;
+         }
+      }
+
+      public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+         double scale = Math.pow(2.0, zoomLevel);
+         int end = srcOff + n * 2;
+         for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            double lon = 360.0 / scale * src[s] - 180.0;
+            dst[d] = LatLonPoint.normalizeLatitude(-90.0 + 360.0 / Math.PI * Math.atan(Math.exp((-2.0 * Math.PI * (scale - src[s + 1])) / scale + Math.PI)));
+            dst[d + 1] = LatLonPoint.wrapLongitude(lon);
+         }
+      }
+
       public LatLonPoint inverse(double uvx, double uvy, LatLonPoint ret) {
          if (ret == null) {
             ret = new LatLonPoint.Double();
@@ -35,4 +35,39 @@ public class MultiGCT extends AbstractGCT {
 		return ret;
 	}
 
+	public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+		for (int i = 0; i < gcts.length; i++) {
+			if (i > 0) {
+				// the x, y output of the last one is the lon, lat input of
+				// this one.
+				swapPairs(dst, dstOff, n);
+			}
+			forward(gcts[i], src, srcOff, dst, dstOff, n);
+			src = dst;
+			srcOff = dstOff;
+		}
+	}
+
+	public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+		for (int i = gcts.length - 1; i >= 0; i--) {
+			if (i < gcts.length - 1) {
+				// the lat, lon output of the last one is the y, x input of
+				// this one.
+				swapPairs(dst, dstOff, n);
+			}
+			inverse(gcts[i], src, srcOff, dst, dstOff, n);
+			src = dst;
+			srcOff = dstOff;
+		}
+	}
+
+	private static void swapPairs(double[] coords, int off, int n) {
+		int end = off + n * 2;
+		for (int j = off; j < end; j += 2) {
+			double tmp = coords[j];
+			coords[j] = coords[j + 1];
+			coords[j + 1] = tmp;
+		}
+	}
+
 }
@@ -82,6 +82,33 @@ public class UTMGCT extends AbstractGCT implements GeoCoordTransformation {
         return ret;
     }
 
+    /**
+     * Uses its own working points, so it doesn't have to hold the lock that
+     * forward(lat, lon, ret) does.
+     */
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        LatLonPoint llp = new LatLonPoint.Double();
+        UTMPoint utm = new UTMPoint();
+        boolean isNorthern = zone_letter == 'N';
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            llp.setLatLon(src[s], src[s + 1]);
+            UTMPoint.LLtoUTM(llp, ellipsoid, utm, zone_number, isNorthern);
+            dst[d] = utm.easting;
+            dst[d + 1] = utm.northing;
+        }
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        LatLonPoint llp = new LatLonPoint.Double();
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            UTMPoint.UTMtoLL(ellipsoid, src[s + 1], src[s], zone_number, zone_letter, llp);
+            dst[d] = llp.getY();
+            dst[d + 1] = llp.getX();
+        }
+    }
+
     public void setProperties(String propertyPrefix, Properties props) {
         super.setProperties(propertyPrefix, props);
 
@@ -51,7 +51,7 @@ import java.awt.geom.Point2D;
  * http://x11.dejanews.com/getdoc.xp?AN=223540739&CONTEXT=895858362.931528704&
  * hitnum=5
  */
-public class VHTransform implements GeoCoordTransformation {
+public class VHTransform extends AbstractGCT implements GeoCoordTransformation {
     /* Polynomial constants */
     public static final double K1 = .99435487;
     public static final double K2 = .00336523;
@@ -438,6 +438,24 @@ public class VHTransform implements GeoCoordTransformation {
         return ret;
     }
 
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            toVH(src[s], src[s + 1]);
+            dst[d] = resultV;
+            dst[d + 1] = resultH;
+        }
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int n) {
+        int end = srcOff + n * 2;
+        for (int s = srcOff, d = dstOff; s < end; s += 2, d += 2) {
+            toLatLon(src[s], src[s + 1]);
+            dst[d] = resultLat;
+            dst[d + 1] = resultLon;
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 2) {
             System.out.println("Usage: VHTransform lat lon");
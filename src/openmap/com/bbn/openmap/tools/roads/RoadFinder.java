@@ -74,6 +74,12 @@ public class RoadFinder
 
    protected RoadVector roads = new RoadVector();
 
+   /**
+    * The compiled road network used to find routes, made when it's needed and
+    * dropped when roads change.
+    */
+   protected RoadGraph roadGraph;
+
    protected Vector removedRoads = new Vector();
 
    /**
@@ -136,6 +142,7 @@ public class RoadFinder
       removedRoads.setSize(0);
       roads.clear();
       toDraw.clear();
+      invalidateRoadGraph();
       getRoads();
       checkIntegrity();
       logger.info("showing " + toDraw.size() + " extra graphics.");
@@ -572,6 +579,7 @@ public class RoadFinder
          cl_ss = defaultRoadClass;
       Road road = new Road(id, name, from, to, cl_ss, this);
       road.setModified(true);
+      invalidateRoadGraph();
       from.addRoad(road);
       to.addRoad(road);
       roads.add(road);
@@ -593,6 +601,7 @@ public class RoadFinder
          joinRoads(intersection2);
       removedRoads.addElement(road);
       roads.remove(road);
+      invalidateRoadGraph();
    }
 
    /**
@@ -634,6 +643,7 @@ public class RoadFinder
          throw new IllegalArgumentException("Illegal intersection conversion");
       Road road0 = intersection.getRoad(0);
       Road road1 = intersection.getRoad(1);
+      invalidateRoadGraph();
       if (road0 == road1) {
          roads.remove(road1);
          intersections.remove(intersection);
@@ -820,6 +830,30 @@ public class RoadFinder
       }
    }
 
+   /**
+    * Get the compiled road network, compiling it if the roads have changed
+    * since it was last used.
+    */
+   protected synchronized RoadGraph getRoadGraph() {
+      if (roadGraph == null) {
+         Vector<Intersection> list = new Vector<Intersection>();
+         for (Enumeration<?> e = intersections.elements(); e.hasMoreElements();) {
+            list.add((Intersection) e.nextElement());
+         }
+         roadGraph = new RoadGraph(list.elements());
+      }
+      return roadGraph;
+   }
+
+   /**
+    * Drop the compiled road network after the roads have changed, under the
+    * same lock getRoadGraph uses, so the next route search compiles a new
+    * one.
+    */
+   protected synchronized void invalidateRoadGraph() {
+      roadGraph = null;
+   }
+
    /**
     * Returns best Route between two points specified by latitude and longitude.
     * <p>
@@ -835,12 +869,7 @@ public class RoadFinder
       Route bestRoute = null;
 
       if (startTemp != null && endTemp != null) {
-         if (roadClasses == null) {
-            logger.warning("huh? road classes is null???");
-            return bestRoute;
-         }
-
-         bestRoute = Route.getBestRoute(startTemp, endTemp, roadClasses.getBestConvoySpeed(), roadClasses.getWorstConvoySpeed());
+         bestRoute = getRoadGraph().getBestRoute(startTemp, endTemp);
       }
 
       if (bestRoute == null) {
@@ -0,0 +1,957 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.roads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * A RoadGraph is a copy of a network of Intersections and Roads, kept in
+ * arrays of numbers so routes can be found quickly. Intersections are
+ * numbered, and the roads leaving each one are listed together, in both
+ * directions.
+ * <p>
+ * Routes are found with A*, using a binary heap and the straight line
+ * distance to the destination at the best convoy speed of any road as the
+ * estimate of the time left, the way Route.getBestRoute() does. Before a
+ * lot of routes are needed, prepareHierarchy() can contract the graph into a
+ * hierarchy of shortcuts, which makes each route much faster to find.
+ * getTravelHours() figures out the travel times between many origins and
+ * destinations at once.
+ * <p>
+ * The graph doesn't change after it's created, so any number of threads can
+ * find routes at the same time. The travel times of the roads are copied when
+ * the graph is created, so a new graph is needed when roads are added,
+ * removed or moved. Blocked roads are checked every time a route is found.
+ */
+public class RoadGraph {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.tools.roads.RoadGraph");
+
+    protected final static double INFINITY = Double.POSITIVE_INFINITY;
+
+    /**
+     * The most nodes a witness search settles while the hierarchy is being
+     * prepared, before it gives up and adds a shortcut anyway.
+     */
+    protected final static int WITNESS_LIMIT = 500;
+
+    protected final Intersection[] intersections;
+    protected final IdentityHashMap<Intersection, Integer> indexes;
+    /** Intersection locations, in decimal degrees. */
+    protected final double[] lats;
+    protected final double[] lons;
+
+    /** The edges leaving node i are firstEdge[i] to firstEdge[i + 1] - 1. */
+    protected final int[] firstEdge;
+    protected final int[] edgeSource;
+    protected final int[] edgeTarget;
+    protected final double[] edgeHours;
+    protected final Road[] edgeRoad;
+
+    /** The fastest convoy speed of any road, for the A* estimate. */
+    protected final double bestConvoySpeed;
+
+    protected volatile Hierarchy hierarchy;
+
+    /** Search state, kept for each thread so it isn't allocated every time. */
+    private final ThreadLocal<Search[]> searches = new ThreadLocal<Search[]>() {
+        protected Search[] initialValue() {
+            return new Search[] { new Search(intersections.length),
+                    new Search(intersections.length) };
+        }
+    };
+
+    /**
+     * Compile a graph.
+     *
+     * @param intersectionEnum an Enumeration of all of the Intersections in
+     *        the network. Roads to Intersections that aren't in it are left
+     *        out.
+     */
+    public RoadGraph(Enumeration<Intersection> intersectionEnum) {
+        List<Intersection> list = new ArrayList<Intersection>();
+        while (intersectionEnum.hasMoreElements()) {
+            list.add(intersectionEnum.nextElement());
+        }
+
+        int n = list.size();
+        intersections = list.toArray(new Intersection[n]);
+        indexes = new IdentityHashMap<Intersection, Integer>(n);
+        lats = new double[n];
+        lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            indexes.put(intersections[i], Integer.valueOf(i));
+            LatLonPoint loc = intersections[i].getLocation();
+            lats[i] = loc.getY();
+            lons[i] = loc.getX();
+        }
+
+        firstEdge = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            firstEdge[i + 1] = firstEdge[i];
+            for (Enumeration<?> e = intersections[i].getRoads(); e.hasMoreElements();) {
+                if (getOtherIndex(i, (Road) e.nextElement()) >= 0) {
+                    firstEdge[i + 1]++;
+                }
+            }
+        }
+
+        int m = firstEdge[n];
+        edgeSource = new int[m];
+        edgeTarget = new int[m];
+        edgeHours = new double[m];
+        edgeRoad = new Road[m];
+        double bestSpeed = 0;
+        for (int i = 0, edge = 0; i < n; i++) {
+            for (Enumeration<?> e = intersections[i].getRoads(); e.hasMoreElements();) {
+                Road road = (Road) e.nextElement();
+                int other = getOtherIndex(i, road);
+                if (other < 0) {
+                    continue;
+                }
+                double speed = road.getRoadClass().getConvoySpeed();
+                edgeSource[edge] = i;
+                edgeTarget[edge] = other;
+                edgeHours[edge] = road.getLengthInKilometers() / speed;
+                edgeRoad[edge] = road;
+                bestSpeed = Math.max(bestSpeed, speed);
+                edge++;
+            }
+        }
+        bestConvoySpeed = bestSpeed > 0 ? bestSpeed : 1;
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("compiled " + n + " intersections, " + m + " edges");
+        }
+    }
+
+    /**
+     * @return the index of the other end of a road from node i, or -1 if it
+     *         isn't in the graph or is the same node.
+     */
+    private int getOtherIndex(int i, Road road) {
+        Intersection other = road.getOtherIntersection(intersections[i]);
+        Integer index = indexes.get(other);
+        return index == null || index.intValue() == i ? -1 : index.intValue();
+    }
+
+    public int getNumIntersections() {
+        return intersections.length;
+    }
+
+    public int getNumEdges() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @return the number of an Intersection in the graph, or -1 if it isn't
+     *         in the graph.
+     */
+    public int indexOf(Intersection intersection) {
+        Integer index = indexes.get(intersection);
+        return index == null ? -1 : index.intValue();
+    }
+
+    public Intersection getIntersection(int index) {
+        return intersections[index];
+    }
+
+    /**
+     * Contract the graph into a hierarchy of shortcuts, so routes and travel
+     * times can be found faster. Takes a while for big networks, so do it
+     * once, before lots of routes are needed. Roads blocked after this are
+     * still avoided, routes that would use them are found the slow way.
+     */
+    public synchronized void prepareHierarchy() {
+        if (hierarchy == null) {
+            long start = System.currentTimeMillis();
+            hierarchy = new Hierarchy();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("prepared hierarchy, " + hierarchy.numShortcuts + " shortcuts, in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+    }
+
+    /**
+     * @return true if prepareHierarchy() has been called.
+     */
+    public boolean hasHierarchy() {
+        return hierarchy != null;
+    }
+
+    /**
+     * Find the fastest route between two Intersections.
+     *
+     * @return the Route, or null if there isn't one.
+     */
+    public Route getBestRoute(Intersection from, Intersection to) {
+        int source = indexOf(from);
+        int target = indexOf(to);
+        if (source < 0 || target < 0 || source == target) {
+            return null;
+        }
+
+        Hierarchy h = hierarchy;
+        if (h != null) {
+            List<Road> roads = h.findRoads(source, target);
+            if (roads == null) {
+                // Blocking roads can't make a route appear.
+                return null;
+            }
+            boolean blocked = false;
+            for (Road road : roads) {
+                blocked |= road.isBlocked();
+            }
+            if (!blocked) {
+                return makeRoute(source, roads);
+            }
+        }
+        return findRoute(source, target);
+    }
+
+    /**
+     * Get the travel times between a set of origins and a set of
+     * destinations.
+     *
+     * @param from the origins.
+     * @param to the destinations.
+     * @return the hours from each origin, by row, to each destination, by
+     *         column. Double.POSITIVE_INFINITY where there isn't a route.
+     */
+    public double[][] getTravelHours(Intersection[] from, Intersection[] to) {
+        int[] sources = new int[from.length];
+        for (int i = 0; i < from.length; i++) {
+            sources[i] = indexOf(from[i]);
+        }
+        int[] targets = new int[to.length];
+        for (int i = 0; i < to.length; i++) {
+            targets[i] = indexOf(to[i]);
+        }
+
+        double[][] hours = new double[from.length][to.length];
+        for (int i = 0; i < hours.length; i++) {
+            Arrays.fill(hours[i], INFINITY);
+        }
+
+        Hierarchy h = hierarchy;
+        if (h != null && !hasBlockedRoads()) {
+            h.getTravelHours(sources, targets, hours);
+        } else {
+            getTravelHours(sources, targets, hours);
+        }
+        return hours;
+    }
+
+    protected boolean hasBlockedRoads() {
+        for (int i = 0; i < edgeRoad.length; i++) {
+            if (edgeRoad[i].isBlocked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The A* estimate of the hours from a node to the target. Distance is
+     * measured the way Road measures its length, so the estimate is never
+     * more than the real travel time.
+     */
+    protected double estimate(int node, int target) {
+        return GreatCircle.sphericalDistance(lats[target], lons[target], lats[node], lons[node])
+                / bestConvoySpeed;
+    }
+
+    /**
+     * Find a route with A*.
+     */
+    protected Route findRoute(int source, int target) {
+        Search search = searches.get()[0];
+        try {
+            NodeHeap heap = search.heap;
+            search.visit(source, 0, -1);
+            heap.update(source, estimate(source, target));
+            while (!heap.isEmpty()) {
+                int node = heap.poll();
+                if (node == target) {
+                    List<Road> roads = new ArrayList<Road>();
+                    for (int edge = search.parent[node]; edge >= 0; edge = search.parent[edgeSource[edge]]) {
+                        roads.add(edgeRoad[edge]);
+                    }
+                    Collections.reverse(roads);
+                    return makeRoute(source, roads);
+                }
+
+                double dist = search.dist[node];
+                for (int edge = firstEdge[node]; edge < firstEdge[node + 1]; edge++) {
+                    if (edgeRoad[edge].isBlocked()) {
+                        continue;
+                    }
+                    int next = edgeTarget[edge];
+                    double nextDist = dist + edgeHours[edge];
+                    if (nextDist < search.dist[next]) {
+                        search.visit(next, nextDist, edge);
+                        heap.update(next, nextDist + estimate(next, target));
+                    }
+                }
+            }
+            return null;
+        } finally {
+            search.reset();
+        }
+    }
+
+    /**
+     * Get travel times by running Dijkstra's algorithm from each source until
+     * all of the targets are reached.
+     */
+    protected void getTravelHours(int[] sources, int[] targets, double[][] hours) {
+        int n = intersections.length;
+        boolean[] isTarget = new boolean[n];
+        int numTargets = 0;
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] >= 0 && !isTarget[targets[i]]) {
+                isTarget[targets[i]] = true;
+                numTargets++;
+            }
+        }
+
+        Search search = searches.get()[0];
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] < 0) {
+                continue;
+            }
+            try {
+                NodeHeap heap = search.heap;
+                search.visit(sources[i], 0, -1);
+                heap.update(sources[i], 0);
+                int left = numTargets;
+                while (!heap.isEmpty() && left > 0) {
+                    int node = heap.poll();
+                    if (isTarget[node]) {
+                        left--;
+                    }
+                    double dist = search.dist[node];
+                    for (int edge = firstEdge[node]; edge < firstEdge[node + 1]; edge++) {
+                        if (edgeRoad[edge].isBlocked()) {
+                            continue;
+                        }
+                        int next = edgeTarget[edge];
+                        double nextDist = dist + edgeHours[edge];
+                        if (nextDist < search.dist[next]) {
+                            search.visit(next, nextDist, edge);
+                            heap.update(next, nextDist);
+                        }
+                    }
+                }
+                for (int j = 0; j < targets.length; j++) {
+                    if (targets[j] >= 0) {
+                        hours[i][j] = search.dist[targets[j]];
+                    }
+                }
+            } finally {
+                search.reset();
+            }
+        }
+    }
+
+    /**
+     * Make a Route from the roads along it, starting at a node.
+     */
+    protected Route makeRoute(int source, List<Road> roads) {
+        if (roads.isEmpty()) {
+            return null;
+        }
+        Road[] array = roads.toArray(new Road[roads.size()]);
+        return new Route(null, array, array[0].getFirstIntersection() == intersections[source]);
+    }
+
+    /**
+     * The state of a search over the graph's nodes. Only the nodes a search
+     * touches are reset afterward.
+     */
+    protected static class Search {
+        final double[] dist;
+        /** The edge the best path to each node arrives by, -1 for none. */
+        final int[] parent;
+        final int[] touched;
+        int numTouched;
+        final NodeHeap heap;
+
+        Search(int n) {
+            dist = new double[n];
+            Arrays.fill(dist, INFINITY);
+            parent = new int[n];
+            touched = new int[n];
+            heap = new NodeHeap(n);
+        }
+
+        void visit(int node, double d, int edge) {
+            if (dist[node] == INFINITY) {
+                touched[numTouched++] = node;
+            }
+            dist[node] = d;
+            parent[node] = edge;
+        }
+
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                dist[touched[i]] = INFINITY;
+            }
+            numTouched = 0;
+            heap.clear();
+        }
+    }
+
+    /**
+     * A binary min-heap of node numbers, that can lower the key of a node
+     * already in it.
+     */
+    protected static class NodeHeap {
+        final int[] nodes;
+        final double[] keys;
+        /** The position of each node in the heap, -1 if it isn't in it. */
+        final int[] positions;
+        int size;
+
+        NodeHeap(int n) {
+            nodes = new int[n];
+            keys = new double[n];
+            positions = new int[n];
+            Arrays.fill(positions, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        /**
+         * Add a node, or lower its key if it's already in the heap.
+         */
+        void update(int node, double key) {
+            int i = positions[node];
+            if (i < 0) {
+                i = size++;
+            } else if (key >= keys[i]) {
+                return;
+            }
+            // Move parents down until the spot for the node is found.
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                set(i, nodes[parent], keys[parent]);
+                i = parent;
+            }
+            set(i, node, key);
+        }
+
+        int poll() {
+            int top = nodes[0];
+            positions[top] = -1;
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                double key = keys[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && keys[child + 1] < keys[child]) {
+                        child++;
+                    }
+                    if (keys[child] >= key) {
+                        break;
+                    }
+                    set(i, nodes[child], keys[child]);
+                    i = child;
+                }
+                set(i, node, key);
+            }
+            return top;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                positions[nodes[i]] = -1;
+            }
+            size = 0;
+        }
+
+        private void set(int i, int node, double key) {
+            nodes[i] = node;
+            keys[i] = key;
+            positions[node] = i;
+        }
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    protected static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A contraction hierarchy. Nodes are contracted one at a time, least
+     * important first, adding shortcut edges between the node's neighbors
+     * where the path through it is the only shortest one. A route is then
+     * found by searching upward in the hierarchy from both ends until the
+     * searches meet, and the shortcuts on it are unpacked back into roads.
+     * Roads go both ways, so one upward graph works for both searches.
+     */
+    protected class Hierarchy {
+        /** Hierarchy edges, the roads first and then the shortcuts. */
+        int[] edgeA;
+        int[] edgeB;
+        double[] edgeWeight;
+        /** The node a shortcut skips, -1 for roads. */
+        int[] edgeMiddle;
+        /** The edges a shortcut replaces, from A to the middle and on to B. */
+        int[] edgeFirst;
+        int[] edgeSecond;
+        Road[] road;
+        int numEdges;
+        int numShortcuts;
+
+        /** The order nodes were contracted in. */
+        final int[] rank;
+
+        /** The upward edges from each node, by hierarchy edge. */
+        final int[] upFirst;
+        final int[] upEdge;
+
+        /** Nodes being contracted, and the edges to them. */
+        private IntList[] adjacent;
+        private boolean[] contracted;
+
+        Hierarchy() {
+            int n = intersections.length;
+            int capacity = Math.max(16, edgeTarget.length);
+            edgeA = new int[capacity];
+            edgeB = new int[capacity];
+            edgeWeight = new double[capacity];
+            edgeMiddle = new int[capacity];
+            edgeFirst = new int[capacity];
+            edgeSecond = new int[capacity];
+            road = new Road[capacity];
+
+            adjacent = new IntList[n];
+            for (int i = 0; i < n; i++) {
+                adjacent[i] = new IntList();
+            }
+            contracted = new boolean[n];
+
+            // Each road is in the compiled graph twice, once each way.
+            for (int e = 0; e < edgeTarget.length; e++) {
+                if (edgeSource[e] < edgeTarget[e]) {
+                    int edge = addEdge(edgeSource[e], edgeTarget[e], edgeHours[e], -1, -1, -1);
+                    road[edge] = edgeRoad[e];
+                }
+            }
+
+            rank = contract();
+
+            int[] count = new int[n + 1];
+            for (int e = 0; e < numEdges; e++) {
+                count[lower(e) + 1]++;
+            }
+            upFirst = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                upFirst[i + 1] = upFirst[i] + count[i + 1];
+            }
+            upEdge = new int[numEdges];
+            int[] fill = Arrays.copyOf(upFirst, n);
+            for (int e = 0; e < numEdges; e++) {
+                upEdge[fill[lower(e)]++] = e;
+            }
+
+            adjacent = null;
+            contracted = null;
+        }
+
+        private int lower(int edge) {
+            return rank[edgeA[edge]] < rank[edgeB[edge]] ? edgeA[edge] : edgeB[edge];
+        }
+
+        private int other(int edge, int node) {
+            return edgeA[edge] == node ? edgeB[edge] : edgeA[edge];
+        }
+
+        private int addEdge(int a, int b, double weight, int middle, int first, int second) {
+            if (numEdges == edgeA.length) {
+                int capacity = numEdges * 2;
+                edgeA = Arrays.copyOf(edgeA, capacity);
+                edgeB = Arrays.copyOf(edgeB, capacity);
+                edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+                edgeMiddle = Arrays.copyOf(edgeMiddle, capacity);
+                edgeFirst = Arrays.copyOf(edgeFirst, capacity);
+                edgeSecond = Arrays.copyOf(edgeSecond, capacity);
+                road = Arrays.copyOf(road, capacity);
+            }
+            int edge = numEdges++;
+            edgeA[edge] = a;
+            edgeB[edge] = b;
+            edgeWeight[edge] = weight;
+            edgeMiddle[edge] = middle;
+            edgeFirst[edge] = first;
+            edgeSecond[edge] = second;
+            adjacent[a].add(edge);
+            adjacent[b].add(edge);
+            return edge;
+        }
+
+        /**
+         * Contract all the nodes, picking the next one by how many edges
+         * contracting it would add, minus the edges it would remove, plus
+         * how many of its neighbors are already contracted.
+         *
+         * @return the rank of each node.
+         */
+        private int[] contract() {
+            int n = intersections.length;
+            int[] ranks = new int[n];
+            int[] deletedNeighbors = new int[n];
+            Search witness = new Search(n);
+
+            NodeHeap queue = new NodeHeap(n);
+            for (int i = 0; i < n; i++) {
+                queue.update(i, contract(i, false, witness) - neighbors(i).size);
+            }
+
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                // Priorities go stale as neighbors are contracted, so check
+                // this one again before using it.
+                double priority = contract(node, false, witness) - neighbors(node).size
+                        + deletedNeighbors[node];
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.update(node, priority);
+                    continue;
+                }
+
+                IntList neighbors = neighbors(node);
+                contract(node, true, witness);
+                contracted[node] = true;
+                ranks[node] = next++;
+
+                for (int i = 0; i < neighbors.size; i++) {
+                    int neighbor = other(neighbors.values[i], node);
+                    deletedNeighbors[neighbor]++;
+                }
+            }
+            return ranks;
+        }
+
+        /**
+         * Get the cheapest edge to each neighbor of a node that hasn't been
+         * contracted yet.
+         */
+        private IntList neighbors(int node) {
+            IntList list = new IntList();
+            IntList edges = adjacent[node];
+            outer: for (int i = 0; i < edges.size; i++) {
+                int edge = edges.values[i];
+                int neighbor = other(edge, node);
+                if (contracted[neighbor]) {
+                    continue;
+                }
+                for (int j = 0; j < list.size; j++) {
+                    int prev = list.values[j];
+                    if (other(prev, node) == neighbor) {
+                        if (edgeWeight[edge] < edgeWeight[prev]) {
+                            list.values[j] = edge;
+                        }
+                        continue outer;
+                    }
+                }
+                list.add(edge);
+            }
+            return list;
+        }
+
+        /**
+         * Figure out the shortcuts needed to contract a node, and add them if
+         * add is true.
+         *
+         * @return the number of shortcuts.
+         */
+        private int contract(int node, boolean add, Search witness) {
+            IntList neighbors = neighbors(node);
+            int shortcuts = 0;
+            for (int i = 0; i < neighbors.size; i++) {
+                int inEdge = neighbors.values[i];
+                int from = other(inEdge, node);
+                double maxVia = 0;
+                for (int j = i + 1; j < neighbors.size; j++) {
+                    maxVia = Math.max(maxVia, edgeWeight[inEdge]
+                            + edgeWeight[neighbors.values[j]]);
+                }
+                if (i + 1 == neighbors.size) {
+                    break;
+                }
+
+                searchWitnesses(from, node, maxVia, witness);
+                for (int j = i + 1; j < neighbors.size; j++) {
+                    int outEdge = neighbors.values[j];
+                    int to = other(outEdge, node);
+                    double via = edgeWeight[inEdge] + edgeWeight[outEdge];
+                    if (witness.dist[to] <= via) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (add) {
+                        addEdge(from, to, via, node, inEdge, outEdge);
+                        numShortcuts++;
+                    }
+                }
+                witness.reset();
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra's algorithm over the nodes left, without a node being
+         * contracted, up to a distance.
+         */
+        private void searchWitnesses(int source, int skip, double limit, Search search) {
+            NodeHeap heap = search.heap;
+            search.visit(source, 0, -1);
+            heap.update(source, 0);
+            int settled = 0;
+            while (!heap.isEmpty() && heap.peekKey() <= limit && settled++ < WITNESS_LIMIT) {
+                int node = heap.poll();
+                double dist = search.dist[node];
+                IntList edges = adjacent[node];
+                for (int i = 0; i < edges.size; i++) {
+                    int edge = edges.values[i];
+                    int next = other(edge, node);
+                    if (next == skip || contracted[next]) {
+                        continue;
+                    }
+                    double nextDist = dist + edgeWeight[edge];
+                    if (nextDist < search.dist[next]) {
+                        search.visit(next, nextDist, edge);
+                        heap.update(next, nextDist);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Settle the next node of an upward search.
+         *
+         * @return the node.
+         */
+        private int settleUp(Search search) {
+            int node = search.heap.poll();
+            double dist = search.dist[node];
+            for (int i = upFirst[node]; i < upFirst[node + 1]; i++) {
+                int edge = upEdge[i];
+                int next = other(edge, node);
+                double nextDist = dist + edgeWeight[edge];
+                if (nextDist < search.dist[next]) {
+                    search.visit(next, nextDist, edge);
+                    search.heap.update(next, nextDist);
+                }
+            }
+            return node;
+        }
+
+        /**
+         * Find the roads along the fastest route, ignoring blocked roads.
+         *
+         * @return the roads in order, or null if there isn't a route.
+         */
+        List<Road> findRoads(int source, int target) {
+            Search[] pair = searches.get();
+            Search forward = pair[0];
+            Search backward = pair[1];
+            try {
+                forward.visit(source, 0, -1);
+                forward.heap.update(source, 0);
+                backward.visit(target, 0, -1);
+                backward.heap.update(target, 0);
+
+                double best = INFINITY;
+                int meet = -1;
+                while (!forward.heap.isEmpty() || !backward.heap.isEmpty()) {
+                    boolean isForward = backward.heap.isEmpty()
+                            || (!forward.heap.isEmpty() && forward.heap.peekKey() <= backward.heap.peekKey());
+                    Search search = isForward ? forward : backward;
+                    Search opposite = isForward ? backward : forward;
+                    if (search.heap.peekKey() >= best) {
+                        search.heap.clear();
+                        continue;
+                    }
+                    int node = settleUp(search);
+                    double total = search.dist[node] + opposite.dist[node];
+                    if (total < best) {
+                        best = total;
+                        meet = node;
+                    }
+                }
+
+                if (meet < 0) {
+                    return null;
+                }
+
+                // Hierarchy edges from the source up to the meeting node, and
+                // back down to the target, with the node each one starts at.
+                IntList path = new IntList();
+                IntList starts = new IntList();
+                List<int[]> up = new ArrayList<int[]>();
+                for (int node = meet; forward.parent[node] >= 0;) {
+                    int edge = forward.parent[node];
+                    node = other(edge, node);
+                    up.add(new int[] { edge, node });
+                }
+                for (int i = up.size() - 1; i >= 0; i--) {
+                    path.add(up.get(i)[0]);
+                    starts.add(up.get(i)[1]);
+                }
+                for (int node = meet; backward.parent[node] >= 0;) {
+                    int edge = backward.parent[node];
+                    path.add(edge);
+                    starts.add(node);
+                    node = other(edge, node);
+                }
+
+                List<Road> roads = new ArrayList<Road>();
+                for (int i = 0; i < path.size; i++) {
+                    unpack(path.values[i], starts.values[i], roads);
+                }
+                return roads;
+            } finally {
+                forward.reset();
+                backward.reset();
+            }
+        }
+
+        /**
+         * Add the roads a hierarchy edge stands for, going from one of its
+         * ends.
+         */
+        private void unpack(int edge, int start, List<Road> roads) {
+            IntList edges = new IntList();
+            IntList starts = new IntList();
+            edges.add(edge);
+            starts.add(start);
+            while (edges.size > 0) {
+                int e = edges.values[--edges.size];
+                int from = starts.values[--starts.size];
+                int middle = edgeMiddle[e];
+                if (middle < 0) {
+                    roads.add(road[e]);
+                } else if (from == edgeA[e]) {
+                    edges.add(edgeSecond[e]);
+                    starts.add(middle);
+                    edges.add(edgeFirst[e]);
+                    starts.add(from);
+                } else {
+                    edges.add(edgeFirst[e]);
+                    starts.add(middle);
+                    edges.add(edgeSecond[e]);
+                    starts.add(from);
+                }
+            }
+        }
+
+        /**
+         * Get travel times with buckets: each target's upward search leaves
+         * its distance at every node it reaches, and each source's upward
+         * search picks them up.
+         */
+        void getTravelHours(int[] sources, int[] targets, double[][] hours) {
+            int n = intersections.length;
+            int[] bucketHead = new int[n];
+            Arrays.fill(bucketHead, -1);
+            IntList bucketNext = new IntList();
+            IntList bucketTarget = new IntList();
+            double[] bucketDist = new double[16];
+
+            Search search = searches.get()[0];
+            for (int j = 0; j < targets.length; j++) {
+                if (targets[j] < 0) {
+                    continue;
+                }
+                try {
+                    search.visit(targets[j], 0, -1);
+                    search.heap.update(targets[j], 0);
+                    while (!search.heap.isEmpty()) {
+                        int node = settleUp(search);
+                        int entry = bucketTarget.size;
+                        if (entry == bucketDist.length) {
+                            bucketDist = Arrays.copyOf(bucketDist, entry * 2);
+                        }
+                        bucketNext.add(bucketHead[node]);
+                        bucketTarget.add(j);
+                        bucketDist[entry] = search.dist[node];
+                        bucketHead[node] = entry;
+                    }
+                } finally {
+                    search.reset();
+                }
+            }
+
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] < 0) {
+                    continue;
+                }
+                double[] row = hours[i];
+                try {
+                    search.visit(sources[i], 0, -1);
+                    search.heap.update(sources[i], 0);
+                    while (!search.heap.isEmpty()) {
+                        int node = settleUp(search);
+                        double dist = search.dist[node];
+                        for (int entry = bucketHead[node]; entry >= 0; entry = bucketNext.values[entry]) {
+                            int j = bucketTarget.values[entry];
+                            row[j] = Math.min(row[j], dist + bucketDist[entry]);
+                        }
+                    }
+                } finally {
+                    search.reset();
+                }
+            }
+        }
+    }
+}
@@ -60,7 +60,14 @@ public class Route implements Cloneable, Serializable {
         }
     }
 
-    public synchronized static Route getBestRoute(Intersection from, Intersection to,
+    /**
+     * Find the fastest route between two intersections, by searching
+     * outward from the start, with a time limit that's raised until a
+     * route is found. Everything it uses is local to the call, so
+     * several routes can be found at once. A RoadGraph is much faster
+     * for more than a few routes over the same network.
+     */
+    public static Route getBestRoute(Intersection from, Intersection to,
                                                   double bestConvoySpeed, double worstConvoySpeed) {
         Hashtable marks = new Hashtable();
         boolean haveRoute = false;
@@ -8,6 +8,7 @@ package com.bbn.openmap.util;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -27,6 +28,8 @@ public final class TaskService {
 
     private ExecutorService executor;
 
+    private ForkJoinPool computePool;
+
     private TaskService() {
         executor = Executors.newCachedThreadPool();
     }
@@ -44,6 +47,21 @@ public final class TaskService {
         return executor.submit(task);
     }
 
+    /**
+     * Get the pool that CPU bound work is split up in, like figuring out
+     * viewsheds, warping images and inverse projecting grids. It has a thread
+     * for each processor, and everything shares it so they don't each start
+     * their own.
+     * 
+     * @return ForkJoinPool
+     */
+    public synchronized ForkJoinPool getComputePool() {
+        if (computePool == null) {
+            computePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return computePool;
+    }
+
     /**
      * Allows more control over how threads can be allocated.
      * 
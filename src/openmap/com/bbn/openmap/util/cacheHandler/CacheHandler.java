@@ -24,6 +24,15 @@
 
 package com.bbn.openmap.util.cacheHandler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,17 +40,73 @@ import java.util.logging.Logger;
  * A base cache support object. Based on the
  * com.bbn.openmap.layer.util.cacheHandler package components, this CacheHandler
  * uses Objects instead of Strings and will be replacing the earlier version.
+ * <p>
+ * The cache is a hash table split into segments, each with its own lock and
+ * its own least-recently-used ordering, so lookups and replacements don't scan
+ * the cache and threads working with different keys rarely wait on each other.
+ * Small caches use a single segment, so the least recently used object in the
+ * whole cache is the one that gets replaced. Larger caches divide their
+ * capacity among the segments, and replace the least recently used object in
+ * the segment a new object is added to.
+ * <p>
+ * When several threads ask get() for the same missing key at the same time,
+ * only one of them calls load(), the others wait for and share its result.
+ * <p>
+ * The cache holds at most getCacheSize() objects. A weight limit can also be
+ * set with setMaxWeight(), with weigh() overridden to return an estimate of
+ * the bytes held by a cached object, so caches of large objects can be bounded
+ * by memory instead of a count. The handler keeps hit, miss, load and eviction
+ * counts.
+ * <p>
+ * The objs array and logicalClock counter used by the earlier version are
+ * still declared, so subclasses that refer to them compile, but the cache
+ * doesn't keep them up to date anymore. Subclasses should use
+ * getCacheObjects(), listIterator(), searchCache(Object) and resizeCache(int)
+ * instead.
  * 
  * @author dietrick
  */
 public abstract class CacheHandler {
+
+    /**
+     * @deprecated not used by the cache anymore, and always null. Use
+     *             getCacheObjects() or listIterator() to see what's cached.
+     */
+    @Deprecated
     protected CacheObject[] objs;
+    /**
+     * @deprecated not used by the cache anymore, objects are ordered by when
+     *             they were last used within each segment.
+     */
+    @Deprecated
     protected int logicalClock;
 
     public static Logger logger = Logger.getLogger("com.bbn.openmap.util.cacheHandler.CacheHandler");
 
     public static int DEFAULT_MAX_CACHE_SIZE = 25;
 
+    /**
+     * The most segments a cache is split into.
+     */
+    protected final static int MAX_SEGMENTS = 16;
+    /**
+     * The smallest number of objects held by a segment, caches smaller than
+     * twice this size have one segment.
+     */
+    protected final static int MIN_SEGMENT_SIZE = 16;
+
+    protected Segment[] segments;
+    protected int maxSize;
+    /**
+     * The maximum total weight of the cached objects, 0 for no weight limit.
+     */
+    protected long maxWeight = 0;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+    protected final AtomicLong missCount = new AtomicLong();
+    protected final AtomicLong loadCount = new AtomicLong();
+    protected final AtomicLong evictionCount = new AtomicLong();
+
     /**
      * Standard default constructor
      */
@@ -57,24 +122,47 @@ public abstract class CacheHandler {
     }
 
     /**
-     * Set the size, reset the logical clock
+     * Set the size, creating new empty segments.
      */
-    private void initCache(int max_size) {
-        if (objs != null && objs.length == max_size) {
-            clear();
-        } else {
-            objs = new CacheObject[max_size];
+    private synchronized void initCache(int max_size) {
+        maxSize = Math.max(1, max_size);
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * MIN_SEGMENT_SIZE * 2 <= maxSize) {
+            numSegments <<= 1;
+        }
+
+        Segment[] newSegments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            newSegments[i] = new Segment();
+        }
+        segments = newSegments;
+        setSegmentLimits();
+    }
+
+    /**
+     * Divide the size and weight limits among the segments.
+     */
+    private void setSegmentLimits() {
+        Segment[] segs = segments;
+        long segWeight = maxWeight > 0 ? Math.max(1, maxWeight / segs.length) : 0;
+        for (int i = 0; i < segs.length; i++) {
+            Segment seg = segs[i];
+            synchronized (seg) {
+                seg.maxSize = maxSize / segs.length + (i < maxSize % segs.length ? 1 : 0);
+                seg.maxWeight = segWeight;
+                seg.trim(null);
+            }
         }
-        logicalClock = 0;
     }
 
     /**
      * Remove all the objects from the cache.
      */
     public void clear() {
-        if (objs != null) {
-            for (int i = 0; i < objs.length; i++) {
-                objs[i] = null;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                seg.map.clear();
+                seg.weight = 0;
             }
         }
     }
@@ -83,40 +171,169 @@ public abstract class CacheHandler {
      * Need to clear memory, get gc moving, and ready for new objects
      */
     public void resetCache() {
-        initCache(objs.length);
+        initCache(maxSize);
     }
 
     /**
      * Need to clear memory, get gc moving, and ready for new objects. Delete
-     * the current Hashtable and create a new one with the new capacity.
+     * the current contents and set the new capacity.
      * 
-     * @param max_size the capacity of the Hashtable.
+     * @param max_size the capacity of the cache.
      */
     public void resetCache(int max_size) {
         initCache(max_size);
     }
 
+    /**
+     * Change the capacity of the cache, keeping the objects already in the
+     * cache. If the cache is shrinking, the least recently used objects are
+     * removed to make it fit.
+     * 
+     * @param max_size the new capacity of the cache, ignored if not positive.
+     */
+    public synchronized void resizeCache(int max_size) {
+        if (max_size <= 0 || max_size == maxSize) {
+            return;
+        }
+
+        List<CacheObject> current = getCacheObjects();
+        initCache(max_size);
+        // Least recently used were listed first, so they'll be the first ones
+        // pushed out if there isn't room for everything.
+        for (CacheObject co : current) {
+            replaceLeastUsed(co);
+        }
+    }
+
     /**
      * Get the current size of the cache.
      */
     public int getCacheSize() {
-        return objs.length;
+        return maxSize;
+    }
+
+    /**
+     * @return the number of objects currently held in the cache.
+     */
+    public int getNumCached() {
+        int count = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                count += seg.map.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Set the maximum total weight of the objects in the cache, as measured by
+     * weigh(). Objects are removed from the cache to fit the new limit.
+     * 
+     * @param maxWeight the weight limit, 0 or less for no limit.
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = Math.max(0, maxWeight);
+        setSegmentLimits();
+    }
+
+    /**
+     * @return the maximum total weight of the cached objects, 0 if there isn't
+     *         a weight limit.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return the total weight of the objects in the cache.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                weight += seg.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Return the weight of a cached object, used when a weight limit is set.
+     * The default weight is 1 for every object, subclasses can override this
+     * method to return the approximate number of bytes held by the object.
+     * 
+     * @param co the CacheObject being added to the cache.
+     * @return the weight, should be positive.
+     */
+    protected long weigh(CacheObject co) {
+        return 1;
     }
 
     /**
      * The main call to retrieve something from the cache
      */
-    public Object get(Object key) {
-        CacheObject ret = searchCache(key);
-        if (ret != null)
-            return ret.obj;
+    public Object get(final Object key) {
+        CacheObject ret = get(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key);
+            }
+        });
+        return ret == null ? null : ret.obj;
+    }
+
+    /**
+     * Retrieve a CacheObject from the cache, calling the loader if it's not
+     * there and adding the result. Subclasses with their own load methods that
+     * take extra arguments should use this method from their get methods, so
+     * concurrent requests for the same key only load the object once. If the
+     * key is being loaded by another thread, this method waits for it to
+     * finish and returns its result.
+     * 
+     * @param key the cache key.
+     * @param loader called to create the CacheObject for the key, can return
+     *        null if the object can't be created.
+     * @return the CacheObject, or null if it wasn't cached and couldn't be
+     *         loaded.
+     */
+    protected CacheObject get(Object key, Callable<CacheObject> loader) {
+        Segment seg = segmentFor(key);
+        PendingLoad pending;
+        synchronized (seg) {
+            CacheObject co = seg.map.get(key);
+            if (co != null) {
+                hitCount.incrementAndGet();
+                return co;
+            }
+            missCount.incrementAndGet();
 
-        ret = load(key);
-        if (ret == null)
-            return null;
+            pending = seg.loading.get(key);
+            if (pending == null) {
+                seg.loading.put(key, new PendingLoad());
+            }
+        }
+
+        if (pending != null) {
+            return pending.await();
+        }
 
-        replaceLeastUsed(ret);
-        return ret.obj;
+        CacheObject ret = null;
+        try {
+            ret = loader.call();
+            loadCount.incrementAndGet();
+            if (ret != null) {
+                replaceLeastUsed(ret);
+            }
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            logger.warning("problem loading " + key + ": " + e.getMessage());
+        } finally {
+            synchronized (seg) {
+                pending = seg.loading.remove(key);
+            }
+            pending.finish(ret);
+        }
+        return ret;
     }
 
     /**
@@ -127,88 +344,178 @@ public abstract class CacheHandler {
     public abstract CacheObject load(Object key);
 
     /**
-     * Search the cache for a match -return null if not found. The key search is
-     * case insensitive.
+     * Search the cache for a match -return null if not found. Marks the object
+     * as recently used.
      */
     public CacheObject searchCache(Object key) {
-        for (int i = 0; i < objs.length; i++) {
-            CacheObject co = objs[i];
-            if (co == null) {
-                // Since we load 0 -> length - 1, if we get a null
-                // one, the rest are null, too.
-                break;
-            } else if (co.id.equals(key)) {
-                return co;
-            }
+        Segment seg = segmentFor(key);
+        CacheObject co;
+        synchronized (seg) {
+            co = seg.map.get(key);
+        }
+        if (co != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
         }
-        return null;
+        return co;
     }
 
     /**
-     * If there is space in the cache, put the object in. If there isn't space,
-     * find the least used object, and replace it.
+     * Put the object in the cache, replacing any object with the same id. If
+     * there isn't space, the least recently used objects are removed.
      */
     protected void replaceLeastUsed(CacheObject newObj) {
-
-        // If the cache has room...
-        int i;
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i] == null) {
-                // Somewhere in a partially filled cache, keep looking
-                // for the last taken place...
-                if (i == 0) {
-                    // there is nothing in the cache.
-                    objs[0] = newObj;
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("was empty - added " + newObj.id);
-                    }
-
-                    return;
-                } else {
-                    continue;
-                }
-            } else if (i == objs.length - 1) {
-                // We're at the end, and there is no empty space -
-                // we'll need to look at the LRU clock.
-                break;
-            } else {
-                // We are at the index of the last taken spot, and the
-                // next place is available.
-                objs[i + 1] = newObj;
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("had room - added " + newObj.id + " to the "
-                            + i + " spot.");
-                }
-                return;
+        Segment seg = segmentFor(newObj.id);
+        synchronized (seg) {
+            newObj.weight = weigh(newObj);
+            CacheObject old = seg.map.put(newObj.id, newObj);
+            if (old != null) {
+                seg.weight -= old.weight;
             }
+            seg.weight += newObj.weight;
+            seg.trim(newObj);
         }
 
-        // If we get here, we need to replace something in the cache.
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("added " + newObj.id);
+        }
+    }
+
+    /**
+     * @return the number of times an object was found in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of times an object wasn't found in the cache.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
 
-        int minClock = logicalClock + 1;
-        int LUIndex = -1;
+    /**
+     * @return the number of times load was called to create an object.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
 
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i].older(minClock)) {
-                LUIndex = i;
-                minClock = objs[i].cachedTime;
+    /**
+     * @return the number of objects removed from the cache to make room for
+     *         others.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Set the hit, miss, load and eviction counts back to zero.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        loadCount.set(0);
+        evictionCount.set(0);
+    }
+
+    /**
+     * @return a copy of the contents of the cache, least recently used objects
+     *         in each segment first.
+     */
+    protected List<CacheObject> getCacheObjects() {
+        List<CacheObject> ret = new ArrayList<CacheObject>(maxSize);
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                ret.addAll(seg.map.values());
             }
         }
+        return ret;
+    }
+
+    /**
+     * Return a ListIterator of the cache objects. The iterator is over a copy
+     * of the cache contents.
+     */
+    public java.util.ListIterator<CacheObject> listIterator() {
+        return getCacheObjects().listIterator();
+    }
+
+    /**
+     * Find the segment responsible for a key.
+     */
+    protected Segment segmentFor(Object key) {
+        Segment[] segs = segments;
+        if (segs.length == 1) {
+            return segs[0];
+        }
+        // Spread the hash bits, so keys with similar hash codes
+        // (i.e. tile paths) land in different segments.
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segs[h & (segs.length - 1)];
+    }
+
+    /**
+     * A part of the cache with its own lock. The map is kept in access order,
+     * so the first entry is the least recently used object.
+     */
+    protected class Segment {
+        protected final LinkedHashMap<Object, CacheObject> map = new LinkedHashMap<Object, CacheObject>(16, .75f, true);
+        protected final Map<Object, PendingLoad> loading = new HashMap<Object, PendingLoad>();
+        protected int maxSize;
+        protected long maxWeight;
+        protected long weight;
+
+        /**
+         * Remove least recently used objects until the segment is within its
+         * limits. Should be called with the segment locked.
+         * 
+         * @param keep an object that shouldn't be removed, the one just added.
+         */
+        protected void trim(CacheObject keep) {
+            Iterator<CacheObject> it = map.values().iterator();
+            while (it.hasNext()
+                    && (map.size() > maxSize || (maxWeight > 0 && weight > maxWeight && map.size() > 1))) {
+                CacheObject co = it.next();
+                if (co == keep) {
+                    continue;
+                }
+                it.remove();
+                weight -= co.weight;
+                evictionCount.incrementAndGet();
 
-        if (LUIndex != -1) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("Tossing " + objs[LUIndex].id
-                        + " from cache[" + LUIndex + "] to add " + newObj.id);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Tossing " + co.id + " from cache");
+                }
             }
-            objs[LUIndex] = newObj;
-            newObj.cachedTime = logicalClock++;
         }
     }
 
     /**
-     * Return a ListIterator of the cache objects.
+     * Tracks a load in progress, so other threads asking for the same key can
+     * wait for the result.
      */
-    public java.util.ListIterator<CacheObject> listIterator() {
-        return java.util.Arrays.asList(objs).listIterator();
+    protected static class PendingLoad {
+        protected final CountDownLatch done = new CountDownLatch(1);
+        protected volatile CacheObject result;
+
+        protected void finish(CacheObject co) {
+            result = co;
+            done.countDown();
+        }
+
+        protected CacheObject await() {
+            try {
+                done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return result;
+        }
     }
-}
\ No newline at end of file
+}
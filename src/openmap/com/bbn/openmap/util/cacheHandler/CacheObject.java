@@ -29,6 +29,10 @@ public class CacheObject {
     public Object obj = null;
     public int cachedTime = 0;
     public Object id = null;
+    /**
+     * The weight of the object, set by the CacheHandler when it's added.
+     */
+    long weight = 1;
 
     /**
      * New object, set the local clock to zero
@@ -261,8 +261,34 @@ public class HttpConnection extends Thread {
         int locationEnd = location.indexOf(" "); // end at first space
         location = location.substring(0, locationEnd);
 
-        // Figure out what type of file to figure Content-type
-        // string contents
+        String contentType = getContentType(location);
+
+        HttpRequestEvent event = server.fireHttpRequestEvent(location, out);
+
+        // Check to see if the Writer in the Event was used. If it
+        // was, then the listeners contributed concatenated text, and
+        // the result needs to be retrieved and sent back.
+        if (event.isWriterUsed()) {
+            Writer writer = event.getWriter();
+            String result = writer.toString();
+            writeHttpResponse(out, contentType, result);
+        }
+
+        // else - assume that the binary response listeners took care
+        // of writing things back on their own,
+
+        out.flush();
+        close();
+    }
+
+    /**
+     * Figure out the content type of a text response to a GET request from
+     * the type of file asked for.
+     * 
+     * @param location the target of the GET request.
+     * @return the content type, null for queries.
+     */
+    public static String getContentType(String location) {
         String contentType;
         if (location.endsWith(".gif") || location.endsWith(".GIF")) {
 
@@ -289,23 +315,7 @@ public class HttpConnection extends Thread {
         } else {
             contentType = CONTENT_PLAIN;
         }
-
-        HttpRequestEvent event = server.fireHttpRequestEvent(location, out);
-
-        // Check to see if the Writer in the Event was used. If it
-        // was, then the listeners contributed concatenated text, and
-        // the result needs to be retrieved and sent back.
-        if (event.isWriterUsed()) {
-            Writer writer = event.getWriter();
-            String result = writer.toString();
-            writeHttpResponse(out, contentType, result);
-        }
-
-        // else - assume that the binary response listeners took care
-        // of writing things back on their own,
-
-        out.flush();
-        close();
+        return contentType;
     }
 
     /**
@@ -26,8 +26,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Enumeration;
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A simple HTTP Server implementing HTTP/0.9 protocols.
@@ -54,7 +53,11 @@ public class HttpServer extends Thread {
 
     protected int port;
     protected ServerSocket listen_socket;
-    protected Vector listeners;
+    /**
+     * The listeners, copied when they're changed instead of for every
+     * request.
+     */
+    protected CopyOnWriteArrayList<HttpRequestListener> listeners = new CopyOnWriteArrayList<HttpRequestListener>();
 
     /**
      * Creates an Http Server on the indicated port, and then starts a
@@ -79,11 +82,19 @@ public class HttpServer extends Thread {
      */
     public HttpServer(int port, boolean asDaemon) throws IOException {
         this.port = port;
-        listeners = new Vector();
         listen_socket = new ServerSocket(port);
         this.setDaemon(asDaemon);
     }
 
+    /**
+     * For subclasses that listen to the port their own way.
+     * 
+     * @param asDaemon whether to make thread a daemon
+     */
+    protected HttpServer(boolean asDaemon) {
+        this.setDaemon(asDaemon);
+    }
+
     /**
      * Creates an Http Server on any free port, and then starts a
      * thread that listens to that port.
@@ -142,15 +153,9 @@ public class HttpServer extends Thread {
 
         HttpRequestEvent event = new HttpRequestEvent(this, request, output);
 
-        HttpRequestListener listener;
-        // Make a copy of the list and fire the events using that
-        // copy.
-        // This means that listeners can be added or removed from the
-        // original list in response to this event.
-        Vector list = (Vector) listeners.clone();
-        Enumeration e = list.elements();
-        while (e.hasMoreElements()) {
-            listener = (HttpRequestListener) e.nextElement();
+        // The list is copied when it's changed, so listeners can be
+        // added or removed from it in response to this event.
+        for (HttpRequestListener listener : listeners) {
             listener.httpRequest(event);
         }
 
@@ -169,7 +174,7 @@ public class HttpServer extends Thread {
      * @see HttpRequestListener
      */
     public void addHttpRequestListener(HttpRequestListener l) {
-        listeners.addElement(l);
+        listeners.add(l);
     }
 
     /**
@@ -179,7 +184,7 @@ public class HttpServer extends Thread {
      * @see HttpRequestListener
      */
     public void removeHttpRequestListener(HttpRequestListener l) {
-        listeners.removeElement(l);
+        listeners.remove(l);
     }
 
     /**
@@ -0,0 +1,705 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An HttpServer that handles its connections with one thread and a
+ * java.nio Selector, instead of a thread for each connection, and hands the
+ * requests to a fixed number of threads for the HttpRequestListeners. If more
+ * requests come in than those threads and the queue in front of them can
+ * take, the extra requests get a 503 (Service Unavailable) response right
+ * away instead of piling up.
+ * <p>
+ * The listeners work the same way they do with the HttpServer, writing a
+ * whole response, header and all, to the event's OutputStream, or text to the
+ * event's Writer. The response is collected and sent back as HTTP/1.1, so
+ * connections can be kept open for more requests, and text responses are
+ * gzipped for clients that take them. The number of requests, rejected
+ * requests and how long requests took are counted.
+ */
+public class NioHttpServer extends HttpServer {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.util.http.NioHttpServer");
+
+    /** The default number of requests waiting for a thread. */
+    public final static int DEFAULT_QUEUE_SIZE = 64;
+    /** The default milliseconds an idle connection is kept open. */
+    public final static int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+    /** The most bytes of headers for a request. */
+    public final static int MAX_HEADER_SIZE = 64 * 1024;
+    /** The most bytes of content for a POST request. */
+    public final static int MAX_CONTENT_SIZE = 16 * 1024 * 1024;
+    /** Text responses smaller than this aren't gzipped. */
+    public final static int MIN_GZIP_SIZE = 512;
+
+    protected final ServerSocketChannel serverChannel;
+    protected final Selector selector;
+    protected final ThreadPoolExecutor executor;
+
+    protected int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    protected boolean gzip = true;
+
+    /** Connections with responses ready to be written. */
+    protected final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+
+    protected final AtomicLong requests = new AtomicLong();
+    protected final AtomicLong rejected = new AtomicLong();
+    protected final AtomicLong totalLatency = new AtomicLong();
+    protected final AtomicLong maxLatency = new AtomicLong();
+    protected final AtomicInteger openConnections = new AtomicInteger();
+
+    /**
+     * Creates a server on the indicated port, with a thread for each
+     * processor handling requests.
+     *
+     * @param port the port to open, 0 for any free port.
+     * @param asDaemon whether to make the threads daemons.
+     */
+    public NioHttpServer(int port, boolean asDaemon) throws IOException {
+        this(port, asDaemon, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a server on the indicated port.
+     *
+     * @param port the port to open, 0 for any free port.
+     * @param asDaemon whether to make the threads daemons.
+     * @param threads the number of threads handling requests.
+     * @param queueSize the number of requests that can wait for a thread
+     *        before more are turned away.
+     */
+    public NioHttpServer(int port, final boolean asDaemon, int threads, int queueSize)
+            throws IOException {
+        super(asDaemon);
+        this.port = port;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        final AtomicInteger count = new AtomicInteger();
+        threads = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "NioHttpServer-" + count.incrementAndGet());
+                t.setDaemon(asDaemon);
+                return t;
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Set how long, in milliseconds, a connection is kept open waiting for
+     * another request.
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Set whether text responses are gzipped for clients that take them.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * The body of the server thread. Accepts connections, reads requests and
+     * writes responses, until shutdown() is called.
+     */
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select(1000);
+
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read((Connection) key.attachment());
+                        } else if (key.isWritable()) {
+                            write((Connection) key.attachment());
+                        }
+                    } catch (IOException ioe) {
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+
+                closeIdleConnections();
+            }
+        } catch (ClosedSelectorException cse) {
+        } catch (IOException e) {
+            logger.warning("Exception while listening for connections: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop listening, close the connections and stop the request threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            serverChannel.close();
+        } catch (IOException ioe) {
+        } catch (ClosedSelectorException cse) {
+        }
+    }
+
+    protected void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            openConnections.incrementAndGet();
+        }
+    }
+
+    protected void read(Connection connection) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        int n;
+        while ((n = connection.channel.read(buf)) > 0) {
+            connection.append(buf.array(), n);
+            buf.clear();
+        }
+        connection.lastActive = System.currentTimeMillis();
+
+        if (n < 0 && connection.length == 0) {
+            connection.close();
+            return;
+        }
+
+        if (!handleRequest(connection) && n < 0) {
+            // The client went away in the middle of a request.
+            connection.close();
+        }
+    }
+
+    protected void write(Connection connection) throws IOException {
+        connection.channel.write(connection.output);
+        connection.lastActive = System.currentTimeMillis();
+        if (connection.output.hasRemaining()) {
+            return;
+        }
+
+        connection.output = null;
+        if (!connection.keepAlive) {
+            connection.close();
+            return;
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+        // A client might have sent the next request already.
+        handleRequest(connection);
+    }
+
+    /**
+     * Look for a whole request in what's been read from a connection, and
+     * hand it to a request thread if there is one.
+     *
+     * @return true if a request was found or answered.
+     */
+    protected boolean handleRequest(Connection connection) throws IOException {
+        byte[] data = connection.data;
+        int length = connection.length;
+
+        int headerEnd = -1;
+        int bodyStart = -1;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                if (i + 1 < length && data[i + 1] == '\n') {
+                    headerEnd = i;
+                    bodyStart = i + 2;
+                    break;
+                }
+                if (i + 2 < length && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                    headerEnd = i;
+                    bodyStart = i + 3;
+                    break;
+                }
+            }
+        }
+
+        if (headerEnd < 0) {
+            if (length > MAX_HEADER_SIZE) {
+                reject(connection, 400, "Bad Request");
+                return true;
+            }
+            return false;
+        }
+
+        String[] lines = new String(data, 0, headerEnd, "ISO-8859-1").split("\r?\n");
+        String[] requestLine = lines[0].trim().split(" ");
+        if (requestLine.length < 2) {
+            reject(connection, 400, "Bad Request");
+            return true;
+        }
+
+        String method = requestLine[0].toUpperCase(Locale.ENGLISH);
+        String version = requestLine.length > 2 ? requestLine[2].toUpperCase(Locale.ENGLISH)
+                : "HTTP/0.9";
+        int contentLength = 0;
+        String connectionHeader = null;
+        boolean acceptsGzip = false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException nfe) {
+                    reject(connection, 400, "Bad Request");
+                    return true;
+                }
+            } else if (name.equals("connection")) {
+                connectionHeader = value.toLowerCase(Locale.ENGLISH);
+            } else if (name.equals("accept-encoding")) {
+                acceptsGzip = value.toLowerCase(Locale.ENGLISH).indexOf("gzip") >= 0;
+            }
+        }
+
+        String target;
+        String contentType = null;
+        int requestEnd = bodyStart;
+        if (method.equals("GET")) {
+            target = requestLine[1];
+            contentType = HttpConnection.getContentType(target);
+        } else if (method.equals("POST")) {
+            if (contentLength < 0 || contentLength > MAX_CONTENT_SIZE) {
+                reject(connection, 413, "Request Entity Too Large");
+                return true;
+            }
+            if (length - bodyStart < contentLength) {
+                return false;
+            }
+            target = new String(data, bodyStart, contentLength).trim();
+            requestEnd = bodyStart + contentLength;
+        } else {
+            reject(connection, 501, "Not Implemented");
+            return true;
+        }
+
+        if (version.equals("HTTP/1.1")) {
+            connection.keepAlive = !"close".equals(connectionHeader);
+        } else {
+            connection.keepAlive = "keep-alive".equals(connectionHeader);
+        }
+        connection.consume(requestEnd);
+
+        // Don't read more until this one is answered.
+        connection.key.interestOps(0);
+        requests.incrementAndGet();
+        try {
+            executor.execute(new Request(connection, target, contentType, gzip && acceptsGzip, System.nanoTime()));
+        } catch (RejectedExecutionException ree) {
+            rejected.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("busy, turned away " + target);
+            }
+            reject(connection, 503, "Service Unavailable");
+        }
+        return true;
+    }
+
+    /**
+     * Answer a request with an error, and close the connection.
+     */
+    protected void reject(Connection connection, int status, String reason) throws IOException {
+        byte[] body = reason.getBytes("ISO-8859-1");
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        header.append("Content-Type: ").append(HttpConnection.CONTENT_PLAIN).append("\r\n");
+        header.append("Content-Length: ").append(body.length).append("\r\n");
+        if (status == 503) {
+            header.append("Retry-After: 1\r\n");
+        }
+        header.append("Connection: close\r\n\r\n");
+        connection.keepAlive = false;
+        connection.output = concat(header.toString().getBytes("ISO-8859-1"), body, body.length);
+        connection.consume(connection.length);
+        connection.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Called from a request thread with the response for a connection.
+     */
+    protected void respond(Connection connection, ByteBuffer response) {
+        connection.output = response;
+        ready.add(connection);
+        selector.wakeup();
+    }
+
+    protected void closeIdleConnections() {
+        if (keepAliveTimeout <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && key.isValid() && key.interestOps() == SelectionKey.OP_READ
+                    && now - connection.lastActive > keepAliveTimeout) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Turn what the listeners wrote for a request into an HTTP/1.1 response.
+     * Listeners usually write an HTTP/1.0 header with HttpConnection, which
+     * is replaced. Responses that don't start with a header are sent as they
+     * are, and the connection is closed after them.
+     *
+     * @param connection the connection the request came in on, keepAlive is
+     *        cleared if it can't be kept open.
+     * @param written what the listeners wrote.
+     * @param acceptsGzip whether the response can be gzipped.
+     */
+    protected ByteBuffer createResponse(Connection connection, byte[] written, int length,
+                                        boolean acceptsGzip) throws IOException {
+        int headerEnd = -1;
+        int bodyStart = -1;
+        if (length > 5 && new String(written, 0, 5, "ISO-8859-1").equals("HTTP/")) {
+            for (int i = 0; i < length && i < MAX_HEADER_SIZE; i++) {
+                if (written[i] == '\n') {
+                    if (i + 1 < length && written[i + 1] == '\n') {
+                        headerEnd = i;
+                        bodyStart = i + 2;
+                        break;
+                    }
+                    if (i + 2 < length && written[i + 1] == '\r' && written[i + 2] == '\n') {
+                        headerEnd = i;
+                        bodyStart = i + 3;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (headerEnd < 0) {
+            connection.keepAlive = false;
+            return ByteBuffer.wrap(written, 0, length);
+        }
+
+        String[] lines = new String(written, 0, headerEnd, "ISO-8859-1").split("\r?\n");
+        String[] statusLine = lines[0].trim().split(" ", 3);
+        String status = statusLine.length > 1 ? statusLine[1] : "200";
+        String reason = statusLine.length > 2 ? statusLine[2].trim() : "";
+        if (reason.length() == 0) {
+            reason = status.equals("200") ? "OK" : "Status";
+        }
+
+        String contentType = null;
+        boolean encoded = false;
+        List<String> headers = new ArrayList<String>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i].trim();
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            if (name.equals("content-length") || name.equals("connection")) {
+                continue;
+            }
+            if (name.equals("content-type")) {
+                contentType = line.substring(colon + 1).trim().toLowerCase(Locale.ENGLISH);
+            } else if (name.equals("content-encoding")) {
+                encoded = true;
+            }
+            headers.add(line);
+        }
+
+        byte[] body = written;
+        int bodyOffset = bodyStart;
+        int bodyLength = length - bodyStart;
+        if (acceptsGzip && !encoded && bodyLength >= MIN_GZIP_SIZE && isText(contentType)) {
+            ByteArrayOutputStream zipped = new ByteArrayOutputStream(bodyLength / 4 + 64);
+            GZIPOutputStream gz = new GZIPOutputStream(zipped);
+            gz.write(written, bodyStart, bodyLength);
+            gz.close();
+            body = zipped.toByteArray();
+            bodyOffset = 0;
+            bodyLength = body.length;
+            headers.add("Content-Encoding: gzip");
+            headers.add("Vary: Accept-Encoding");
+        }
+
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        for (String line : headers) {
+            header.append(line).append("\r\n");
+        }
+        header.append("Content-Length: ").append(bodyLength).append("\r\n");
+        header.append("Connection: ").append(connection.keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+        byte[] head = header.toString().getBytes("ISO-8859-1");
+        ByteBuffer response = ByteBuffer.allocate(head.length + bodyLength);
+        response.put(head);
+        response.put(body, bodyOffset, bodyLength);
+        response.flip();
+        return response;
+    }
+
+    protected boolean isText(String contentType) {
+        return contentType != null
+                && (contentType.startsWith("text/") || contentType.indexOf("xml") >= 0 || contentType.indexOf("json") >= 0);
+    }
+
+    protected static ByteBuffer concat(byte[] head, byte[] body, int bodyLength) {
+        ByteBuffer buf = ByteBuffer.allocate(head.length + bodyLength);
+        buf.put(head);
+        buf.put(body, 0, bodyLength);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return the number of requests received.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests turned away because the server was busy.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of requests waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of requests being handled.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return the average time from a request being read to its response
+     *         being ready, in milliseconds, including time in the queue.
+     */
+    public double getAverageLatency() {
+        long handled = requests.get() - rejected.get();
+        return handled <= 0 ? 0 : totalLatency.get() / 1e6 / handled;
+    }
+
+    /**
+     * @return the longest time a request took, in milliseconds.
+     */
+    public double getMaxLatency() {
+        return maxLatency.get() / 1e6;
+    }
+
+    public String toString() {
+        return "NioHttpServer[port=" + getPort() + ", requests=" + getRequestCount() + ", rejected="
+                + getRejectedCount() + ", queued=" + getQueueDepth() + ", active=" + getActiveCount()
+                + ", connections=" + getOpenConnections() + ", avgMs=" + getAverageLatency()
+                + ", maxMs=" + getMaxLatency() + "]";
+    }
+
+    /**
+     * A client connection, with what's been read from it and the response
+     * being written to it.
+     */
+    protected class Connection {
+        protected final SocketChannel channel;
+        protected SelectionKey key;
+        protected byte[] data = new byte[1024];
+        protected int length = 0;
+        protected ByteBuffer output;
+        protected boolean keepAlive;
+        protected long lastActive = System.currentTimeMillis();
+
+        protected Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        protected void append(byte[] bytes, int n) {
+            if (length + n > data.length) {
+                byte[] bigger = new byte[Math.max(data.length * 2, length + n)];
+                System.arraycopy(data, 0, bigger, 0, length);
+                data = bigger;
+            }
+            System.arraycopy(bytes, 0, data, length, n);
+            length += n;
+        }
+
+        /**
+         * Forget the first n bytes read, they've been handled.
+         */
+        protected void consume(int n) {
+            System.arraycopy(data, n, data, 0, length - n);
+            length -= n;
+        }
+
+        protected void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                if (channel.isOpen()) {
+                    channel.close();
+                    openConnections.decrementAndGet();
+                }
+            } catch (IOException ioe) {
+            }
+        }
+    }
+
+    /**
+     * Hands a request to the listeners, on a request thread.
+     */
+    protected class Request implements Runnable {
+        protected final Connection connection;
+        protected final String target;
+        protected final String contentType;
+        protected final boolean acceptsGzip;
+        protected final long received;
+
+        protected Request(Connection connection, String target, String contentType,
+                boolean acceptsGzip, long received) {
+            this.connection = connection;
+            this.target = target;
+            this.contentType = contentType;
+            this.acceptsGzip = acceptsGzip;
+            this.received = received;
+        }
+
+        public void run() {
+            ByteBuffer response;
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(8192) {
+                    // Lets createResponse read the bytes without copying.
+                    public synchronized byte[] toByteArray() {
+                        return buf;
+                    }
+                };
+                HttpRequestEvent event = fireHttpRequestEvent(target, out);
+
+                // Listeners contributing text to the Writer, like with
+                // HttpConnection.
+                if (event.isWriterUsed()) {
+                    Writer writer = event.getWriter();
+                    HttpConnection.writeHttpResponse(out, contentType, writer.toString());
+                }
+
+                response = createResponse(connection, out.toByteArray(), out.size(), acceptsGzip);
+            } catch (Exception e) {
+                logger.warning("problem handling " + target + ": " + e.getMessage());
+                if (logger.isLoggable(Level.FINE)) {
+                    e.printStackTrace();
+                }
+                connection.keepAlive = false;
+                response = error(500, "Internal Server Error");
+            }
+
+            long latency = System.nanoTime() - received;
+            totalLatency.addAndGet(latency);
+            long max;
+            while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+            }
+
+            respond(connection, response);
+        }
+
+        protected ByteBuffer error(int status, String reason) {
+            try {
+                byte[] body = reason.getBytes("ISO-8859-1");
+                byte[] head = ("HTTP/1.1 " + status + " " + reason + "\r\nContent-Type: "
+                        + HttpConnection.CONTENT_PLAIN + "\r\nContent-Length: " + body.length
+                        + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1");
+                return concat(head, body, body.length);
+            } catch (UnsupportedEncodingException uee) {
+                return ByteBuffer.allocate(0);
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@ package com.bbn.openmap.wmsservlet;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -23,15 +24,44 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.bbn.openmap.PropertyHandler;
+import com.bbn.openmap.image.ImageResponseCache;
 import com.bbn.openmap.image.wms.WMSException;
 import com.bbn.openmap.image.wms.WmsRequestHandler;
 import com.bbn.openmap.util.Debug;
 
 /**
- * 
+ * A servlet handling WMS requests with a WmsRequestHandler.
+ * <p>
+ * Normally a new WmsRequestHandler is created for every request, reading the
+ * map definition and creating all of its layers again. If the
+ * "reuseRequestHandlers" context parameter is true, the map definition is read
+ * once and the handlers are kept and reused, only getting the url of the
+ * request. Each handler has its own layers and is used for one request at a
+ * time, so up to "requestHandlerPoolSize" handlers (the number of processors by
+ * default) are created for concurrent requests, and more requests wait for one
+ * of them to be free.
+ * <p>
+ * Either way, if the map definition turns on the ImageResponseCache, the cache
+ * made for the first handler is set on all of the handlers, so every request
+ * shares it.
  */
 public class OgcWmsServlet extends HttpServlet {
 
+    /** Context parameter for reusing request handlers, false by default. */
+    public final static String ReuseRequestHandlersParameter = "reuseRequestHandlers";
+    /** Context parameter for the most request handlers kept. */
+    public final static String RequestHandlerPoolSizeParameter = "requestHandlerPoolSize";
+
+    /** The map definition, read once if handlers are reused. */
+    protected Properties mapProperties;
+    /** The handlers that aren't handling a request. */
+    protected LinkedBlockingQueue<WmsRequestHandler> idleHandlers;
+    /** The number of handlers created for the pool. */
+    protected int numHandlers;
+    protected int poolSize;
+    /** The response cache shared by the handlers, null if not used yet. */
+    protected ImageResponseCache responseCache;
+
     /**
      * A do-nothing constructor - init does all the work.
      */
@@ -83,11 +113,89 @@ public class OgcWmsServlet extends HttpServlet {
 		return props;
 	}
 
-    protected WmsRequestHandler createRequestHandler(HttpServletRequest request) throws ServletException,
-            IOException {
-        Debug.message("wms", "OgcWmsServlet.createRequestHandler : ");
+    /**
+     * @return true if request handlers are kept and reused.
+     */
+    protected boolean isReuseRequestHandlers() {
+        return Boolean.valueOf(getServletContext().getInitParameter(ReuseRequestHandlersParameter)).booleanValue();
+    }
 
-        
+    /**
+     * Get a handler from the pool for a request, creating one if they are all
+     * in use and there aren't too many, or waiting for one to be returned.
+     * Has to be given back with releaseRequestHandler.
+     */
+    protected WmsRequestHandler acquireRequestHandler(HttpServletRequest request)
+            throws ServletException, IOException {
+        synchronized (this) {
+            if (idleHandlers == null) {
+                idleHandlers = new LinkedBlockingQueue<WmsRequestHandler>();
+                poolSize = Runtime.getRuntime().availableProcessors();
+                String size = getServletContext().getInitParameter(RequestHandlerPoolSizeParameter);
+                if (size != null) {
+                    try {
+                        poolSize = Math.max(1, Integer.parseInt(size.trim()));
+                    } catch (NumberFormatException nfe) {
+                        Debug.error("OgcWmsServlet: bad " + RequestHandlerPoolSizeParameter + ": "
+                                + size);
+                    }
+                }
+            }
+        }
+
+        WmsRequestHandler wmsRequestHandler = idleHandlers.poll();
+        if (wmsRequestHandler == null) {
+            boolean create;
+            synchronized (this) {
+                create = numHandlers < poolSize;
+                if (create) {
+                    numHandlers++;
+                }
+            }
+
+            if (create) {
+                boolean created = false;
+                try {
+                    wmsRequestHandler = createRequestHandler(request);
+                    created = true;
+                    Debug.message("wms", "OgcWmsServlet: created request handler " + numHandlers);
+                    return wmsRequestHandler;
+                } finally {
+                    if (!created) {
+                        synchronized (this) {
+                            numHandlers--;
+                        }
+                    }
+                }
+            }
+
+            try {
+                wmsRequestHandler = idleHandlers.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ServletException("interrupted waiting for a request handler");
+            }
+        }
+
+        String[] url = getRequestUrl(request);
+        wmsRequestHandler.setUrl(url[0], url[1], Integer.parseInt(url[2]), url[3]);
+        return wmsRequestHandler;
+    }
+
+    /**
+     * Give a handler from acquireRequestHandler back to the pool.
+     */
+    protected void releaseRequestHandler(WmsRequestHandler wmsRequestHandler) {
+        idleHandlers.offer(wmsRequestHandler);
+    }
+
+    /**
+     * Get the parts of the url the request was made to that are given in
+     * capabilities descriptions.
+     * 
+     * @return scheme, host name, port and path.
+     */
+    protected String[] getRequestUrl(HttpServletRequest request) throws ServletException {
         String schema = request.getScheme();
         if (schema == null) {
             throw new ServletException("schema is not specified");
@@ -117,9 +225,32 @@ public class OgcWmsServlet extends HttpServlet {
             servletPathInfo = "";
         }
 
+        return new String[] { schema, hostName, Integer.toString(serverPort),
+                contextPath + servletPath + servletPathInfo };
+    }
+
+    protected WmsRequestHandler createRequestHandler(HttpServletRequest request) throws ServletException,
+            IOException {
+        Debug.message("wms", "OgcWmsServlet.createRequestHandler : ");
+
+        String[] url = getRequestUrl(request);
+
         try {
-            WmsRequestHandler wmsRequestHandler = new WmsRequestHandler(schema, hostName,
-                    serverPort, contextPath + servletPath + servletPathInfo, getProperties());
+            Properties props;
+            if (isReuseRequestHandlers()) {
+                synchronized (this) {
+                    if (mapProperties == null) {
+                        mapProperties = getProperties();
+                    }
+                    props = mapProperties;
+                }
+            } else {
+                props = getProperties();
+            }
+
+            WmsRequestHandler wmsRequestHandler = new WmsRequestHandler(url[0], url[1],
+                    Integer.parseInt(url[2]), url[3], props);
+            shareResponseCache(wmsRequestHandler);
             return wmsRequestHandler;
         } catch (java.net.MalformedURLException me) {
             Debug.message("wms", "MS: caught MalformedURLException - \n" + me.getMessage());
@@ -134,17 +265,59 @@ public class OgcWmsServlet extends HttpServlet {
 
     }
 
+    /**
+     * Set the servlet's response cache on a new handler, or keep the handler's
+     * as the servlet's if it's the first one with a cache.
+     */
+    protected void shareResponseCache(WmsRequestHandler wmsRequestHandler) {
+        if (wmsRequestHandler.getResponseCache() == null) {
+            return;
+        }
+        synchronized (this) {
+            if (responseCache == null) {
+                responseCache = wmsRequestHandler.getResponseCache();
+            } else {
+                wmsRequestHandler.setResponseCache(responseCache);
+            }
+        }
+    }
+
     /**
      * 
      */
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         Debug.message("wms", "OgcWmsServlet.doGet");
-        WmsRequestHandler wmsRequestHandler = createRequestHandler(request);
-
         Properties properties = parsePropertiesFromRequest(request);
         HttpResponse httpResponse = new HttpResponse(response);
-        wmsRequestHandler.handleRequest(properties, httpResponse);
+
+        if (!isReuseRequestHandlers()) {
+            WmsRequestHandler wmsRequestHandler = createRequestHandler(request);
+            wmsRequestHandler.handleRequest(properties, httpResponse);
+            return;
+        }
+
+        WmsRequestHandler wmsRequestHandler = acquireRequestHandler(request);
+        try {
+            wmsRequestHandler.handleRequest(properties, httpResponse);
+        } finally {
+            releaseRequestHandler(wmsRequestHandler);
+        }
+    }
+
+    /**
+     * Let go of the kept handlers and map definition.
+     */
+    public void destroy() {
+        synchronized (this) {
+            if (idleHandlers != null) {
+                idleHandlers.clear();
+            }
+            numHandlers = 0;
+            mapProperties = null;
+            responseCache = null;
+        }
+        super.destroy();
     }
 
 }